@@ -0,0 +1,126 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog.storage.elasticsearch6;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.collect.ImmutableMap;
+import io.searchbox.core.Bulk;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Bulk request indexing already serialized JSON documents.
+ * <p>
+ * Jest only accepts a {@code String} as request body, so the bulk body has to be built as one. The documents are
+ * decoded straight into it instead of going through a {@code String} per document first, which is what handing
+ * them to {@link io.searchbox.core.Index} would require.
+ */
+class EncodedDocumentBulk extends Bulk {
+    // Rough size of an action line, only used to size the request body up front.
+    private static final int ACTION_LINE_SIZE = 128;
+    private static final int DECODE_BUFFER_SIZE = 8192;
+
+    private final List<Document> documents;
+
+    private EncodedDocumentBulk(Builder builder) {
+        super(new Bulk.Builder());
+        this.documents = builder.documents;
+    }
+
+    @Override
+    public String getData(ObjectMapper objectMapper) throws IOException {
+        int size = 0;
+        for (Document document : documents) {
+            size += document.source.length + ACTION_LINE_SIZE;
+        }
+
+        final StringBuilder data = new StringBuilder(size);
+        final CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        final CharBuffer chars = CharBuffer.allocate(DECODE_BUFFER_SIZE);
+        for (Document document : documents) {
+            final ImmutableMap<String, String> metadata = ImmutableMap.of(
+                    "_id", document.id,
+                    "_index", document.index,
+                    "_type", document.type);
+            data.append(objectMapper.writeValueAsString(ImmutableMap.of("index", metadata))).append('\n');
+            appendUtf8(data, document.source, decoder, chars);
+            data.append('\n');
+        }
+        return data.toString();
+    }
+
+    private static void appendUtf8(StringBuilder data, byte[] source, CharsetDecoder decoder, CharBuffer chars) throws CharacterCodingException {
+        final ByteBuffer bytes = ByteBuffer.wrap(source);
+        decoder.reset();
+        CoderResult result;
+        do {
+            result = decoder.decode(bytes, chars, true);
+            if (result.isError()) {
+                result.throwException();
+            }
+            drain(data, chars);
+        } while (result.isOverflow());
+        do {
+            result = decoder.flush(chars);
+            drain(data, chars);
+        } while (result.isOverflow());
+    }
+
+    private static void drain(StringBuilder data, CharBuffer chars) {
+        chars.flip();
+        data.append(chars.array(), chars.arrayOffset() + chars.position(), chars.remaining());
+        chars.clear();
+    }
+
+    private static class Document {
+        private final String index;
+        private final String type;
+        private final String id;
+        private final byte[] source;
+
+        private Document(String index, String type, String id, byte[] source) {
+            this.index = index;
+            this.type = type;
+            this.id = id;
+            this.source = source;
+        }
+    }
+
+    static class Builder {
+        private final List<Document> documents = new ArrayList<>();
+
+        Builder add(String index, String type, String id, byte[] source) {
+            documents.add(new Document(index, type, id, source));
+            return this;
+        }
+
+        EncodedDocumentBulk build() {
+            return new EncodedDocumentBulk(this);
+        }
+    }
+}
@@ -26,7 +26,6 @@ import io.searchbox.core.Bulk;
 import io.searchbox.core.BulkResult;
 import io.searchbox.core.DocumentResult;
 import io.searchbox.core.Get;
-import io.searchbox.core.Index;
 import io.searchbox.indices.Analyze;
 import org.apache.http.client.config.RequestConfig;
 import org.graylog.storage.elasticsearch6.jest.JestUtils;
@@ -204,16 +203,15 @@ public class MessagesAdapterES6 implements MessagesAdapter {
     }
 
     private BulkResult bulkIndexChunk(List<IndexingRequest> chunk) throws IOException {
-        final Bulk.Builder bulk = new Bulk.Builder();
+        final EncodedDocumentBulk.Builder bulk = new EncodedDocumentBulk.Builder();
 
         for (IndexingRequest entry : chunk) {
             final Indexable message = entry.message();
 
-            bulk.addAction(new Index.Builder(message.toElasticSearchObject(objectMapper, invalidTimestampMeter))
-                    .index(entry.indexSet().getWriteIndexAlias())
-                    .type(IndexMapping.TYPE_MESSAGE)
-                    .id(message.getId())
-                    .build());
+            bulk.add(entry.indexSet().getWriteIndexAlias(),
+                    IndexMapping.TYPE_MESSAGE,
+                    message.getId(),
+                    entry.encodedDocument().body(objectMapper, invalidTimestampMeter));
         }
 
         return runBulkRequest(bulk.build(), chunk.size());
@@ -0,0 +1,57 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog.storage.elasticsearch6;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.base.Strings;
+import io.searchbox.core.Bulk;
+import io.searchbox.core.Index;
+import org.graylog2.shared.bindings.providers.ObjectMapperProvider;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class EncodedDocumentBulkTest {
+    private final ObjectMapper objectMapper = new ObjectMapperProvider().get();
+
+    @Test
+    void producesSameBodyAsJestBulk() throws Exception {
+        final String first = "{\"message\":\"Hello üñïçødé 😀\"}";
+        // Larger than the decode buffer, with a multi-byte character right at its boundary
+        final String second = "{\"message\":\"" + Strings.repeat("a", 8190) + "€" + Strings.repeat("ä", 5000) + "\"}";
+
+        final EncodedDocumentBulk bulk = new EncodedDocumentBulk.Builder()
+                .add("graylog_deflector", "message", "id-1", first.getBytes(StandardCharsets.UTF_8))
+                .add("graylog_deflector", "message", "id-2", second.getBytes(StandardCharsets.UTF_8))
+                .build();
+        final Bulk jestBulk = new Bulk.Builder()
+                .addAction(new Index.Builder(first).index("graylog_deflector").type("message").id("id-1").build())
+                .addAction(new Index.Builder(second).index("graylog_deflector").type("message").id("id-2").build())
+                .build();
+
+        assertThat(bulk.getData(objectMapper)).isEqualTo(jestBulk.getData(objectMapper));
+        assertThat(bulk.getURI()).isEqualTo(jestBulk.getURI());
+        assertThat(bulk.getRestMethodName()).isEqualTo(jestBulk.getRestMethodName());
+    }
+
+    @Test
+    void emptyBulk() throws Exception {
+        assertThat(new EncodedDocumentBulk.Builder().build().getData(objectMapper)).isEmpty();
+    }
+}
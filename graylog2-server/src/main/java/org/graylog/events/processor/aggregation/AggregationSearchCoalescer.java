@@ -0,0 +1,224 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog.events.processor.aggregation;
+
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.MetricRegistry;
+import com.github.joschi.jadconfig.util.Duration;
+import com.google.auto.value.AutoValue;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.util.concurrent.Uninterruptibles;
+import org.graylog.events.processor.EventProcessorException;
+import org.graylog.plugins.views.search.Parameter;
+import org.graylog.plugins.views.search.SearchJob;
+import org.graylog.plugins.views.search.searchtypes.pivot.buckets.DateRange;
+import org.graylog2.plugin.indexer.searches.timeranges.TimeRange;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static com.codahale.metrics.MetricRegistry.name;
+
+/**
+ * Coalesces the searches of aggregation event definitions which only differ in their series and time range.
+ * <p>
+ * Callers with an equal {@link Key} join a batch for the duration of the {@code events_aggregation_search_coalesce_window}.
+ * The first caller of a batch waits for the window to pass (or the batch to fill up) and executes a single search
+ * for all members of the batch. All other members wait for the result of that search and extract their own series
+ * and date range buckets from it.
+ * </p>
+ * <p>
+ * Series ids are only unique within an event definition, so the shared search has to namespace the series of every
+ * member by the member's {@link Result#memberIndex() index} in the batch.
+ * </p>
+ * <p>
+ * A window of zero disables coalescing.
+ * </p>
+ */
+@Singleton
+public class AggregationSearchCoalescer {
+    static final int MAX_BATCH_SIZE = 100;
+
+    public interface BatchExecutor {
+        SearchJob execute(List<Member> members) throws EventProcessorException;
+    }
+
+    private final ConcurrentMap<Key, Batch> openBatches = new ConcurrentHashMap<>();
+    private final long windowMs;
+    private final Histogram batchSize;
+
+    @Inject
+    public AggregationSearchCoalescer(@Named("events_aggregation_search_coalesce_window") Duration window,
+                                      MetricRegistry metricRegistry) {
+        this.windowMs = window.toMilliseconds();
+        this.batchSize = metricRegistry.histogram(name(AggregationSearchCoalescer.class, "batchSize"));
+    }
+
+    public boolean isEnabled() {
+        return windowMs > 0;
+    }
+
+    /**
+     * Joins the batch for the given key and returns the search job which has been executed for the batch.
+     *
+     * @param key       the key of the batch
+     * @param member    the series and date ranges of the caller
+     * @param timeoutMs the maximum time to wait for the search job after the coalesce window passed
+     * @param executor  executes the search for all members of the batch if the caller is the first member
+     * @return the search job, the number of members which share it and the index of the caller in the batch
+     * @throws ExecutionException if executing the search failed
+     * @throws TimeoutException   if the search job didn't finish in time
+     */
+    public Result execute(Key key, Member member, long timeoutMs, BatchExecutor executor) throws ExecutionException, TimeoutException {
+        final Batch batch = openBatches.compute(key, (k, open) -> {
+            if (open == null || !open.add(member)) {
+                return new Batch(member);
+            }
+            return open;
+        });
+
+        if (batch.leader == member) {
+            Uninterruptibles.awaitUninterruptibly(batch.full, windowMs, TimeUnit.MILLISECONDS);
+            // A full batch might already have been replaced by a new one for the same key
+            openBatches.remove(key, batch);
+
+            final List<Member> members = batch.members();
+            batchSize.update(members.size());
+            try {
+                batch.future.complete(executor.execute(members));
+            } catch (Exception e) {
+                batch.future.completeExceptionally(e);
+            }
+        }
+
+        final SearchJob searchJob = Uninterruptibles.getUninterruptibly(batch.future, windowMs + timeoutMs, TimeUnit.MILLISECONDS);
+        final List<Member> members = batch.members();
+        return new Result(searchJob, members.size(), indexOf(members, member));
+    }
+
+    private static int indexOf(List<Member> members, Member member) {
+        // Members are compared by identity because two event definitions can have equal members
+        for (int i = 0; i < members.size(); i++) {
+            if (members.get(i) == member) {
+                return i;
+            }
+        }
+        throw new IllegalStateException("Member is not part of its batch");
+    }
+
+    public static class Result {
+        private final SearchJob searchJob;
+        private final int members;
+        private final int memberIndex;
+
+        Result(SearchJob searchJob, int members, int memberIndex) {
+            this.searchJob = searchJob;
+            this.members = members;
+            this.memberIndex = memberIndex;
+        }
+
+        public SearchJob searchJob() {
+            return searchJob;
+        }
+
+        public boolean isShared() {
+            return members > 1;
+        }
+
+        /**
+         * @return the index of the caller in the list of members passed to the {@link BatchExecutor}
+         */
+        public int memberIndex() {
+            return memberIndex;
+        }
+    }
+
+    private static class Batch {
+        private final Member leader;
+        private final List<Member> members = new ArrayList<>();
+        private final CountDownLatch full = new CountDownLatch(1);
+        private final CompletableFuture<SearchJob> future = new CompletableFuture<>();
+
+        Batch(Member leader) {
+            this.leader = leader;
+            this.members.add(leader);
+        }
+
+        synchronized boolean add(Member member) {
+            if (members.size() >= MAX_BATCH_SIZE) {
+                return false;
+            }
+            members.add(member);
+            if (members.size() >= MAX_BATCH_SIZE) {
+                full.countDown();
+            }
+            return true;
+        }
+
+        synchronized List<Member> members() {
+            return ImmutableList.copyOf(members);
+        }
+    }
+
+    /**
+     * Everything but the series and the time range which has to be equal for event definitions to share a search.
+     * The search window is part of the key so date range buckets with the same end are always the same bucket.
+     */
+    @AutoValue
+    public static abstract class Key {
+        public abstract String query();
+
+        public abstract ImmutableSet<String> streams();
+
+        public abstract ImmutableSet<Parameter> queryParameters();
+
+        public abstract ImmutableList<String> groupBy();
+
+        public abstract long searchWithinMs();
+
+        public static Key create(String query, Iterable<String> streams, Iterable<Parameter> queryParameters,
+                                 Iterable<String> groupBy, long searchWithinMs) {
+            return new AutoValue_AggregationSearchCoalescer_Key(query, ImmutableSet.copyOf(streams),
+                    ImmutableSet.copyOf(queryParameters), ImmutableList.copyOf(groupBy), searchWithinMs);
+        }
+    }
+
+    @AutoValue
+    public static abstract class Member {
+        public abstract ImmutableList<AggregationSeries> series();
+
+        public abstract ImmutableList<DateRange> dateRanges();
+
+        public abstract TimeRange timerange();
+
+        public static Member create(List<AggregationSeries> series, List<DateRange> dateRanges, TimeRange timerange) {
+            return new AutoValue_AggregationSearchCoalescer_Member(ImmutableList.copyOf(series),
+                    ImmutableList.copyOf(dateRanges), timerange);
+        }
+    }
+}
@@ -48,6 +48,7 @@ import org.graylog.plugins.views.search.searchtypes.pivot.buckets.DateRange;
 import org.graylog.plugins.views.search.searchtypes.pivot.buckets.DateRangeBucket;
 import org.graylog.plugins.views.search.searchtypes.pivot.buckets.Values;
 import org.graylog.plugins.views.search.searchtypes.pivot.series.Count;
+import org.graylog2.plugin.indexer.searches.timeranges.AbsoluteRange;
 import org.graylog2.plugin.indexer.searches.timeranges.TimeRange;
 import org.graylog2.plugin.streams.Stream;
 import org.joda.time.DateTime;
@@ -55,15 +56,19 @@ import org.joda.time.DateTimeZone;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.annotation.Nullable;
 import javax.inject.Inject;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Locale;
 import java.util.Set;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 
 import static com.google.common.base.MoreObjects.firstNonNull;
@@ -88,6 +93,7 @@ public class PivotAggregationSearch implements AggregationSearch {
     private final EventDefinition eventDefinition;
     private final MoreSearch moreSearch;
     private final PermittedStreams permittedStreams;
+    private final AggregationSearchCoalescer coalescer;
 
     @Inject
     public PivotAggregationSearch(@Assisted AggregationEventProcessorConfig config,
@@ -98,7 +104,8 @@ public class PivotAggregationSearch implements AggregationSearch {
                                   QueryEngine queryEngine,
                                   EventsConfigurationProvider configProvider,
                                   MoreSearch moreSearch,
-                                  PermittedStreams permittedStreams) {
+                                  PermittedStreams permittedStreams,
+                                  AggregationSearchCoalescer coalescer) {
         this.config = config;
         this.parameters = parameters;
         this.searchOwner = searchOwner;
@@ -108,16 +115,64 @@ public class PivotAggregationSearch implements AggregationSearch {
         this.configurationProvider = configProvider;
         this.moreSearch = moreSearch;
         this.permittedStreams = permittedStreams;
+        this.coalescer = coalescer;
     }
 
-    private String metricName(AggregationSeries series) {
+    private static String metricName(AggregationSeries series) {
         return String.format(Locale.ROOT, "metric/%s/%s/%s",
                 series.function().toString().toLowerCase(Locale.ROOT), series.field().orElse("<no-field>"), series.id());
     }
 
     @Override
     public AggregationResult doSearch() throws EventProcessorException {
+        if (coalescer.isEnabled()) {
+            return doCoalescedSearch();
+        }
         final SearchJob searchJob = getSearchJob(parameters, searchOwner, config.searchWithinMs(), config.executeEveryMs());
+        return buildResult(searchJob, null, PivotAggregationSearch::metricName);
+    }
+
+    private AggregationResult doCoalescedSearch() throws EventProcessorException {
+        final Set<String> streams = getStreams(parameters);
+        final DateRangeBucket dateRangeBucket = buildDateRangeBuckets(parameters.timerange(), config.searchWithinMs(), config.executeEveryMs());
+        final AggregationSearchCoalescer.Key key = AggregationSearchCoalescer.Key.create(
+                config.query(), streams, config.queryParameters(), config.groupBy(), config.searchWithinMs());
+        final AggregationSearchCoalescer.Member member = AggregationSearchCoalescer.Member.create(
+                config.series(), dateRangeBucket.ranges(), parameters.timerange());
+
+        final AggregationSearchCoalescer.Result result;
+        try {
+            result = coalescer.execute(key, member, configurationProvider.get().eventsSearchTimeout(), members -> {
+                if (members.size() == 1) {
+                    return getSearchJob(parameters, searchOwner, config.searchWithinMs(), config.executeEveryMs());
+                }
+                return getSharedSearchJob(members, streams);
+            });
+        } catch (ExecutionException e) {
+            throw new EventProcessorException("Error executing shared search job: " + e.getCause().getMessage(), false, eventDefinition, e.getCause());
+        } catch (TimeoutException e) {
+            throw new EventProcessorException("Timeout while executing shared search job.", false, eventDefinition, e);
+        }
+
+        if (!result.isShared()) {
+            return buildResult(result.searchJob(), null, PivotAggregationSearch::metricName);
+        }
+        final int memberIndex = result.memberIndex();
+        return buildResult(result.searchJob(), dateRangeBucket, series -> sharedSeriesId(memberIndex, series));
+    }
+
+    /**
+     * Builds the result from the given search job.
+     *
+     * @param searchJob             the finished search job
+     * @param sharedDateRangeBucket the date ranges of this processor if the search job has been shared with other
+     *                              processors, {@code null} otherwise
+     * @param seriesId              returns the id of the given series in the search job
+     * @return the aggregation result
+     */
+    private AggregationResult buildResult(SearchJob searchJob,
+                                          @Nullable DateRangeBucket sharedDateRangeBucket,
+                                          Function<AggregationSeries, String> seriesId) throws EventProcessorException {
         final QueryResult queryResult = searchJob.results().get(QUERY_ID);
         final QueryResult streamQueryResult = searchJob.results().get(STREAMS_QUERY_ID);
 
@@ -157,11 +212,23 @@ public class PivotAggregationSearch implements AggregationSearch {
         final PivotResult pivotResult = (PivotResult) queryResult.searchTypes().get(PIVOT_ID);
         final PivotResult streamsResult = (PivotResult) streamQueryResult.searchTypes().get(STREAMS_PIVOT_ID);
 
+        if (sharedDateRangeBucket == null) {
+            return AggregationResult.builder()
+                    .keyResults(extractValues(pivotResult, null, seriesId))
+                    .effectiveTimerange(pivotResult.effectiveTimerange())
+                    .totalAggregatedMessages(pivotResult.total())
+                    .sourceStreams(extractSourceStreams(streamsResult))
+                    .build();
+        }
+
+        // The shared search covers the time ranges of all members, so only our own date range buckets are relevant.
+        // The total is the one of the shared search and only used for logging.
+        final Set<Long> bucketKeys = bucketKeys(sharedDateRangeBucket);
         return AggregationResult.builder()
-                .keyResults(extractValues(pivotResult))
-                .effectiveTimerange(pivotResult.effectiveTimerange())
+                .keyResults(extractValues(pivotResult, bucketKeys, seriesId))
+                .effectiveTimerange(AbsoluteRange.create(parameters.timerange().getFrom(), parameters.timerange().getTo()))
                 .totalAggregatedMessages(pivotResult.total())
-                .sourceStreams(extractSourceStreams(streamsResult))
+                .sourceStreams(extractSourceStreams(streamsResult, bucketKeys))
                 .build();
     }
 
@@ -174,8 +241,43 @@ public class PivotAggregationSearch implements AggregationSearch {
             .collect(ImmutableSet.toImmutableSet());
     }
 
+    private ImmutableSet<String> extractSourceStreams(PivotResult pivotResult, Set<Long> bucketKeys) {
+        return pivotResult.rows().stream()
+            .filter(row -> "leaf".equals(row.source()))
+            // Shared searches group by the date range buckets first and by "streams" second
+            .filter(row -> row.key().size() > 1 && bucketKeys.contains(bucketTimestamp(row.key().get(0)).getMillis()))
+            .map(row -> row.key().get(1))
+            .collect(ImmutableSet.toImmutableSet());
+    }
+
+    private static Set<Long> bucketKeys(DateRangeBucket dateRangeBucket) {
+        // The date range buckets are keyed by the end of the range
+        return dateRangeBucket.ranges().stream()
+                .map(range -> range.to().map(DateTime::getMillis).orElse(Long.MAX_VALUE))
+                .collect(toSet());
+    }
+
+    private static DateTime bucketTimestamp(String timeKey) {
+        return DateTime.parse(timeKey).withZone(DateTimeZone.UTC);
+    }
+
     @VisibleForTesting
     ImmutableList<AggregationKeyResult> extractValues(PivotResult pivotResult) throws EventProcessorException {
+        return extractValues(pivotResult, null, PivotAggregationSearch::metricName);
+    }
+
+    /**
+     * Extracts the values of the configured series from the given pivot result.
+     *
+     * @param pivotResult the pivot result
+     * @param bucketKeys  the date range bucket keys (epoch millis) to extract, {@code null} to extract all buckets
+     * @param seriesId    returns the id of the given series in the pivot result
+     * @return the extracted values
+     */
+    @VisibleForTesting
+    ImmutableList<AggregationKeyResult> extractValues(PivotResult pivotResult,
+                                                      @Nullable Set<Long> bucketKeys,
+                                                      Function<AggregationSeries, String> seriesId) throws EventProcessorException {
         final ImmutableList.Builder<AggregationKeyResult> results = ImmutableList.builder();
 
         // Example PivotResult structures. The row value "key" is composed of: "metric/<function>/<field>/<series-id>"
@@ -277,7 +379,11 @@ public class PivotAggregationSearch implements AggregationSearch {
 
             // We always wrap aggregations in date range buckets so we can run aggregations for multiple ranges at once.
             // The timestamp value of the date range bucket will be part of the result.
-            final String timeKey = row.key().get(0);
+            final DateTime timestamp = bucketTimestamp(row.key().get(0));
+            if (bucketKeys != null && !bucketKeys.contains(timestamp.getMillis())) {
+                // The bucket belongs to another processor of a shared search
+                continue;
+            }
             final ImmutableList<String> groupKey;
 
             if (row.key().size() > 1) {
@@ -297,7 +403,7 @@ public class PivotAggregationSearch implements AggregationSearch {
                 }
 
                 for (final AggregationSeries series : config.series()) {
-                    if (!value.key().isEmpty() && value.key().get(0).equals(metricName(series))) {
+                    if (!value.key().isEmpty() && value.key().get(0).equals(seriesId.apply(series))) {
                         // Some Elasticsearch aggregations can return a "null" value. (e.g. avg on a non-existent field)
                         // We are using NaN in that case to make sure our conditions will work.
                         final Object maybeNumberValue = firstNonNull(value.value(), Double.NaN);
@@ -321,7 +427,7 @@ public class PivotAggregationSearch implements AggregationSearch {
 
             results.add(AggregationKeyResult.builder()
                     .key(groupKey)
-                    .timestamp(DateTime.parse(timeKey).withZone(DateTimeZone.UTC))
+                    .timestamp(timestamp)
                     .seriesValues(values.build())
                     .build());
         }
@@ -339,6 +445,72 @@ public class PivotAggregationSearch implements AggregationSearch {
         // TODO: Once we introduce "EventProcessor owners" this should only load the permitted streams of the
         //       user who created this EventProcessor.
         search = search.addStreamsToQueriesWithoutStreams(() -> permittedStreams.load((streamId) -> true));
+        return executeSearch(search, username);
+    }
+
+    /**
+     * Returns a search job for all members of a shared search. The aggregation uses the series of all members,
+     * namespaced by {@link #sharedSeriesId(int, AggregationSeries)}, the union of their date range buckets and the
+     * time range spanning all of them.
+     *
+     * @param members the members of the shared search
+     * @param streams the streams which are common to all members
+     * @return the finished search job
+     */
+    private SearchJob getSharedSearchJob(List<AggregationSearchCoalescer.Member> members, Set<String> streams) throws EventProcessorException {
+        final Set<DateRange> dateRanges = new HashSet<>();
+        DateTime from = null;
+        DateTime to = null;
+        for (final AggregationSearchCoalescer.Member member : members) {
+            dateRanges.addAll(member.dateRanges());
+            if (from == null || member.timerange().getFrom().isBefore(from)) {
+                from = member.timerange().getFrom();
+            }
+            if (to == null || member.timerange().getTo().isAfter(to)) {
+                to = member.timerange().getTo();
+            }
+        }
+
+        final DateRangeBucket dateRangeBucket = DateRangeBucket.builder()
+                .field("timestamp")
+                .ranges(dateRanges.stream()
+                        .sorted(Comparator.comparing((DateRange range) -> range.from().map(DateTime::getMillis).orElse(Long.MIN_VALUE))
+                                .thenComparing(range -> range.to().map(DateTime::getMillis).orElse(Long.MAX_VALUE)))
+                        .collect(ImmutableList.toImmutableList()))
+                .build();
+        final TimeRange timeRange = AbsoluteRange.create(from, to);
+
+        Search search = Search.builder()
+                .queries(ImmutableSet.of(
+                        getAggregationQuery(sharedSeriesSpecs(members), dateRangeBucket, timeRange, streams),
+                        getSourceStreamsQuery(dateRangeBucket, timeRange, streams)))
+                .parameters(config.queryParameters())
+                .build();
+        search = search.addStreamsToQueriesWithoutStreams(() -> permittedStreams.load((streamId) -> true));
+        return executeSearch(search, searchOwner);
+    }
+
+    /**
+     * Series ids are only unique within an event definition. The series of a shared search are prefixed with the
+     * index of their member so equal ids of different event definitions don't collide.
+     */
+    @VisibleForTesting
+    static ImmutableList<SeriesSpec> sharedSeriesSpecs(List<AggregationSearchCoalescer.Member> members) {
+        final ImmutableList.Builder<SeriesSpec> seriesSpecs = ImmutableList.builder();
+        for (int i = 0; i < members.size(); i++) {
+            for (final AggregationSeries series : members.get(i).series()) {
+                seriesSpecs.add(series.function().toSeriesSpec(sharedSeriesId(i, series), series.field().orElse(null)));
+            }
+        }
+        return seriesSpecs.build();
+    }
+
+    @VisibleForTesting
+    static String sharedSeriesId(int memberIndex, AggregationSeries series) {
+        return String.format(Locale.ROOT, "member-%d/%s", memberIndex, metricName(series));
+    }
+
+    private SearchJob executeSearch(Search search, String username) throws EventProcessorException {
         final SearchJob searchJob = queryEngine.execute(searchJobService.create(search, username));
         try {
             Uninterruptibles.getUninterruptibly(
@@ -363,10 +535,28 @@ public class PivotAggregationSearch implements AggregationSearch {
      * @return source streams query
      */
     private Query getSourceStreamsQuery(AggregationEventProcessorParameters parameters) {
+        return getSourceStreamsQuery(null, parameters.timerange(), getStreams(parameters));
+    }
+
+    /**
+     * Returns the query to compute the sources streams.
+     *
+     * @param dateRangeBucket optional date range buckets to group the source streams by
+     * @param timeRange       the time range of the query
+     * @param streams         the streams to filter on
+     * @return source streams query
+     */
+    private Query getSourceStreamsQuery(@Nullable DateRangeBucket dateRangeBucket, TimeRange timeRange, Set<String> streams) {
+        final ImmutableList.Builder<BucketSpec> rowGroups = ImmutableList.builder();
+        if (dateRangeBucket != null) {
+            rowGroups.add(dateRangeBucket);
+        }
+        rowGroups.add(Values.builder().limit(Integer.MAX_VALUE).field("streams").build());
+
         final Pivot pivot = Pivot.builder()
             .id(STREAMS_PIVOT_ID)
             .rollup(true)
-            .rowGroups(ImmutableList.of(Values.builder().limit(Integer.MAX_VALUE).field("streams").build()))
+            .rowGroups(rowGroups.build())
             .series(ImmutableList.of(Count.builder().id(STREAMS_PIVOT_COUNT_ID).build()))
             .build();
 
@@ -375,9 +565,8 @@ public class PivotAggregationSearch implements AggregationSearch {
             .id(STREAMS_QUERY_ID)
             .searchTypes(searchTypes)
             .query(ElasticsearchQueryString.of(config.query()))
-            .timerange(parameters.timerange());
+            .timerange(timeRange);
 
-        final Set<String> streams = getStreams(parameters);
         if (!streams.isEmpty()) {
             queryBuilder.filter(filteringForStreamIds(streams));
         }
@@ -394,24 +583,30 @@ public class PivotAggregationSearch implements AggregationSearch {
      * @return aggregation query
      */
     private Query getAggregationQuery(AggregationEventProcessorParameters parameters, long searchWithinMs, long executeEveryMs) {
-        final Pivot.Builder pivotBuilder = Pivot.builder()
-                .id(PIVOT_ID)
-                .rollup(true);
+        // Wrap every aggregation with date range buckets of the searchWithin time range.
+        // If the aggregation is configured to be using a sliding window (searchWithin > executeEveryMs)
+        // the time ranges will overlap.
+        // This allows us to run aggregations over larger time ranges than the searchWithin time.
+        // The results will be received in time buckets of the searchWithin time size.
+        final DateRangeBucket dateRangeBucket = buildDateRangeBuckets(parameters.timerange(), searchWithinMs, executeEveryMs);
+        return getAggregationQuery(seriesSpecs(), dateRangeBucket, parameters.timerange(), getStreams(parameters));
+    }
 
-        final ImmutableList<SeriesSpec> series = config.series().stream()
+    private ImmutableList<SeriesSpec> seriesSpecs() {
+        return config.series().stream()
                 .map(entry -> entry.function().toSeriesSpec(metricName(entry), entry.field().orElse(null)))
                 .collect(ImmutableList.toImmutableList());
+    }
+
+    private Query getAggregationQuery(List<SeriesSpec> series, DateRangeBucket dateRangeBucket, TimeRange timeRange, Set<String> streams) {
+        final Pivot.Builder pivotBuilder = Pivot.builder()
+                .id(PIVOT_ID)
+                .rollup(true);
 
         if (!series.isEmpty()) {
             pivotBuilder.series(series);
         }
 
-        // Wrap every aggregation with date range buckets of the searchWithin time range.
-        // If the aggregation is configured to be using a sliding window (searchWithin > executeEveryMs)
-        // the time ranges will overlap.
-        // This allows us to run aggregations over larger time ranges than the searchWithin time.
-        // The results will be received in time buckets of the searchWithin time size.
-        final DateRangeBucket dateRangeBucket = buildDateRangeBuckets(parameters.timerange(), searchWithinMs, executeEveryMs);
         final List<BucketSpec> groupBy = new ArrayList<>();
 
         // The first bucket must be the date range!
@@ -451,9 +646,8 @@ public class PivotAggregationSearch implements AggregationSearch {
                 .id(QUERY_ID)
                 .searchTypes(searchTypes)
                 .query(ElasticsearchQueryString.of(config.query()))
-                .timerange(parameters.timerange());
+                .timerange(timeRange);
 
-        final Set<String> streams = getStreams(parameters);
         if (!streams.isEmpty()) {
             queryBuilder.filter(filteringForStreamIds(streams));
         }
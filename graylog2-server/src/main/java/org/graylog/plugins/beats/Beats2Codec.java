@@ -16,9 +16,10 @@
  */
 package org.graylog.plugins.beats;
 
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.databind.node.ObjectNode;
 import com.google.inject.assistedinject.Assisted;
 import org.graylog2.plugin.Message;
 import org.graylog2.plugin.Tools;
@@ -39,9 +40,7 @@ import javax.annotation.Nullable;
 import javax.inject.Inject;
 import java.io.IOException;
 import java.util.ArrayList;
-import java.util.Iterator;
 import java.util.List;
-import java.util.Map;
 
 import static java.util.Objects.requireNonNull;
 
@@ -67,97 +66,198 @@ public class Beats2Codec extends AbstractCodec {
     @Override
     public Message decode(@Nonnull RawMessage rawMessage) {
         final byte[] payload = rawMessage.getPayload();
-        final JsonNode event;
-        try {
-            event = objectMapper.readTree(payload);
-            if (event == null) {
-                throw new IOException("null result");
+        try (final JsonParser parser = objectMapper.getFactory().createParser(payload)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                throw new IOException("Beats event is not a JSON object");
             }
+            return parseEvent(parser);
         } catch (IOException e) {
             LOG.error("Couldn't decode raw message {}", rawMessage);
             return null;
         }
-
-        return parseEvent(event);
     }
 
-    private Message parseEvent(JsonNode event) {
-        final String beatsType = event.path("@metadata").path("beat").asText("beat");
-        final String rootPath = noBeatsPrefix ? "" : beatsType;
-        final String message = event.path("message").asText("-");
-        final String timestampField = event.path("@timestamp").asText();
-        final DateTime timestamp = Tools.dateTimeFromString(timestampField);
+    /**
+     * Reads the event in a single pass and flattens nested objects while reading the tokens. The Beats type, which
+     * determines the field prefix, and the message attributes can appear anywhere in the event, so the flattened
+     * fields are collected first and added to the message in their original order at the end.
+     */
+    private Message parseEvent(JsonParser parser) throws IOException {
+        final EventFields event = new EventFields();
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            final String name = parser.getCurrentName();
+            final JsonToken token = parser.nextToken();
+            // Fields which should not be duplicated with a prefix
+            if ("message".equals(name)) {
+                event.message = asText(parser, token, "-");
+                parser.skipChildren();
+            } else if (Message.FIELD_GL2_SOURCE_COLLECTOR.equals(name)) {
+                event.gl2SourceCollector = asText(parser, token, "null");
+                parser.skipChildren();
+            } else {
+                switch (name) {
+                    case "@timestamp":
+                        event.timestamp = asText(parser, token, "null");
+                        break;
+                    case "agent":
+                        event.agentPresent = true;
+                        event.agentHostname = null;
+                        break;
+                    case "beat":
+                        event.beatHostname = null;
+                        break;
+                    case "@metadata":
+                        event.beatsType = null;
+                        break;
+                    default:
+                        break;
+                }
+                addFlattened(parser, token, name, name, event);
+            }
+        }
 
-        JsonNode agentOrBeat = event.path("agent");
+        final String beatsType = event.beatsType == null ? "beat" : event.beatsType;
+        final String rootPath = noBeatsPrefix ? "" : beatsType;
+        final DateTime timestamp = Tools.dateTimeFromString(event.timestamp);
         // backwards compatibility for beats < 7.0
-        if (agentOrBeat.isMissingNode()) {
-            agentOrBeat = event.path("beat");
-        }
-        final String hostname = agentOrBeat.path("hostname").asText(BEATS_UNKNOWN);
+        final String hostname = event.agentPresent ? event.agentHostname : event.beatHostname;
 
-        final Message gelfMessage = new Message(message, hostname, timestamp);
+        final Message gelfMessage = new Message(event.message, hostname == null ? BEATS_UNKNOWN : hostname, timestamp);
         gelfMessage.addField("beats_type", beatsType);
 
         // This field should be stored without a prefix
-        final String gl2SourceCollector = event.path(Message.FIELD_GL2_SOURCE_COLLECTOR).asText();
-        if (!gl2SourceCollector.isEmpty()) {
-            gelfMessage.addField(Message.FIELD_GL2_SOURCE_COLLECTOR, gl2SourceCollector);
+        if (!event.gl2SourceCollector.isEmpty()) {
+            gelfMessage.addField(Message.FIELD_GL2_SOURCE_COLLECTOR, event.gl2SourceCollector);
         }
 
-        // Remove fields that should not be duplicated with a prefix
-        if (event.isObject()) {
-            ObjectNode onode = (ObjectNode) event;
-            onode.remove("message");
-            onode.remove(Message.FIELD_GL2_SOURCE_COLLECTOR);
+        final String pathPrefix = rootPath.isEmpty() ? "" : rootPath + MAP_KEY_SEPARATOR;
+        for (int i = 0; i < event.keys.size(); i++) {
+            gelfMessage.addField(pathPrefix + event.keys.get(i), event.values.get(i));
         }
-        addFlattened(gelfMessage, rootPath, event);
         return gelfMessage;
     }
 
-    private void addFlattened(Message message, String currentPath, JsonNode jsonNode) {
-        if (jsonNode.isObject()) {
-            final Iterator<Map.Entry<String, JsonNode>> it = jsonNode.fields();
-            final String pathPrefix = currentPath.isEmpty() ? "" : currentPath + MAP_KEY_SEPARATOR;
-            while (it.hasNext()) {
-                final Map.Entry<String, JsonNode> entry = it.next();
-                addFlattened(message, pathPrefix + entry.getKey(), entry.getValue());
+    /**
+     * Flattens the value at the current token into {@code event}.
+     *
+     * @param topLevelName the name of the field if it is a top level field, used to pick up the Beats type and
+     *                     hostname from their nested objects
+     */
+    private void addFlattened(JsonParser parser, JsonToken token, String currentPath, @Nullable String topLevelName, EventFields event) throws IOException {
+        if (token == JsonToken.START_OBJECT) {
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                final String name = parser.getCurrentName();
+                final JsonToken valueToken = parser.nextToken();
+                if (topLevelName != null) {
+                    pickUpEventAttribute(parser, valueToken, topLevelName, name, event);
+                }
+                addFlattened(parser, valueToken, currentPath + MAP_KEY_SEPARATOR + name, null, event);
             }
-        } else if (jsonNode.isArray()) {
-            final List<Object> values = new ArrayList<>(jsonNode.size());
-            for (int i = 0; i < jsonNode.size(); i++) {
-                final JsonNode currentNode = jsonNode.get(i);
-                if (currentNode.isObject()) {
-                    final String pathPrefix = currentPath.isEmpty() ? "" : currentPath + MAP_KEY_SEPARATOR + i;
-                    addFlattened(message, pathPrefix, currentNode);
-                } else if (currentNode.isValueNode()) {
-                    values.add(valueNode(currentNode));
+        } else if (token == JsonToken.START_ARRAY) {
+            final List<Object> values = new ArrayList<>();
+            int i = 0;
+            JsonToken elementToken;
+            while ((elementToken = parser.nextToken()) != JsonToken.END_ARRAY) {
+                if (elementToken == JsonToken.START_OBJECT) {
+                    addFlattened(parser, elementToken, currentPath + MAP_KEY_SEPARATOR + i, null, event);
+                } else if (elementToken == JsonToken.START_ARRAY) {
+                    // nested arrays are not supported
+                    parser.skipChildren();
+                } else {
+                    values.add(value(parser, elementToken));
                 }
+                i++;
             }
-            message.addField(currentPath, values);
-        } else if (jsonNode.isValueNode()) {
-            message.addField(currentPath, valueNode(jsonNode));
+            event.add(currentPath, values);
+        } else {
+            event.add(currentPath, value(parser, token));
         }
     }
 
+    private void pickUpEventAttribute(JsonParser parser, JsonToken token, String topLevelName, String name, EventFields event) throws IOException {
+        switch (topLevelName) {
+            case "@metadata":
+                if ("beat".equals(name)) {
+                    event.beatsType = asText(parser, token, null);
+                }
+                break;
+            case "agent":
+                if ("hostname".equals(name)) {
+                    event.agentHostname = asText(parser, token, null);
+                }
+                break;
+            case "beat":
+                if ("hostname".equals(name)) {
+                    event.beatHostname = asText(parser, token, null);
+                }
+                break;
+            default:
+                break;
+        }
+    }
+
+    /**
+     * Text of the value at the current token, following the rules of {@link JsonNode#asText(String)}:
+     * objects and arrays are an empty string and {@code null} is the default value.
+     */
     @Nullable
-    private Object valueNode(JsonNode jsonNode) {
-        if (jsonNode.isInt()) {
-            return jsonNode.asInt();
-        } else if (jsonNode.isLong()) {
-            return jsonNode.asLong();
-        } else if (jsonNode.isIntegralNumber()) {
-            return jsonNode.asLong();
-        } else if (jsonNode.isFloatingPointNumber()) {
-            return jsonNode.asDouble();
-        } else if (jsonNode.isBoolean()) {
-            return jsonNode.asBoolean();
-        } else if (jsonNode.isNull()) {
-            return null;
-        } else {
-            return jsonNode.asText();
+    private static String asText(JsonParser parser, JsonToken token, @Nullable String nullValue) throws IOException {
+        switch (token) {
+            case START_OBJECT:
+            case START_ARRAY:
+                return "";
+            case VALUE_NULL:
+                return nullValue;
+            case VALUE_NUMBER_FLOAT:
+                return String.valueOf(parser.getDoubleValue());
+            case VALUE_NUMBER_INT:
+                return parser.getNumberValue().toString();
+            default:
+                return parser.getText();
+        }
+    }
+
+    @Nullable
+    private static Object value(JsonParser parser, JsonToken token) throws IOException {
+        switch (token) {
+            case VALUE_NUMBER_INT:
+                switch (parser.getNumberType()) {
+                    case INT:
+                        return parser.getIntValue();
+                    case LONG:
+                        return parser.getLongValue();
+                    default:
+                        return parser.getBigIntegerValue().longValue();
+                }
+            case VALUE_NUMBER_FLOAT:
+                return parser.getDoubleValue();
+            case VALUE_TRUE:
+                return true;
+            case VALUE_FALSE:
+                return false;
+            case VALUE_NULL:
+                return null;
+            default:
+                return parser.getText();
         }
     }
 
+    private static class EventFields {
+        private final List<String> keys = new ArrayList<>();
+        private final List<Object> values = new ArrayList<>();
+        private String message = "-";
+        private String gl2SourceCollector = "";
+        private String timestamp = "";
+        private String beatsType;
+        private boolean agentPresent = false;
+        private String agentHostname;
+        private String beatHostname;
+
+        private void add(String key, @Nullable Object value) {
+            keys.add(key);
+            values.add(value);
+        }
+    }
 
     @FactoryClass
     public interface Factory extends AbstractCodec.Factory<Beats2Codec> {
@@ -19,26 +19,26 @@ package org.graylog.plugins.beats;
 import com.fasterxml.jackson.core.JsonFactory;
 import com.fasterxml.jackson.core.JsonGenerator;
 import com.google.common.annotations.VisibleForTesting;
-import com.google.common.io.ByteStreams;
 import com.google.common.primitives.Ints;
 import io.netty.buffer.ByteBuf;
-import io.netty.buffer.Unpooled;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.ByteBufOutputStream;
+import io.netty.buffer.ByteBufUtil;
 import io.netty.channel.Channel;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.handler.codec.ReplayingDecoder;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
+import java.io.OutputStream;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
-import java.util.zip.InflaterInputStream;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
 
 /**
  * FrameDecoder for the Beats/Lumberjack protocol.
@@ -54,6 +54,8 @@ public class BeatsFrameDecoder extends ReplayingDecoder<BeatsFrameDecoder.Decodi
     private static final byte FRAME_DATA = 'D';
     private static final byte FRAME_JSON = 'J';
     private static final byte FRAME_WINDOW_SIZE = 'W';
+    private static final int INFLATE_CHUNK_SIZE = 8192;
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
 
     enum DecodingState {
         PROTOCOL_VERSION,
@@ -66,6 +68,7 @@ public class BeatsFrameDecoder extends ReplayingDecoder<BeatsFrameDecoder.Decodi
 
     private long windowSize;
     private long sequenceNum;
+    private Inflater inflater;
 
     public BeatsFrameDecoder() {
         super(DecodingState.PROTOCOL_VERSION);
@@ -116,6 +119,15 @@ public class BeatsFrameDecoder extends ReplayingDecoder<BeatsFrameDecoder.Decodi
         checkpoint(DecodingState.PROTOCOL_VERSION);
     }
 
+    @Override
+    protected void handlerRemoved0(ChannelHandlerContext ctx) throws Exception {
+        if (inflater != null) {
+            inflater.end();
+            inflater = null;
+        }
+        super.handlerRemoved0(ctx);
+    }
+
     private Collection<ByteBuf> processUncompressedBuffer(Channel channel, ByteBuf buffer) throws Exception {
         checkVersion(buffer);
         byte frameType = buffer.readByte();
@@ -166,7 +178,8 @@ public class BeatsFrameDecoder extends ReplayingDecoder<BeatsFrameDecoder.Decodi
 
         final int jsonLength = Ints.saturatedCast(channelBuffer.readUnsignedInt());
 
-        final ByteBuf buffer = channelBuffer.readBytes(jsonLength);
+        // the frame is only sliced, the event keeps the underlying buffer alive until it has been handled
+        final ByteBuf buffer = channelBuffer.readRetainedSlice(jsonLength);
         sendACK(channel);
 
         return Collections.singleton(buffer);
@@ -176,21 +189,59 @@ public class BeatsFrameDecoder extends ReplayingDecoder<BeatsFrameDecoder.Decodi
      * @see <a href="https://github.com/logstash-plugins/logstash-input-beats/blob/master/PROTOCOL.md#compressed-frame-type">'compressed' frame type</a>
      */
     private Collection<ByteBuf> processCompressedFrame(Channel channel, ByteBuf channelBuffer) throws Exception {
-        final long payloadLength = channelBuffer.readUnsignedInt();
-        final byte[] data = new byte[(int) payloadLength];
-        channelBuffer.readBytes(data);
-        try (final ByteArrayInputStream dataStream = new ByteArrayInputStream(data);
-             final InputStream in = new InflaterInputStream(dataStream)) {
-            final ByteBuf buffer = Unpooled.wrappedBuffer(ByteStreams.toByteArray(in));
+        final int payloadLength = Ints.saturatedCast(channelBuffer.readUnsignedInt());
+        final ByteBuf buffer = inflate(channel.alloc(), channelBuffer.readSlice(payloadLength));
+        try {
             return processCompressedDataFrames(channel, buffer);
+        } finally {
+            // the events are retained slices of the decompressed buffer
+            buffer.release();
+        }
+    }
+
+    /**
+     * Decompresses the given zlib compressed data into a pooled heap buffer. The inflater is reused for all
+     * compressed frames of the channel.
+     */
+    private ByteBuf inflate(ByteBufAllocator allocator, ByteBuf compressed) throws DataFormatException {
+        if (inflater == null) {
+            inflater = new Inflater();
+        }
+        if (compressed.hasArray()) {
+            inflater.setInput(compressed.array(), compressed.arrayOffset() + compressed.readerIndex(), compressed.readableBytes());
+        } else {
+            inflater.setInput(ByteBufUtil.getBytes(compressed));
+        }
+
+        final ByteBuf buffer = allocator.heapBuffer(Math.max(INFLATE_CHUNK_SIZE, compressed.readableBytes() * 4));
+        try {
+            while (!inflater.finished()) {
+                buffer.ensureWritable(INFLATE_CHUNK_SIZE);
+                final int inflated = inflater.inflate(buffer.array(), buffer.arrayOffset() + buffer.writerIndex(), buffer.writableBytes());
+                if (inflated == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    throw new DataFormatException("Incomplete compressed frame");
+                }
+                buffer.writerIndex(buffer.writerIndex() + inflated);
+            }
+            return buffer;
+        } catch (DataFormatException | RuntimeException e) {
+            buffer.release();
+            throw e;
+        } finally {
+            inflater.reset();
         }
     }
 
     private Collection<ByteBuf> processCompressedDataFrames(Channel channel, ByteBuf channelBuffer) throws Exception {
         final List<ByteBuf> events = new ArrayList<>();
-        while (channelBuffer.isReadable()) {
-            final Collection<ByteBuf> buffers = processUncompressedBuffer(channel, channelBuffer);
-            events.addAll(buffers);
+        try {
+            while (channelBuffer.isReadable()) {
+                final Collection<ByteBuf> buffers = processUncompressedBuffer(channel, channelBuffer);
+                events.addAll(buffers);
+            }
+        } catch (Exception e) {
+            events.forEach(ByteBuf::release);
+            throw e;
         }
         return events;
     }
@@ -211,19 +262,26 @@ public class BeatsFrameDecoder extends ReplayingDecoder<BeatsFrameDecoder.Decodi
         LOG.trace("Received sequence number {}", sequenceNum);
 
         final int pairs = Ints.saturatedCast(channelBuffer.readUnsignedInt());
-        final JsonFactory jsonFactory = new JsonFactory();
-        final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
-        try (final JsonGenerator jg = jsonFactory.createGenerator(outputStream)) {
-            jg.writeStartObject();
-            for (int i = 0; i < pairs; i++) {
-                final String key = parseDataItem(channelBuffer);
-                final String value = parseDataItem(channelBuffer);
-                jg.writeStringField(key, value);
+        final ByteBuf buffer = channel.alloc().buffer();
+        boolean written = false;
+        try {
+            try (final JsonGenerator jg = JSON_FACTORY.createGenerator((OutputStream) new ByteBufOutputStream(buffer))) {
+                jg.writeStartObject();
+                for (int i = 0; i < pairs; i++) {
+                    final String key = parseDataItem(channelBuffer);
+                    final String value = parseDataItem(channelBuffer);
+                    jg.writeStringField(key, value);
+                }
+                jg.writeEndObject();
+            }
+            written = true;
+        } finally {
+            // also release the buffer if the decoder has to wait for more data and replays the frame
+            if (!written) {
+                buffer.release();
             }
-            jg.writeEndObject();
         }
 
-        final ByteBuf buffer = Unpooled.wrappedBuffer(outputStream.toByteArray());
         sendACK(channel);
 
         return Collections.singleton(buffer);
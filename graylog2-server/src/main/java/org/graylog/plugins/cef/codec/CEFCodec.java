@@ -95,7 +95,7 @@ public class CEFCodec extends AbstractCodec {
     @Nullable
     @Override
     public Message decode(@Nonnull RawMessage rawMessage) {
-        final String s = new String(rawMessage.getPayload(), charset);
+        final String s = rawMessage.getPayloadAsString(charset);
         final Matcher matcher = SYSLOG_PREFIX.matcher(s);
 
         if (matcher.find()) {
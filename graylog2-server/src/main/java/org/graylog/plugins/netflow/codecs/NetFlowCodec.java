@@ -17,8 +17,11 @@
 package org.graylog.plugins.netflow.codecs;
 
 import com.google.common.annotations.VisibleForTesting;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import com.google.common.collect.Maps;
 import com.google.inject.assistedinject.Assisted;
+import com.google.protobuf.ByteString;
 import com.google.protobuf.InvalidProtocolBufferException;
 import io.netty.buffer.ByteBuf;
 import io.netty.buffer.ByteBufUtil;
@@ -78,13 +81,20 @@ public class NetFlowCodec extends AbstractCodec implements MultiMessageCodec {
     @VisibleForTesting
     static final String CK_NETFLOW9_DEFINITION_PATH = "netflow9_definitions_Path";
     private static final Logger LOG = LoggerFactory.getLogger(NetFlowCodec.class);
+    private static final int PARSED_TEMPLATE_CACHE_SIZE = 5000;
     private final NetFlowV9FieldTypeRegistry typeRegistry;
     private final NetflowV9CodecAggregator netflowV9CodecAggregator;
+    // Every journal entry carries the raw bytes of the templates it needs. Exporters rarely change their templates,
+    // so the parsed templates are kept by their raw bytes. A changed template has different bytes and is parsed again.
+    private final Cache<ByteString, NetFlowV9Template> parsedTemplates;
+    private final Cache<ByteString, NetFlowV9OptionTemplate> parsedOptionTemplates;
 
     @Inject
     protected NetFlowCodec(@Assisted Configuration configuration, NetflowV9CodecAggregator netflowV9CodecAggregator) throws IOException {
         super(configuration);
         this.netflowV9CodecAggregator = netflowV9CodecAggregator;
+        this.parsedTemplates = CacheBuilder.newBuilder().maximumSize(PARSED_TEMPLATE_CACHE_SIZE).build();
+        this.parsedOptionTemplates = CacheBuilder.newBuilder().maximumSize(PARSED_TEMPLATE_CACHE_SIZE).build();
 
         final String netFlow9DefinitionsPath = configuration.getString(CK_NETFLOW9_DEFINITION_PATH);
         if (netFlow9DefinitionsPath == null || netFlow9DefinitionsPath.trim().isEmpty()) {
@@ -172,22 +182,34 @@ public class NetFlowCodec extends AbstractCodec implements MultiMessageCodec {
 
         // parse all templates used in the packet
         final Map<Integer, NetFlowV9Template> templateMap = Maps.newHashMap();
-        rawNetflowV9.getTemplatesMap().forEach((templateId, byteString) -> {
-            final NetFlowV9Template netFlowV9Template = NetFlowV9Parser.parseTemplate(
-                    Unpooled.wrappedBuffer(byteString.toByteArray()), typeRegistry);
-            templateMap.put(templateId, netFlowV9Template);
-        });
+        rawNetflowV9.getTemplatesMap().forEach((templateId, byteString) -> templateMap.put(templateId, parseTemplate(byteString)));
         final NetFlowV9OptionTemplate[] optionTemplate = {null};
-        rawNetflowV9.getOptionTemplateMap().forEach((templateId, byteString) -> {
-            optionTemplate[0] = NetFlowV9Parser.parseOptionTemplate(Unpooled.wrappedBuffer(byteString.toByteArray()), typeRegistry);
-        });
+        rawNetflowV9.getOptionTemplateMap().forEach((templateId, byteString) -> optionTemplate[0] = parseOptionTemplate(byteString));
 
         return rawNetflowV9.getPacketsList().stream()
-                .map(bytes -> Unpooled.wrappedBuffer(bytes.toByteArray()))
+                .map(bytes -> Unpooled.wrappedBuffer(bytes.asReadOnlyByteBuffer()))
                 .map(buf -> NetFlowV9Parser.parsePacket(buf, typeRegistry, templateMap, optionTemplate[0]))
                 .collect(Collectors.toList());
     }
 
+    private NetFlowV9Template parseTemplate(ByteString bytes) {
+        NetFlowV9Template template = parsedTemplates.getIfPresent(bytes);
+        if (template == null) {
+            template = NetFlowV9Parser.parseTemplate(Unpooled.wrappedBuffer(bytes.asReadOnlyByteBuffer()), typeRegistry);
+            parsedTemplates.put(bytes, template);
+        }
+        return template;
+    }
+
+    private NetFlowV9OptionTemplate parseOptionTemplate(ByteString bytes) {
+        NetFlowV9OptionTemplate optionTemplate = parsedOptionTemplates.getIfPresent(bytes);
+        if (optionTemplate == null) {
+            optionTemplate = NetFlowV9Parser.parseOptionTemplate(Unpooled.wrappedBuffer(bytes.asReadOnlyByteBuffer()), typeRegistry);
+            parsedOptionTemplates.put(bytes, optionTemplate);
+        }
+        return optionTemplate;
+    }
+
     @FactoryClass
     public interface Factory extends AbstractCodec.Factory<NetFlowCodec> {
         @Override
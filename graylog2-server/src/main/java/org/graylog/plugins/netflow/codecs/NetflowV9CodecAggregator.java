@@ -17,9 +17,9 @@
 package org.graylog.plugins.netflow.codecs;
 
 import com.github.joschi.jadconfig.util.Size;
+import com.google.common.annotations.VisibleForTesting;
 import com.google.common.cache.Cache;
 import com.google.common.cache.CacheBuilder;
-import com.google.common.cache.RemovalListener;
 import com.google.protobuf.ByteString;
 import io.netty.buffer.ByteBuf;
 import io.netty.buffer.ByteBufUtil;
@@ -34,46 +34,76 @@ import org.slf4j.LoggerFactory;
 import javax.annotation.Nonnull;
 import javax.inject.Inject;
 import java.net.SocketAddress;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
-import java.util.Queue;
 import java.util.Set;
-import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * For Netflow v9 packets we want to prepend the corresponding flow template.
  * If we don't have that template yet, we consider the flow packet to be incomplete and continue to wait for the template.
+ * <p>
+ * Templates are kept per exporter (remote address and source id), so looking up the templates of a packet never
+ * touches the templates of other exporters. The UDP transport binds one channel per worker thread with
+ * {@code SO_REUSEPORT} where available, which keeps each exporter on one Netty worker thread and spreads exporters
+ * across the worker threads.
+ * <p>
+ * Packets waiting for templates are buffered per exporter, up to 1 MB per exporter and 64 MB for all exporters
+ * together.
  * TODO consider sharing seen templates between nodes in the cluster to minimize wait time
  */
 public class NetflowV9CodecAggregator implements RemoteAddressCodecAggregator {
     private static final Logger LOG = LoggerFactory.getLogger(NetflowV9CodecAggregator.class);
 
     private static final ByteBuf PASSTHROUGH_MARKER = Unpooled.wrappedBuffer(new byte[]{NetFlowCodec.PASSTHROUGH_MARKER});
+    private static final int MAX_EXPORTERS = 5000;
+    private static final Size MAX_BUFFERED_BYTES_PER_EXPORTER = Size.megabytes(1);
+    private static final Size MAX_BUFFERED_BYTES = Size.megabytes(64);
+    private static final long BUFFERED_PACKET_TTL_NANOS = TimeUnit.MINUTES.toNanos(1);
 
-    private final Cache<TemplateKey, TemplateBytes> templateCache;
-    private final Cache<TemplateKey, Queue<PacketBytes>> packetCache;
+    private final Cache<TemplateKey, ExporterTemplates> exporters;
+    private final long maxBufferedBytes;
+    private final long maxBufferedBytesPerExporter;
+    // the bytes buffered by all exporters, exporters reserve their buffered packets from this budget
+    private final AtomicLong bufferedBytes = new AtomicLong();
 
     @Inject
     public NetflowV9CodecAggregator() {
         // TODO customize
-        this.templateCache = CacheBuilder.newBuilder()
-                .maximumSize(5000)
-                .removalListener(notification -> LOG.debug("Removed {} from template cache for reason {}", notification.getKey(), notification.getCause()))
-                .recordStats()
-                .build();
-        this.packetCache = CacheBuilder.newBuilder()
-                .expireAfterWrite(1, TimeUnit.MINUTES)
-                .maximumWeight(Size.megabytes(1).toBytes())
-                .removalListener((RemovalListener<TemplateKey, Queue<PacketBytes>>) notification -> LOG.debug("Removed {} from packet cache for reason {}", notification.getKey(), notification.getCause()))
-                .weigher((key, value) -> value.stream().map(PacketBytes::readableBytes).reduce(0, Integer::sum))
+        this(MAX_BUFFERED_BYTES, MAX_BUFFERED_BYTES_PER_EXPORTER);
+    }
+
+    @VisibleForTesting
+    NetflowV9CodecAggregator(Size maxBufferedBytes, Size maxBufferedBytesPerExporter) {
+        this.maxBufferedBytes = maxBufferedBytes.toBytes();
+        this.maxBufferedBytesPerExporter = maxBufferedBytesPerExporter.toBytes();
+        this.exporters = CacheBuilder.newBuilder()
+                .maximumSize(MAX_EXPORTERS)
+                .removalListener(notification -> {
+                    LOG.debug("Removed exporter {} from template registry for reason {}", notification.getKey(), notification.getCause());
+                    final ExporterTemplates exporter = (ExporterTemplates) notification.getValue();
+                    if (exporter != null) {
+                        exporter.discardBufferedPackets();
+                    }
+                })
                 .recordStats()
                 .build();
     }
 
+    @VisibleForTesting
+    long bufferedBytes() {
+        return bufferedBytes.get();
+    }
+
     @Nonnull
     @Override
     public Result addChunk(ByteBuf buf, SocketAddress remoteAddress) {
@@ -82,7 +112,6 @@ public class NetflowV9CodecAggregator implements RemoteAddressCodecAggregator {
             return new Result(null, false);
         }
 
-        // This thing is using *WAY* too many copies. :'(
         try {
             final int netFlowVersion = buf.getShort(0);
 
@@ -100,9 +129,9 @@ public class NetflowV9CodecAggregator implements RemoteAddressCodecAggregator {
 
             // The rest of the code works as follows:
             // We shallowly parse the incoming packet, extracting all flows into ByteBufs.
-            // We then cache the raw bytes for template flows, keyed by remote ip and source id. These are used to reassemble the packet for the journal later.
-            // For each netflow v9 packet that we do not have a matching template for yet, we put it into a queue.
-            // Once the template flow arrives we go back through the queue and remove now matching packets for further processing.
+            // We then register the raw bytes of template flows for the exporter (remote ip and source id). These are used to reassemble the packet for the journal later.
+            // For each netflow v9 packet that we do not have a matching template for yet, we put it into the exporter's queue.
+            // Once a new or changed template flow arrives we go back through that queue and remove now matching packets for further processing.
             if (LOG.isTraceEnabled()) {
                 LOG.trace("Received V9 packet:\n{}", ByteBufUtil.prettyHexDump(buf));
             }
@@ -111,131 +140,66 @@ public class NetflowV9CodecAggregator implements RemoteAddressCodecAggregator {
 
             LOG.trace("Incoming NetFlow V9 packet contains: {}", rawNetFlowV9Packet);
 
-            // register templates and check for buffered flows
-            for (Map.Entry<Integer, byte[]> template : rawNetFlowV9Packet.templates().entrySet()) {
-                final int templateId = template.getKey();
-                final byte[] bytes = template.getValue();
+            final ExporterTemplates exporter = exporterTemplates(remoteAddress, sourceId);
 
-                final TemplateKey templateKey = new TemplateKey(remoteAddress, sourceId, templateId);
-                final TemplateBytes templateBytes = new TemplateBytes(bytes, false);
-                templateCache.put(templateKey, templateBytes);
+            // register templates
+            boolean templatesChanged = false;
+            for (Map.Entry<Integer, byte[]> template : rawNetFlowV9Packet.templates().entrySet()) {
+                templatesChanged |= exporter.putTemplate(template.getKey(), new TemplateBytes(template.getValue(), false));
             }
-
             final Map.Entry<Integer, byte[]> optionTemplate = rawNetFlowV9Packet.optionTemplate();
             if (optionTemplate != null) {
-                final int templateId = optionTemplate.getKey();
-                final byte[] bytes = optionTemplate.getValue();
-
-                final TemplateKey templateKey = new TemplateKey(remoteAddress, sourceId, templateId);
-                final TemplateBytes templateBytes = new TemplateBytes(bytes, true);
-
-                templateCache.put(templateKey, templateBytes);
+                templatesChanged |= exporter.putTemplate(optionTemplate.getKey(), new TemplateBytes(optionTemplate.getValue(), true));
             }
 
-            // this list of flows to return in the result
-            // Using ByteBuf here to enable de-duplication with the hash set.
-            final Set<ByteBuf> packetsToSend = new HashSet<>();
-            final Set<Integer> bufferedTemplateIds = new HashSet<>();
-
-            // if we have new templates, figure out which buffered packets template requirements are now satisfied
-            if (!rawNetFlowV9Packet.templates().isEmpty() || rawNetFlowV9Packet.optionTemplate() != null) {
-                final Set<Integer> knownTemplateIds = new HashSet<>();
-                for (TemplateKey templateKey : templateCache.asMap().keySet()) {
-                    if (templateKey.getRemoteAddress() == remoteAddress && templateKey.getSourceId() == sourceId) {
-                        final Integer templateId = templateKey.getTemplateId();
-                        knownTemplateIds.add(templateId);
-                    }
-                }
+            // the packets to return in the result and the templates they need
+            final List<ByteString> packetsToSend = new ArrayList<>();
+            final Set<Integer> usedTemplateIds = new HashSet<>();
 
-                final Queue<PacketBytes> bufferedPackets = packetCache.getIfPresent(TemplateKey.idForExporter(remoteAddress, sourceId));
-                if (bufferedPackets != null) {
-                    final List<PacketBytes> tempQueue = new ArrayList<>(bufferedPackets.size());
-                    PacketBytes previousPacket;
-                    int addedPackets = 0;
-                    while (null != (previousPacket = bufferedPackets.poll())) {
-                        // are all templates the packet references there?
-                        if (knownTemplateIds.containsAll(previousPacket.getUsedTemplates())) {
-                            packetsToSend.add(Unpooled.wrappedBuffer(previousPacket.getBytes()));
-                            bufferedTemplateIds.addAll(previousPacket.getUsedTemplates());
-                            addedPackets++;
-                        } else {
-                            tempQueue.add(previousPacket);
-                        }
-                    }
-                    LOG.debug("Processing {} previously buffered packets, {} packets require more templates.", addedPackets, tempQueue.size());
-                    // if we couldn't process some of the buffered packets, add them back to the queue to wait for more templates to come in
-                    if (!tempQueue.isEmpty()) {
-                        bufferedPackets.addAll(tempQueue);
-                    }
+            // if the templates changed, figure out which buffered packets' template requirements are now satisfied
+            if (templatesChanged) {
+                final List<PacketBytes> satisfiedPackets = exporter.pollSatisfiedPackets();
+                if (!satisfiedPackets.isEmpty()) {
+                    LOG.debug("Processing {} previously buffered packets.", satisfiedPackets.size());
                 }
-            }
-
-            boolean packetBuffered = false;
-
-            // the list of template keys to return in the result
-            final Set<TemplateKey> templates = new HashSet<>();
-
-            // find out which templates we need to include for the buffered and current packets
-            bufferedTemplateIds.addAll(rawNetFlowV9Packet.usedTemplates());
-            for (int templateId : bufferedTemplateIds) {
-                final TemplateKey templateKey = new TemplateKey(remoteAddress, sourceId, templateId);
-                final TemplateBytes template = templateCache.getIfPresent(templateKey);
-
-                if (template == null) {
-                    // we don't have the template, this packet needs to be buffered until we receive the templates
-                    try {
-                        final TemplateKey newTemplateKey = TemplateKey.idForExporter(remoteAddress, sourceId);
-                        final Queue<PacketBytes> bufferedPackets = packetCache.get(newTemplateKey, ConcurrentLinkedQueue::new);
-                        final byte[] bytes = ByteBufUtil.getBytes(buf);
-                        bufferedPackets.add(new PacketBytes(bytes, rawNetFlowV9Packet.usedTemplates()));
-                        packetBuffered = true;
-                    } catch (ExecutionException ignored) {
-                        // the loader cannot fail, it only creates a new queue
-                    }
-                } else {
-                    // include the template in our result
-                    templates.add(templateKey);
-
-                    // .slice is enough here, because we convert it into a byte array when creating the result below
-                    // no need to copy or retain anything, the buffer only lives as long as this method's scope
-                    final ByteBuf packet = buf.slice();
-                    packetsToSend.add(packet);
+                for (PacketBytes packet : satisfiedPackets) {
+                    packetsToSend.add(ByteString.copyFrom(packet.getBytes()));
+                    usedTemplateIds.addAll(packet.getUsedTemplates());
                 }
             }
 
-            // if we have buffered this packet, don't try to process it now. we still need all the templates for it
-            if (packetBuffered) {
-                return new Result(null, true);
+            final Set<Integer> packetTemplateIds = rawNetFlowV9Packet.usedTemplates();
+            if (!packetTemplateIds.isEmpty()) {
+                if (exporter.bufferUnlessSatisfied(buf, packetTemplateIds)) {
+                    // we don't have all templates, this packet is buffered until we receive them
+                    return new Result(null, true);
+                }
+                packetsToSend.add(ByteString.copyFrom(buf.nioBuffer()));
+                usedTemplateIds.addAll(packetTemplateIds);
             }
 
-            // if we didn't buffer anything but also didn't have anything queued that can be processed, don't proceed.
+            // if we didn't have anything queued that can be processed and the packet had no data flows, don't proceed.
             if (packetsToSend.isEmpty()) {
                 return new Result(null, true);
             }
 
             // add the used templates and option template to the journal message builder
             final NetFlowV9Journal.RawNetflowV9.Builder builder = NetFlowV9Journal.RawNetflowV9.newBuilder();
-            for (TemplateKey templateKey : templates) {
-                final TemplateBytes templateBytes = templateCache.getIfPresent(templateKey);
+            for (int templateId : usedTemplateIds) {
+                final TemplateBytes templateBytes = exporter.getTemplate(templateId);
                 if (templateBytes == null) {
-                    LOG.warn("Template {} expired while processing, discarding netflow packet", templateKey);
+                    LOG.warn("Template {} of exporter {}/{} is missing while processing, discarding netflow packet", templateId, remoteAddress, sourceId);
                 } else if (templateBytes.isOptionTemplate()) {
-                    LOG.debug("Writing options template flow {}", templateKey);
-                    final byte[] bytes = templateBytes.getBytes();
-                    builder.putOptionTemplate(1, ByteString.copyFrom(bytes));
+                    LOG.debug("Writing options template flow {}", templateId);
+                    builder.putOptionTemplate(1, templateBytes.getBytes());
                 } else {
-                    LOG.debug("Writing template {}", templateKey);
-                    final byte[] bytes = templateBytes.getBytes();
-                    builder.putTemplates(templateKey.getTemplateId(), ByteString.copyFrom(bytes));
+                    LOG.debug("Writing template {}", templateId);
+                    builder.putTemplates(templateId, templateBytes.getBytes());
                 }
             }
 
             // finally write out all the packets we had buffered as well as the current one
-            for (ByteBuf packetBuffer : packetsToSend) {
-                final byte[] bytes = ByteBufUtil.getBytes(packetBuffer);
-                final ByteString value = ByteString.copyFrom(bytes);
-                builder.addPackets(value);
-            }
+            builder.addAllPackets(packetsToSend);
 
             final byte[] bytes = builder.build().toByteArray();
             final ByteBuf resultBuffer = Unpooled.buffer(bytes.length + 1)
@@ -249,31 +213,159 @@ public class NetflowV9CodecAggregator implements RemoteAddressCodecAggregator {
         }
     }
 
+    private ExporterTemplates exporterTemplates(SocketAddress remoteAddress, long sourceId) throws ExecutionException {
+        return exporters.get(TemplateKey.idForExporter(remoteAddress, sourceId), ExporterTemplates::new);
+    }
+
+    /**
+     * The templates and the buffered packets of one exporter.
+     * <p>
+     * Templates are read without locking. Buffering a packet and polling the satisfied packets synchronize on the
+     * exporter; since a template is registered before the buffered packets are polled, a packet is either seen by the
+     * poll or sees the template when being buffered.
+     * </p>
+     * <p>
+     * An exporter only drops its own packets to stay within the buffer limits. If the budget of all exporters is used
+     * up by other exporters, a new packet is dropped instead of being buffered.
+     * </p>
+     */
+    private class ExporterTemplates {
+        private final ConcurrentMap<Integer, TemplateBytes> templates = new ConcurrentHashMap<>();
+        private final ArrayDeque<PacketBytes> bufferedPackets = new ArrayDeque<>();
+        private long exporterBufferedBytes = 0;
+        private boolean discarded = false;
+
+        boolean putTemplate(int templateId, TemplateBytes templateBytes) {
+            final TemplateBytes previous = templates.put(templateId, templateBytes);
+            return previous == null || !previous.sameAs(templateBytes);
+        }
+
+        TemplateBytes getTemplate(int templateId) {
+            return templates.get(templateId);
+        }
+
+        boolean hasTemplates(Collection<Integer> templateIds) {
+            return templates.keySet().containsAll(templateIds);
+        }
+
+        /**
+         * @return {@code true} if the packet is missing templates and has been buffered or dropped, {@code false}
+         * if all templates of the packet are present
+         */
+        synchronized boolean bufferUnlessSatisfied(ByteBuf buf, Set<Integer> usedTemplates) {
+            if (hasTemplates(usedTemplates)) {
+                return false;
+            }
+            expireBufferedPackets();
+            final int packetSize = buf.readableBytes();
+            if (discarded || packetSize > maxBufferedBytesPerExporter) {
+                LOG.debug("Dropping packet waiting for templates {}, it can't be buffered", usedTemplates);
+                return true;
+            }
+            // drop the oldest packets if the exporter keeps sending flows without the templates
+            while (exporterBufferedBytes + packetSize > maxBufferedBytesPerExporter) {
+                removeOldestPacket();
+            }
+            while (!reserve(packetSize)) {
+                if (bufferedPackets.isEmpty()) {
+                    LOG.debug("Dropping packet waiting for templates {}, the buffer of all exporters is full", usedTemplates);
+                    return true;
+                }
+                removeOldestPacket();
+            }
+            bufferedPackets.add(new PacketBytes(ByteBufUtil.getBytes(buf), usedTemplates));
+            exporterBufferedBytes += packetSize;
+            LOG.debug("Buffered packet waiting for templates {}", usedTemplates);
+            return true;
+        }
+
+        private boolean reserve(int packetSize) {
+            long current;
+            do {
+                current = bufferedBytes.get();
+                if (current + packetSize > maxBufferedBytes) {
+                    return false;
+                }
+            } while (!bufferedBytes.compareAndSet(current, current + packetSize));
+            return true;
+        }
+
+        private void release(PacketBytes packet) {
+            exporterBufferedBytes -= packet.readableBytes();
+            bufferedBytes.addAndGet(-packet.readableBytes());
+        }
+
+        private void removeOldestPacket() {
+            release(bufferedPackets.remove());
+        }
+
+        /**
+         * Drops all buffered packets and stops buffering new ones, because the exporter has been removed from the
+         * template registry.
+         */
+        synchronized void discardBufferedPackets() {
+            discarded = true;
+            while (!bufferedPackets.isEmpty()) {
+                removeOldestPacket();
+            }
+        }
+
+        synchronized List<PacketBytes> pollSatisfiedPackets() {
+            expireBufferedPackets();
+            final List<PacketBytes> satisfied = new ArrayList<>();
+            final Iterator<PacketBytes> iterator = bufferedPackets.iterator();
+            while (iterator.hasNext()) {
+                final PacketBytes packet = iterator.next();
+                // are all templates the packet references there?
+                if (hasTemplates(packet.getUsedTemplates())) {
+                    satisfied.add(packet);
+                    release(packet);
+                    iterator.remove();
+                }
+            }
+            return satisfied;
+        }
+
+        private void expireBufferedPackets() {
+            final long now = System.nanoTime();
+            PacketBytes oldest;
+            while ((oldest = bufferedPackets.peek()) != null && now - oldest.getReceivedAt() > BUFFERED_PACKET_TTL_NANOS) {
+                removeOldestPacket();
+            }
+        }
+    }
+
     private static class TemplateBytes {
-        private final byte[] bytes;
+        private final ByteString bytes;
         private final boolean optionTemplate;
 
         public TemplateBytes(byte[] bytes, boolean optionTemplate) {
-            this.bytes = bytes;
+            this.bytes = ByteString.copyFrom(bytes);
             this.optionTemplate = optionTemplate;
         }
 
-        public byte[] getBytes() {
+        public ByteString getBytes() {
             return bytes;
         }
 
         public boolean isOptionTemplate() {
             return optionTemplate;
         }
+
+        boolean sameAs(TemplateBytes other) {
+            return optionTemplate == other.optionTemplate && bytes.equals(other.bytes);
+        }
     }
 
     public static class PacketBytes {
         private final byte[] bytes;
         private final Set<Integer> usedTemplates;
+        private final long receivedAt;
 
         public PacketBytes(byte[] bytes, Set<Integer> usedTemplates) {
             this.bytes = bytes;
             this.usedTemplates = usedTemplates;
+            this.receivedAt = System.nanoTime();
         }
 
         public byte[] getBytes() {
@@ -287,5 +379,9 @@ public class NetflowV9CodecAggregator implements RemoteAddressCodecAggregator {
         public int readableBytes() {
             return bytes.length;
         }
+
+        long getReceivedAt() {
+            return receivedAt;
+        }
     }
 }
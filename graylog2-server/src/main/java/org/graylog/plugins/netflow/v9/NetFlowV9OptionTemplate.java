@@ -17,6 +17,7 @@
 package org.graylog.plugins.netflow.v9;
 
 import com.google.auto.value.AutoValue;
+import com.google.auto.value.extension.memoized.Memoized;
 import com.google.common.collect.ImmutableList;
 
 import java.util.List;
@@ -29,6 +30,11 @@ public abstract class NetFlowV9OptionTemplate {
 
     public abstract ImmutableList<NetFlowV9FieldDef> optionDefs();
 
+    @Memoized
+    NetFlowV9RecordDecoder decoder() {
+        return new NetFlowV9RecordDecoder(optionDefs());
+    }
+
     public static NetFlowV9OptionTemplate create(int templateId,
                                                  List<NetFlowV9ScopeDef> scopeDefs,
                                                  List<NetFlowV9FieldDef> optionDefs) {
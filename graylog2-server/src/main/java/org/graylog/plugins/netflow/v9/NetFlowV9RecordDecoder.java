@@ -0,0 +1,60 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog.plugins.netflow.v9;
+
+import com.google.common.collect.ImmutableMap;
+import io.netty.buffer.ByteBuf;
+
+import java.util.List;
+import java.util.Locale;
+import java.util.Optional;
+
+/**
+ * Decodes the data records of one template. The field keys and the record length are computed once per template
+ * instead of once per record.
+ */
+final class NetFlowV9RecordDecoder {
+    private final NetFlowV9FieldDef[] definitions;
+    private final String[] keys;
+    private final int recordLength;
+
+    NetFlowV9RecordDecoder(List<NetFlowV9FieldDef> definitions) {
+        this.definitions = definitions.toArray(new NetFlowV9FieldDef[0]);
+        this.keys = new String[this.definitions.length];
+        int length = 0;
+        for (int i = 0; i < this.definitions.length; i++) {
+            keys[i] = this.definitions[i].type().name().toLowerCase(Locale.ROOT);
+            length += this.definitions[i].length();
+        }
+        this.recordLength = length;
+    }
+
+    int recordLength() {
+        return recordLength;
+    }
+
+    ImmutableMap<String, Object> decode(ByteBuf bb) {
+        final ImmutableMap.Builder<String, Object> fields = ImmutableMap.builder();
+        for (int i = 0; i < definitions.length; i++) {
+            final Optional<Object> value = definitions[i].parse(bb);
+            if (value.isPresent()) {
+                fields.put(keys[i], value.get());
+            }
+        }
+        return fields.build();
+    }
+}
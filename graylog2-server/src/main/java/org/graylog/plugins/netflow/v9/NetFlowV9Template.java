@@ -18,8 +18,10 @@ package org.graylog.plugins.netflow.v9;
 
 import com.fasterxml.jackson.annotation.JsonAutoDetect;
 import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import com.google.auto.value.AutoValue;
+import com.google.auto.value.extension.memoized.Memoized;
 import com.google.common.collect.ImmutableList;
 
 import java.util.List;
@@ -36,6 +38,12 @@ public abstract class NetFlowV9Template {
     @JsonProperty("definitions")
     public abstract ImmutableList<NetFlowV9FieldDef> definitions();
 
+    @JsonIgnore
+    @Memoized
+    NetFlowV9RecordDecoder decoder() {
+        return new NetFlowV9RecordDecoder(definitions());
+    }
+
     @JsonCreator
     public static NetFlowV9Template create(@JsonProperty("template_id") int templateId,
                                            @JsonProperty("field_count") int fieldCount,
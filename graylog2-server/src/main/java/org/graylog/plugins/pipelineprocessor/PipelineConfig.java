@@ -17,10 +17,20 @@
 package org.graylog.plugins.pipelineprocessor;
 
 import com.github.joschi.jadconfig.Parameter;
+import com.github.joschi.jadconfig.validators.PositiveIntegerValidator;
 import org.graylog2.plugin.PluginConfigBean;
 
 public class PipelineConfig implements PluginConfigBean {
 
     @Parameter("cached_stageiterators")
     private boolean cachedStageIterators = true;
+
+    @Parameter("pipeline_compiled_rules")
+    private boolean compiledRules = false;
+
+    @Parameter("pipeline_parallel_stages")
+    private boolean parallelStages = false;
+
+    @Parameter(value = "pipeline_parallel_stages_threads", validator = PositiveIntegerValidator.class)
+    private int parallelStagesThreads = Runtime.getRuntime().availableProcessors();
 }
@@ -0,0 +1,68 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog.plugins.pipelineprocessor.compiler;
+
+import com.google.common.collect.ImmutableList;
+import org.graylog.plugins.pipelineprocessor.EvaluationContext;
+import org.graylog.plugins.pipelineprocessor.ast.Rule;
+import org.graylog.plugins.pipelineprocessor.ast.statements.Statement;
+
+import java.util.List;
+
+/**
+ * The compiled form of a {@link Rule}, created by the {@link RuleCompiler}.
+ * <p>
+ * The condition and the statements behave exactly like the ones of the rule, including the exceptions and evaluation
+ * errors they raise, so the interpreter can use them in place of {@link Rule#when()} and {@link Rule#then()}.
+ */
+public class CompiledRule {
+    private final CompiledCondition condition;
+    private final ImmutableList<Statement> statements;
+    private final int interpretedNodes;
+
+    CompiledRule(CompiledCondition condition, List<Statement> statements, int interpretedNodes) {
+        this.condition = condition;
+        this.statements = ImmutableList.copyOf(statements);
+        this.interpretedNodes = interpretedNodes;
+    }
+
+    /**
+     * Evaluates the rule condition. Like {@link org.graylog.plugins.pipelineprocessor.ast.expressions.LogicalExpression#evaluateBool(EvaluationContext)}
+     * this may throw exceptions.
+     */
+    public boolean evaluateCondition(EvaluationContext context) {
+        return condition.evaluate(context);
+    }
+
+    public List<Statement> then() {
+        return statements;
+    }
+
+    /**
+     * @return the number of expressions the compiler didn't support, which are evaluated by walking their AST
+     */
+    public int interpretedNodes() {
+        return interpretedNodes;
+    }
+
+    @Override
+    public String toString() {
+        return "CompiledRule{" +
+                "interpretedNodes=" + interpretedNodes +
+                '}';
+    }
+}
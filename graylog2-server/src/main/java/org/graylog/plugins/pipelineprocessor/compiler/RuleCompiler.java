@@ -0,0 +1,413 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog.plugins.pipelineprocessor.compiler;
+
+import com.google.common.collect.ImmutableSet;
+import org.graylog.plugins.pipelineprocessor.EvaluationContext;
+import org.graylog.plugins.pipelineprocessor.ast.Rule;
+import org.graylog.plugins.pipelineprocessor.ast.expressions.AndExpression;
+import org.graylog.plugins.pipelineprocessor.ast.expressions.BooleanValuedFunctionWrapper;
+import org.graylog.plugins.pipelineprocessor.ast.expressions.ComparisonExpression;
+import org.graylog.plugins.pipelineprocessor.ast.expressions.EqualityExpression;
+import org.graylog.plugins.pipelineprocessor.ast.expressions.Expression;
+import org.graylog.plugins.pipelineprocessor.ast.expressions.FunctionExpression;
+import org.graylog.plugins.pipelineprocessor.ast.expressions.LogicalExpression;
+import org.graylog.plugins.pipelineprocessor.ast.expressions.MessageRefExpression;
+import org.graylog.plugins.pipelineprocessor.ast.expressions.NotExpression;
+import org.graylog.plugins.pipelineprocessor.ast.expressions.OrExpression;
+import org.graylog.plugins.pipelineprocessor.ast.expressions.VarRefExpression;
+import org.graylog.plugins.pipelineprocessor.ast.statements.FunctionStatement;
+import org.graylog.plugins.pipelineprocessor.ast.statements.Statement;
+import org.graylog.plugins.pipelineprocessor.ast.statements.VarAssignStatement;
+import org.joda.time.DateTime;
+import org.joda.time.Duration;
+import org.joda.time.Period;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Compiles the condition and statements of a {@link Rule} into a tree of closures.
+ * <p>
+ * Compared to walking the AST this resolves everything that is known when the rule is parsed only once: constant
+ * subexpressions are folded, field names of message references and comparison operators are resolved and the
+ * evaluation doesn't dispatch through the generic {@link Expression} interface for the supported node types.
+ * <p>
+ * Expressions the compiler doesn't support (arithmetic, literals of mutable types, field and index access) are
+ * evaluated through their AST node, as are function arguments, which the functions read from their
+ * {@link org.graylog.plugins.pipelineprocessor.ast.functions.FunctionArgs}. The compiled rule always behaves like the
+ * interpreted one, including the exceptions and evaluation errors.
+ */
+public class RuleCompiler {
+    private static final Logger LOG = LoggerFactory.getLogger(RuleCompiler.class);
+
+    // only immutable values can be shared by all evaluations of a folded constant
+    private static final ImmutableSet<Class<?>> FOLDABLE_TYPES = ImmutableSet.of(
+            String.class, Long.class, Double.class, Boolean.class, DateTime.class, Period.class, Duration.class);
+    private static final Object NOT_CONSTANT = new Object();
+
+    private int interpretedNodes;
+
+    private RuleCompiler() {
+    }
+
+    public static CompiledRule compile(Rule rule) {
+        final RuleCompiler compiler = new RuleCompiler();
+        final CompiledCondition condition = compiler.condition(rule.when());
+        final List<Statement> statements = new ArrayList<>(rule.then().size());
+        for (Statement statement : rule.then()) {
+            statements.add(compiler.statement(statement));
+        }
+        return new CompiledRule(condition, statements, compiler.interpretedNodes);
+    }
+
+    private Statement statement(Statement statement) {
+        if (statement instanceof FunctionStatement) {
+            final Expression expression = ((FunctionStatement) statement).getFunctionExpression();
+            final CompiledExpression compiled = expression(expression);
+            return new CompiledStatement(statement, context -> evaluate(compiled, expression, context));
+        }
+        if (statement instanceof VarAssignStatement) {
+            final String name = ((VarAssignStatement) statement).getName();
+            final Expression expression = ((VarAssignStatement) statement).getValueExpression();
+            final CompiledExpression compiled = expression(expression);
+            return new CompiledStatement(statement, context -> {
+                context.define(name, expression.getType(), evaluate(compiled, expression, context));
+                return null;
+            });
+        }
+        interpretedNodes++;
+        return statement;
+    }
+
+    // same as Expression#evaluate
+    @Nullable
+    private static Object evaluate(CompiledExpression compiled, Expression expression, EvaluationContext context) {
+        try {
+            return compiled.evaluate(context);
+        } catch (Exception e) {
+            context.onEvaluationException(e, expression);
+        }
+        return null;
+    }
+
+    private CompiledCondition condition(Expression expression) {
+        final Object constant = constantValue(expression);
+        if (constant instanceof Boolean) {
+            final boolean value = (Boolean) constant;
+            return context -> value;
+        }
+        if (expression instanceof AndExpression) {
+            final CompiledCondition left = condition(((AndExpression) expression).left());
+            final CompiledCondition right = condition(((AndExpression) expression).right());
+            return context -> left.evaluate(context) && right.evaluate(context);
+        }
+        if (expression instanceof OrExpression) {
+            final CompiledCondition left = condition(((OrExpression) expression).left());
+            final CompiledCondition right = condition(((OrExpression) expression).right());
+            return context -> left.evaluate(context) || right.evaluate(context);
+        }
+        if (expression instanceof NotExpression) {
+            final CompiledCondition right = condition(((NotExpression) expression).right());
+            return context -> !right.evaluate(context);
+        }
+        if (expression instanceof EqualityExpression) {
+            return equality((EqualityExpression) expression);
+        }
+        if (expression instanceof ComparisonExpression) {
+            return comparison((ComparisonExpression) expression);
+        }
+        if (expression instanceof BooleanValuedFunctionWrapper) {
+            final CompiledExpression wrapped = expression(((BooleanValuedFunctionWrapper) expression).expression());
+            return context -> {
+                final Object value = wrapped.evaluate(context);
+                return value != null && (Boolean) value;
+            };
+        }
+        interpretedNodes++;
+        // throws a ClassCastException for non-boolean expressions, just like the logical operators do
+        return context -> ((LogicalExpression) expression).evaluateBool(context);
+    }
+
+    private CompiledCondition equality(EqualityExpression expression) {
+        final Expression leftExpression = expression.left();
+        final CompiledExpression left = expression(leftExpression);
+        final CompiledExpression right = expression(expression.right());
+        final boolean checkEquality = expression.isCheckEquality();
+        return context -> {
+            final Object leftValue = left.evaluate(context);
+            final Object rightValue = right.evaluate(context);
+            if (leftValue == null) {
+                LOG.warn("left expression evaluated to null, returning false: {}", leftExpression);
+                return false;
+            }
+            final boolean equals;
+            // DateTime::equals takes the chronology into account, so identical instants expressed in different timezones are not equal
+            if (leftValue instanceof DateTime && rightValue instanceof DateTime) {
+                equals = ((DateTime) leftValue).isEqual((DateTime) rightValue);
+            } else {
+                equals = leftValue.equals(rightValue);
+            }
+            return checkEquality == equals;
+        };
+    }
+
+    private CompiledCondition comparison(ComparisonExpression expression) {
+        final ComparisonOperator operator = ComparisonOperator.of(expression.getOperator());
+        final CompiledExpression left = expression(expression.left());
+        final Object rightConstant = constantValue(expression.right());
+        if (rightConstant instanceof Long) {
+            // the common "field > 42" case, avoids unboxing the constant for every message
+            final long rightLong = (Long) rightConstant;
+            return context -> {
+                final Object leftValue = left.evaluate(context);
+                if (leftValue instanceof Long) {
+                    return operator.compare((long) leftValue, rightLong);
+                }
+                return operator.compare(leftValue, rightConstant);
+            };
+        }
+        final CompiledExpression right = expression(expression.right());
+        return context -> operator.compare(left.evaluate(context), right.evaluate(context));
+    }
+
+    private CompiledExpression expression(Expression expression) {
+        final Object constant = constantValue(expression);
+        if (constant != NOT_CONSTANT) {
+            return context -> constant;
+        }
+        if (expression instanceof AndExpression
+                || expression instanceof OrExpression
+                || expression instanceof NotExpression
+                || expression instanceof EqualityExpression
+                || expression instanceof ComparisonExpression
+                || expression instanceof BooleanValuedFunctionWrapper) {
+            final CompiledCondition condition = condition(expression);
+            return condition::evaluate;
+        }
+        if (expression instanceof MessageRefExpression) {
+            return messageRef((MessageRefExpression) expression);
+        }
+        if (expression instanceof VarRefExpression) {
+            final String identifier = ((VarRefExpression) expression).varName();
+            return context -> {
+                final EvaluationContext.TypedValue typedValue = context.get(identifier);
+                if (typedValue != null) {
+                    return typedValue.getValue();
+                }
+                // logs the missing variable
+                return expression.evaluateUnsafe(context);
+            };
+        }
+        if (expression instanceof FunctionExpression) {
+            // the function is resolved and its constant arguments are precomputed by the parser already
+            return expression::evaluateUnsafe;
+        }
+        interpretedNodes++;
+        return expression::evaluateUnsafe;
+    }
+
+    private CompiledExpression messageRef(MessageRefExpression expression) {
+        final Object constantFieldName = constantValue(expression.getFieldExpr());
+        if (constantFieldName == null) {
+            return context -> null;
+        }
+        if (constantFieldName != NOT_CONSTANT) {
+            final String fieldName = constantFieldName.toString();
+            return context -> context.currentMessage().getField(fieldName);
+        }
+        final CompiledExpression fieldExpression = expression(expression.getFieldExpr());
+        return context -> {
+            final Object fieldName = fieldExpression.evaluate(context);
+            if (fieldName == null) {
+                return null;
+            }
+            return context.currentMessage().getField(fieldName.toString());
+        };
+    }
+
+    /**
+     * @return the value of the expression if it is constant and immutable, {@link #NOT_CONSTANT} otherwise
+     */
+    @Nullable
+    private static Object constantValue(Expression expression) {
+        if (!isFoldable(expression)) {
+            return NOT_CONSTANT;
+        }
+        final Object value;
+        try {
+            value = expression.evaluateUnsafe(EvaluationContext.emptyContext());
+        } catch (Exception e) {
+            // keep the error at runtime, where it is reported for the message
+            return NOT_CONSTANT;
+        }
+        if (value != null && !FOLDABLE_TYPES.contains(value.getClass())) {
+            return NOT_CONSTANT;
+        }
+        return value;
+    }
+
+    private static boolean isFoldable(Expression expression) {
+        if (!expression.isConstant() || expression instanceof VarRefExpression || expression instanceof FunctionExpression) {
+            return false;
+        }
+        for (Expression child : expression.children()) {
+            if (!isFoldable(child)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // same semantics as ComparisonExpression, with the operator resolved upfront
+    private enum ComparisonOperator {
+        GT {
+            @Override
+            boolean compare(long left, long right) {
+                return left > right;
+            }
+
+            @Override
+            boolean compare(double left, double right) {
+                return left > right;
+            }
+
+            @Override
+            boolean compare(DateTime left, DateTime right) {
+                return left.isAfter(right);
+            }
+        },
+        GTE {
+            @Override
+            boolean compare(long left, long right) {
+                return left >= right;
+            }
+
+            @Override
+            boolean compare(double left, double right) {
+                return left >= right;
+            }
+
+            @Override
+            boolean compare(DateTime left, DateTime right) {
+                return !left.isBefore(right);
+            }
+        },
+        LT {
+            @Override
+            boolean compare(long left, long right) {
+                return left < right;
+            }
+
+            @Override
+            boolean compare(double left, double right) {
+                return left < right;
+            }
+
+            @Override
+            boolean compare(DateTime left, DateTime right) {
+                return left.isBefore(right);
+            }
+        },
+        LTE {
+            @Override
+            boolean compare(long left, long right) {
+                return left <= right;
+            }
+
+            @Override
+            boolean compare(double left, double right) {
+                return left <= right;
+            }
+
+            @Override
+            boolean compare(DateTime left, DateTime right) {
+                return !left.isAfter(right);
+            }
+        },
+        NONE {
+            @Override
+            boolean compare(long left, long right) {
+                return false;
+            }
+
+            @Override
+            boolean compare(double left, double right) {
+                return false;
+            }
+
+            @Override
+            boolean compare(DateTime left, DateTime right) {
+                return false;
+            }
+        };
+
+        static ComparisonOperator of(String operator) {
+            switch (operator) {
+                case ">":
+                    return GT;
+                case ">=":
+                    return GTE;
+                case "<":
+                    return LT;
+                case "<=":
+                    return LTE;
+                default:
+                    return NONE;
+            }
+        }
+
+        abstract boolean compare(long left, long right);
+
+        abstract boolean compare(double left, double right);
+
+        abstract boolean compare(DateTime left, DateTime right);
+
+        boolean compare(Object left, Object right) {
+            if (left instanceof DateTime && right instanceof DateTime) {
+                return compare((DateTime) left, (DateTime) right);
+            }
+            if (left instanceof Double || right instanceof Double) {
+                return compare((double) left, (double) right);
+            }
+            return compare((long) left, (long) right);
+        }
+    }
+
+    private static class CompiledStatement implements Statement {
+        private final Statement source;
+        private final Statement compiled;
+
+        CompiledStatement(Statement source, Statement compiled) {
+            this.source = source;
+            this.compiled = compiled;
+        }
+
+        @Override
+        public Object evaluate(EvaluationContext context) {
+            return compiled.evaluate(context);
+        }
+
+        @Override
+        public String toString() {
+            return source.toString();
+        }
+    }
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog.plugins.pipelineprocessor.processors;
+
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import org.graylog.plugins.pipelineprocessor.ast.Stage;
+
+import javax.annotation.Nullable;
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.ForkJoinWorkerThread;
+
+import static com.codahale.metrics.MetricRegistry.name;
+
+/**
+ * Holds the thread pool and the cached {@link StageFieldAccess field access analysis} used by the
+ * {@link PipelineInterpreter} to evaluate independent stages of a stage slice concurrently, if
+ * {@code pipeline_parallel_stages} is enabled.
+ */
+@Singleton
+public class ConcurrentStageExecutor {
+    private final boolean enabled;
+    @Nullable
+    private final ForkJoinPool pool;
+    // weak keys use identity comparison, the stages are replaced whenever the pipeline configuration changes
+    private final LoadingCache<Stage, StageFieldAccess> fieldAccess = CacheBuilder.newBuilder()
+            .weakKeys()
+            .build(CacheLoader.from(StageFieldAccess::of));
+    private final Meter concurrentStages;
+    private final Meter serialStages;
+
+    @Inject
+    public ConcurrentStageExecutor(@Named("pipeline_parallel_stages") boolean enabled,
+                                   @Named("pipeline_parallel_stages_threads") int threads,
+                                   MetricRegistry metricRegistry) {
+        this.enabled = enabled;
+        this.pool = enabled ? new ForkJoinPool(threads, ConcurrentStageExecutor::newThread, null, false) : null;
+        this.concurrentStages = metricRegistry.meter(name(PipelineInterpreter.class, "stages", "concurrent"));
+        this.serialStages = metricRegistry.meter(name(PipelineInterpreter.class, "stages", "serial"));
+    }
+
+    private static ForkJoinWorkerThread newThread(ForkJoinPool pool) {
+        final ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+        thread.setName("pipeline-stage-" + thread.getPoolIndex());
+        return thread;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    StageFieldAccess fieldAccess(Stage stage) {
+        return fieldAccess.getUnchecked(stage);
+    }
+
+    ForkJoinTask<?> submit(Runnable task) {
+        if (pool == null) {
+            throw new IllegalStateException("Concurrent stage evaluation is disabled");
+        }
+        return pool.submit(task);
+    }
+
+    void markConcurrent(int stages) {
+        concurrentStages.mark(stages);
+    }
+
+    void markSerial(int stages) {
+        serialStages.mark(stages);
+    }
+}
@@ -37,6 +37,8 @@ import org.graylog.plugins.pipelineprocessor.ast.Rule;
 import org.graylog.plugins.pipelineprocessor.ast.Stage;
 import org.graylog.plugins.pipelineprocessor.ast.expressions.LogicalExpression;
 import org.graylog.plugins.pipelineprocessor.ast.statements.Statement;
+import org.graylog.plugins.pipelineprocessor.compiler.CompiledRule;
+import org.graylog.plugins.pipelineprocessor.compiler.RuleCompiler;
 import org.graylog.plugins.pipelineprocessor.db.RuleMetricsConfigDto;
 import org.graylog.plugins.pipelineprocessor.processors.listeners.InterpreterListener;
 import org.graylog.plugins.pipelineprocessor.processors.listeners.NoopInterpreterListener;
@@ -56,15 +58,21 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
 import javax.inject.Inject;
 import javax.inject.Named;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinTask;
 import java.util.stream.Collectors;
 
 import static com.codahale.metrics.MetricRegistry.name;
@@ -78,17 +86,20 @@ public class PipelineInterpreter implements MessageProcessor {
     private final Timer executionTime;
     private final MetricRegistry metricRegistry;
     private final ConfigurationStateUpdater stateUpdater;
+    private final ConcurrentStageExecutor concurrentStageExecutor;
 
     @Inject
     public PipelineInterpreter(MessageQueueAcknowledger messageQueueAcknowledger,
                                MetricRegistry metricRegistry,
-                               ConfigurationStateUpdater stateUpdater) {
+                               ConfigurationStateUpdater stateUpdater,
+                               ConcurrentStageExecutor concurrentStageExecutor) {
 
         this.messageQueueAcknowledger = messageQueueAcknowledger;
         this.filteredOutMessages = metricRegistry.meter(name(ProcessBufferProcessor.class, "filteredOutMessages"));
         this.executionTime = metricRegistry.timer(name(PipelineInterpreter.class, "executionTime"));
         this.metricRegistry = metricRegistry;
         this.stateUpdater = stateUpdater;
+        this.concurrentStageExecutor = concurrentStageExecutor;
     }
 
     /**
@@ -273,8 +284,12 @@ public class PipelineInterpreter implements MessageProcessor {
             }
 
             final List<Stage> stageSet = stages.next();
-            for (final Stage stage : stageSet) {
-                evaluateStage(stage, message, msgId, result, pipelinesToSkip, interpreterListener);
+            if (stageSet.size() > 1 && concurrentStageExecutor.isEnabled() && interpreterListener.supportsConcurrentStages()) {
+                evaluateStageSlice(stageSet, message, msgId, result, pipelinesToSkip, interpreterListener, state);
+            } else {
+                for (final Stage stage : stageSet) {
+                    evaluateStage(stage, message, msgId, result, pipelinesToSkip, interpreterListener, state);
+                }
             }
         }
 
@@ -282,12 +297,147 @@ public class PipelineInterpreter implements MessageProcessor {
         return result;
     }
 
+    // Splits the stage slice into groups of stages that don't interfere with each other, keeping the serial order.
+    // A stage joins the current group unless one of the group's stages writes a field it reads or writes.
+    private void evaluateStageSlice(List<Stage> stageSet,
+                                    Message message,
+                                    String msgId,
+                                    List<Message> result,
+                                    Set<Pipeline> pipelinesToSkip,
+                                    InterpreterListener interpreterListener,
+                                    State state) {
+        final List<Stage> group = new ArrayList<>(stageSet.size());
+        final List<StageFieldAccess> groupAccess = new ArrayList<>(stageSet.size());
+        for (final Stage stage : stageSet) {
+            if (pipelinesToSkip.contains(stage.getPipeline())) {
+                evaluateStage(stage, message, msgId, result, pipelinesToSkip, interpreterListener, state);
+                continue;
+            }
+            final StageFieldAccess access = concurrentStageExecutor.fieldAccess(stage);
+            if (groupAccess.stream().anyMatch(earlier -> earlier.conflictsWith(access))) {
+                evaluateStageGroup(group, message, msgId, result, pipelinesToSkip, interpreterListener, state);
+                group.clear();
+                groupAccess.clear();
+            }
+            group.add(stage);
+            groupAccess.add(access);
+        }
+        evaluateStageGroup(group, message, msgId, result, pipelinesToSkip, interpreterListener, state);
+    }
+
+    // Evaluates every stage of the group against its own copy of the message and merges the changes back in the
+    // serial stage order, so the result is the same as evaluating the stages one after the other.
+    private void evaluateStageGroup(List<Stage> group,
+                                    Message message,
+                                    String msgId,
+                                    List<Message> result,
+                                    Set<Pipeline> pipelinesToSkip,
+                                    InterpreterListener interpreterListener,
+                                    State state) {
+        if (group.isEmpty()) {
+            return;
+        }
+        if (group.size() == 1) {
+            concurrentStageExecutor.markSerial(1);
+            evaluateStage(group.get(0), message, msgId, result, pipelinesToSkip, interpreterListener, state);
+            return;
+        }
+        concurrentStageExecutor.markConcurrent(group.size());
+
+        final Map<String, Object> baselineFields = message.getFields();
+        final Set<Stream> baselineStreams = message.getStreams();
+        final List<StageRun> runs = new ArrayList<>(group.size());
+        for (final Stage stage : group) {
+            runs.add(new StageRun(stage, message.copy(), msgId, interpreterListener, state));
+        }
+
+        final List<ForkJoinTask<?>> tasks = new ArrayList<>(runs.size() - 1);
+        for (final StageRun run : runs.subList(1, runs.size())) {
+            tasks.add(concurrentStageExecutor.submit(run));
+        }
+        // the calling thread takes the first stage instead of idling
+        runs.get(0).run();
+        tasks.forEach(ForkJoinTask::join);
+
+        for (final StageRun run : runs) {
+            if (run.failure != null) {
+                throw run.failure;
+            }
+            mergeStageChanges(message, baselineFields, baselineStreams, run.message);
+            result.addAll(run.createdMessages);
+            pipelinesToSkip.addAll(run.pipelinesToSkip);
+        }
+    }
+
+    private static void mergeStageChanges(Message message,
+                                          Map<String, Object> baselineFields,
+                                          Set<Stream> baselineStreams,
+                                          Message stageMessage) {
+        for (final Map.Entry<String, Object> field : stageMessage.getFieldsEntries()) {
+            final Object baselineValue = baselineFields.get(field.getKey());
+            if (baselineValue != field.getValue() && !field.getValue().equals(baselineValue)) {
+                message.addField(field.getKey(), field.getValue());
+            }
+        }
+        for (final String field : baselineFields.keySet()) {
+            if (!stageMessage.hasField(field)) {
+                message.removeField(field);
+            }
+        }
+
+        final Set<Stream> streams = stageMessage.getStreams();
+        for (final Stream stream : streams) {
+            if (!baselineStreams.contains(stream)) {
+                message.addStream(stream);
+            }
+        }
+        for (final Stream stream : baselineStreams) {
+            if (!streams.contains(stream)) {
+                message.removeStream(stream);
+            }
+        }
+
+        if (stageMessage.getFilterOut()) {
+            message.setFilterOut(true);
+        }
+        stageMessage.processingErrors().forEach(message::addProcessingError);
+    }
+
+    private class StageRun implements Runnable {
+        private final Stage stage;
+        private final Message message;
+        private final String msgId;
+        private final InterpreterListener interpreterListener;
+        private final State state;
+        private final List<Message> createdMessages = new ArrayList<>();
+        private final Set<Pipeline> pipelinesToSkip = new HashSet<>();
+        private RuntimeException failure;
+
+        StageRun(Stage stage, Message message, String msgId, InterpreterListener interpreterListener, State state) {
+            this.stage = stage;
+            this.message = message;
+            this.msgId = msgId;
+            this.interpreterListener = interpreterListener;
+            this.state = state;
+        }
+
+        @Override
+        public void run() {
+            try {
+                evaluateStage(stage, message, msgId, createdMessages, pipelinesToSkip, interpreterListener, state);
+            } catch (RuntimeException e) {
+                failure = e;
+            }
+        }
+    }
+
     private void evaluateStage(Stage stage,
                                Message message,
                                String msgId,
                                List<Message> result,
                                Set<Pipeline> pipelinesToSkip,
-                               InterpreterListener interpreterListener) {
+                               InterpreterListener interpreterListener,
+                               State state) {
         final Pipeline pipeline = stage.getPipeline();
         if (pipelinesToSkip.contains(pipeline)) {
             log.debug("[{}] previous stage result prevents further processing of pipeline `{}`",
@@ -302,7 +452,7 @@ public class PipelineInterpreter implements MessageProcessor {
                 stage.stage(),
                 stage.match());
 
-        // TODO the message should be decorated to allow layering changes and isolate stages
+        // the message is a private copy if the stage runs concurrently with other stages, see evaluateStageGroup
         final EvaluationContext context = new EvaluationContext(message);
 
         // 3. iterate over all the stages in these pipelines and execute them in order
@@ -312,7 +462,7 @@ public class PipelineInterpreter implements MessageProcessor {
         boolean allRulesMatched = true;
         for (Rule rule : stageRules) {
             try {
-                final boolean ruleCondition = evaluateRuleCondition(rule, message, msgId, pipeline, context, rulesToRun, interpreterListener);
+                final boolean ruleCondition = evaluateRuleCondition(rule, state.getCompiledRule(rule), message, msgId, pipeline, context, rulesToRun, interpreterListener);
                 anyRulesMatched |= ruleCondition;
                 allRulesMatched &= ruleCondition;
 
@@ -330,7 +480,7 @@ public class PipelineInterpreter implements MessageProcessor {
         }
 
         for (Rule rule : rulesToRun) {
-            if (!executeRuleActions(rule, message, msgId, pipeline, context, interpreterListener)) {
+            if (!executeRuleActions(rule, state.getCompiledRule(rule), message, msgId, pipeline, context, interpreterListener)) {
                 log.warn("Error evaluating action for rule <{}/{}> with message: {} (Error: {})",
                         rule.name(), rule.id(), message, context.lastEvaluationError());
                 // if any of the rules raise an error, skip the rest of the rules
@@ -367,6 +517,7 @@ public class PipelineInterpreter implements MessageProcessor {
     }
 
     private boolean executeRuleActions(Rule rule,
+                                       @Nullable CompiledRule compiledRule,
                                        Message message,
                                        String msgId,
                                        Pipeline pipeline,
@@ -376,7 +527,8 @@ public class PipelineInterpreter implements MessageProcessor {
         interpreterListener.executeRule(rule, pipeline);
         try {
             log.debug("[{}] rule `{}` matched running actions", msgId, rule.name());
-            for (Statement statement : rule.then()) {
+            final Collection<Statement> statements = compiledRule != null ? compiledRule.then() : rule.then();
+            for (Statement statement : statements) {
                 if (!evaluateStatement(message, interpreterListener, pipeline, context, rule, statement)) {
                     // statement raised an error, skip the rest of the rule
                     return false;
@@ -413,6 +565,7 @@ public class PipelineInterpreter implements MessageProcessor {
     }
 
     private boolean evaluateRuleCondition(Rule rule,
+                                          @Nullable CompiledRule compiledRule,
                                           Message message,
                                           String msgId,
                                           Pipeline pipeline,
@@ -422,7 +575,7 @@ public class PipelineInterpreter implements MessageProcessor {
         final boolean matched;
         final LogicalExpression logicalExpression = rule.when();
         try {
-            matched = logicalExpression.evaluateBool(context);
+            matched = compiledRule != null ? compiledRule.evaluateCondition(context) : logicalExpression.evaluateBool(context);
         } catch (Exception e) {
 
             context.onEvaluationException(e, logicalExpression);
@@ -475,6 +628,7 @@ public class PipelineInterpreter implements MessageProcessor {
         private final LoadingCache<Set<Pipeline>, StageIterator.Configuration> cache;
         private final boolean cachedIterators;
         private final RuleMetricsConfigDto ruleMetricsConfig;
+        private final Map<Rule, CompiledRule> compiledRules;
 
         @AssistedInject
         public State(@Assisted ImmutableMap<String, Pipeline> currentPipelines,
@@ -482,11 +636,13 @@ public class PipelineInterpreter implements MessageProcessor {
                      @Assisted RuleMetricsConfigDto ruleMetricsConfig,
                      MetricRegistry metricRegistry,
                      @Named("processbuffer_processors") int processorCount,
-                     @Named("cached_stageiterators") boolean cachedIterators) {
+                     @Named("cached_stageiterators") boolean cachedIterators,
+                     @Named("pipeline_compiled_rules") boolean compileRules) {
             this.currentPipelines = currentPipelines;
             this.streamPipelineConnections = streamPipelineConnections;
             this.cachedIterators = cachedIterators;
             this.ruleMetricsConfig = ruleMetricsConfig;
+            this.compiledRules = compileRules ? compileAllRules(currentPipelines) : Collections.emptyMap();
 
             cache = CacheBuilder.newBuilder()
                     .concurrencyLevel(processorCount)
@@ -503,6 +659,28 @@ public class PipelineInterpreter implements MessageProcessor {
             MetricUtils.safelyRegisterAll(metricRegistry, new CacheStatsSet(getStageCacheMetricName(), cache));
         }
 
+        private Map<Rule, CompiledRule> compileAllRules(@Nullable ImmutableMap<String, Pipeline> pipelines) {
+            if (pipelines == null) {
+                return Collections.emptyMap();
+            }
+            // every stage has its own copy of a rule for the metrics, but the copies share the AST
+            final Map<LogicalExpression, CompiledRule> compiledConditions = new IdentityHashMap<>();
+            final Map<Rule, CompiledRule> compiled = new IdentityHashMap<>();
+            for (Pipeline pipeline : pipelines.values()) {
+                for (Stage stage : pipeline.stages()) {
+                    for (Rule rule : stage.getRules()) {
+                        compiled.put(rule, compiledConditions.computeIfAbsent(rule.when(), when -> RuleCompiler.compile(rule)));
+                    }
+                }
+            }
+            if (LOG.isDebugEnabled()) {
+                LOG.debug("Compiled {} rules, {} expressions are evaluated by the interpreter",
+                        compiledConditions.size(),
+                        compiledConditions.values().stream().mapToInt(CompiledRule::interpretedNodes).sum());
+            }
+            return Collections.unmodifiableMap(compiled);
+        }
+
         protected String getStageCacheMetricName() {
             return name(PipelineInterpreter.class, STAGE_CACHE_METRIC_SUFFIX);
         }
@@ -519,6 +697,14 @@ public class PipelineInterpreter implements MessageProcessor {
             return ruleMetricsConfig.metricsEnabled();
         }
 
+        /**
+         * @return the compiled form of the rule, {@code null} if rule compilation is disabled
+         */
+        @Nullable
+        public CompiledRule getCompiledRule(Rule rule) {
+            return compiledRules.get(rule);
+        }
+
         public StageIterator getStageIterator(Set<Pipeline> pipelines) {
             try {
                 if (cachedIterators) {
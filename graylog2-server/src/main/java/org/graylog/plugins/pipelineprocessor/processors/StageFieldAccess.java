@@ -0,0 +1,308 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog.plugins.pipelineprocessor.processors;
+
+import com.google.common.collect.ImmutableSet;
+import org.graylog.plugins.pipelineprocessor.EvaluationContext;
+import org.graylog.plugins.pipelineprocessor.ast.Rule;
+import org.graylog.plugins.pipelineprocessor.ast.Stage;
+import org.graylog.plugins.pipelineprocessor.ast.expressions.Expression;
+import org.graylog.plugins.pipelineprocessor.ast.expressions.FieldRefExpression;
+import org.graylog.plugins.pipelineprocessor.ast.expressions.FunctionExpression;
+import org.graylog.plugins.pipelineprocessor.ast.expressions.MessageRefExpression;
+import org.graylog.plugins.pipelineprocessor.ast.expressions.StringExpression;
+import org.graylog.plugins.pipelineprocessor.ast.functions.FunctionArgs;
+import org.graylog.plugins.pipelineprocessor.ast.functions.ParameterDescriptor;
+import org.graylog.plugins.pipelineprocessor.ast.statements.FunctionStatement;
+import org.graylog.plugins.pipelineprocessor.ast.statements.Statement;
+import org.graylog.plugins.pipelineprocessor.ast.statements.VarAssignStatement;
+import org.graylog.plugins.pipelineprocessor.functions.FromInput;
+import org.graylog.plugins.pipelineprocessor.functions.lookup.LookupAddStringList;
+import org.graylog.plugins.pipelineprocessor.functions.lookup.LookupClearKey;
+import org.graylog.plugins.pipelineprocessor.functions.lookup.LookupRemoveStringList;
+import org.graylog.plugins.pipelineprocessor.functions.lookup.LookupSetStringList;
+import org.graylog.plugins.pipelineprocessor.functions.lookup.LookupSetValue;
+import org.graylog.plugins.pipelineprocessor.functions.messages.CloneMessage;
+import org.graylog.plugins.pipelineprocessor.functions.messages.CreateMessage;
+import org.graylog.plugins.pipelineprocessor.functions.messages.DropMessage;
+import org.graylog.plugins.pipelineprocessor.functions.messages.HasField;
+import org.graylog.plugins.pipelineprocessor.functions.messages.RemoveField;
+import org.graylog.plugins.pipelineprocessor.functions.messages.RemoveFromStream;
+import org.graylog.plugins.pipelineprocessor.functions.messages.RenameField;
+import org.graylog.plugins.pipelineprocessor.functions.messages.RouteToStream;
+import org.graylog.plugins.pipelineprocessor.functions.messages.SetField;
+import org.graylog.plugins.pipelineprocessor.functions.messages.SetFields;
+import org.graylog.plugins.pipelineprocessor.functions.messages.TrafficAccountingSize;
+import org.graylog2.plugin.Message;
+
+import javax.annotation.Nullable;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * The message fields the rules of a {@link Stage} may read and write, derived from the rule AST.
+ * <p>
+ * The analysis is conservative: a field name that cannot be determined at parse time counts as an access to all
+ * fields, and functions whose effect on the message is unknown (plugin functions, functions working on another
+ * message, lookup table writes) make the stage {@link #isIsolatable() non-isolatable}. The stream assignment of the
+ * message is tracked as the pseudo field {@link #STREAMS}.
+ */
+final class StageFieldAccess {
+    /**
+     * Pseudo field for the stream assignment of the message. It contains a character not allowed in field names so
+     * it can't clash with a real field.
+     */
+    static final String STREAMS = "$streams";
+
+    private static final String BUILTIN_FUNCTIONS_PACKAGE = "org.graylog.plugins.pipelineprocessor.functions.";
+
+    // functions that have side effects outside of the current message
+    private static final ImmutableSet<String> OPAQUE_FUNCTIONS = ImmutableSet.of(
+            LookupSetValue.NAME,
+            LookupClearKey.NAME,
+            LookupSetStringList.NAME,
+            LookupAddStringList.NAME,
+            LookupRemoveStringList.NAME
+    );
+
+    private final ImmutableSet<String> reads;
+    private final ImmutableSet<String> writes;
+    private final boolean readsAll;
+    private final boolean writesAll;
+    private final boolean isolatable;
+
+    private StageFieldAccess(Set<String> reads, Set<String> writes, boolean readsAll, boolean writesAll, boolean isolatable) {
+        this.reads = ImmutableSet.copyOf(reads);
+        this.writes = ImmutableSet.copyOf(writes);
+        this.readsAll = readsAll;
+        this.writesAll = writesAll;
+        this.isolatable = isolatable;
+    }
+
+    static StageFieldAccess of(Stage stage) {
+        final Analyzer analyzer = new Analyzer();
+        for (Rule rule : stage.getRules()) {
+            analyzer.expression(rule.when());
+            for (Statement statement : rule.then()) {
+                analyzer.statement(statement);
+            }
+        }
+        return new StageFieldAccess(analyzer.reads, analyzer.writes, analyzer.readsAll, analyzer.writesAll, analyzer.isolatable);
+    }
+
+    Set<String> reads() {
+        return reads;
+    }
+
+    Set<String> writes() {
+        return writes;
+    }
+
+    boolean readsAll() {
+        return readsAll;
+    }
+
+    boolean writesAll() {
+        return writesAll;
+    }
+
+    /**
+     * @return {@code true} if all effects of the stage on the processed message are known, which is required to run
+     * it against a copy of the message
+     */
+    boolean isIsolatable() {
+        return isolatable;
+    }
+
+    /**
+     * Checks whether running the given stage concurrently with this one could produce a different result than
+     * running this stage first. That is the case if this stage writes a field the later stage reads or writes.
+     * Reads of this stage don't matter, it wouldn't see the writes of the later stage in serial order either.
+     *
+     * @param later the stage that runs after this one in serial order
+     * @return {@code true} if the stages have to run one after the other
+     */
+    boolean conflictsWith(StageFieldAccess later) {
+        if (!isolatable || !later.isolatable) {
+            return true;
+        }
+        if (writesAll) {
+            return !later.reads.isEmpty() || !later.writes.isEmpty() || later.readsAll || later.writesAll;
+        }
+        if (writes.isEmpty()) {
+            return false;
+        }
+        if (later.readsAll || later.writesAll) {
+            return true;
+        }
+        for (String field : writes) {
+            if (later.reads.contains(field) || later.writes.contains(field)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public String toString() {
+        return "StageFieldAccess{" +
+                "reads=" + (readsAll ? "*" : reads) +
+                ", writes=" + (writesAll ? "*" : writes) +
+                ", isolatable=" + isolatable +
+                '}';
+    }
+
+    private static class Analyzer {
+        private final Set<String> reads = new HashSet<>();
+        private final Set<String> writes = new HashSet<>();
+        private boolean readsAll = false;
+        private boolean writesAll = false;
+        private boolean isolatable = true;
+
+        void statement(Statement statement) {
+            if (statement instanceof FunctionStatement) {
+                expression(((FunctionStatement) statement).getFunctionExpression());
+            } else if (statement instanceof VarAssignStatement) {
+                expression(((VarAssignStatement) statement).getValueExpression());
+            } else {
+                isolatable = false;
+            }
+        }
+
+        void expression(@Nullable Expression expression) {
+            if (expression == null) {
+                return;
+            }
+            if (expression instanceof MessageRefExpression) {
+                read(constantName(((MessageRefExpression) expression).getFieldExpr()));
+            } else if (expression instanceof FunctionExpression) {
+                function((FunctionExpression) expression);
+            }
+            for (Expression child : expression.children()) {
+                expression(child);
+            }
+        }
+
+        private void function(FunctionExpression expression) {
+            final String name = expression.getFunction().descriptor().name();
+            final FunctionArgs args = expression.getArgs();
+
+            if (OPAQUE_FUNCTIONS.contains(name)
+                    || !expression.getFunction().getClass().getName().startsWith(BUILTIN_FUNCTIONS_PACKAGE)
+                    || worksOnOtherMessage(args)) {
+                isolatable = false;
+                return;
+            }
+
+            switch (name) {
+                case HasField.NAME:
+                    read(constantArg(args, "field"));
+                    break;
+                case SetField.NAME:
+                    write(setFieldName(args));
+                    break;
+                case SetFields.NAME:
+                    writesAll = true;
+                    break;
+                case RemoveField.NAME:
+                    write(constantArg(args, "field"));
+                    break;
+                case RenameField.NAME:
+                    final String oldField = constantArg(args, "old_field");
+                    read(oldField);
+                    write(oldField);
+                    write(constantArg(args, "new_field"));
+                    break;
+                case RouteToStream.NAME:
+                case RemoveFromStream.NAME:
+                    read(STREAMS);
+                    write(STREAMS);
+                    break;
+                case CreateMessage.NAME:
+                    read(Message.FIELD_MESSAGE);
+                    read(Message.FIELD_SOURCE);
+                    break;
+                case CloneMessage.NAME:
+                case TrafficAccountingSize.NAME:
+                    readsAll = true;
+                    break;
+                case DropMessage.NAME:
+                    // only ever sets the filter flag, which is merged by the interpreter
+                case FromInput.NAME:
+                    // the source input of a message never changes
+                default:
+                    break;
+            }
+        }
+
+        // functions from the "messages" package can work on a message passed as argument instead of the current one
+        private boolean worksOnOtherMessage(FunctionArgs args) {
+            if (!args.isPresent("message")) {
+                return false;
+            }
+            final ParameterDescriptor<?, ?> param = args.param("message");
+            return param == null || Message.class.isAssignableFrom(param.type());
+        }
+
+        @Nullable
+        private String setFieldName(FunctionArgs args) {
+            final String field = constantArg(args, "field");
+            if (field == null) {
+                return null;
+            }
+            final String prefix = args.isPresent("prefix") ? constantArg(args, "prefix") : "";
+            final String suffix = args.isPresent("suffix") ? constantArg(args, "suffix") : "";
+            if (prefix == null || suffix == null) {
+                return null;
+            }
+            return (prefix + field + suffix).trim();
+        }
+
+        @Nullable
+        private String constantArg(FunctionArgs args, String name) {
+            return constantName(args.expression(name));
+        }
+
+        @Nullable
+        private String constantName(@Nullable Expression expression) {
+            if (expression instanceof FieldRefExpression) {
+                return ((FieldRefExpression) expression).fieldName();
+            }
+            if (expression instanceof StringExpression) {
+                return (String) expression.evaluateUnsafe(EvaluationContext.emptyContext());
+            }
+            return null;
+        }
+
+        // a null field name means it is only known at runtime
+        private void read(@Nullable String field) {
+            if (field == null) {
+                readsAll = true;
+            } else {
+                reads.add(field);
+            }
+        }
+
+        private void write(@Nullable String field) {
+            if (field == null) {
+                writesAll = true;
+            } else {
+                writes.add(field);
+            }
+        }
+    }
+}
@@ -38,4 +38,12 @@ public interface InterpreterListener {
     void failExecuteRule(Rule rule, Pipeline pipeline);
     void continuePipelineExecution(Pipeline pipeline, Stage stage);
     void stopPipelineExecution(Pipeline pipeline, Stage stage);
+
+    /**
+     * Whether the listener may be called from multiple threads at the same time. Independent stages of a stage
+     * slice are only evaluated concurrently if this returns {@code true}.
+     */
+    default boolean supportsConcurrentStages() {
+        return false;
+    }
 }
@@ -93,4 +93,9 @@ public class NoopInterpreterListener implements InterpreterListener {
     public void stopPipelineExecution(Pipeline pipeline, Stage stage) {
 
     }
+
+    @Override
+    public boolean supportsConcurrentStages() {
+        return true;
+    }
 }
@@ -17,6 +17,7 @@
 package org.graylog.plugins.views;
 
 import com.github.joschi.jadconfig.Parameter;
+import com.github.joschi.jadconfig.validators.PositiveIntegerValidator;
 import org.graylog2.plugin.PluginConfigBean;
 import org.joda.time.Duration;
 
@@ -24,7 +25,25 @@ public class ViewsConfig implements PluginConfigBean {
     private static final Duration DEFAULT_MAXIMUM_AGE_FOR_SEARCHES = Duration.standardDays(4);
     private static final String PREFIX = "views_";
     private static final String MAX_SEARCH_AGE = PREFIX + "maximum_search_age";
+    public static final String QUERY_ENGINE_THREADS = PREFIX + "query_engine_threads";
+    public static final String QUERY_ENGINE_QUEUE_SIZE = PREFIX + "query_engine_queue_size";
+    public static final String QUERY_ENGINE_MAX_QUERIES_PER_SEARCH = PREFIX + "query_engine_max_queries_per_search";
+    public static final String QUERY_ENGINE_MAX_QUERIES_PER_USER = PREFIX + "query_engine_max_queries_per_user";
 
     @Parameter(MAX_SEARCH_AGE)
     private Duration maxSearchAge = DEFAULT_MAXIMUM_AGE_FOR_SEARCHES;
+
+    @Parameter(value = QUERY_ENGINE_THREADS, validators = PositiveIntegerValidator.class)
+    private int queryEngineThreads = 4;
+
+    @Parameter(value = QUERY_ENGINE_QUEUE_SIZE, validators = PositiveIntegerValidator.class)
+    private int queryEngineQueueSize = 1000;
+
+    // 0 means no limit
+    @Parameter(value = QUERY_ENGINE_MAX_QUERIES_PER_SEARCH)
+    private int queryEngineMaxQueriesPerSearch = 0;
+
+    // 0 means no limit
+    @Parameter(value = QUERY_ENGINE_MAX_QUERIES_PER_USER)
+    private int queryEngineMaxQueriesPerUser = 0;
 }
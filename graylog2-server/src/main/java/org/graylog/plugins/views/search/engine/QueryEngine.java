@@ -16,7 +16,7 @@
  */
 package org.graylog.plugins.views.search.engine;
 
-import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.codahale.metrics.MetricRegistry;
 import org.graylog.plugins.views.search.Query;
 import org.graylog.plugins.views.search.QueryMetadata;
 import org.graylog.plugins.views.search.QueryMetadataDecorator;
@@ -36,8 +36,7 @@ import java.util.Collections;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.Executor;
-import java.util.concurrent.Executors;
+import java.util.concurrent.CompletionException;
 
 import static org.apache.commons.lang3.StringUtils.defaultIfEmpty;
 
@@ -48,19 +47,20 @@ public class QueryEngine {
     private final Set<QueryMetadataDecorator> queryMetadataDecorators;
     private final QueryParser queryParser;
 
-    // TODO proper thread pool with tunable settings
-    private final Executor queryPool = Executors.newFixedThreadPool(4, new ThreadFactoryBuilder().setNameFormat("query-engine-%d").build());
+    private final QueryExecutionScheduler queryScheduler;
     private final QueryBackend<? extends GeneratedQueryContext> elasticsearchBackend;
     private final Provider<SearchConfig> searchConfig;
 
     @Inject
     public QueryEngine(QueryBackend<? extends GeneratedQueryContext> elasticsearchBackend,
                        Set<QueryMetadataDecorator> queryMetadataDecorators,
-                       QueryParser queryParser, Provider<SearchConfig> searchConfig) {
+                       QueryParser queryParser, Provider<SearchConfig> searchConfig,
+                       QueryExecutionScheduler queryScheduler) {
         this.elasticsearchBackend = elasticsearchBackend;
         this.queryMetadataDecorators = queryMetadataDecorators;
         this.queryParser = queryParser;
         this.searchConfig = searchConfig;
+        this.queryScheduler = queryScheduler;
     }
 
     // TODO: Backwards-compatible constructor to avoid breakage. Remove at some point.
@@ -68,7 +68,8 @@ public class QueryEngine {
     public QueryEngine(Map<String, QueryBackend<? extends GeneratedQueryContext>> backends,
                        Set<QueryMetadataDecorator> queryMetadataDecorators,
                        QueryParser queryParser, Provider<SearchConfig> searchConfig) {
-        this(backends.get("elasticsearch"), queryMetadataDecorators, queryParser, searchConfig);
+        this(backends.get("elasticsearch"), queryMetadataDecorators, queryParser, searchConfig,
+                new QueryExecutionScheduler(QueryExecutionScheduler.DEFAULT_THREADS, QueryExecutionScheduler.DEFAULT_QUEUE_SIZE, 0, 0, new MetricRegistry()));
     }
 
     public QueryMetadata parse(Search search, Query query) {
@@ -84,10 +85,12 @@ public class QueryEngine {
         searchJob.getSearch().queries().forEach(query -> searchJob.addQueryResultFuture(query.id(),
                 // generate and run each query, making sure we never let an exception escape
                 // if need be we default to an empty result with a failed state and the wrapped exception
-                CompletableFuture.supplyAsync(() -> prepareAndRun(searchJob, query), queryPool)
+                queryScheduler.submit(searchJob.getId(), searchJob.getOwner(), () -> prepareAndRun(searchJob, query))
                         .handle((queryResult, throwable) -> {
                             if (throwable != null) {
-                                final Throwable cause = throwable.getCause();
+                                final Throwable cause = throwable instanceof CompletionException && throwable.getCause() != null
+                                        ? throwable.getCause()
+                                        : throwable;
                                 final SearchError error;
                                 if (cause instanceof SearchException) {
                                     error = ((SearchException) cause).error();
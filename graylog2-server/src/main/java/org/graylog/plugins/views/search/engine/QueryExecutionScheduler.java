@@ -0,0 +1,207 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog.plugins.views.search.engine;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.graylog.plugins.views.ViewsConfig;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import static com.codahale.metrics.MetricRegistry.name;
+
+/**
+ * Runs the queries of search jobs on a fixed number of threads.
+ * <p>
+ * Queries which cannot run right away are queued per search job owner and the owners are served round-robin, so a
+ * user submitting a lot of queries (e.g. by refreshing many dashboards) cannot starve other users or the event
+ * processors. The number of concurrently running queries can be limited per search job and per owner. Queries are
+ * rejected if the queue is full.
+ * </p>
+ */
+@Singleton
+public class QueryExecutionScheduler {
+    static final int DEFAULT_THREADS = 4;
+    static final int DEFAULT_QUEUE_SIZE = 1000;
+
+    private final ExecutorService executor;
+    private final int threads;
+    private final int queueSize;
+    private final int maxQueriesPerSearchJob;
+    private final int maxQueriesPerOwner;
+
+    // Guarded by "this". The iteration order of the pending queues is the round-robin order of the owners.
+    private final Map<String, Deque<Task<?>>> pendingByOwner = new LinkedHashMap<>();
+    private final Map<String, Integer> runningByOwner = new HashMap<>();
+    private final Map<String, Integer> runningBySearchJob = new HashMap<>();
+    private int pending = 0;
+    private int running = 0;
+
+    private final Timer queueWaitTime;
+    private final Timer executionTime;
+    private final Meter rejected;
+
+    @Inject
+    public QueryExecutionScheduler(@Named(ViewsConfig.QUERY_ENGINE_THREADS) int threads,
+                                   @Named(ViewsConfig.QUERY_ENGINE_QUEUE_SIZE) int queueSize,
+                                   @Named(ViewsConfig.QUERY_ENGINE_MAX_QUERIES_PER_SEARCH) int maxQueriesPerSearchJob,
+                                   @Named(ViewsConfig.QUERY_ENGINE_MAX_QUERIES_PER_USER) int maxQueriesPerOwner,
+                                   MetricRegistry metricRegistry) {
+        this.threads = threads;
+        this.queueSize = queueSize;
+        this.maxQueriesPerSearchJob = maxQueriesPerSearchJob > 0 ? maxQueriesPerSearchJob : Integer.MAX_VALUE;
+        this.maxQueriesPerOwner = maxQueriesPerOwner > 0 ? maxQueriesPerOwner : Integer.MAX_VALUE;
+        // Tasks are only handed to the executor if there is an idle thread, so its queue never grows
+        this.executor = Executors.newFixedThreadPool(threads, new ThreadFactoryBuilder()
+                .setNameFormat("query-engine-%d")
+                .setDaemon(true)
+                .build());
+
+        this.queueWaitTime = metricRegistry.timer(name(QueryEngine.class, "queue-wait-time"));
+        this.executionTime = metricRegistry.timer(name(QueryEngine.class, "execution-time"));
+        this.rejected = metricRegistry.meter(name(QueryEngine.class, "rejected"));
+        metricRegistry.register(name(QueryEngine.class, "queued"), (Gauge<Integer>) this::getPending);
+        metricRegistry.register(name(QueryEngine.class, "running"), (Gauge<Integer>) this::getRunning);
+    }
+
+    /**
+     * Schedules the given query execution.
+     *
+     * @param searchJobId the ID of the search job the query belongs to
+     * @param owner       the owner of the search job
+     * @param query       the query execution
+     * @return a future which completes with the result of the query, or exceptionally with a
+     * {@link RejectedExecutionException} if the queue is full
+     */
+    public <T> CompletableFuture<T> submit(String searchJobId, String owner, Supplier<T> query) {
+        final Task<T> task = new Task<>(searchJobId, owner, query);
+        synchronized (this) {
+            if (pending >= queueSize) {
+                rejected.mark();
+                task.future.completeExceptionally(new RejectedExecutionException(
+                        "Query queue is full (" + queueSize + " queries), rejecting query of search job " + searchJobId));
+                return task.future;
+            }
+            pendingByOwner.computeIfAbsent(owner, k -> new ArrayDeque<>()).add(task);
+            pending++;
+        }
+        dispatch();
+        return task.future;
+    }
+
+    @VisibleForTesting
+    synchronized int getPending() {
+        return pending;
+    }
+
+    @VisibleForTesting
+    synchronized int getRunning() {
+        return running;
+    }
+
+    private void dispatch() {
+        final List<Task<?>> tasks = new ArrayList<>();
+        synchronized (this) {
+            while (running < threads) {
+                final Task<?> task = nextTask();
+                if (task == null) {
+                    break;
+                }
+                pending--;
+                running++;
+                runningByOwner.merge(task.owner, 1, Integer::sum);
+                runningBySearchJob.merge(task.searchJobId, 1, Integer::sum);
+                tasks.add(task);
+            }
+        }
+        tasks.forEach(task -> executor.execute(() -> run(task)));
+    }
+
+    private Task<?> nextTask() {
+        final Iterator<Map.Entry<String, Deque<Task<?>>>> owners = pendingByOwner.entrySet().iterator();
+        while (owners.hasNext()) {
+            final Map.Entry<String, Deque<Task<?>>> entry = owners.next();
+            if (runningByOwner.getOrDefault(entry.getKey(), 0) >= maxQueriesPerOwner) {
+                continue;
+            }
+            final Iterator<Task<?>> ownerTasks = entry.getValue().iterator();
+            while (ownerTasks.hasNext()) {
+                final Task<?> task = ownerTasks.next();
+                if (runningBySearchJob.getOrDefault(task.searchJobId, 0) < maxQueriesPerSearchJob) {
+                    ownerTasks.remove();
+                    // Move the owner to the end of the round-robin order
+                    owners.remove();
+                    if (!entry.getValue().isEmpty()) {
+                        pendingByOwner.put(entry.getKey(), entry.getValue());
+                    }
+                    return task;
+                }
+            }
+        }
+        return null;
+    }
+
+    private <T> void run(Task<T> task) {
+        queueWaitTime.update(System.nanoTime() - task.submittedAt, TimeUnit.NANOSECONDS);
+        try (Timer.Context ignored = executionTime.time()) {
+            task.future.complete(task.query.get());
+        } catch (Throwable t) {
+            task.future.completeExceptionally(t);
+        } finally {
+            synchronized (this) {
+                running--;
+                runningByOwner.computeIfPresent(task.owner, (k, count) -> count > 1 ? count - 1 : null);
+                runningBySearchJob.computeIfPresent(task.searchJobId, (k, count) -> count > 1 ? count - 1 : null);
+            }
+            dispatch();
+        }
+    }
+
+    private static class Task<T> {
+        private final String searchJobId;
+        private final String owner;
+        private final Supplier<T> query;
+        private final CompletableFuture<T> future = new CompletableFuture<>();
+        private final long submittedAt = System.nanoTime();
+
+        Task(String searchJobId, String owner, Supplier<T> query) {
+            this.searchJobId = searchJobId;
+            this.owner = owner;
+            this.query = query;
+        }
+    }
+}
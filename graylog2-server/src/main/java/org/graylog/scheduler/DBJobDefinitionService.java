@@ -18,6 +18,10 @@ package org.graylog.scheduler;
 
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.collect.ImmutableSet;
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBCursor;
+import com.mongodb.DBObject;
 import one.util.streamex.StreamEx;
 import org.graylog2.bindings.providers.MongoJackObjectMapperProvider;
 import org.graylog2.database.MongoConnection;
@@ -32,6 +36,7 @@ import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
 import java.util.function.Function;
 
 public class DBJobDefinitionService extends PaginatedDbService<JobDefinitionDto> {
@@ -74,6 +79,29 @@ public class DBJobDefinitionService extends PaginatedDbService<JobDefinitionDto>
         return StreamEx.of(db.find(DBQuery.in(field, values))).groupingBy(configFieldGroup(configField));
     }
 
+    /**
+     * Returns the IDs of all job definitions with one of the given job types.
+     *
+     * @param types the job types
+     * @return the IDs of the job definitions
+     */
+    public Set<String> getIdsByType(Collection<String> types) {
+        if (types.isEmpty()) {
+            return ImmutableSet.of();
+        }
+        final String field = String.format(Locale.US, "%s.%s", JobDefinitionDto.FIELD_CONFIG, JobDefinitionConfig.TYPE_FIELD);
+        final DBObject query = new BasicDBObject(field, new BasicDBObject("$in", types));
+
+        // Only load the IDs, the job definitions of a type can be many
+        final ImmutableSet.Builder<String> ids = ImmutableSet.builder();
+        try (final DBCursor cursor = db.getDbCollection().find(query, new BasicDBObject("_id", 1))) {
+            for (final DBObject jobDefinition : cursor) {
+                ids.add(jobDefinition.get("_id").toString());
+            }
+        }
+        return ids.build();
+    }
+
     private Function<JobDefinitionDto, String> configFieldGroup(final String key) {
         // Since JobDefinitionDto#config() is a pluggable interface type and we don't have methods we can access,
         // convert the value to a JsonNode and access the group key with that.
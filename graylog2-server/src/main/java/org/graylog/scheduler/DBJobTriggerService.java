@@ -18,6 +18,7 @@ package org.graylog.scheduler;
 
 import com.github.joschi.jadconfig.util.Duration;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Sets;
 import com.mongodb.BasicDBObject;
 import one.util.streamex.StreamEx;
@@ -307,9 +308,100 @@ public class DBJobTriggerService {
      * @return next runnable trigger if any exists, an empty {@link Optional} otherwise
      */
     public Optional<JobTriggerDto> nextRunnableTrigger() {
+        return nextRunnableTrigger(ImmutableSet.of());
+    }
+
+    private Optional<JobTriggerDto> nextRunnableTrigger(Set<String> excludedJobDefinitionIds) {
+        final DateTime now = clock.nowUTC();
+
+        // We want to lock the trigger with the oldest next time
+        final DBSort.SortBuilder sort = DBSort.asc(FIELD_NEXT_TIME);
+
+        // Atomically update, lock and return the next runnable trigger
+        final JobTriggerDto trigger = db.findAndModify(
+                runnableTriggersQuery(now, excludedJobDefinitionIds),
+                null,
+                sort,
+                false,
+                lockUpdate(now),
+                true, // We need the modified object so we have access to the lock information
+                false
+        );
+
+        return Optional.ofNullable(trigger);
+    }
+
+    /**
+     * Locks and returns up to {@code limit} runnable triggers, ordered by their next time. The caller needs to take
+     * care of releasing the trigger locks.
+     * <p>
+     * Instead of one {@code findAndModify} per trigger, this selects the candidates with the oldest next time, locks
+     * all of them with a single update and loads the triggers which have been locked by that update. Candidates that
+     * have been locked by another node in the meantime are skipped.
+     *
+     * @param limit the maximum number of triggers to lock
+     * @return the locked triggers, ordered by their next time
+     */
+    public List<JobTriggerDto> nextRunnableTriggers(int limit) {
+        return nextRunnableTriggers(limit, ImmutableSet.of());
+    }
+
+    /**
+     * Like {@link #nextRunnableTriggers(int)}, but skips the triggers of the given job definitions. This is used to
+     * skip the triggers of job types which can't be started right now, so they don't block the triggers of other job
+     * types.
+     *
+     * @param limit                    the maximum number of triggers to lock
+     * @param excludedJobDefinitionIds the job definitions whose triggers must not be locked
+     * @return the locked triggers, ordered by their next time
+     */
+    public List<JobTriggerDto> nextRunnableTriggers(int limit, Set<String> excludedJobDefinitionIds) {
+        if (limit <= 1) {
+            return nextRunnableTrigger(excludedJobDefinitionIds).map(ImmutableList::of).orElse(ImmutableList.of());
+        }
+
         final DateTime now = clock.nowUTC();
+        final Query query = runnableTriggersQuery(now, excludedJobDefinitionIds);
+
+        final List<ObjectId> candidates;
+        try (final DBCursor<JobTriggerDto> cursor = db.find(query).sort(DBSort.asc(FIELD_NEXT_TIME)).limit(limit)) {
+            candidates = ImmutableList.copyOf(cursor.iterator()).stream()
+                    .map(this::getId)
+                    .collect(Collectors.toList());
+        }
+        if (candidates.isEmpty()) {
+            return ImmutableList.of();
+        }
+
+        // The runnable query is repeated so we don't steal triggers another node locked after we selected them
+        final int locked = db.updateMulti(DBQuery.and(query, DBQuery.in(FIELD_ID, candidates)), lockUpdate(now)).getN();
+        if (locked == 0) {
+            return ImmutableList.of();
+        }
+
+        // The candidates were not locked by us when we selected them, so the ones with our lock and the trigger
+        // time of this update are exactly the ones we locked.
+        final Query lockedQuery = DBQuery.and(
+                DBQuery.in(FIELD_ID, candidates),
+                DBQuery.is(FIELD_LOCK_OWNER, nodeId),
+                DBQuery.is(FIELD_STATUS, JobTriggerStatus.RUNNING),
+                DBQuery.is(FIELD_TRIGGERED_AT, Optional.of(now))
+        );
+        try (final DBCursor<JobTriggerDto> cursor = db.find(lockedQuery).sort(DBSort.asc(FIELD_NEXT_TIME))) {
+            return ImmutableList.copyOf(cursor.iterator());
+        }
+    }
+
+    private Query runnableTriggersQuery(DateTime now, Set<String> excludedJobDefinitionIds) {
+        final Query query = runnableTriggersQuery(now);
+        if (excludedJobDefinitionIds.isEmpty()) {
+            return query;
+        }
+        return DBQuery.and(query, DBQuery.notIn(FIELD_JOB_DEFINITION_ID, excludedJobDefinitionIds));
+    }
 
-        final Query query = DBQuery.or(DBQuery.and(
+    private Query runnableTriggersQuery(DateTime now) {
+        return DBQuery.or(DBQuery.and(
                         // We cannot lock a trigger that is already locked by another node
                         DBQuery.is(FIELD_LOCK_OWNER, null),
                         DBQuery.is(FIELD_STATUS, JobTriggerStatus.RUNNABLE),
@@ -328,26 +420,13 @@ public class DBJobTriggerService {
                         DBQuery.is(FIELD_STATUS, JobTriggerStatus.RUNNING),
                         DBQuery.lessThan(FIELD_LAST_LOCK_TIME, now.minus(lockExpirationDuration.toMilliseconds())))
         );
-        // We want to lock the trigger with the oldest next time
-        final DBSort.SortBuilder sort = DBSort.asc(FIELD_NEXT_TIME);
+    }
 
-        final DBUpdate.Builder lockUpdate = DBUpdate.set(FIELD_LOCK_OWNER, nodeId)
+    private DBUpdate.Builder lockUpdate(DateTime now) {
+        return DBUpdate.set(FIELD_LOCK_OWNER, nodeId)
                 .set(FIELD_STATUS, JobTriggerStatus.RUNNING)
                 .set(FIELD_TRIGGERED_AT, Optional.of(now))
                 .set(FIELD_LAST_LOCK_TIME, now);
-
-        // Atomically update, lock and return the next runnable trigger
-        final JobTriggerDto trigger = db.findAndModify(
-                query,
-                null,
-                sort,
-                false,
-                lockUpdate,
-                true, // We need the modified object so we have access to the lock information
-                false
-        );
-
-        return Optional.ofNullable(trigger);
     }
 
     /**
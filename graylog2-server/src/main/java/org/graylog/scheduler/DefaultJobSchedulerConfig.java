@@ -19,6 +19,7 @@ package org.graylog.scheduler;
 import org.graylog2.cluster.leader.LeaderElectionService;
 
 import javax.inject.Inject;
+import javax.inject.Named;
 import javax.inject.Singleton;
 
 /**
@@ -27,10 +28,13 @@ import javax.inject.Singleton;
 @Singleton
 public class DefaultJobSchedulerConfig implements JobSchedulerConfig {
     private final LeaderElectionService leaderElectionService;
+    private final int workerThreads;
 
     @Inject
-    public DefaultJobSchedulerConfig(LeaderElectionService leaderElectionService) {
+    public DefaultJobSchedulerConfig(LeaderElectionService leaderElectionService,
+                                     @Named(JobSchedulerConfiguration.WORKER_THREADS) int workerThreads) {
         this.leaderElectionService = leaderElectionService;
+        this.workerThreads = workerThreads;
     }
 
     @Override
@@ -40,6 +44,6 @@ public class DefaultJobSchedulerConfig implements JobSchedulerConfig {
 
     @Override
     public int numberOfWorkerThreads() {
-        return 5;
+        return workerThreads;
     }
 }
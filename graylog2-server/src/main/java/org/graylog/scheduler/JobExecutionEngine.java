@@ -28,13 +28,28 @@ import org.joda.time.DateTimeZone;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.annotation.Nullable;
 import javax.inject.Inject;
+import javax.inject.Named;
+import java.util.Collections;
+import java.util.List;
 import java.util.Map;
-import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.Semaphore;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 /**
  * The job execution engine checks runnable triggers and starts job execution in the given worker pool.
+ * <p>
+ * Runnable triggers are locked in batches of up to {@code job_scheduler_lock_batch_size} triggers (bounded by the
+ * free worker slots). Job types with a limit in {@code job_scheduler_concurrency_limits} are only started if there is
+ * a free slot for the job type. The triggers of job types without a free slot are not locked at all, so they don't
+ * keep the triggers of other job types from running. If a batch contains more triggers of a job type than there are
+ * free slots, the remaining ones are released again with an unchanged next time.
+ * </p>
  */
 public class JobExecutionEngine {
 
@@ -52,8 +67,11 @@ public class JobExecutionEngine {
     private final JobTriggerUpdates.Factory jobTriggerUpdatesFactory;
     private final Map<String, Job.Factory> jobFactory;
     private final JobWorkerPool workerPool;
+    private final int lockBatchSize;
+    private final Map<String, Semaphore> jobTypeSlots;
     private Counter executionSuccessful;
     private Counter executionFailed;
+    private Counter executionDeferred;
     private Timer executionTime;
 
     private final AtomicBoolean isRunning = new AtomicBoolean(true);
@@ -66,7 +84,9 @@ public class JobExecutionEngine {
                               JobScheduleStrategies scheduleStrategies,
                               JobTriggerUpdates.Factory jobTriggerUpdatesFactory,
                               Map<String, Job.Factory> jobFactory,
-                              @Assisted JobWorkerPool workerPool, MetricRegistry metricRegistry) {
+                              @Assisted JobWorkerPool workerPool, MetricRegistry metricRegistry,
+                              @Named(JobSchedulerConfiguration.LOCK_BATCH_SIZE) int lockBatchSize,
+                              @Named(JobSchedulerConfiguration.CONCURRENCY_LIMITS) Map<String, Integer> concurrencyLimits) {
         this.jobTriggerService = jobTriggerService;
         this.jobDefinitionService = jobDefinitionService;
         this.eventBus = eventBus;
@@ -74,8 +94,12 @@ public class JobExecutionEngine {
         this.jobTriggerUpdatesFactory = jobTriggerUpdatesFactory;
         this.jobFactory = jobFactory;
         this.workerPool = workerPool;
+        this.lockBatchSize = lockBatchSize;
+        this.jobTypeSlots = concurrencyLimits.entrySet().stream()
+                .collect(Collectors.toMap(Map.Entry::getKey, entry -> new Semaphore(entry.getValue())));
         this.executionSuccessful = metricRegistry.counter(MetricRegistry.name(getClass(), "executions", "successful"));
         this.executionFailed = metricRegistry.counter(MetricRegistry.name(getClass(), "executions", "failed"));
+        this.executionDeferred = metricRegistry.counter(MetricRegistry.name(getClass(), "executions", "deferred"));
         this.executionTime = metricRegistry.timer(MetricRegistry.name(getClass(), "executions", "time"));
     }
 
@@ -97,10 +121,10 @@ public class JobExecutionEngine {
     }
 
     /**
-     * Execute the engine. This will try to lock a trigger and execute the job if there are free slots in the
-     * worker pool and the engine is not shutting down.
+     * Execute the engine. This will try to lock a batch of triggers and execute the jobs if there are free slots in
+     * the worker pool and the engine is not shutting down.
      *
-     * @return true if a job trigger has been locked and the related job has been triggered, false otherwise
+     * @return true if at least one job has been started, false otherwise
      */
     public boolean execute() {
         // Cleanup stale scheduler state *before* processing any triggers for the first time.
@@ -111,36 +135,94 @@ public class JobExecutionEngine {
 
         // We want to avoid a call to the database if there are no free slots in the pool or the engine is shutting down
         if (isRunning.get() && workerPool.hasFreeSlots()) {
-            final Optional<JobTriggerDto> triggerOptional = jobTriggerService.nextRunnableTrigger();
+            final List<JobTriggerDto> triggers = jobTriggerService.nextRunnableTriggers(
+                    Math.min(workerPool.freeSlots(), lockBatchSize), saturatedJobDefinitionIds());
 
-            if (triggerOptional.isPresent()) {
-                final JobTriggerDto trigger = triggerOptional.get();
+            if (!triggers.isEmpty()) {
+                final Map<String, JobDefinitionDto> jobDefinitions = loadJobDefinitions(triggers);
 
-                if (!workerPool.execute(() -> handleTrigger(trigger))) {
-                    // The job couldn't be executed so we have to release the trigger again with the same nextTime
-                    jobTriggerService.releaseTrigger(trigger, JobTriggerUpdate.withNextTime(trigger.nextTime()));
-                    return false;
+                // Deferred triggers don't count, their job types are skipped in the next iteration
+                boolean anyTriggered = false;
+                for (final JobTriggerDto trigger : triggers) {
+                    anyTriggered |= executeTrigger(trigger, jobDefinitions.get(trigger.jobDefinitionId()));
                 }
-
-                return true;
+                return anyTriggered;
             }
         }
 
         return false;
     }
 
+    /**
+     * @return the IDs of the job definitions whose job type has no free slot
+     */
+    private Set<String> saturatedJobDefinitionIds() {
+        final Set<String> saturatedTypes = jobTypeSlots.entrySet().stream()
+                .filter(entry -> entry.getValue().availablePermits() == 0)
+                .map(Map.Entry::getKey)
+                .collect(Collectors.toSet());
+        if (saturatedTypes.isEmpty()) {
+            return Collections.emptySet();
+        }
+        try {
+            return jobDefinitionService.getIdsByType(saturatedTypes);
+        } catch (Exception e) {
+            // The triggers of these job types will be deferred after locking them instead
+            LOG.warn("Couldn't load job definitions of job types <{}>", saturatedTypes, e);
+            return Collections.emptySet();
+        }
+    }
+
+    private boolean executeTrigger(JobTriggerDto trigger, @Nullable JobDefinitionDto jobDefinition) {
+        final Semaphore typeSlots = jobDefinition == null ? null : jobTypeSlots.get(jobDefinition.config().type());
+        if (typeSlots != null && !typeSlots.tryAcquire()) {
+            // The batch contained more triggers of the job type than it has free slots. Releasing the trigger with
+            // the same nextTime keeps its schedule, the job type is skipped until one of its jobs completes.
+            LOG.debug("Deferring trigger {} because job type <{}> reached its concurrency limit", trigger.id(), jobDefinition.config().type());
+            executionDeferred.inc();
+            jobTriggerService.releaseTrigger(trigger, JobTriggerUpdate.withNextTime(trigger.nextTime()));
+            return false;
+        }
+
+        if (!workerPool.execute(() -> handleTrigger(trigger, jobDefinition, typeSlots))) {
+            if (typeSlots != null) {
+                typeSlots.release();
+            }
+            // The job couldn't be executed so we have to release the trigger again with the same nextTime
+            jobTriggerService.releaseTrigger(trigger, JobTriggerUpdate.withNextTime(trigger.nextTime()));
+            return false;
+        }
+
+        return true;
+    }
+
+    private Map<String, JobDefinitionDto> loadJobDefinitions(List<JobTriggerDto> triggers) {
+        final Set<String> ids = triggers.stream().map(JobTriggerDto::jobDefinitionId).collect(Collectors.toSet());
+        try (final Stream<JobDefinitionDto> jobDefinitions = jobDefinitionService.streamByIds(ids)) {
+            return jobDefinitions
+                    .filter(jobDefinition -> jobDefinition.id() != null)
+                    .collect(Collectors.toMap(JobDefinitionDto::id, Function.identity()));
+        } catch (Exception e) {
+            // Job definitions which couldn't be loaded here are loaded again when handling the trigger
+            LOG.warn("Couldn't load job definitions for locked triggers", e);
+            return Collections.emptyMap();
+        }
+    }
+
     public void updateLockedJobs() {
         if (workerPool.anySlotsUsed()) {
             jobTriggerService.updateLockedJobTriggers();
         }
     }
 
-    private void handleTrigger(JobTriggerDto trigger) {
+    private void handleTrigger(JobTriggerDto trigger, @Nullable JobDefinitionDto loadedJobDefinition, @Nullable Semaphore typeSlots) {
         LOG.trace("Locked trigger {} (owner={})", trigger.id(), trigger.lock().owner());
 
         try {
-            final JobDefinitionDto jobDefinition = jobDefinitionService.get(trigger.jobDefinitionId())
-                    .orElseThrow(() -> new IllegalStateException("Couldn't find job definition " + trigger.jobDefinitionId()));
+            final JobDefinitionDto jobDefinition = loadedJobDefinition != null
+                    ? loadedJobDefinition
+                    : jobDefinitionService.get(trigger.jobDefinitionId())
+                            .orElseThrow(() -> new IllegalStateException("Couldn't find job definition " + trigger.jobDefinitionId()));
 
             final Job job = jobFactory.get(jobDefinition.config().type()).create(jobDefinition);
             if (job == null) {
@@ -159,6 +241,10 @@ public class JobExecutionEngine {
             LOG.error("Couldn't handle trigger {} - retrying at {}", trigger.id(), nextTime, e);
             jobTriggerService.releaseTrigger(trigger, JobTriggerUpdate.withNextTime(nextTime));
         } finally {
+            // Free the job type slot before notifying the scheduler so deferred triggers can run right away
+            if (typeSlots != null) {
+                typeSlots.release();
+            }
             eventBus.post(JobCompletedEvent.INSTANCE);
         }
     }
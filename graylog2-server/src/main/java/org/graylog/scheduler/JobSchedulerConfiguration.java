@@ -16,13 +16,23 @@
  */
 package org.graylog.scheduler;
 
+import com.github.joschi.jadconfig.Converter;
 import com.github.joschi.jadconfig.Parameter;
+import com.github.joschi.jadconfig.ParameterException;
 import com.github.joschi.jadconfig.ValidationException;
 import com.github.joschi.jadconfig.Validator;
 import com.github.joschi.jadconfig.util.Duration;
 import com.github.joschi.jadconfig.validators.PositiveDurationValidator;
+import com.github.joschi.jadconfig.validators.PositiveIntegerValidator;
+import com.google.common.base.Joiner;
+import com.google.common.base.Splitter;
+import com.google.common.collect.ImmutableMap;
 import org.graylog2.plugin.PluginConfigBean;
 
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
 /**
  * Job scheduler specific configuration fields for the server configuration file.
  */
@@ -30,6 +40,9 @@ import org.graylog2.plugin.PluginConfigBean;
 public class JobSchedulerConfiguration implements PluginConfigBean {
     public static final String LOOP_SLEEP_DURATION = "job_scheduler_loop_sleep_duration";
     public static final String LOCK_EXPIRATION_DURATION = "job_scheduler_lock_expiration_duration";
+    public static final String WORKER_THREADS = "job_scheduler_worker_threads";
+    public static final String LOCK_BATCH_SIZE = "job_scheduler_lock_batch_size";
+    public static final String CONCURRENCY_LIMITS = "job_scheduler_concurrency_limits";
 
     @Parameter(value = LOOP_SLEEP_DURATION, validators = PositiveDurationValidator.class)
     private Duration loopSleepDuration = Duration.seconds(1);
@@ -37,6 +50,15 @@ public class JobSchedulerConfiguration implements PluginConfigBean {
     @Parameter(value = LOCK_EXPIRATION_DURATION, validators = Minimum1MinuteValidator.class)
     private Duration lockExpirationDuration = Duration.minutes(5);
 
+    @Parameter(value = WORKER_THREADS, validators = PositiveIntegerValidator.class)
+    private int workerThreads = 5;
+
+    @Parameter(value = LOCK_BATCH_SIZE, validators = PositiveIntegerValidator.class)
+    private int lockBatchSize = 10;
+
+    @Parameter(value = CONCURRENCY_LIMITS, converter = ConcurrencyLimitsConverter.class)
+    private Map<String, Integer> concurrencyLimits = ImmutableMap.of();
+
     public Duration getLoopSleepDuration() {
         return loopSleepDuration;
     }
@@ -45,6 +67,18 @@ public class JobSchedulerConfiguration implements PluginConfigBean {
         return lockExpirationDuration;
     }
 
+    public int getWorkerThreads() {
+        return workerThreads;
+    }
+
+    public int getLockBatchSize() {
+        return lockBatchSize;
+    }
+
+    public Map<String, Integer> getConcurrencyLimits() {
+        return concurrencyLimits;
+    }
+
     public static class Minimum1MinuteValidator implements Validator<Duration> {
         @Override
         public void validate(final String name, final Duration value) throws ValidationException {
@@ -53,4 +87,43 @@ public class JobSchedulerConfiguration implements PluginConfigBean {
             }
         }
     }
+
+    /**
+     * Converts a comma separated list of {@code <job-type>:<limit>} entries into a map of concurrency limits.
+     */
+    public static class ConcurrencyLimitsConverter implements Converter<Map<String, Integer>> {
+        @Override
+        public Map<String, Integer> convertFrom(String value) {
+            if (value == null) {
+                throw new ParameterException("Concurrency limits must not be null.");
+            }
+
+            final Map<String, Integer> limits = new LinkedHashMap<>();
+            for (final String entry : Splitter.on(',').omitEmptyStrings().trimResults().split(value)) {
+                final List<String> parts = Splitter.on(':').trimResults().splitToList(entry);
+                if (parts.size() != 2 || parts.get(0).isEmpty()) {
+                    throw new ParameterException("Invalid concurrency limit <" + entry + ">, expected <job-type>:<limit>");
+                }
+                final int limit;
+                try {
+                    limit = Integer.parseInt(parts.get(1));
+                } catch (NumberFormatException e) {
+                    throw new ParameterException("Invalid concurrency limit <" + entry + ">, expected <job-type>:<limit>", e);
+                }
+                if (limit < 1) {
+                    throw new ParameterException("Concurrency limit for job type <" + parts.get(0) + "> should be at least 1 (found " + limit + ")");
+                }
+                limits.put(parts.get(0), limit);
+            }
+            return ImmutableMap.copyOf(limits);
+        }
+
+        @Override
+        public String convertTo(Map<String, Integer> value) {
+            if (value == null) {
+                throw new ParameterException("Concurrency limits must not be null.");
+            }
+            return Joiner.on(',').withKeyValueSeparator(":").join(value);
+        }
+    }
 }
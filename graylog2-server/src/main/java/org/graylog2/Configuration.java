@@ -84,6 +84,12 @@ public class Configuration extends BaseConfiguration {
     @Parameter(value = "outputbuffer_processor_keep_alive_time", validators = PositiveIntegerValidator.class)
     private int outputBufferProcessorKeepAliveTime = 5000;
 
+    @Parameter(value = "outputbuffer_processor_batch_dispatch")
+    private boolean outputBufferProcessorBatchDispatch = false;
+
+    @Parameter(value = "outputbuffer_processor_batch_size", validators = PositiveIntegerValidator.class)
+    private int outputBufferProcessorBatchSize = 500;
+
     @Parameter(value = "node_id_file", validators = NodeIdFileValidator.class)
     private String nodeIdFile = "/etc/graylog/server/node-id";
 
@@ -159,6 +165,9 @@ public class Configuration extends BaseConfiguration {
     @Parameter(value = "dashboard_widget_default_cache_time", validators = PositiveDurationValidator.class)
     private Duration dashboardWidgetDefaultCacheTime = Duration.seconds(10L);
 
+    @Parameter(value = "events_aggregation_search_coalesce_window")
+    private Duration eventsAggregationSearchCoalesceWindow = Duration.milliseconds(0L);
+
     @Parameter(value = "user_password_default_algorithm")
     private String userPasswordDefaultAlgorithm = "bcrypt";
 
@@ -287,6 +296,14 @@ public class Configuration extends BaseConfiguration {
         return outputBufferProcessorKeepAliveTime;
     }
 
+    public boolean isOutputBufferProcessorBatchDispatch() {
+        return outputBufferProcessorBatchDispatch;
+    }
+
+    public int getOutputBufferProcessorBatchSize() {
+        return outputBufferProcessorBatchSize;
+    }
+
     public boolean isCloud() {
         return isCloud;
     }
@@ -390,6 +407,10 @@ public class Configuration extends BaseConfiguration {
         return dashboardWidgetDefaultCacheTime;
     }
 
+    public Duration getEventsAggregationSearchCoalesceWindow() {
+        return eventsAggregationSearchCoalesceWindow;
+    }
+
     public String getUserPasswordDefaultAlgorithm() {
         return userPasswordDefaultAlgorithm;
     }
@@ -24,6 +24,7 @@ import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.lmax.disruptor.WaitStrategy;
 import com.lmax.disruptor.dsl.Disruptor;
 import com.lmax.disruptor.dsl.ProducerType;
+import org.graylog2.buffers.processors.BatchingOutputBufferProcessor;
 import org.graylog2.buffers.processors.OutputBufferProcessor;
 import org.graylog2.plugin.GlobalMetricNames;
 import org.graylog2.plugin.Message;
@@ -52,7 +53,9 @@ public class OutputBuffer extends Buffer {
     @Inject
     public OutputBuffer(MetricRegistry metricRegistry,
                         Provider<OutputBufferProcessor> processorProvider,
+                        BatchingOutputBufferProcessor.Factory batchingProcessorFactory,
                         @Named("outputbuffer_processors") int processorCount,
+                        @Named("outputbuffer_processor_batch_dispatch") boolean batchDispatch,
                         @Named("ring_size") int ringSize,
                         @Named("processor_wait_strategy") String waitStrategyName) {
         this.ringBufferSize = ringSize;
@@ -80,13 +83,24 @@ public class OutputBuffer extends Buffer {
         LOG.info("Initialized OutputBuffer with ring size <{}> and wait strategy <{}>.",
                 ringBufferSize, waitStrategy.getClass().getSimpleName());
 
-        final OutputBufferProcessor[] processors = new OutputBufferProcessor[processorCount];
+        if (batchDispatch) {
+            LOG.info("Dispatching messages to outputs in batches.");
+            final BatchingOutputBufferProcessor[] processors = new BatchingOutputBufferProcessor[processorCount];
 
-        for (int i = 0; i < processorCount; i++) {
-            processors[i] = processorProvider.get();
-        }
+            for (int i = 0; i < processorCount; i++) {
+                processors[i] = batchingProcessorFactory.create(i, processorCount);
+            }
+
+            disruptor.handleEventsWith(processors);
+        } else {
+            final OutputBufferProcessor[] processors = new OutputBufferProcessor[processorCount];
 
-        disruptor.handleEventsWithWorkerPool(processors);
+            for (int i = 0; i < processorCount; i++) {
+                processors[i] = processorProvider.get();
+            }
+
+            disruptor.handleEventsWithWorkerPool(processors);
+        }
 
         ringBuffer = disruptor.start();
     }
@@ -0,0 +1,232 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog2.buffers.processors;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.Uninterruptibles;
+import com.google.inject.assistedinject.Assisted;
+import com.google.inject.assistedinject.AssistedInject;
+import com.lmax.disruptor.EventHandler;
+import org.graylog2.Configuration;
+import org.graylog2.outputs.DefaultMessageOutput;
+import org.graylog2.outputs.OutputRouter;
+import org.graylog2.plugin.GlobalMetricNames;
+import org.graylog2.plugin.Message;
+import org.graylog2.plugin.ServerStatus;
+import org.graylog2.plugin.buffers.MessageEvent;
+import org.graylog2.plugin.outputs.MessageOutput;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static com.codahale.metrics.MetricRegistry.name;
+
+/**
+ * Batching alternative to {@link OutputBufferProcessor}, used if {@code outputbuffer_processor_batch_dispatch} is
+ * enabled.
+ * <p>
+ * Every processor sees every event of the ring buffer but only handles the sequences assigned to it
+ * ({@code sequence % numberOfProcessors == ordinal}). The messages are collected until the end of the batch the
+ * Disruptor handed over (or {@code outputbuffer_processor_batch_size} messages) and then grouped by their target
+ * outputs, so each output gets one executor task per batch instead of one per message.
+ * </p>
+ * <p>
+ * The same rules as in {@link OutputBufferProcessor} apply: stream outputs are time limited, the default output is
+ * waited for without limit to exert back pressure. Since the ring buffer slots are only released once the processor
+ * returns from the batch, back pressure is kept.
+ * </p>
+ */
+public class BatchingOutputBufferProcessor implements EventHandler<MessageEvent> {
+    private static final Logger LOG = LoggerFactory.getLogger(BatchingOutputBufferProcessor.class);
+
+    public interface Factory {
+        BatchingOutputBufferProcessor create(@Assisted("ordinal") int ordinal,
+                                             @Assisted("numberOfProcessors") int numberOfProcessors);
+    }
+
+    private final ExecutorService executor;
+
+    private final Configuration configuration;
+    private final ServerStatus serverStatus;
+
+    private final Meter incomingMessages;
+    private final Counter outputThroughput;
+    private final Timer processTime;
+    private final Histogram dispatchedBatchSize;
+
+    private final OutputRouter outputRouter;
+    private final MessageOutput defaultMessageOutput;
+
+    private final int ordinal;
+    private final int numberOfProcessors;
+    private final int maxBatchSize;
+    private final List<MessageEvent> batch;
+
+    @AssistedInject
+    public BatchingOutputBufferProcessor(Configuration configuration,
+                                         MetricRegistry metricRegistry,
+                                         ServerStatus serverStatus,
+                                         OutputRouter outputRouter,
+                                         @DefaultMessageOutput MessageOutput defaultMessageOutput,
+                                         @Assisted("ordinal") int ordinal,
+                                         @Assisted("numberOfProcessors") int numberOfProcessors) {
+        this.configuration = configuration;
+        this.serverStatus = serverStatus;
+        this.outputRouter = outputRouter;
+        this.defaultMessageOutput = defaultMessageOutput;
+        this.ordinal = ordinal;
+        this.numberOfProcessors = numberOfProcessors;
+        this.maxBatchSize = configuration.getOutputBufferProcessorBatchSize();
+        this.batch = new ArrayList<>(maxBatchSize);
+
+        this.executor = OutputBufferProcessor.executorService(metricRegistry, configuration);
+
+        this.incomingMessages = metricRegistry.meter(OutputBufferProcessor.INCOMING_MESSAGES_METRICNAME);
+        this.outputThroughput = metricRegistry.counter(GlobalMetricNames.OUTPUT_THROUGHPUT);
+        this.processTime = metricRegistry.timer(OutputBufferProcessor.PROCESS_TIME_METRICNAME);
+        this.dispatchedBatchSize = metricRegistry.histogram(name(OutputBufferProcessor.class, "dispatchedBatchSize"));
+    }
+
+    @Override
+    public void onEvent(MessageEvent event, long sequence, boolean endOfBatch) throws Exception {
+        if (sequence % numberOfProcessors == ordinal) {
+            incomingMessages.mark();
+            batch.add(event);
+        }
+
+        if (!batch.isEmpty() && (endOfBatch || batch.size() >= maxBatchSize)) {
+            try {
+                dispatch(batch);
+            } finally {
+                for (final MessageEvent messageEvent : batch) {
+                    messageEvent.clearMessages();
+                }
+                batch.clear();
+            }
+        }
+    }
+
+    private void dispatch(List<MessageEvent> events) throws InterruptedException {
+        final List<Message> messages = new ArrayList<>(events.size());
+        final Map<MessageOutput, List<Message>> streamOutputMessages = new IdentityHashMap<>();
+
+        for (final MessageEvent event : events) {
+            final Message msg = event.getMessage();
+            if (msg == null) {
+                LOG.debug("Skipping null message.");
+                continue;
+            }
+            messages.add(msg);
+
+            final Set<MessageOutput> messageOutputs = outputRouter.getStreamOutputsForMessage(msg);
+            msg.recordCounter(serverStatus, "matched-outputs", messageOutputs.size());
+            for (final MessageOutput output : messageOutputs) {
+                streamOutputMessages.computeIfAbsent(output, k -> new ArrayList<>()).add(msg);
+            }
+        }
+
+        if (messages.isEmpty()) {
+            return;
+        }
+        dispatchedBatchSize.update(messages.size());
+        LOG.debug("Processing {} messages from OutputBuffer.", messages.size());
+
+        final Future<?> defaultOutputCompletion = processMessages(messages, defaultMessageOutput, new CountDownLatch(0));
+
+        final CountDownLatch streamOutputsDoneSignal = new CountDownLatch(streamOutputMessages.size());
+        for (final Map.Entry<MessageOutput, List<Message>> entry : streamOutputMessages.entrySet()) {
+            processMessages(entry.getValue(), entry.getKey(), streamOutputsDoneSignal);
+        }
+
+        // Wait until all writer threads for stream outputs have finished or timeout is reached.
+        if (!streamOutputsDoneSignal.await(configuration.getOutputModuleTimeout(), TimeUnit.MILLISECONDS)) {
+            LOG.warn("Timeout reached. Not waiting any longer for stream output writer threads to complete.");
+        }
+
+        // now block until the default output has finished, this exerts the back pressure to the system
+        try {
+            Uninterruptibles.getUninterruptibly(defaultOutputCompletion);
+        } catch (ExecutionException e) {
+            LOG.error("Error in default output [" + defaultMessageOutput.getClass() + "].", e);
+        }
+
+        for (final Message msg : messages) {
+            if (msg.hasRecordings()) {
+                LOG.debug("Message event trace: {}", msg.recordingsAsString());
+            }
+        }
+
+        outputThroughput.inc(messages.size());
+
+        LOG.debug("Wrote {} messages to all outputs. Finished handling.", messages.size());
+    }
+
+    private Future<?> processMessages(final List<Message> messages, final MessageOutput output, final CountDownLatch doneSignal) {
+        if (output == null) {
+            LOG.error("Output was null!");
+            doneSignal.countDown();
+            return Futures.immediateFuture(null);
+        }
+        if (!output.isRunning()) {
+            LOG.debug("Skipping stopped output {}", output.getClass().getName());
+            doneSignal.countDown();
+            return Futures.immediateFuture(null);
+        }
+
+        try {
+            LOG.debug("Writing {} messages to [{}].", messages.size(), output.getClass());
+            return executor.submit(() -> {
+                try (Timer.Context ignored = processTime.time()) {
+                    if (output.supportsBatchWrite()) {
+                        output.write(messages);
+                    } else {
+                        for (final Message msg : messages) {
+                            try {
+                                output.write(msg);
+                            } catch (Exception e) {
+                                LOG.error("Error in output [" + output.getClass() + "].", e);
+                            }
+                        }
+                    }
+                } catch (Exception e) {
+                    LOG.error("Error in output [" + output.getClass() + "].", e);
+                } finally {
+                    doneSignal.countDown();
+                }
+            });
+        } catch (Exception e) {
+            LOG.error("Could not write message batch to output [" + output.getClass() + "].", e);
+            doneSignal.countDown();
+            return Futures.immediateFuture(null);
+        }
+    }
+}
@@ -52,8 +52,8 @@ public class OutputBufferProcessor implements WorkHandler<MessageEvent> {
 
     private static final Logger LOG = LoggerFactory.getLogger(OutputBufferProcessor.class);
 
-    private static final String INCOMING_MESSAGES_METRICNAME = name(OutputBufferProcessor.class, "incomingMessages");
-    private static final String PROCESS_TIME_METRICNAME = name(OutputBufferProcessor.class, "processTime");
+    static final String INCOMING_MESSAGES_METRICNAME = name(OutputBufferProcessor.class, "incomingMessages");
+    static final String PROCESS_TIME_METRICNAME = name(OutputBufferProcessor.class, "processTime");
 
     private final ExecutorService executor;
 
@@ -78,25 +78,24 @@ public class OutputBufferProcessor implements WorkHandler<MessageEvent> {
         this.outputRouter = outputRouter;
         this.defaultMessageOutput = defaultMessageOutput;
 
-        final String nameFormat = "outputbuffer-processor-executor-%d";
-        final int corePoolSize = configuration.getOutputBufferProcessorThreadsCorePoolSize();
-        final int maxPoolSize = configuration.getOutputBufferProcessorThreadsMaxPoolSize();
-        final int keepAliveTime = configuration.getOutputBufferProcessorKeepAliveTime();
-        this.executor = executorService(metricRegistry, nameFormat, corePoolSize, maxPoolSize, keepAliveTime);
+        this.executor = executorService(metricRegistry, configuration);
 
         this.incomingMessages = metricRegistry.meter(INCOMING_MESSAGES_METRICNAME);
         this.outputThroughput = metricRegistry.counter(GlobalMetricNames.OUTPUT_THROUGHPUT);
         this.processTime = metricRegistry.timer(PROCESS_TIME_METRICNAME);
     }
 
-    private ExecutorService executorService(final MetricRegistry metricRegistry, final String nameFormat,
-                                            final int corePoolSize, final int maxPoolSize, final int keepAliveTime) {
+    static ExecutorService executorService(final MetricRegistry metricRegistry, final Configuration configuration) {
+        final String nameFormat = "outputbuffer-processor-executor-%d";
+        final int corePoolSize = configuration.getOutputBufferProcessorThreadsCorePoolSize();
+        final int maxPoolSize = configuration.getOutputBufferProcessorThreadsMaxPoolSize();
+        final int keepAliveTime = configuration.getOutputBufferProcessorKeepAliveTime();
         final ThreadFactory threadFactory = new ThreadFactoryBuilder().setNameFormat(nameFormat).build();
         return new InstrumentedExecutorService(
                 new ThreadPoolExecutor(corePoolSize, maxPoolSize, keepAliveTime, TimeUnit.MILLISECONDS,
                         new LinkedBlockingQueue<Runnable>(), threadFactory),
                 metricRegistry,
-                name(this.getClass(), "executor-service"));
+                name(OutputBufferProcessor.class, "executor-service"));
     }
 
     /**
@@ -31,6 +31,7 @@ import org.graylog2.plugin.ResolvableInetSocketAddress;
 import org.graylog2.plugin.inputs.codecs.Codec;
 import org.graylog2.plugin.journal.RawMessage;
 import org.graylog2.shared.bindings.ObjectMapperModule;
+import org.graylog2.shared.journal.CodecConfigDictionary;
 import org.graylog2.shared.journal.Journal;
 import org.slf4j.helpers.MessageFormatter;
 
@@ -87,12 +88,14 @@ public class JournalDecode extends AbstractJournalCommand {
                 injector.getInstance(Key.get(new TypeLiteral<Map<String, Codec.Factory<? extends Codec>>>() {
                 }));
 
+        final CodecConfigDictionary codecConfigDictionary = injector.getInstance(CodecConfigDictionary.class);
+
         final Long readOffset = range.lowerEndpoint();
         final long count = range.upperEndpoint() - range.lowerEndpoint() + 1;
         final List<Journal.JournalReadEntry> entries = journal.read(readOffset,
                 count);
         for (final Journal.JournalReadEntry entry : entries) {
-            final RawMessage raw = RawMessage.decode(entry.getPayload(), entry.getOffset());
+            final RawMessage raw = RawMessage.decode(entry.getPayload(), entry.getOffset(), codecConfigDictionary);
             if (raw == null) {
                 System.err.println(MessageFormatter.format("Journal entry at offset {} failed to decode",
                         entry.getOffset()));
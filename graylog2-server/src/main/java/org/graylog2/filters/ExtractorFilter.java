@@ -16,7 +16,6 @@
  */
 package org.graylog2.filters;
 
-import com.google.common.collect.ImmutableList;
 import com.google.common.eventbus.EventBus;
 import com.google.common.eventbus.Subscribe;
 import org.graylog.failure.ProcessingFailureCause;
@@ -38,7 +37,6 @@ import org.slf4j.LoggerFactory;
 
 import javax.inject.Inject;
 import javax.inject.Named;
-import java.util.Collections;
 import java.util.Comparator;
 import java.util.List;
 import java.util.concurrent.ConcurrentHashMap;
@@ -50,7 +48,7 @@ public class ExtractorFilter implements MessageFilter {
     private static final Logger LOG = LoggerFactory.getLogger(ExtractorFilter.class);
     private static final String NAME = "Extractor";
 
-    private final ConcurrentMap<String, List<Extractor>> extractors = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, ExtractorPlan> extractors = new ConcurrentHashMap<>();
 
     private final InputService inputService;
     private final ScheduledExecutorService scheduler;
@@ -74,9 +72,15 @@ public class ExtractorFilter implements MessageFilter {
             return false;
         }
 
-        for (final Extractor extractor : extractors.getOrDefault(msg.getSourceInputId(), Collections.emptyList())) {
+        final ExtractorPlan plan = extractors.get(msg.getSourceInputId());
+        if (plan == null) {
+            return false;
+        }
+
+        final Extractor.ConditionMatcher conditionMatcher = plan.conditionMatcher();
+        for (final Extractor extractor : plan.getExtractors()) {
             try {
-                extractor.runExtractor(msg);
+                extractor.runExtractor(msg, conditionMatcher);
             } catch (Exception e) {
                 extractor.incrementExceptions();
                 final String error = "Could not apply extractor <" + extractor.getTitle() + "(" + extractor.getId() + ")>";
@@ -152,7 +156,7 @@ public class ExtractorFilter implements MessageFilter {
                     .sorted(Comparator.comparingLong(Extractor::getOrder))
                     .collect(Collectors.toList());
 
-            extractors.put(inputId, ImmutableList.copyOf(sortedExtractors));
+            extractors.put(inputId, ExtractorPlan.compile(sortedExtractors));
         } catch (NotFoundException e) {
             LOG.warn("Unable to load input <{}>: {}", inputId, e.getMessage());
         }
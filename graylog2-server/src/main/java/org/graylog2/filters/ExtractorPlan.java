@@ -0,0 +1,214 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog2.filters;
+
+import com.google.common.collect.ImmutableList;
+import org.graylog2.plugin.inputs.Extractor;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * The extractors of an input, prepared to run on messages.
+ * <p>
+ * Inputs with many extractors often use the same condition for several extractors on the same source field. The plan
+ * evaluates each of these shared conditions only once per message, as long as the value of the source field hasn't
+ * been replaced by a previous extractor in the meantime.
+ * </p>
+ * <p>
+ * The different regular expression conditions on the same source field are combined into one alternation which is
+ * used as a pre-filter, like the stream rules in the {@link org.graylog2.streams.StreamRouterEngine}. The single
+ * conditions only have to be evaluated if the combined pattern matches.
+ * </p>
+ */
+class ExtractorPlan {
+    private static final Extractor.ConditionMatcher DIRECT = Extractor::matchesCondition;
+
+    // Patterns which can't be safely embedded into an alternation: back references (the group numbers change),
+    // quoting (might swallow the closing parenthesis) and comments mode (might comment out the rest of the alternation)
+    private static final Pattern NOT_COMBINABLE_REGEX = Pattern.compile("\\\\[1-9]|\\\\k<|\\\\Q|\\(\\?[a-zA-Z-]*x");
+
+    private final List<Extractor> extractors;
+    // the index of the shared condition of each extractor, extractors without a shared condition are missing
+    private final Map<Extractor, Integer> conditionSlots;
+    private final int conditionCount;
+    // the pre-filter of each extractor with a regular expression condition, extractors without one are missing
+    private final Map<Extractor, RegexField> regexFields;
+    private final int regexFieldCount;
+
+    private ExtractorPlan(List<Extractor> extractors,
+                          Map<Extractor, Integer> conditionSlots,
+                          int conditionCount,
+                          Map<Extractor, RegexField> regexFields,
+                          int regexFieldCount) {
+        this.extractors = extractors;
+        this.conditionSlots = conditionSlots;
+        this.conditionCount = conditionCount;
+        this.regexFields = regexFields;
+        this.regexFieldCount = regexFieldCount;
+    }
+
+    /**
+     * @param extractors the extractors of an input in the order they should run
+     */
+    static ExtractorPlan compile(List<Extractor> extractors) {
+        final Map<List<Object>, List<Extractor>> extractorsByCondition = new HashMap<>();
+        final Map<String, List<Extractor>> regexExtractorsByField = new LinkedHashMap<>();
+        for (final Extractor extractor : extractors) {
+            final Extractor.ConditionType conditionType = extractor.getConditionType();
+            if (conditionType == Extractor.ConditionType.STRING || conditionType == Extractor.ConditionType.REGEX) {
+                final List<Object> key = Arrays.asList(extractor.getSourceField(), conditionType, extractor.getConditionValue());
+                extractorsByCondition.computeIfAbsent(key, k -> new ArrayList<>()).add(extractor);
+            }
+            if (conditionType == Extractor.ConditionType.REGEX && isCombinable(extractor.getConditionValue())) {
+                regexExtractorsByField.computeIfAbsent(extractor.getSourceField(), field -> new ArrayList<>()).add(extractor);
+            }
+        }
+
+        final Map<Extractor, Integer> conditionSlots = new IdentityHashMap<>();
+        int conditionCount = 0;
+        for (final List<Extractor> sameCondition : extractorsByCondition.values()) {
+            // evaluating a condition only used once can't be shared
+            if (sameCondition.size() > 1) {
+                for (final Extractor extractor : sameCondition) {
+                    conditionSlots.put(extractor, conditionCount);
+                }
+                conditionCount++;
+            }
+        }
+
+        final Map<Extractor, RegexField> regexFields = new IdentityHashMap<>();
+        int regexFieldCount = 0;
+        for (final List<Extractor> sameField : regexExtractorsByField.values()) {
+            final Set<String> regexes = new LinkedHashSet<>();
+            for (final Extractor extractor : sameField) {
+                regexes.add(extractor.getConditionValue());
+            }
+            // A pre-filter for a single pattern would only add work
+            if (regexes.size() < 2) {
+                continue;
+            }
+            final Pattern combined;
+            try {
+                combined = combinedPattern(regexes);
+            } catch (PatternSyntaxException e) {
+                // e. g. the same named group in multiple patterns
+                continue;
+            }
+            final RegexField regexField = new RegexField(regexFieldCount++, combined);
+            for (final Extractor extractor : sameField) {
+                regexFields.put(extractor, regexField);
+            }
+        }
+
+        return new ExtractorPlan(ImmutableList.copyOf(extractors), conditionSlots, conditionCount, regexFields, regexFieldCount);
+    }
+
+    private static boolean isCombinable(String regex) {
+        return regex != null && !NOT_COMBINABLE_REGEX.matcher(regex).find();
+    }
+
+    private static Pattern combinedPattern(Set<String> regexes) {
+        final StringBuilder sb = new StringBuilder();
+        for (final String regex : regexes) {
+            if (sb.length() > 0) {
+                sb.append('|');
+            }
+            sb.append("(?:").append(regex).append(')');
+        }
+        // Same flags as the condition patterns of the extractors
+        return Pattern.compile(sb.toString(), Pattern.DOTALL);
+    }
+
+    List<Extractor> getExtractors() {
+        return extractors;
+    }
+
+    int getSharedConditionCount() {
+        return conditionCount;
+    }
+
+    int getRegexPreFilterCount() {
+        return regexFieldCount;
+    }
+
+    /**
+     * @return a condition matcher for a single message, which must not be used by other threads
+     */
+    Extractor.ConditionMatcher conditionMatcher() {
+        return conditionCount == 0 && regexFieldCount == 0 ? DIRECT : new MessageConditions();
+    }
+
+    private class MessageConditions implements Extractor.ConditionMatcher {
+        private final String[] values = new String[conditionCount];
+        private final boolean[] results = new boolean[conditionCount];
+        private final String[] scannedValues = new String[regexFieldCount];
+        private final boolean[] anyMatches = new boolean[regexFieldCount];
+
+        @Override
+        public boolean matches(Extractor extractor, String value) {
+            final RegexField regexField = regexFields.get(extractor);
+            if (regexField != null && !anyMatches(regexField, value)) {
+                return false;
+            }
+
+            final Integer slot = conditionSlots.get(extractor);
+            if (slot == null) {
+                return extractor.matchesCondition(value);
+            }
+            // Strings are immutable, if the field still holds the same instance the result is still valid
+            //noinspection StringEquality
+            if (values[slot] != value) {
+                results[slot] = extractor.matchesCondition(value);
+                values[slot] = value;
+            }
+            return results[slot];
+        }
+
+        private boolean anyMatches(RegexField regexField, String value) {
+            final int id = regexField.id;
+            //noinspection StringEquality
+            if (scannedValues[id] != value) {
+                anyMatches[id] = regexField.combined.matcher(value).find();
+                scannedValues[id] = value;
+            }
+            return anyMatches[id];
+        }
+    }
+
+    /**
+     * The regular expression conditions of a source field, combined into a single pre-filter pattern.
+     */
+    private static class RegexField {
+        private final int id;
+        private final Pattern combined;
+
+        private RegexField(int id, Pattern combined) {
+            this.id = id;
+            this.combined = combined;
+        }
+    }
+}
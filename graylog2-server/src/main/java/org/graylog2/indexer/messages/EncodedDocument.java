@@ -0,0 +1,90 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog2.indexer.messages;
+
+import com.codahale.metrics.Meter;
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.util.ByteArrayBuilder;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import javax.annotation.Nonnull;
+import java.io.IOException;
+import java.util.Objects;
+
+/**
+ * Lazily serializes an {@link Indexable} to its Elasticsearch document body and keeps the result.
+ * <p>
+ * The document body doesn't depend on the index set, so one instance is shared by all {@link IndexingRequest}s of
+ * a message. Chunk splits after "Request Entity Too Large" errors and retries of blocked indices reuse the same
+ * {@link IndexingRequest}s and therefore the already serialized body.
+ * <p>
+ * The document is streamed straight into its own byte array, see
+ * {@link Indexable#writeElasticSearchDocument(ObjectMapper, JsonGenerator, Meter)}. Only the generator's output
+ * buffer is reused between documents, the JsonFactory recycles it per thread.
+ */
+public class EncodedDocument {
+    private final Indexable message;
+    private volatile byte[] body;
+
+    public EncodedDocument(Indexable message) {
+        this.message = message;
+    }
+
+    /**
+     * Returns the JSON document body of the message, serializing it on the first call.
+     */
+    public byte[] body(ObjectMapper objectMapper, @Nonnull Meter invalidTimestampMeter) throws IOException {
+        byte[] result = body;
+        if (result == null) {
+            result = encode(objectMapper, invalidTimestampMeter);
+            body = result;
+        }
+        return result;
+    }
+
+    private byte[] encode(ObjectMapper objectMapper, Meter invalidTimestampMeter) throws IOException {
+        final JsonFactory jsonFactory = objectMapper.getFactory();
+        final ByteArrayBuilder buffer = new ByteArrayBuilder();
+        try {
+            try (JsonGenerator generator = jsonFactory.createGenerator(buffer, JsonEncoding.UTF8)) {
+                message.writeElasticSearchDocument(objectMapper, generator, invalidTimestampMeter);
+            }
+            return buffer.toByteArray();
+        } finally {
+            buffer.release();
+        }
+    }
+
+    // The cached body is derived from the message and doesn't take part in equality.
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+        return Objects.equals(message, ((EncodedDocument) o).message);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hashCode(message);
+    }
+}
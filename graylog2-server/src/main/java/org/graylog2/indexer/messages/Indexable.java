@@ -17,10 +17,12 @@
 package org.graylog2.indexer.messages;
 
 import com.codahale.metrics.Meter;
+import com.fasterxml.jackson.core.JsonGenerator;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import org.joda.time.DateTime;
 
 import javax.annotation.Nonnull;
+import java.io.IOException;
 import java.util.Map;
 
 public interface Indexable {
@@ -41,6 +43,14 @@ public interface Indexable {
     long getSize();
     DateTime getReceiveTime();
     Map<String, Object> toElasticSearchObject(ObjectMapper objectMapper,@Nonnull final Meter invalidTimestampMeter);
+
+    /**
+     * Writes the Elasticsearch document to the given generator. Implementations should override this to avoid
+     * building the map of {@link #toElasticSearchObject(ObjectMapper, Meter)}.
+     */
+    default void writeElasticSearchDocument(ObjectMapper objectMapper, JsonGenerator generator, @Nonnull final Meter invalidTimestampMeter) throws IOException {
+        generator.writeObject(toElasticSearchObject(objectMapper, invalidTimestampMeter));
+    }
     DateTime getTimestamp();
 
     /**
@@ -27,9 +27,17 @@ import javax.validation.constraints.NotNull;
 public abstract class IndexingRequest {
     public abstract IndexSet indexSet();
     public abstract Indexable message();
+    public abstract EncodedDocument encodedDocument();
 
     public static IndexingRequest create(@NotNull IndexSet indexSet, @NotNull Indexable message) {
-        return new AutoValue_IndexingRequest(indexSet, message);
+        return create(indexSet, message, new EncodedDocument(message));
     }
 
+    /**
+     * Creates an indexing request sharing the given serialized document, which has to belong to the same message.
+     * Use this when indexing one message into multiple index sets to serialize it only once.
+     */
+    public static IndexingRequest create(@NotNull IndexSet indexSet, @NotNull Indexable message, @NotNull EncodedDocument encodedDocument) {
+        return new AutoValue_IndexingRequest(indexSet, message, encodedDocument);
+    }
 }
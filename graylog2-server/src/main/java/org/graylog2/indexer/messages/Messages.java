@@ -45,6 +45,7 @@ import java.io.IOException;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -133,8 +134,11 @@ public class Messages {
             return Collections.emptyList();
         }
 
+        // A message routed to several index sets is serialized only once
+        final Map<Message, EncodedDocument> encodedDocuments = new IdentityHashMap<>();
         final List<IndexingRequest> indexingRequestList = messageList.stream()
-                .map(entry -> IndexingRequest.create(entry.getKey(), entry.getValue()))
+                .map(entry -> IndexingRequest.create(entry.getKey(), entry.getValue(),
+                        encodedDocuments.computeIfAbsent(entry.getValue(), EncodedDocument::new)))
                 .collect(Collectors.toList());
 
         return bulkIndexRequests(indexingRequestList, isSystemTraffic, indexingListener);
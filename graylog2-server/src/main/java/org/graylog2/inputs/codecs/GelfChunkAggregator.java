@@ -22,9 +22,9 @@ import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.MoreObjects;
 import com.google.common.collect.Maps;
 import io.netty.buffer.ByteBuf;
+import io.netty.buffer.CompositeByteBuf;
 import io.netty.buffer.Unpooled;
 import org.graylog2.inputs.codecs.gelf.GELFMessage;
-import org.graylog2.inputs.codecs.gelf.GELFMessageChunk;
 import org.graylog2.plugin.Tools;
 import org.graylog2.plugin.inputs.codecs.CodecAggregator;
 import org.slf4j.Logger;
@@ -36,16 +36,35 @@ import javax.inject.Inject;
 import javax.inject.Named;
 import java.util.Map;
 import java.util.Objects;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ConcurrentMap;
-import java.util.concurrent.ConcurrentSkipListSet;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicReferenceArray;
 
 import static com.codahale.metrics.MetricRegistry.name;
-import static java.util.Objects.requireNonNull;
-
+import static org.graylog2.inputs.codecs.gelf.GELFMessageChunk.HEADER_PART_HASH_START;
+import static org.graylog2.inputs.codecs.gelf.GELFMessageChunk.HEADER_PART_SEQCNT_START;
+import static org.graylog2.inputs.codecs.gelf.GELFMessageChunk.HEADER_PART_SEQNUM_START;
+import static org.graylog2.inputs.codecs.gelf.GELFMessageChunk.HEADER_TOTAL_LENGTH;
+
+/**
+ * Reassembles chunked GELF messages.
+ * <p>
+ * The payload of every chunk is copied into a buffer of its exact size, so pending chunks don't keep the much larger
+ * receive buffers of the transport alive until their message is complete or expires. A complete message is returned
+ * as a {@link CompositeByteBuf} of these copies. Non-chunked payloads are passed on as a retained slice of the buffer
+ * they arrived in, since they are handed to the journal right away. The returned buffer is released once the
+ * {@link org.graylog2.plugin.journal.RawMessage} has been created from it.
+ * </p>
+ * <p>
+ * Pending messages are indexed by the 8 byte GELF message id. Since entries are created in arrival order, a FIFO
+ * queue is enough to find the oldest ones for eviction, completed entries are skipped once they reach its head.
+ * </p>
+ */
 public class GelfChunkAggregator implements CodecAggregator {
     private static final Logger log = LoggerFactory.getLogger(GelfChunkAggregator.class);
 
@@ -62,8 +81,8 @@ public class GelfChunkAggregator implements CodecAggregator {
     public static final String EXPIRED_CHUNKS = name(GelfChunkAggregator.class, "expired-chunks");
     public static final String DUPLICATE_CHUNKS = name(GelfChunkAggregator.class, "duplicate-chunks");
 
-    private final ConcurrentMap<String, ChunkEntry> chunks = Maps.newConcurrentMap();
-    private final ConcurrentSkipListSet<ChunkEntry> sortedEvictionSet = new ConcurrentSkipListSet<>();
+    private final ConcurrentMap<Long, ChunkEntry> chunks = Maps.newConcurrentMap();
+    private final Queue<ChunkEntry> evictionQueue = new ConcurrentLinkedQueue<>();
     private final Counter chunkCounter;
     private final Counter waitingMessages;
     private final Counter expiredMessages;
@@ -75,7 +94,7 @@ public class GelfChunkAggregator implements CodecAggregator {
     public GelfChunkAggregator(@Named("daemonScheduler") ScheduledExecutorService scheduler, MetricRegistry metricRegistry) {
         scheduler.scheduleAtFixedRate(new ChunkEvictionTask(), VALIDITY_PERIOD, CHECK_PERIOD, TimeUnit.MILLISECONDS);
         chunkCounter = metricRegistry.counter(CHUNK_COUNTER);
-        // this is a counter instead of a Gauge, because calling sortedEvictionSet.size() is expensive
+        // this is a counter instead of a Gauge, because the size of the pending chunk map is expensive to compute
         waitingMessages = metricRegistry.counter(WAITING_MESSAGES);
         completeMessages = metricRegistry.counter(COMPLETE_MESSAGES);
         expiredMessages = metricRegistry.counter(EXPIRED_MESSAGES);
@@ -86,17 +105,12 @@ public class GelfChunkAggregator implements CodecAggregator {
     @Nonnull
     @Override
     public Result addChunk(ByteBuf buffer) {
-        final byte[] readable = new byte[buffer.readableBytes()];
-        buffer.readBytes(readable, buffer.readerIndex(), buffer.readableBytes());
-
-        final GELFMessage msg = new GELFMessage(readable);
-
         final ByteBuf aggregatedBuffer;
-        switch (msg.getGELFType()) {
+        switch (GELFMessage.getGELFType(buffer)) {
             case CHUNKED:
                 try {
                     chunkCounter.inc();
-                    aggregatedBuffer = checkForCompletion(msg);
+                    aggregatedBuffer = checkForCompletion(buffer);
                     if (aggregatedBuffer == null) {
                         return VALID_EMPTY_RESULT;
                     }
@@ -108,7 +122,7 @@ public class GelfChunkAggregator implements CodecAggregator {
             case ZLIB:
             case GZIP:
             case UNCOMPRESSED:
-                aggregatedBuffer = Unpooled.wrappedBuffer(readable);
+                aggregatedBuffer = buffer.readRetainedSlice(buffer.readableBytes());
                 break;
             case UNSUPPORTED:
                 return INVALID_RESULT;
@@ -123,100 +137,145 @@ public class GelfChunkAggregator implements CodecAggregator {
      * If the message isn't complete, it adds the chunk to the internal buffer and waits for more incoming messages.
      * Outdated chunks are being purged regularly.
      *
-     * @param gelfMessage the gelf message chunk
-     * @return null or a {@link org.graylog2.plugin.journal.RawMessage raw message} object
+     * @param buffer the gelf message chunk, including the chunk header
+     * @return null or the buffer of the complete message
      */
     @Nullable
-    private ByteBuf checkForCompletion(GELFMessage gelfMessage) {
+    private ByteBuf checkForCompletion(ByteBuf buffer) {
         if (!chunks.isEmpty() && log.isDebugEnabled()) {
             log.debug("Dumping GELF chunk map [chunks for {} messages]:\n{}", chunks.size(), humanReadableChunkMap());
         }
-        final GELFMessageChunk chunk = new GELFMessageChunk(gelfMessage, null); // TODO second parameter
-        final int sequenceCount = chunk.getSequenceCount();
-
-        final String messageId = chunk.getId();
+        if (buffer.readableBytes() < HEADER_TOTAL_LENGTH) {
+            throw new IllegalArgumentException("This GELF message chunk is too short. Cannot even contain the required header.");
+        }
+        final int readerIndex = buffer.readerIndex();
+        final long messageId = buffer.getLong(readerIndex + HEADER_PART_HASH_START);
+        final int sequenceNumber = buffer.getUnsignedByte(readerIndex + HEADER_PART_SEQNUM_START);
+        final int sequenceCount = buffer.getUnsignedByte(readerIndex + HEADER_PART_SEQCNT_START);
+        if (sequenceNumber >= sequenceCount) {
+            throw new IllegalArgumentException("Invalid sequence number " + sequenceNumber + " for " + sequenceCount + " chunks");
+        }
 
-        ChunkEntry entry = new ChunkEntry(sequenceCount, chunk.getArrival(), messageId);
+        ChunkEntry entry = new ChunkEntry(sequenceCount, Tools.nowUTC().getMillis(), messageId);
 
         final ChunkEntry existing = chunks.putIfAbsent(messageId, entry);
         if (existing == null) {
-            // add this chunk entry to the eviction set
+            // add this chunk entry to the eviction queue
             waitingMessages.inc();
-            sortedEvictionSet.add(entry);
+            evictionQueue.add(entry);
         } else {
-            // the entry is already in the eviction set and chunk map
+            // the entry is already in the eviction queue and chunk map
             entry = existing;
         }
 
-        final int sequenceNumber = chunk.getSequenceNumber();
-        if (!entry.payloadArray.compareAndSet(sequenceNumber, null, chunk)) {
-            log.error("Received duplicate chunk {} for message {} from {}", sequenceNumber, messageId, gelfMessage.getSourceAddress());
+        if (sequenceNumber >= entry.payloadArray.length()) {
+            // a chunk of the same message announced a different number of chunks
+            throw new IndexOutOfBoundsException("Chunk " + sequenceNumber + " is out of range for message "
+                    + idToString(messageId) + " with " + entry.payloadArray.length() + " chunks");
+        }
+
+        final int dataLength = buffer.readableBytes() - HEADER_TOTAL_LENGTH;
+        final ByteBuf data = buffer.alloc().buffer(dataLength, dataLength)
+                .writeBytes(buffer, readerIndex + HEADER_TOTAL_LENGTH, dataLength);
+        if (!entry.payloadArray.compareAndSet(sequenceNumber, null, data)) {
+            data.release();
+            log.error("Received duplicate chunk {} for message {}", sequenceNumber, idToString(messageId));
             duplicateChunks.inc();
             return null;
         }
+        if (entry.isClosed()) {
+            // the entry has been completed or expired concurrently and might not have seen this chunk
+            final ByteBuf orphan = entry.payloadArray.getAndSet(sequenceNumber, null);
+            if (orphan != null) {
+                orphan.release();
+            }
+            return null;
+        }
 
         final int chunkWatermark = entry.chunkSlotsWritten.incrementAndGet();
 
         if (chunkWatermark > MAX_CHUNKS) {
-            getAndCleanupEntry(messageId);
+            closeEntry(entry);
             throw new IllegalStateException("Maximum number of chunks reached, discarding message");
         }
 
         if (chunkWatermark == sequenceCount) {
             // message is complete by chunk count, assemble and return it.
             // it might still be corrupt etc, but we've seen enough chunks
-            // remove before operating on it, to avoid racing too much with the clean up job, some race is inevitable, though.
-            entry = getAndCleanupEntry(messageId);
+            // remove before operating on it, to avoid racing too much with the clean up job.
+            if (!entry.close()) {
+                return null;
+            }
+            removeEntry(entry);
 
-            final byte[] allChunks[] = new byte[sequenceCount][];
+            final CompositeByteBuf message = Unpooled.compositeBuffer(sequenceCount);
             for (int i = 0; i < entry.payloadArray.length(); i++) {
-                final GELFMessageChunk messageChunk = entry.payloadArray.get(i);
-                if (messageChunk == null) {
-                    log.debug("Couldn't read chunk {} of message {}, skipping this chunk.", i, messageId);
+                final ByteBuf chunkData = entry.payloadArray.getAndSet(i, null);
+                if (chunkData == null) {
+                    log.debug("Couldn't read chunk {} of message {}, skipping this chunk.", i, idToString(messageId));
                 } else {
-                    allChunks[i] = messageChunk.getData();
+                    message.addComponent(true, chunkData);
                 }
             }
             completeMessages.inc();
-            return Unpooled.wrappedBuffer(allChunks);
+            return message;
         }
 
         // message isn't complete yet, check if we should remove the other parts as well
         if (isOutdated(entry)) {
             // chunks are outdated, the oldest came in over 5 seconds ago, clean them all up
-            log.debug("Not all chunks of <{}> arrived within {}ms. Dropping chunks.", messageId, VALIDITY_PERIOD);
-            expireEntry(messageId);
+            log.debug("Not all chunks of <{}> arrived within {}ms. Dropping chunks.", idToString(messageId), VALIDITY_PERIOD);
+            expireEntry(entry);
         }
 
         return null;
     }
 
-    private void expireEntry(String messageId) {
-        final ChunkEntry cleanupEntry = getAndCleanupEntry(messageId);
-        expiredMessages.inc();
-        expiredChunks.inc(cleanupEntry.chunkSlotsWritten.get());
+    private void expireEntry(ChunkEntry entry) {
+        if (closeEntry(entry)) {
+            expiredMessages.inc();
+            expiredChunks.inc(entry.chunkSlotsWritten.get());
+        }
     }
 
     private boolean isOutdated(ChunkEntry entry) {
         return (Tools.nowUTC().getMillis() - entry.firstTimestamp) > VALIDITY_PERIOD;
     }
 
-    private ChunkEntry getAndCleanupEntry(String id) {
-        final ChunkEntry entry = chunks.remove(id);
-        sortedEvictionSet.remove(entry);
+    /**
+     * Discards the entry and releases all chunks it holds, unless it has already been completed or discarded.
+     *
+     * @return {@code true} if the entry has been discarded by this call
+     */
+    private boolean closeEntry(ChunkEntry entry) {
+        if (!entry.close()) {
+            return false;
+        }
+        removeEntry(entry);
+        entry.releaseChunks();
+        return true;
+    }
+
+    private void removeEntry(ChunkEntry entry) {
+        // the eviction queue drops closed entries lazily
+        chunks.remove(entry.id, entry);
         waitingMessages.dec();
-        return entry;
+    }
+
+    private static String idToString(long messageId) {
+        return String.format("%016x", messageId);
     }
 
     private String humanReadableChunkMap() {
         final StringBuilder sb = new StringBuilder();
 
-        for (final Map.Entry<String, ChunkEntry> entry : chunks.entrySet()) {
-            sb.append("Message <").append(entry.getKey()).append("> ");
+        for (final Map.Entry<Long, ChunkEntry> entry : chunks.entrySet()) {
+            sb.append("Message <").append(idToString(entry.getKey())).append("> ");
             sb.append("\tChunks:\n");
             for (int i = 0; i < entry.getValue().payloadArray.length(); i++) {
-                final GELFMessageChunk chunk = entry.getValue().payloadArray.get(i);
-                sb.append("\t\t").append(chunk == null ? "<not arrived yet>" : chunk).append("\n");
+                final ByteBuf chunk = entry.getValue().payloadArray.get(i);
+                sb.append("\t\t").append(i + 1).append("/").append(entry.getValue().payloadArray.length()).append(": ")
+                        .append(chunk == null ? "<not arrived yet>" : "Data size: " + chunk.readableBytes()).append("\n");
             }
         }
 
@@ -224,16 +283,37 @@ public class GelfChunkAggregator implements CodecAggregator {
     }
 
     @VisibleForTesting
-    static class ChunkEntry implements Comparable<ChunkEntry> {
+    static class ChunkEntry {
         protected final AtomicInteger chunkSlotsWritten = new AtomicInteger(0);
         protected final long firstTimestamp;
-        protected final AtomicReferenceArray<GELFMessageChunk> payloadArray;
-        protected final String id;
+        protected final AtomicReferenceArray<ByteBuf> payloadArray;
+        protected final long id;
+        private final AtomicBoolean closed = new AtomicBoolean(false);
 
-        public ChunkEntry(int chunkCount, long firstTimestamp, String id) {
+        public ChunkEntry(int chunkCount, long firstTimestamp, long id) {
             this.payloadArray = new AtomicReferenceArray<>(chunkCount);
             this.firstTimestamp = firstTimestamp;
-            this.id = requireNonNull(id);
+            this.id = id;
+        }
+
+        /**
+         * Marks the entry as completed or discarded. Only the first caller owns the chunks afterwards.
+         */
+        boolean close() {
+            return closed.compareAndSet(false, true);
+        }
+
+        boolean isClosed() {
+            return closed.get();
+        }
+
+        void releaseChunks() {
+            for (int i = 0; i < payloadArray.length(); i++) {
+                final ByteBuf chunk = payloadArray.getAndSet(i, null);
+                if (chunk != null) {
+                    chunk.release();
+                }
+            }
         }
 
         @Override
@@ -243,7 +323,7 @@ public class GelfChunkAggregator implements CodecAggregator {
 
             final ChunkEntry that = (ChunkEntry) o;
 
-            if (!id.equals(that.id)) return false;
+            if (id != that.id) return false;
             if (firstTimestamp != that.firstTimestamp) return false;
 
             //noinspection RedundantIfStatement
@@ -255,26 +335,13 @@ public class GelfChunkAggregator implements CodecAggregator {
             return Objects.hash(id, firstTimestamp);
         }
 
-        @Override
-        public int compareTo(@Nonnull ChunkEntry o) {
-            if (equals(o)) {
-                return 0;
-            }
-            // If two chunk entries have the same timestamp, we have to compare the IDs. Otherwise the removal from
-            // the eviction set might not work and leak memory.
-            // See: https://github.com/Graylog2/graylog2-server/issues/1462
-            if (firstTimestamp == o.firstTimestamp) {
-                return id.compareTo(o.id);
-            }
-            return firstTimestamp < o.firstTimestamp ? -1 : 1;
-        }
-
         @Override
         public String toString() {
             return MoreObjects.toStringHelper(this)
-                    .add("id", id)
+                    .add("id", idToString(id))
                     .add("firstTimestamp", firstTimestamp)
                     .add("chunkSlotsWritten", chunkSlotsWritten)
+                    .add("closed", closed)
                     .toString();
         }
     }
@@ -284,16 +351,19 @@ public class GelfChunkAggregator implements CodecAggregator {
         @Override
         public void run() {
             try {
-                // loop until we've either evicted all outdated chunk entries, or the set is completely empty.
+                // loop until we've either evicted all outdated chunk entries, or the queue is completely empty.
                 // this task will run every second by default (see constant in constructor)
                 while (true) {
-                    // Check if eviction set is empty to avoid a NoElementException when calling first().
-                    if (sortedEvictionSet.isEmpty()) {
+                    final ChunkEntry oldestChunkEntry = evictionQueue.peek();
+                    if (oldestChunkEntry == null) {
                         break;
                     }
-                    final ChunkEntry oldestChunkEntry = sortedEvictionSet.first();
-                    if (isOutdated(oldestChunkEntry)) {
-                        expireEntry(oldestChunkEntry.id);
+                    if (oldestChunkEntry.isClosed()) {
+                        // already completed or discarded
+                        evictionQueue.poll();
+                    } else if (isOutdated(oldestChunkEntry)) {
+                        evictionQueue.poll();
+                        expireEntry(oldestChunkEntry);
                     } else {
                         log.debug("No more outdated chunk entries found to evict, leaving cleanup loop.");
                         break;
@@ -17,9 +17,19 @@
 package org.graylog2.inputs.codecs;
 
 import com.eaio.uuid.UUID;
+import com.fasterxml.jackson.core.JsonParseException;
 import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.BigIntegerNode;
+import com.fasterxml.jackson.databind.node.BooleanNode;
+import com.fasterxml.jackson.databind.node.DoubleNode;
+import com.fasterxml.jackson.databind.node.IntNode;
+import com.fasterxml.jackson.databind.node.LongNode;
+import com.fasterxml.jackson.databind.node.MissingNode;
+import com.fasterxml.jackson.databind.node.NullNode;
+import com.fasterxml.jackson.databind.node.TextNode;
 import com.google.inject.assistedinject.Assisted;
 import org.apache.commons.lang3.StringUtils;
 import org.graylog2.inputs.codecs.gelf.GELFMessage;
@@ -46,7 +56,8 @@ import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import javax.inject.Inject;
 import java.io.IOException;
-import java.util.Iterator;
+import java.math.BigInteger;
+import java.util.LinkedHashMap;
 import java.util.Map;
 
 @Codec(name = "gelf", displayName = "GELF")
@@ -55,55 +66,41 @@ public class GelfCodec extends AbstractCodec {
     private static final String CK_DECOMPRESS_SIZE_LIMIT = "decompress_size_limit";
     private static final int DEFAULT_DECOMPRESS_SIZE_LIMIT = 8388608;
 
+    // Only used for its parser configuration and for nested containers, the top-level fields are streamed.
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper().enable(
+            JsonParser.Feature.ALLOW_UNQUOTED_CONTROL_CHARS,
+            JsonParser.Feature.ALLOW_TRAILING_COMMA);
+
     private final GelfChunkAggregator aggregator;
-    private final ObjectMapper objectMapper;
     private final long decompressSizeLimit;
 
     @Inject
     public GelfCodec(@Assisted Configuration configuration, GelfChunkAggregator aggregator) {
         super(configuration);
         this.aggregator = aggregator;
-        this.objectMapper = new ObjectMapper().enable(
-            JsonParser.Feature.ALLOW_UNQUOTED_CONTROL_CHARS,
-            JsonParser.Feature.ALLOW_TRAILING_COMMA);
         this.decompressSizeLimit = configuration.getInt(CK_DECOMPRESS_SIZE_LIMIT, DEFAULT_DECOMPRESS_SIZE_LIMIT);
     }
 
-    private static String stringValue(final JsonNode json, final String fieldName) {
-        if (json != null) {
-            final JsonNode value = json.get(fieldName);
-
-            if (value != null) {
-                return value.asText();
-            }
+    private static String stringValue(final Map<String, Object> fields, final String fieldName) {
+        final Object value = fields.get(fieldName);
+        if (value instanceof String) {
+            return (String) value;
         }
-        return null;
+        return value == null ? null : toNode(value).asText();
     }
 
-    private static long longValue(final JsonNode json, final String fieldName) {
-        if (json != null) {
-            final JsonNode value = json.get(fieldName);
-
-            if (value != null) {
-                return value.asLong(-1L);
-            }
-        }
-        return -1L;
+    private static long longValue(final Map<String, Object> fields, final String fieldName) {
+        final Object value = fields.get(fieldName);
+        return value == null ? -1L : toNode(value).asLong(-1L);
     }
 
-    private static int intValue(final JsonNode json, final String fieldName) {
-        if (json != null) {
-            final JsonNode value = json.get(fieldName);
-
-            if (value != null) {
-                return value.asInt(-1);
-            }
-        }
-        return -1;
+    private static int intValue(final Map<String, Object> fields, final String fieldName) {
+        final Object value = fields.get(fieldName);
+        return value == null ? -1 : toNode(value).asInt(-1);
     }
 
-    private static double timestampValue(final JsonNode json) {
-        final JsonNode value = json.path(Message.FIELD_TIMESTAMP);
+    private static double timestampValue(final Map<String, Object> fields) {
+        final JsonNode value = path(fields, Message.FIELD_TIMESTAMP);
         if (value.isNumber()) {
             return value.asDouble(-1.0);
         } else if (value.isTextual()) {
@@ -118,17 +115,107 @@ public class GelfCodec extends AbstractCodec {
         }
     }
 
+    /**
+     * Reads the top-level fields of a GELF document with the streaming parser.
+     * <p>
+     * Scalars are kept as plain Java values ({@link String}, {@link Integer}, {@link Long},
+     * {@link java.math.BigInteger}, {@link Double}, {@link Boolean}), only {@code null} and nested containers are
+     * kept as {@link JsonNode}. The map keeps the semantics of {@link ObjectMapper#readTree(String)}: a duplicate key
+     * keeps the position of its first occurrence and the value of its last one, trailing content after the document
+     * is ignored and a document which is not an object has no fields.
+     *
+     * @return the fields in document order, or {@code null} if the input has no content at all
+     */
+    @Nullable
+    private static Map<String, Object> parseFields(final String json) throws IOException {
+        try (final JsonParser parser = OBJECT_MAPPER.getFactory().createParser(json)) {
+            final JsonToken startToken = parser.nextToken();
+            if (startToken == null) {
+                return null;
+            }
+            final Map<String, Object> fields = new LinkedHashMap<>();
+            if (startToken != JsonToken.START_OBJECT) {
+                // Still consume the value so that malformed documents are rejected like before.
+                parser.skipChildren();
+                return fields;
+            }
+
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                final String key = parser.getCurrentName();
+                final JsonToken token = parser.nextToken();
+                final Object value;
+                switch (token) {
+                    case VALUE_STRING:
+                        value = parser.getText();
+                        break;
+                    case VALUE_NUMBER_INT:
+                        value = parser.getNumberValue();
+                        break;
+                    case VALUE_NUMBER_FLOAT:
+                        value = parser.getDoubleValue();
+                        break;
+                    case VALUE_TRUE:
+                        value = Boolean.TRUE;
+                        break;
+                    case VALUE_FALSE:
+                        value = Boolean.FALSE;
+                        break;
+                    case VALUE_NULL:
+                        value = NullNode.getInstance();
+                        break;
+                    case START_OBJECT:
+                    case START_ARRAY:
+                        // Containers are rare in GELF and end up as their JSON representation anyway.
+                        value = OBJECT_MAPPER.readTree(parser);
+                        break;
+                    default:
+                        throw new JsonParseException(parser, "Unexpected token " + token);
+                }
+                fields.put(key, value);
+            }
+            return fields;
+        }
+    }
+
+    private static JsonNode path(final Map<String, Object> fields, final String fieldName) {
+        final Object value = fields.get(fieldName);
+        return value == null ? MissingNode.getInstance() : toNode(value);
+    }
+
+    /**
+     * Wraps a value returned by {@link #parseFields(String)} into the node {@link ObjectMapper#readTree(String)} would
+     * have created for it, so that the conversions of the standard fields stay the same.
+     */
+    private static JsonNode toNode(final Object value) {
+        if (value instanceof JsonNode) {
+            return (JsonNode) value;
+        } else if (value instanceof String) {
+            return TextNode.valueOf((String) value);
+        } else if (value instanceof Integer) {
+            return IntNode.valueOf((Integer) value);
+        } else if (value instanceof Long) {
+            return LongNode.valueOf((Long) value);
+        } else if (value instanceof BigInteger) {
+            return BigIntegerNode.valueOf((BigInteger) value);
+        } else if (value instanceof Double) {
+            return DoubleNode.valueOf((Double) value);
+        } else if (value instanceof Boolean) {
+            return BooleanNode.valueOf((Boolean) value);
+        }
+        throw new IllegalArgumentException("Unexpected value type " + value.getClass());
+    }
+
     @Nullable
     @Override
     public Message decode(@Nonnull final RawMessage rawMessage) {
         final GELFMessage gelfMessage = new GELFMessage(rawMessage.getPayload(), rawMessage.getRemoteAddress());
         final String json = gelfMessage.getJSON(decompressSizeLimit, charset);
 
-        final JsonNode node;
+        final Map<String, Object> fields;
 
         try {
-            node = objectMapper.readTree(json);
-            if (node == null) {
+            fields = parseFields(json);
+            if (fields == null) {
                 throw new IOException("null result");
             }
         } catch (final Exception e) {
@@ -138,14 +225,14 @@ public class GelfCodec extends AbstractCodec {
         }
 
         try {
-            validateGELFMessage(node, rawMessage.getId(), rawMessage.getRemoteAddress());
+            validateGELFMessage(fields, rawMessage.getId(), rawMessage.getRemoteAddress());
         } catch (IllegalArgumentException e) {
-            log.trace("Invalid GELF message <{}>", node);
+            log.trace("Invalid GELF message <{}>", json);
             throw e;
         }
 
         // Timestamp.
-        final double messageTimestamp = timestampValue(node);
+        final double messageTimestamp = timestampValue(fields);
         final DateTime timestamp;
         if (messageTimestamp <= 0) {
             timestamp = rawMessage.getTimestamp();
@@ -155,42 +242,38 @@ public class GelfCodec extends AbstractCodec {
         }
 
         final Message message = new Message(
-                stringValue(node, "short_message"),
-                stringValue(node, "host"),
+                stringValue(fields, "short_message"),
+                stringValue(fields, "host"),
                 timestamp
         );
 
-        message.addField(Message.FIELD_FULL_MESSAGE, stringValue(node, "full_message"));
+        message.addField(Message.FIELD_FULL_MESSAGE, stringValue(fields, "full_message"));
 
-        final String file = stringValue(node, "file");
+        final String file = stringValue(fields, "file");
 
         if (file != null && !file.isEmpty()) {
             message.addField("file", file);
         }
 
-        final long line = longValue(node, "line");
+        final long line = longValue(fields, "line");
         if (line > -1) {
             message.addField("line", line);
         }
 
         // Level is set by server if not specified by client.
-        final int level = intValue(node, "level");
+        final int level = intValue(fields, "level");
         if (level > -1) {
             message.addField("level", level);
         }
 
         // Facility is set by server if not specified by client.
-        final String facility = stringValue(node, "facility");
+        final String facility = stringValue(fields, "facility");
         if (facility != null && !facility.isEmpty()) {
             message.addField("facility", facility);
         }
 
         // Add additional data if there is some.
-        final Iterator<Map.Entry<String, JsonNode>> fields = node.fields();
-
-        while (fields.hasNext()) {
-            final Map.Entry<String, JsonNode> entry = fields.next();
-
+        for (final Map.Entry<String, Object> entry : fields.entrySet()) {
             String key = entry.getKey();
             // Do not index useless GELF "version" field.
             if ("version".equals(key)) {
@@ -213,20 +296,21 @@ public class GelfCodec extends AbstractCodec {
             }
 
             // Convert JSON containers to Strings, and pick a suitable number representation.
-            final JsonNode value = entry.getValue();
+            final Object value = entry.getValue();
 
             final Object fieldValue;
-            if (value.isContainerNode()) {
+            if (value instanceof JsonNode) {
+                if (((JsonNode) value).isNull()) {
+                    log.debug("Field [{}] is NULL. Skipping.", key);
+                    continue;
+                }
                 fieldValue = value.toString();
-            } else if (value.isFloatingPointNumber()) {
-                fieldValue = value.asDouble();
-            } else if (value.isIntegralNumber()) {
-                fieldValue = value.asLong();
-            } else if (value.isNull()) {
-                log.debug("Field [{}] is NULL. Skipping.", key);
-                continue;
-            } else if (value.isTextual()) {
-                fieldValue = value.asText();
+            } else if (value instanceof Double) {
+                fieldValue = value;
+            } else if (value instanceof Number) {
+                fieldValue = ((Number) value).longValue();
+            } else if (value instanceof String) {
+                fieldValue = value;
             } else {
                 log.debug("Field [{}] has unknown value type. Skipping.", key);
                 continue;
@@ -238,10 +322,10 @@ public class GelfCodec extends AbstractCodec {
         return message;
     }
 
-    private void validateGELFMessage(JsonNode jsonNode, UUID id, ResolvableInetSocketAddress remoteAddress) {
+    private void validateGELFMessage(Map<String, Object> fields, UUID id, ResolvableInetSocketAddress remoteAddress) {
         final String prefix = "GELF message <" + id + "> " + (remoteAddress == null ? "" : "(received from <" + remoteAddress + ">) ");
 
-        final JsonNode hostNode = jsonNode.path("host");
+        final JsonNode hostNode = path(fields, "host");
         if (hostNode.isMissingNode()) {
             log.warn(prefix + "is missing mandatory \"host\" field.");
         } else {
@@ -253,8 +337,8 @@ public class GelfCodec extends AbstractCodec {
             }
         }
 
-        final JsonNode shortMessageNode = jsonNode.path("short_message");
-        final JsonNode messageNode = jsonNode.path("message");
+        final JsonNode shortMessageNode = path(fields, "short_message");
+        final JsonNode messageNode = path(fields, "message");
         if (!shortMessageNode.isMissingNode()) {
             if (!shortMessageNode.isTextual()) {
                 throw new IllegalArgumentException(prefix + "has invalid \"short_message\": " + shortMessageNode.asText());
@@ -273,7 +357,7 @@ public class GelfCodec extends AbstractCodec {
             throw new IllegalArgumentException(prefix + "is missing mandatory \"short_message\" or \"message\" field.");
         }
 
-        final JsonNode timestampNode = jsonNode.path("timestamp");
+        final JsonNode timestampNode = path(fields, "timestamp");
         if (timestampNode.isValueNode() && !timestampNode.isNumber()) {
             log.warn(prefix + "has invalid \"timestamp\": {}  (type: {})", timestampNode.asText(), timestampNode.getNodeType().name());
         }
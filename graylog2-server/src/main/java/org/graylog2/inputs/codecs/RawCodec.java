@@ -45,7 +45,7 @@ public class RawCodec extends AbstractCodec {
     @Nullable
     @Override
     public Message decode(@Nonnull RawMessage raw) {
-        return new Message(new String(raw.getPayload(), charset), null, raw.getTimestamp());
+        return new Message(raw.getPayloadAsString(charset), null, raw.getTimestamp());
     }
 
     @Nullable
@@ -22,6 +22,8 @@ import com.google.common.annotations.VisibleForTesting;
 import com.google.common.net.InetAddresses;
 import com.google.inject.assistedinject.Assisted;
 import com.google.inject.assistedinject.AssistedInject;
+import org.graylog2.inputs.codecs.syslog.SyslogEvent;
+import org.graylog2.inputs.codecs.syslog.SyslogParser;
 import org.graylog2.plugin.Message;
 import org.graylog2.plugin.ResolvableInetSocketAddress;
 import org.graylog2.plugin.Tools;
@@ -35,11 +37,6 @@ import org.graylog2.plugin.inputs.codecs.AbstractCodec;
 import org.graylog2.plugin.inputs.codecs.CodecAggregator;
 import org.graylog2.plugin.inputs.transports.NettyTransport;
 import org.graylog2.plugin.journal.RawMessage;
-import org.graylog2.syslog4j.server.SyslogServerEventIF;
-import org.graylog2.syslog4j.server.impl.event.CiscoSyslogServerEvent;
-import org.graylog2.syslog4j.server.impl.event.FortiGateSyslogEvent;
-import org.graylog2.syslog4j.server.impl.event.SyslogServerEvent;
-import org.graylog2.syslog4j.server.impl.event.structured.StructuredSyslogServerEvent;
 import org.joda.time.DateTime;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -54,7 +51,6 @@ import java.nio.charset.StandardCharsets;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
-import java.util.regex.Pattern;
 
 import static com.codahale.metrics.MetricRegistry.name;
 import static com.google.common.base.Strings.isNullOrEmpty;
@@ -62,9 +58,7 @@ import static com.google.common.base.Strings.isNullOrEmpty;
 @Codec(name = "syslog", displayName = "Syslog")
 public class SyslogCodec extends AbstractCodec {
     private static final Logger LOG = LoggerFactory.getLogger(SyslogCodec.class);
-    private static final Pattern STRUCTURED_SYSLOG_PATTERN = Pattern.compile("<\\d{1,3}>[0-9]\\d{0,2}\\s.*", Pattern.DOTALL);
-    private static final Pattern CISCO_WITH_SEQUENCE_NUMBERS_PATTERN = Pattern.compile("<\\d{1,3}>\\d*:\\s.*", Pattern.DOTALL);
-    private static final Pattern FORTIGATE_PATTERN = Pattern.compile("<\\d{1,3}>date=.*", Pattern.DOTALL);
+    private static final String FORTIGATE_PREFIX = "date=";
 
     static final String CK_FORCE_RDNS = "force_rdns";
     static final String CK_ALLOW_OVERRIDE_DATE = "allow_override_date";
@@ -74,6 +68,29 @@ public class SyslogCodec extends AbstractCodec {
     private final Timer resolveTime;
     private final Timer decodeTime;
 
+    /**
+     * The syslog flavors which are handled by different parsers.
+     */
+    @VisibleForTesting
+    enum Format {
+        /**
+         * RFC 5424: {@code <PRI>VERSION SP ...}, the version has one to three digits.
+         */
+        STRUCTURED,
+        /**
+         * Cisco with sequence numbers: {@code <PRI>SEQUENCE: ...}, the sequence number is optional.
+         */
+        CISCO_WITH_SEQUENCE_NUMBERS,
+        /**
+         * FortiGate: {@code <PRI>date=...}
+         */
+        FORTIGATE,
+        /**
+         * Classic BSD syslog (RFC 3164) and everything else.
+         */
+        UNSTRUCTURED
+    }
+
     @AssistedInject
     public SyslogCodec(@Assisted Configuration configuration, MetricRegistry metricRegistry) {
         super(configuration);
@@ -84,7 +101,7 @@ public class SyslogCodec extends AbstractCodec {
     @Nullable
     @Override
     public Message decode(@Nonnull RawMessage rawMessage) {
-        final String msg = new String(rawMessage.getPayload(), charset);
+        final String msg = rawMessage.getPayloadAsString(charset);
         try (Timer.Context ignored = this.decodeTime.time()) {
             final ResolvableInetSocketAddress address = rawMessage.getRemoteAddress();
             final InetSocketAddress remoteAddress;
@@ -121,77 +138,141 @@ public class SyslogCodec extends AbstractCodec {
          *
          */
 
-        final SyslogServerEventIF e;
-        if (STRUCTURED_SYSLOG_PATTERN.matcher(msg).matches()) {
-            e = new StructuredSyslogServerEvent(msg, remoteAddress);
-        } else if (CISCO_WITH_SEQUENCE_NUMBERS_PATTERN.matcher(msg).matches()) {
-            e = new CiscoSyslogServerEvent(msg, remoteAddress);
-        } else if (FORTIGATE_PATTERN.matcher(msg).matches()) {
-            e = new FortiGateSyslogEvent(msg);
-        } else {
-            e = new SyslogServerEvent(msg, remoteAddress);
+        final Format format = detectFormat(msg);
+        final SyslogEvent e;
+        switch (format) {
+            case STRUCTURED:
+                e = SyslogParser.parseStructured(msg);
+                break;
+            case CISCO_WITH_SEQUENCE_NUMBERS:
+                e = SyslogParser.parseCisco(msg);
+                break;
+            case FORTIGATE:
+                e = SyslogParser.parseFortiGate(msg);
+                break;
+            default:
+                e = SyslogParser.parseBsd(msg);
         }
 
         // If the message is a structured one, we do not want the message ID and the structured data in the
         // message string. See: https://github.com/Graylog2/graylog2-server/issues/845#issuecomment-69499719
         final String syslogMessage;
-        if (e instanceof StructuredSyslogServerEvent) {
-            final String structMessage = ((StructuredSyslogServerEvent) e).getStructuredMessage().getMessage();
+        if (format == Format.STRUCTURED) {
+            final String structMessage = e.getStructuredMessage();
             syslogMessage = isNullOrEmpty(structMessage) ? e.getMessage() : structMessage;
         } else {
             syslogMessage = e.getMessage();
         }
 
-        final Message m = new Message(syslogMessage, parseHost(e, remoteAddress), parseDate(e, receivedTimestamp));
+        final Message m = new Message(syslogMessage, parseHost(e, remoteAddress), parseDate(e, msg, receivedTimestamp));
         m.addField("facility", Tools.syslogFacilityToReadable(e.getFacility()));
         m.addField("level", e.getLevel());
         m.addField("facility_num", e.getFacility());
 
-        // I can haz pattern matching?
-        if (e instanceof CiscoSyslogServerEvent) {
-            m.addField("sequence_number", ((CiscoSyslogServerEvent) e).getSequenceNumber());
+        if (format == Format.CISCO_WITH_SEQUENCE_NUMBERS) {
+            m.addField("sequence_number", e.getSequenceNumber());
         }
-        if (e instanceof FortiGateSyslogEvent) {
-            final HashMap<String, Object> fields = new HashMap<>(((FortiGateSyslogEvent) e).getFields());
-            // The FortiGate "level" field is a string, Graylog requires a numeric value.
-            fields.remove("level");
-            m.addFields(fields);
+        if (format == Format.FORTIGATE) {
+            for (Map.Entry<String, String> field : e.getFields().entrySet()) {
+                // The FortiGate "level" field is a string, Graylog requires a numeric value.
+                if (!"level".equals(field.getKey())) {
+                    m.addField(field.getKey(), field.getValue());
+                }
+            }
         }
 
         // Store full message if configured.
         if (configuration.getBoolean(CK_STORE_FULL_MESSAGE)) {
-            m.addField("full_message", new String(e.getRaw(), charset));
+            m.addField("full_message", rawMessage(msg));
         }
 
-
-        final boolean expandStructuredData = configuration.getBoolean(CK_EXPAND_STRUCTURED_DATA);
-        m.addFields(parseAdditionalData(e, expandStructuredData));
+        if (format == Format.STRUCTURED) {
+            final boolean expandStructuredData = configuration.getBoolean(CK_EXPAND_STRUCTURED_DATA);
+            m.addFields(parseAdditionalData(e, expandStructuredData));
+        }
 
         return m;
     }
 
-    private Map<String, Object> parseAdditionalData(SyslogServerEventIF msg, boolean expand) {
+    /**
+     * The full message has always been encoded as UTF-8 and decoded with the configured charset again, which only
+     * makes a difference for other charsets.
+     */
+    private String rawMessage(String msg) {
+        return StandardCharsets.UTF_8.equals(charset) ? msg : new String(msg.getBytes(StandardCharsets.UTF_8), charset);
+    }
 
-        // Structured syslog has more data we can parse.
-        if (msg instanceof StructuredSyslogServerEvent) {
-            final StructuredSyslogServerEvent sMsg = (StructuredSyslogServerEvent) msg;
-            final Map<String, Object> structuredData = new HashMap<>(extractFields(sMsg, expand));
+    /**
+     * Detects the syslog flavor by looking at the characters after the PRI only, instead of matching patterns
+     * against the whole message. The rules are the same as for the patterns used before:
+     * <ul>
+     * <li>{@code <\d{1,3}>[0-9]\d{0,2}\s.*} for {@link Format#STRUCTURED}</li>
+     * <li>{@code <\d{1,3}>\d*:\s.*} for {@link Format#CISCO_WITH_SEQUENCE_NUMBERS}</li>
+     * <li>{@code <\d{1,3}>date=.*} for {@link Format#FORTIGATE}</li>
+     * </ul>
+     */
+    @VisibleForTesting
+    static Format detectFormat(String msg) {
+        final int length = msg.length();
+        if (length == 0 || msg.charAt(0) != '<') {
+            return Format.UNSTRUCTURED;
+        }
 
-            if (!isNullOrEmpty(sMsg.getApplicationName())) {
-                structuredData.put("application_name", sMsg.getApplicationName());
-            }
+        // PRI: one to three digits
+        int i = 1;
+        while (i < length && i <= 3 && isDigit(msg.charAt(i))) {
+            i++;
+        }
+        if (i == 1 || i >= length || msg.charAt(i) != '>') {
+            return Format.UNSTRUCTURED;
+        }
+        final int afterPri = i + 1;
 
-            if (!isNullOrEmpty(sMsg.getProcessId())) {
-                structuredData.put("process_id", sMsg.getProcessId());
+        int digitsEnd = afterPri;
+        while (digitsEnd < length && isDigit(msg.charAt(digitsEnd))) {
+            digitsEnd++;
+        }
+        final int digits = digitsEnd - afterPri;
+        if (digitsEnd < length) {
+            final char next = msg.charAt(digitsEnd);
+            if (digits >= 1 && digits <= 3 && isWhitespace(next)) {
+                return Format.STRUCTURED;
             }
+            if (next == ':' && digitsEnd + 1 < length && isWhitespace(msg.charAt(digitsEnd + 1))) {
+                return Format.CISCO_WITH_SEQUENCE_NUMBERS;
+            }
+        }
+        if (msg.startsWith(FORTIGATE_PREFIX, afterPri)) {
+            return Format.FORTIGATE;
+        }
+        return Format.UNSTRUCTURED;
+    }
 
-            return structuredData;
-        } else {
-            return Collections.emptyMap();
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    // the characters of the regular expression class \s
+    private static boolean isWhitespace(char c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == '\u000B' || c == '\f' || c == '\r';
+    }
+
+    // Structured syslog has more data we can parse.
+    private Map<String, Object> parseAdditionalData(SyslogEvent msg, boolean expand) {
+        final Map<String, Object> structuredData = new HashMap<>(extractFields(msg, expand));
+
+        if (!isNullOrEmpty(msg.getApplicationName())) {
+            structuredData.put("application_name", msg.getApplicationName());
+        }
+
+        if (!isNullOrEmpty(msg.getProcessId())) {
+            structuredData.put("process_id", msg.getProcessId());
         }
+
+        return structuredData;
     }
 
-    private String parseHost(SyslogServerEventIF msg, InetAddress remoteAddress) {
+    private String parseHost(SyslogEvent msg, InetAddress remoteAddress) {
         if (remoteAddress != null && configuration.getBoolean(CK_FORCE_RDNS)) {
             try (Timer.Context ignored = this.resolveTime.time()) {
                 return Tools.rdnsLookup(remoteAddress);
@@ -204,7 +285,7 @@ public class SyslogCodec extends AbstractCodec {
         return isNullOrEmpty(host) && remoteAddress != null ? InetAddresses.toAddrString(remoteAddress) : host;
     }
 
-    private DateTime parseDate(SyslogServerEventIF msg, DateTime receivedTimestamp) throws IllegalStateException {
+    private DateTime parseDate(SyslogEvent msg, String rawMessage, DateTime receivedTimestamp) throws IllegalStateException {
         // Check if date could be parsed.
         if (msg.getDate() == null) {
             if (configuration.getBoolean(CK_ALLOW_OVERRIDE_DATE)) {
@@ -213,12 +294,12 @@ public class SyslogCodec extends AbstractCodec {
             } else {
                 LOG.warn("Syslog message is missing date or date could not be parsed. (Possibly set {} to true) "
                                 + "Not further handling. Message was: {}",
-                        CK_ALLOW_OVERRIDE_DATE, new String(msg.getRaw(), charset));
+                        CK_ALLOW_OVERRIDE_DATE, rawMessage(rawMessage));
                 throw new IllegalStateException("Syslog message is missing date or date could not be parsed.");
             }
         }
 
-        return new DateTime(msg.getDate());
+        return msg.getDate();
     }
 
     @Nullable
@@ -299,25 +380,20 @@ public class SyslogCodec extends AbstractCodec {
         }
     }
 
-    @SuppressWarnings("unchecked")
     @VisibleForTesting
-    Map<String, Object> extractFields(final StructuredSyslogServerEvent msg, final boolean expand) {
-        try {
-            final Map<String, Map<String, String>> raw = msg.getStructuredMessage().getStructuredData();
-
-            if (raw != null && !raw.isEmpty()) {
-                final Map<String, Object> fields = new HashMap<>();
-                for (Map.Entry<String, Map<String, String>> entry : raw.entrySet()) {
-                    if (expand) {
-                        fields.putAll(prefixElements(entry.getKey(), entry.getValue()));
-                    } else {
-                        fields.putAll(entry.getValue());
-                    }
+    Map<String, Object> extractFields(final SyslogEvent msg, final boolean expand) {
+        final Map<String, Map<String, String>> raw = msg.getStructuredData();
+
+        if (raw != null && !raw.isEmpty()) {
+            final Map<String, Object> fields = new HashMap<>();
+            for (Map.Entry<String, Map<String, String>> entry : raw.entrySet()) {
+                if (expand) {
+                    fields.putAll(prefixElements(entry.getKey(), entry.getValue()));
+                } else {
+                    fields.putAll(entry.getValue());
                 }
-                return fields;
             }
-        } catch (Exception e) {
-            LOG.debug("Could not extract structured syslog", e);
+            return fields;
         }
         return Collections.emptyMap();
     }
@@ -16,6 +16,7 @@
  */
 package org.graylog2.inputs.codecs.gelf;
 
+import io.netty.buffer.ByteBuf;
 import org.graylog2.plugin.ResolvableInetSocketAddress;
 import org.graylog2.plugin.Tools;
 
@@ -50,6 +51,20 @@ public class GELFMessage {
         return Type.determineType(payload[0], payload[1]);
     }
 
+    /**
+     * Determine the GELF type of the readable bytes of the given buffer without copying them.
+     *
+     * @param buffer The compressed, uncompressed or chunked GELF payload.
+     * @return The type of the GELF payload.
+     */
+    public static Type getGELFType(ByteBuf buffer) {
+        if (buffer.readableBytes() < Type.HEADER_SIZE) {
+            throw new IllegalStateException("GELF message is too short. Not even the type header would fit.");
+        }
+        final int readerIndex = buffer.readerIndex();
+        return Type.determineType(buffer.getByte(readerIndex), buffer.getByte(readerIndex + 1));
+    }
+
     /**
      * Return the JSON payload of the GELF message
      *
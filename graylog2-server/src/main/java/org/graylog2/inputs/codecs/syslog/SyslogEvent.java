@@ -0,0 +1,118 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog2.inputs.codecs.syslog;
+
+import org.joda.time.DateTime;
+
+import javax.annotation.Nullable;
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * The fields of a syslog message as parsed by {@link SyslogParser}. Fields which don't apply to the syslog flavor
+ * of the message keep their defaults.
+ */
+public class SyslogEvent {
+    DateTime date = null;
+    int facility = -1;
+    int level = -1;
+    String host = null;
+    String message = null;
+    String applicationName = null;
+    String processId = null;
+    int sequenceNumber = 0;
+    String structuredMessage = null;
+    Map<String, Map<String, String>> structuredData = null;
+    Map<String, String> fields = Collections.emptyMap();
+
+    SyslogEvent() {
+    }
+
+    /**
+     * @return the timestamp of the message or {@code null} if the message doesn't have a PRI
+     */
+    @Nullable
+    public DateTime getDate() {
+        return date;
+    }
+
+    public int getFacility() {
+        return facility;
+    }
+
+    public int getLevel() {
+        return level;
+    }
+
+    @Nullable
+    public String getHost() {
+        return host;
+    }
+
+    /**
+     * @return the remainder of the message after the header fields
+     */
+    public String getMessage() {
+        return message;
+    }
+
+    /**
+     * @return the APP-NAME of an RFC 5424 message
+     */
+    @Nullable
+    public String getApplicationName() {
+        return applicationName;
+    }
+
+    /**
+     * @return the PROCID of an RFC 5424 message
+     */
+    @Nullable
+    public String getProcessId() {
+        return processId;
+    }
+
+    /**
+     * @return the sequence number of a Cisco message
+     */
+    public int getSequenceNumber() {
+        return sequenceNumber;
+    }
+
+    /**
+     * @return the MSG of an RFC 5424 message or {@code null} if its MSGID and STRUCTURED-DATA are invalid
+     */
+    @Nullable
+    public String getStructuredMessage() {
+        return structuredMessage;
+    }
+
+    /**
+     * @return the parameters of an RFC 5424 message by SD-ID or {@code null} if it has no valid STRUCTURED-DATA
+     */
+    @Nullable
+    public Map<String, Map<String, String>> getStructuredData() {
+        return structuredData;
+    }
+
+    /**
+     * @return the key/value pairs of a FortiGate message
+     */
+    public Map<String, String> getFields() {
+        return fields;
+    }
+}
@@ -0,0 +1,737 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog2.inputs.codecs.syslog;
+
+import org.joda.time.DateTime;
+import org.joda.time.format.ISODateTimeFormat;
+
+import java.text.DateFormatSymbols;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.time.DateTimeException;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.GregorianCalendar;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Parses syslog messages by walking the message once with an index instead of cutting it into substrings at every
+ * step. It replaces the syslog4j event classes and produces the same fields for every flavor, including the quirks
+ * those classes had. Messages which syslog4j couldn't parse at all make the parser throw a runtime exception as well.
+ * <p>
+ * Timestamps in their common shapes are converted directly, all others go through the same date parsers syslog4j
+ * used.
+ * </p>
+ */
+public class SyslogParser {
+    private static final String NIL_VALUE = "-";
+    private static final String DEFAULT_APPLICATION_NAME = "unknown";
+    private static final String EMPTY_STRUCTURED_DATA_PREFIX = "- - ";
+    private static final String EMPTY_STRUCTURED_DATA = "[0@0]";
+    private static final long NOT_PARSED = Long.MIN_VALUE;
+
+    private static final String BSD_DATE_FORMAT = "MMM dd HH:mm:ss yyyy";
+    private static final String BSD_DATE_FORMAT_SHORT_DAY = "MMM d HH:mm:ss yyyy";
+    private static final String[] SHORT_MONTHS = DateFormatSymbols.getInstance(Locale.ENGLISH).getShortMonths();
+    private static final org.joda.time.format.DateTimeFormatter ISO_DATE_PARSER = ISODateTimeFormat.dateTimeParser();
+    private static final DateTimeFormatter CISCO_DATE_FORMATTER = DateTimeFormatter
+            .ofPattern("yyyy MMM ppd HH:mm:ss[.SSS][ zzz]", Locale.ROOT)
+            .withZone(ZoneOffset.UTC);
+    // For "Mar 06 2016 12:53:10 DEVICENAME :"
+    private static final DateTimeFormatter CISCO_DATE_WITH_YEAR_FORMATTER = DateTimeFormatter
+            .ofPattern("MMM ppd yyyy HH:mm:ss", Locale.ROOT)
+            .withZone(ZoneOffset.UTC);
+
+    private final String raw;
+    private final boolean structured;
+    private final SyslogEvent event = new SyslogEvent();
+    // the start of the part of the message which hasn't been parsed yet
+    private int start = 0;
+
+    private SyslogParser(String raw, boolean structured) {
+        this.raw = raw;
+        this.structured = structured;
+    }
+
+    /**
+     * Parses a classic BSD syslog message (RFC 3164) or any message which doesn't match another flavor.
+     */
+    public static SyslogEvent parseBsd(String message) {
+        final SyslogParser parser = new SyslogParser(message, false);
+        parser.parseBsd();
+        return parser.finish();
+    }
+
+    /**
+     * Parses an RFC 5424 message, including its STRUCTURED-DATA.
+     */
+    public static SyslogEvent parseStructured(String message) {
+        final SyslogParser parser = new SyslogParser(message, true);
+        parser.event.applicationName = DEFAULT_APPLICATION_NAME;
+        parser.parseBsd();
+        parser.finish();
+        parser.parseStructuredData();
+        return parser.event;
+    }
+
+    /**
+     * Parses a Cisco message with an optional sequence number: {@code <PRI>SEQUENCE: TIMESTAMP: HOST: %MESSAGE}
+     */
+    public static SyslogEvent parseCisco(String message) {
+        final SyslogParser parser = new SyslogParser(message, false);
+        parser.parseCisco();
+        return parser.finish();
+    }
+
+    /**
+     * Parses a FortiGate message, which consists of {@code key=value} pairs after the PRI.
+     *
+     * @throws IllegalArgumentException if the message doesn't start with a PRI or spans multiple lines
+     */
+    public static SyslogEvent parseFortiGate(String message) {
+        final SyslogParser parser = new SyslogParser(message, false);
+        parser.parseFortiGate();
+        return parser.event;
+    }
+
+    private SyslogEvent finish() {
+        event.message = start == 0 ? raw : raw.substring(start);
+        return event;
+    }
+
+    /**
+     * @return the index of the end of the PRI or -1 if the message doesn't start with a PRI
+     */
+    private int priorityEnd() {
+        // An empty message fails here, like it did with syslog4j
+        if (raw.charAt(0) != '<') {
+            return -1;
+        }
+        final int end = raw.indexOf('>');
+        return end <= 4 ? end : -1;
+    }
+
+    private void parsePriority(int priorityEnd) {
+        final int priority = parseInt(1, priorityEnd);
+        event.facility = priority >> 3;
+        event.level = priority - (event.facility << 3);
+        start = priorityEnd + 1;
+    }
+
+    private void parseBsd() {
+        final int priorityEnd = priorityEnd();
+        if (priorityEnd > -1) {
+            try {
+                parsePriority(priorityEnd);
+                if (structured) {
+                    parseStructuredDate();
+                } else {
+                    parseBsdDate();
+                }
+            } catch (NumberFormatException e) {
+                // The rest of the message is kept as it is
+            }
+            parseHost();
+        }
+    }
+
+    private void parseHost() {
+        if (structured) {
+            parseStructuredHost();
+        } else {
+            final int end = raw.indexOf(' ', start);
+            if (end > -1) {
+                event.host = raw.substring(start, end).trim();
+            }
+        }
+    }
+
+    private void parseBsdDate() {
+        if (raw.length() - start > 16) {
+            int dateLength = 16;
+            boolean shortDay = false;
+            boolean iso8601 = false;
+            // "Oct 1 12:00:00" instead of "Oct 01 12:00:00"
+            if (raw.charAt(start + 5) == ' ') {
+                dateLength = 15;
+                shortDay = true;
+            }
+            if (Character.isDigit(raw.charAt(start))) {
+                final int end = raw.indexOf(' ', start);
+                if (end == -1) {
+                    throw new StringIndexOutOfBoundsException("Missing end of timestamp in syslog message");
+                }
+                dateLength = end - start + 1;
+                iso8601 = true;
+            }
+
+            final int dateEnd = start + dateLength - 1;
+            try {
+                event.date = iso8601 ? parseIsoDate(start, dateEnd) : parseBsdTimestamp(start, dateEnd, shortDay);
+                start += dateLength;
+            } catch (ParseException e) {
+                event.date = DateTime.now();
+            }
+        }
+
+        parseHost();
+    }
+
+    private DateTime parseBsdTimestamp(int from, int to, boolean shortDay) throws ParseException {
+        final Calendar calendar = Calendar.getInstance();
+        final int year = calendar.get(Calendar.YEAR);
+        if (calendar instanceof GregorianCalendar) {
+            // "MMM dd HH:mm:ss" or "MMM d HH:mm:ss"
+            final int day = from + 4;
+            final int time = shortDay ? from + 6 : from + 7;
+            final int month = shortMonth(from);
+            if (month > -1 && isDigits(raw, day, time - 1) && raw.charAt(time - 1) == ' ' && isTime(raw, time, to)) {
+                calendar.clear();
+                calendar.set(year, month, parseDigits(raw, day, time - 1), parseDigits(raw, time, time + 2),
+                        parseDigits(raw, time + 3, time + 5), parseDigits(raw, time + 6, time + 8));
+                return new DateTime(calendar.getTimeInMillis());
+            }
+        }
+
+        final SimpleDateFormat dateFormat = new SimpleDateFormat(shortDay ? BSD_DATE_FORMAT_SHORT_DAY : BSD_DATE_FORMAT, Locale.ENGLISH);
+        return new DateTime(dateFormat.parse(raw.substring(from, to) + " " + year));
+    }
+
+    /**
+     * @return the month of the abbreviated month name followed by a space at the given index or -1
+     */
+    private int shortMonth(int from) {
+        if (from + 3 >= raw.length() || raw.charAt(from + 3) != ' ') {
+            return -1;
+        }
+        for (int i = 0; i < SHORT_MONTHS.length; i++) {
+            final String month = SHORT_MONTHS[i];
+            if (month.length() == 3 && raw.regionMatches(true, from, month, 0, 3)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    // "HH:mm:ss" exactly filling the given range
+    private static boolean isTime(String s, int from, int to) {
+        return to - from == 8 && isDigits(s, from, from + 2) && s.charAt(from + 2) == ':'
+                && isDigits(s, from + 3, from + 5) && s.charAt(from + 5) == ':' && isDigits(s, from + 6, to);
+    }
+
+    /**
+     * Parses an ISO 8601 timestamp like Joda-Time's {@link ISODateTimeFormat#dateTimeParser()} does.
+     *
+     * @throws IllegalArgumentException if the timestamp is invalid
+     */
+    private DateTime parseIsoDate(int from, int to) {
+        final long millis = isoMillis(raw, from, to);
+        return new DateTime(millis != NOT_PARSED ? millis : ISO_DATE_PARSER.parseMillis(raw.substring(from, to)));
+    }
+
+    /**
+     * Converts a timestamp in the common shape {@code yyyy-MM-ddTHH:mm:ss[.S+](Z|+HH:mm)} directly.
+     *
+     * @return the milliseconds since the epoch or {@link #NOT_PARSED} if the timestamp has a different shape
+     */
+    private static long isoMillis(String s, int from, int to) {
+        if (to - from < 20 || s.charAt(from + 4) != '-' || s.charAt(from + 7) != '-' || s.charAt(from + 10) != 'T'
+                || !isDigits(s, from, from + 4) || !isDigits(s, from + 5, from + 7) || !isDigits(s, from + 8, from + 10)
+                || !isTime(s, from + 11, from + 19)) {
+            return NOT_PARSED;
+        }
+
+        int millis = 0;
+        int offsetStart = from + 19;
+        if (s.charAt(offsetStart) == '.') {
+            // Joda-Time reads up to nine digits and truncates them to milliseconds
+            int fractionEnd = offsetStart + 1;
+            int scale = 100;
+            while (fractionEnd < to && fractionEnd - offsetStart <= 9 && isDigit(s.charAt(fractionEnd))) {
+                millis += (s.charAt(fractionEnd) - '0') * scale;
+                scale /= 10;
+                fractionEnd++;
+            }
+            if (fractionEnd == offsetStart + 1) {
+                return NOT_PARSED;
+            }
+            offsetStart = fractionEnd;
+        }
+
+        final int offsetSeconds;
+        if (offsetStart == to - 1 && s.charAt(offsetStart) == 'Z') {
+            offsetSeconds = 0;
+        } else if (to - offsetStart == 6 && (s.charAt(offsetStart) == '+' || s.charAt(offsetStart) == '-')
+                && isDigits(s, offsetStart + 1, offsetStart + 3) && s.charAt(offsetStart + 3) == ':'
+                && isDigits(s, offsetStart + 4, to)) {
+            final int offsetHours = parseDigits(s, offsetStart + 1, offsetStart + 3);
+            final int offsetMinutes = parseDigits(s, offsetStart + 4, to);
+            if (offsetHours > 23 || offsetMinutes > 59) {
+                return NOT_PARSED;
+            }
+            final int offset = (offsetHours * 60 + offsetMinutes) * 60;
+            offsetSeconds = s.charAt(offsetStart) == '-' ? -offset : offset;
+        } else {
+            return NOT_PARSED;
+        }
+
+        final LocalDateTime dateTime = localDateTime(s, from, from + 5, from + 8, from + 11);
+        if (dateTime == null) {
+            return NOT_PARSED;
+        }
+        return (dateTime.toEpochSecond(ZoneOffset.UTC) - offsetSeconds) * 1000L + millis;
+    }
+
+    /**
+     * @return the date and time at the given indexes or {@code null} if they are out of range
+     */
+    private static LocalDateTime localDateTime(String s, int year, int month, int day, int time) {
+        final int hour = parseDigits(s, time, time + 2);
+        final int minute = parseDigits(s, time + 3, time + 5);
+        final int second = parseDigits(s, time + 6, time + 8);
+        if (hour > 23 || minute > 59 || second > 59) {
+            return null;
+        }
+        try {
+            return LocalDateTime.of(parseDigits(s, year, year + 4), parseDigits(s, month, month + 2),
+                    parseDigits(s, day, day + 2), hour, minute, second);
+        } catch (DateTimeException e) {
+            return null;
+        }
+    }
+
+    private void parseStructuredDate() {
+        // Skip the VERSION
+        final int versionEnd = raw.indexOf(' ', start);
+        if (versionEnd > -1) {
+            start = versionEnd + 1;
+        }
+
+        final int end = raw.indexOf(' ', start);
+        if (end > -1) {
+            int from = start;
+            int to = end;
+            while (from < to && raw.charAt(from) <= ' ') {
+                from++;
+            }
+            while (to > from && raw.charAt(to - 1) <= ' ') {
+                to--;
+            }
+            try {
+                event.date = parseIsoDate(from, to);
+                start += to - from + 1;
+            } catch (Exception e) {
+                // Not an RFC 5424 timestamp, try the BSD one which also parses the host again
+                parseBsdDate();
+            }
+        }
+    }
+
+    private void parseStructuredHost() {
+        final int end = raw.indexOf(' ', start);
+        if (end > -1) {
+            event.host = raw.substring(start, end).trim();
+            start = end + 1;
+
+            final int applicationNameEnd = raw.indexOf(' ', start);
+            if (applicationNameEnd > -1) {
+                event.applicationName = raw.substring(start, applicationNameEnd).trim();
+                start = applicationNameEnd + 1;
+
+                final int processIdEnd = raw.indexOf(' ', start);
+                if (processIdEnd > -1) {
+                    event.processId = raw.substring(start, processIdEnd).trim();
+                    start = processIdEnd + 1;
+                }
+                if (NIL_VALUE.equals(event.processId)) {
+                    event.processId = null;
+                }
+            }
+            if (NIL_VALUE.equals(event.applicationName)) {
+                event.applicationName = null;
+            }
+        }
+    }
+
+    /**
+     * Parses MSGID, STRUCTURED-DATA and MSG of the remaining message. Invalid ones leave the structured message and
+     * data unset.
+     */
+    private void parseStructuredData() {
+        final int length = raw.length();
+        if (raw.startsWith(EMPTY_STRUCTURED_DATA_PREFIX, start)) {
+            event.structuredMessage = raw.substring(start + EMPTY_STRUCTURED_DATA_PREFIX.length());
+            return;
+        }
+
+        final int dataStart = raw.indexOf('[', start);
+        if (dataStart <= start || !isMessageId(start, dataStart)) {
+            return;
+        }
+
+        final Map<String, Map<String, String>> structuredData;
+        int end = -1;
+        final int emptyData = raw.indexOf(EMPTY_STRUCTURED_DATA, start);
+        if (emptyData > -1) {
+            structuredData = Collections.emptyMap();
+            end = emptyData + EMPTY_STRUCTURED_DATA.length() - 1;
+        } else {
+            structuredData = new HashMap<>();
+            int pos = dataStart;
+            while (pos < length && matchChar(pos, '[', '[') == pos) {
+                end = matchChar(pos, ']', ']');
+                if (end == -1) {
+                    return;
+                }
+
+                String id = null;
+                final Map<String, String> parameters = new HashMap<>();
+                while (pos < end) {
+                    if (id == null) {
+                        // The SD-ID ends with the first parameter or the element
+                        final int idEnd = matchChar(++pos, ']', ' ');
+                        id = raw.substring(pos, idEnd);
+                        pos = idEnd;
+                    } else {
+                        if (pos >= length || raw.charAt(pos) != ' ') {
+                            return;
+                        }
+                        pos++;
+                        final int equals = raw.indexOf('=', pos);
+                        // A message ending with "=" fails here, like it did with syslog4j
+                        if (equals == -1 || raw.charAt(equals + 1) != '"') {
+                            return;
+                        }
+                        final int valueEnd = matchChar(equals + 2, '"', '"');
+                        if (valueEnd == -1) {
+                            return;
+                        }
+                        parameters.put(raw.substring(pos, equals), unescape(equals + 2, valueEnd));
+                        pos = valueEnd + 1;
+                    }
+                }
+                pos++;
+                structuredData.put(id, parameters);
+            }
+        }
+
+        event.structuredData = structuredData;
+        event.structuredMessage = end + 2 <= length ? raw.substring(end + 2) : "";
+    }
+
+    // The MSGID must be a single token, it may be followed by spaces only
+    private boolean isMessageId(int from, int to) {
+        final int space = raw.indexOf(' ', from);
+        if (space == -1 || space >= to) {
+            return true;
+        }
+        if (space == from) {
+            return false;
+        }
+        for (int i = space; i < to; i++) {
+            if (raw.charAt(i) != ' ') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Returns the index of the first of the given characters which isn't escaped with a backslash
+    private int matchChar(int from, char c1, char c2) {
+        int i = from;
+        while (i < raw.length()) {
+            final char c = raw.charAt(i);
+            if (c == '\\') {
+                i += 2;
+            } else if (c == c1 || c == c2) {
+                return i;
+            } else {
+                i++;
+            }
+        }
+        return -1;
+    }
+
+    // Drops all backslashes
+    private String unescape(int from, int to) {
+        final int backslash = raw.indexOf('\\', from);
+        if (backslash == -1 || backslash >= to) {
+            return raw.substring(from, to);
+        }
+        final StringBuilder sb = new StringBuilder(to - from);
+        for (int i = from; i < to; i++) {
+            final char c = raw.charAt(i);
+            if (c != '\\') {
+                sb.append(c);
+            }
+        }
+        return sb.toString();
+    }
+
+    private void parseCisco() {
+        final int priorityEnd = priorityEnd();
+        if (priorityEnd > -1) {
+            try {
+                parsePriority(priorityEnd);
+                parseSequenceNumber();
+                parseCiscoDate();
+            } catch (NumberFormatException e) {
+                // The rest of the message is kept as it is
+            }
+            parseCiscoHost();
+        }
+    }
+
+    private void parseSequenceNumber() {
+        final int end = raw.indexOf(':', start);
+        if (end == start) {
+            start = end + 1;
+        } else if (end > -1) {
+            try {
+                event.sequenceNumber = parseInt(start, end);
+                start = end + 1;
+            } catch (NumberFormatException e) {
+                // Not a sequence number
+            }
+        }
+    }
+
+    private void parseCiscoDate() {
+        // Leading spaces and the asterisk of unsynchronized clocks. Messages without a timestamp fail here.
+        while (raw.charAt(start) == ' ') {
+            start++;
+        }
+        if (raw.charAt(start) == '*') {
+            start++;
+        }
+
+        final int end = raw.indexOf(": ", start);
+        boolean yearMissing = Character.isLetter(raw.charAt(start));
+        if (end == -1) {
+            throw new StringIndexOutOfBoundsException("Missing end of timestamp in Cisco syslog message");
+        }
+        int dateEnd = end;
+        DateTimeFormatter formatter = CISCO_DATE_FORMATTER;
+        if (Character.isDigit(raw.charAt(start + 7)) && Character.isDigit(raw.charAt(start + 8))
+                && Character.isDigit(raw.charAt(start + 9)) && Character.isDigit(raw.charAt(start + 10))) {
+            dateEnd = start + 20;
+            yearMissing = false;
+            formatter = CISCO_DATE_WITH_YEAR_FORMATTER;
+        }
+        if (dateEnd > raw.length()) {
+            throw new StringIndexOutOfBoundsException("Missing end of timestamp in Cisco syslog message");
+        }
+
+        final String date = raw.substring(start, dateEnd);
+        try {
+            final ZonedDateTime dateTime = ZonedDateTime.parse(
+                    yearMissing ? Calendar.getInstance().get(Calendar.YEAR) + " " + date : date, formatter);
+            event.date = new DateTime(dateTime.toInstant().toEpochMilli());
+            if (dateEnd + 1 > raw.length()) {
+                throw new StringIndexOutOfBoundsException("Missing message in Cisco syslog message");
+            }
+            start = dateEnd + 1;
+        } catch (DateTimeParseException e) {
+            event.date = DateTime.now();
+        }
+    }
+
+    private void parseCiscoHost() {
+        final int percent = raw.indexOf('%', start);
+        if (percent <= start) {
+            event.host = "";
+        } else {
+            int end = raw.indexOf(' ', start);
+            if (end > -1) {
+                event.host = raw.substring(start, end).trim();
+                // Skip ' ' and ':' characters, a message ending with them fails here
+                char c = raw.charAt(end);
+                while (c == ' ' || c == ':') {
+                    c = raw.charAt(++end);
+                }
+                start = end;
+            }
+        }
+    }
+
+    private void parseFortiGate() {
+        // "<PRI>" with one to three digits
+        final int length = raw.length();
+        int priorityEnd = 1;
+        while (priorityEnd < length && priorityEnd <= 3 && isDigit(raw.charAt(priorityEnd))) {
+            priorityEnd++;
+        }
+        if (length == 0 || raw.charAt(0) != '<' || priorityEnd == 1 || priorityEnd >= length || raw.charAt(priorityEnd) != '>') {
+            throw new IllegalArgumentException("Invalid Fortigate syslog message");
+        }
+
+        // The message must be on a single line, a line terminator at the end is dropped
+        final int messageStart = priorityEnd + 1;
+        int messageEnd = messageStart;
+        while (messageEnd < length && !isLineTerminator(raw.charAt(messageEnd))) {
+            messageEnd++;
+        }
+        if (messageEnd < length - 2
+                || (messageEnd == length - 2 && !(raw.charAt(messageEnd) == '\r' && raw.charAt(messageEnd + 1) == '\n'))) {
+            throw new IllegalArgumentException("Invalid Fortigate syslog message");
+        }
+
+        final int priority = parseDigits(raw, 1, priorityEnd);
+        event.facility = priority / 8;
+        event.level = priority % 8;
+        event.message = raw.substring(messageStart, messageEnd);
+        event.fields = parseKeyValuePairs(messageStart, messageEnd);
+        event.date = parseFortiGateDate(event.fields.get("date"), event.fields.get("time"));
+        event.host = event.fields.get("devname");
+    }
+
+    /**
+     * Collects {@code key=value} pairs first and overrides them with {@code key="value"} pairs, keys consist of word
+     * characters.
+     */
+    private Map<String, String> parseKeyValuePairs(int from, int to) {
+        final Map<String, String> fields = new HashMap<>();
+
+        int keyStart = from;
+        int i = from;
+        while (i < to) {
+            final char c = raw.charAt(i);
+            if (isWordCharacter(c)) {
+                i++;
+            } else if (c == '=' && keyStart < i) {
+                int valueEnd = i + 1;
+                while (valueEnd < to && raw.charAt(valueEnd) != '"' && !isWhitespace(raw.charAt(valueEnd))) {
+                    valueEnd++;
+                }
+                fields.put(raw.substring(keyStart, i), raw.substring(i + 1, valueEnd));
+                i = valueEnd;
+                keyStart = valueEnd;
+            } else {
+                keyStart = ++i;
+            }
+        }
+
+        keyStart = from;
+        i = from;
+        while (i < to) {
+            final char c = raw.charAt(i);
+            if (isWordCharacter(c)) {
+                i++;
+                continue;
+            }
+            if (c == '=' && keyStart < i && i + 1 < to && raw.charAt(i + 1) == '"') {
+                final int valueEnd = raw.indexOf('"', i + 2);
+                if (valueEnd > -1 && valueEnd < to) {
+                    fields.put(raw.substring(keyStart, i), raw.substring(i + 2, valueEnd));
+                    i = valueEnd + 1;
+                    keyStart = i;
+                    continue;
+                }
+            }
+            keyStart = ++i;
+        }
+
+        return fields;
+    }
+
+    private static DateTime parseFortiGateDate(String date, String time) {
+        if (date == null || time == null) {
+            return DateTime.now();
+        }
+
+        // "yyyy-MM-dd" and "HH:mm:ss" are the common shapes
+        if (date.length() == 10 && time.length() == 8 && date.charAt(4) == '-' && date.charAt(7) == '-'
+                && isDigits(date, 0, 4) && isDigits(date, 5, 7) && isDigits(date, 8, 10) && isTime(time, 0, 8)) {
+            final int hour = parseDigits(time, 0, 2);
+            final int minute = parseDigits(time, 3, 5);
+            final int second = parseDigits(time, 6, 8);
+            if (hour <= 23 && minute <= 59 && second <= 59) {
+                try {
+                    final LocalDateTime dateTime = LocalDateTime.of(parseDigits(date, 0, 4), parseDigits(date, 5, 7),
+                            parseDigits(date, 8, 10), hour, minute, second);
+                    return new DateTime(dateTime.toEpochSecond(ZoneOffset.UTC) * 1000L);
+                } catch (DateTimeException e) {
+                    // Invalid dates fail in the date parser below
+                }
+            }
+        }
+
+        final ZonedDateTime dateTime = ZonedDateTime.of(
+                LocalDate.parse(date, DateTimeFormatter.ISO_LOCAL_DATE.withZone(ZoneOffset.UTC)),
+                LocalTime.parse(time, DateTimeFormatter.ISO_LOCAL_TIME.withZone(ZoneOffset.UTC)),
+                ZoneOffset.UTC);
+        return new DateTime(dateTime.toInstant().toEpochMilli());
+    }
+
+    /**
+     * Parses the given range like {@link Integer#parseInt(String)}.
+     */
+    private int parseInt(int from, int to) {
+        if (to - from > 0 && to - from <= 9 && isDigits(raw, from, to)) {
+            return parseDigits(raw, from, to);
+        }
+        return Integer.parseInt(raw.substring(from, to));
+    }
+
+    private static int parseDigits(String s, int from, int to) {
+        int value = 0;
+        for (int i = from; i < to; i++) {
+            value = value * 10 + s.charAt(i) - '0';
+        }
+        return value;
+    }
+
+    private static boolean isDigits(String s, int from, int to) {
+        if (to > s.length()) {
+            return false;
+        }
+        for (int i = from; i < to; i++) {
+            if (!isDigit(s.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    // the characters of the regular expression class \w
+    private static boolean isWordCharacter(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c == '_';
+    }
+
+    // the characters of the regular expression class \s
+    private static boolean isWhitespace(char c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == '\u000B' || c == '\f' || c == '\r';
+    }
+
+    // the characters the regular expression "." doesn't match
+    private static boolean isLineTerminator(char c) {
+        return c == '\n' || c == '\r' || c == '\u0085' || c == '\u2028' || c == '\u2029';
+    }
+}
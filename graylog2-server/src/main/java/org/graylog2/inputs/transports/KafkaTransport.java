@@ -20,6 +20,7 @@ import com.codahale.metrics.Gauge;
 import com.codahale.metrics.InstrumentedExecutorService;
 import com.codahale.metrics.MetricRegistry;
 import com.codahale.metrics.MetricSet;
+import com.codahale.metrics.Timer;
 import com.google.common.base.Strings;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.eventbus.EventBus;
@@ -28,11 +29,17 @@ import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.google.common.util.concurrent.Uninterruptibles;
 import com.google.inject.assistedinject.Assisted;
 import com.google.inject.assistedinject.AssistedInject;
+import org.apache.kafka.clients.consumer.CommitFailedException;
+import org.apache.kafka.clients.consumer.ConsumerRebalanceListener;
 import org.apache.kafka.clients.consumer.ConsumerRecord;
 import org.apache.kafka.clients.consumer.ConsumerRecords;
 import org.apache.kafka.clients.consumer.InvalidOffsetException;
 import org.apache.kafka.clients.consumer.KafkaConsumer;
+import org.apache.kafka.clients.consumer.OffsetAndMetadata;
 import org.apache.kafka.common.KafkaException;
+import org.apache.kafka.common.Metric;
+import org.apache.kafka.common.MetricName;
+import org.apache.kafka.common.TopicPartition;
 import org.apache.kafka.common.errors.AuthorizationException;
 import org.apache.kafka.common.errors.WakeupException;
 import org.apache.kafka.common.serialization.ByteArrayDeserializer;
@@ -71,15 +78,26 @@ import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.nio.charset.StandardCharsets;
 import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.regex.Pattern;
 import java.util.stream.IntStream;
@@ -97,6 +115,7 @@ public class KafkaTransport extends ThrottleableTransport {
     public static final String CK_OFFSET_RESET = "offset_reset";
     public static final String CK_GROUP_ID = "group_id";
     public static final String CK_CUSTOM_PROPERTIES = "custom_properties";
+    public static final String CK_COMMIT_AFTER_JOURNAL = "commit_after_journal";
 
     // See https://kafka.apache.org/090/documentation.html for available values for "auto.offset.reset".
     private static final ImmutableMap<String, String> OFFSET_RESET_VALUES = ImmutableMap.of(
@@ -106,6 +125,8 @@ public class KafkaTransport extends ThrottleableTransport {
 
     private static final String DEFAULT_OFFSET_RESET = "largest";
     private static final String DEFAULT_GROUP_ID = "graylog2";
+    // How long a consumer thread waits for a polled batch to be written to the journal before it skips the commit.
+    private static final long HANDOFF_TIMEOUT_SECONDS = 30;
 
     private static final Logger LOG = LoggerFactory.getLogger(KafkaTransport.class);
 
@@ -120,6 +141,9 @@ public class KafkaTransport extends ThrottleableTransport {
     private final AtomicLong lastSecBytesRead = new AtomicLong(0);
     private final AtomicLong lastSecBytesReadTmp = new AtomicLong(0);
     private final ExecutorService executor;
+    private final Timer handoffTime;
+    private final Timer commitTime;
+    private final List<ConsumerRunnable> consumerRunnables = new CopyOnWriteArrayList<>();
 
     private volatile boolean stopped = false;
     private volatile boolean paused = true;
@@ -170,6 +194,20 @@ public class KafkaTransport extends ThrottleableTransport {
                 return 0L;
             }
         });
+        localRegistry.register("records_lag_max", new Gauge<Long>() {
+            @Override
+            public Long getValue() {
+                return consumerRunnables.stream().mapToLong(ConsumerRunnable::getRecordsLag).max().orElse(0L);
+            }
+        });
+        localRegistry.register("assigned_partitions", new Gauge<Integer>() {
+            @Override
+            public Integer getValue() {
+                return consumerRunnables.stream().mapToInt(ConsumerRunnable::getAssignedPartitions).sum();
+            }
+        });
+        this.handoffTime = localRegistry.timer("journal_handoff_time");
+        this.commitTime = localRegistry.timer("commit_time");
     }
 
     @Subscribe
@@ -231,34 +269,204 @@ public class KafkaTransport extends ThrottleableTransport {
         // Map largest -> latest, smallest -> earliest
         final String resetValue = configuration.getString(CK_OFFSET_RESET, DEFAULT_OFFSET_RESET);
         props.put("auto.offset.reset", resetValue.equals("largest") ? "latest" : "earliest");
-        // Default auto commit interval is 60 seconds. Reduce to 1 second to minimize message duplication
-        // if something breaks.
-        props.put("auto.commit.interval.ms", "1000");
+        if (configuration.getBoolean(CK_COMMIT_AFTER_JOURNAL, false)) {
+            // Offsets are committed by the consumer threads once a polled batch has been written to the journal.
+            props.put("enable.auto.commit", "false");
+        } else {
+            // Default auto commit interval is 60 seconds. Reduce to 1 second to minimize message duplication
+            // if something breaks.
+            props.put("auto.commit.interval.ms", "1000");
+        }
         props.put(org.apache.kafka.clients.consumer.ConsumerConfig.KEY_DESERIALIZER_CLASS_CONFIG, ByteArrayDeserializer.class.getName());
         props.put(org.apache.kafka.clients.consumer.ConsumerConfig.VALUE_DESERIALIZER_CLASS_CONFIG, ByteArrayDeserializer.class.getName());
 
         insertCustomProperties(props);
 
+        // Every thread runs its own consumer in the same consumer group, so the group coordinator assigns each
+        // thread a share of the topic partitions. More threads than partitions leaves the extra threads idle.
         final int numThreads = configuration.getInt(CK_THREADS);
         // this is being used during shutdown to first stop all submitted jobs before committing the offsets back to zookeeper
         // and then shutting down the connection.
         // this is to avoid yanking away the connection from the consumer runnables
         stopLatch = new CountDownLatch(numThreads);
 
-        IntStream.range(0, numThreads).forEach(i -> executor.submit(new ConsumerRunnable(props, input, i)));
+        IntStream.range(0, numThreads).forEach(i -> {
+            final ConsumerRunnable runnable = new ConsumerRunnable(props, input, i);
+            consumerRunnables.add(runnable);
+            executor.submit(runnable);
+        });
     }
 
-    private class ConsumerRunnable implements Runnable {
+    private class ConsumerRunnable implements Runnable, ConsumerRebalanceListener {
         private final MessageInput input;
         private final KafkaConsumer<byte[], byte[]> consumer;
+        private final boolean commitAfterJournal;
+        // offsets of batches that were written to the journal, but not committed yet
+        private final Map<TopicPartition, OffsetAndMetadata> acknowledgedOffsets = new HashMap<>();
+        // batches that were handed to the input buffer, but not acknowledged yet, in the order they were polled
+        private final Deque<PendingBatch> pendingBatches = new ArrayDeque<>();
+
+        private volatile long recordsLag = 0L;
+        private volatile int assignedPartitions = 0;
+        private Metric recordsLagMetric;
 
         public ConsumerRunnable(Properties props, MessageInput input, int threadId) {
             this.input = input;
+            this.commitAfterJournal = configuration.getBoolean(CK_COMMIT_AFTER_JOURNAL, false);
             final Properties nprops = (Properties) props.clone();
             nprops.put("client.id", "gl2-" + nodeId.getShortNodeId() + "-" + input.getId() + "-" + threadId);
             consumer = new KafkaConsumer<>(nprops);
             //noinspection ConstantConditions
-            consumer.subscribe(Pattern.compile(configuration.getString(CK_TOPIC_FILTER)));
+            consumer.subscribe(Pattern.compile(configuration.getString(CK_TOPIC_FILTER)), this);
+        }
+
+        long getRecordsLag() {
+            return recordsLag;
+        }
+
+        int getAssignedPartitions() {
+            return assignedPartitions;
+        }
+
+        @Override
+        public void onPartitionsRevoked(Collection<TopicPartition> partitions) {
+            // Called from within poll() on the consumer thread, commit what has been written before losing ownership.
+            if (commitAfterJournal) {
+                commitWrittenBatches();
+                for (final PendingBatch pendingBatch : pendingBatches) {
+                    pendingBatch.forget(partitions);
+                }
+                pendingBatches.removeIf(PendingBatch::isEmpty);
+                acknowledgedOffsets.keySet().removeAll(partitions);
+            }
+        }
+
+        @Override
+        public void onPartitionsAssigned(Collection<TopicPartition> partitions) {
+            assignedPartitions = consumer.assignment().size();
+            LOG.debug("Consumer of input <{}> was assigned partitions {}", input.getId(), partitions);
+        }
+
+        private void consumeBatch(ConsumerRecords<byte[], byte[]> consumerRecords) throws InterruptedException {
+            if (consumerRecords.isEmpty()) {
+                // batches which weren't written in time might have been written in the meantime
+                commitWrittenBatches();
+                return;
+            }
+            if (paused) {
+                // we try not to spin here, so we wait until the lifecycle goes back to running.
+                LOG.debug("Message processing is paused, blocking until message processing is turned back on.");
+                Uninterruptibles.awaitUninterruptibly(pausedLatch);
+            }
+            // the offsets of this batch are not committed if we are stopped, so the records will be consumed again
+            if (stopped) {
+                return;
+            }
+            if (isThrottled()) {
+                blockUntilUnthrottled();
+            }
+
+            final List<RawMessage> batch = new ArrayList<>(consumerRecords.count());
+            final Map<TopicPartition, OffsetAndMetadata> batchOffsets = new HashMap<>();
+            final Map<TopicPartition, Long> firstOffsets = new HashMap<>();
+            for (final TopicPartition partition : consumerRecords.partitions()) {
+                final List<ConsumerRecord<byte[], byte[]>> records = consumerRecords.records(partition);
+                for (final ConsumerRecord<byte[], byte[]> record : records) {
+                    final byte[] bytes = record.value();
+
+                    // it is possible that the message is null
+                    if (bytes == null) {
+                        continue;
+                    }
+                    totalBytesRead.addAndGet(bytes.length);
+                    lastSecBytesReadTmp.addAndGet(bytes.length);
+
+                    batch.add(new RawMessage(bytes));
+                }
+                firstOffsets.put(partition, records.get(0).offset());
+                batchOffsets.put(partition, new OffsetAndMetadata(records.get(records.size() - 1).offset() + 1));
+            }
+
+            final Timer.Context handoffTimer = handoffTime.time();
+            final CompletableFuture<Void> written = input.processRawMessagesTracked(batch);
+            try {
+                written.get(HANDOFF_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+            } catch (TimeoutException e) {
+                // The batch is in the input buffer and will be written eventually. Its offsets are committed once a
+                // later poll finds it written.
+                LOG.warn("Batch of {} messages was not written to the journal within {} seconds, not committing its offsets yet.",
+                        batch.size(), HANDOFF_TIMEOUT_SECONDS);
+            } catch (ExecutionException e) {
+                // handled when acknowledging the batch
+                LOG.debug("Writing batch of {} messages to the journal failed.", batch.size(), e);
+            } finally {
+                handoffTimer.stop();
+            }
+            pendingBatches.add(new PendingBatch(batchOffsets, firstOffsets, written));
+            commitWrittenBatches();
+        }
+
+        /**
+         * Commits the offsets of the pending batches which have been written, in the order they were polled. The
+         * records of a batch which couldn't be written are consumed again.
+         */
+        private void commitWrittenBatches() {
+            while (!pendingBatches.isEmpty() && pendingBatches.peek().written.isDone()) {
+                final PendingBatch pendingBatch = pendingBatches.poll();
+                try {
+                    pendingBatch.written.join();
+                    acknowledgedOffsets.putAll(pendingBatch.nextOffsets);
+                } catch (CompletionException e) {
+                    LOG.warn("Couldn't write batch to the journal, consuming its records again.", e.getCause());
+                    rewind(pendingBatch);
+                }
+            }
+            commitAcknowledgedOffsets();
+        }
+
+        private void rewind(PendingBatch failedBatch) {
+            for (final Map.Entry<TopicPartition, Long> entry : failedBatch.firstOffsets.entrySet()) {
+                consumer.seek(entry.getKey(), entry.getValue());
+            }
+            // The later batches of these partitions are consumed again as well, so their offsets mustn't be committed
+            for (final PendingBatch pendingBatch : pendingBatches) {
+                pendingBatch.forget(failedBatch.firstOffsets.keySet());
+            }
+            pendingBatches.removeIf(PendingBatch::isEmpty);
+        }
+
+        private void commitAcknowledgedOffsets() {
+            if (acknowledgedOffsets.isEmpty()) {
+                return;
+            }
+            try (Timer.Context ignored = commitTime.time()) {
+                consumer.commitSync(acknowledgedOffsets);
+                acknowledgedOffsets.clear();
+            } catch (CommitFailedException e) {
+                // The partitions have been assigned to another consumer in the meantime which will consume the
+                // records again, so this only results in duplicate messages.
+                LOG.warn("Couldn't commit offsets, the consumer group has been rebalanced.", e);
+                acknowledgedOffsets.clear();
+            }
+        }
+
+        private void updateRecordsLag() {
+            if (recordsLagMetric == null) {
+                for (final Map.Entry<MetricName, ? extends Metric> entry : consumer.metrics().entrySet()) {
+                    final MetricName metricName = entry.getKey();
+                    if ("records-lag-max".equals(metricName.name()) && !metricName.tags().containsKey("topic")) {
+                        recordsLagMetric = entry.getValue();
+                        break;
+                    }
+                }
+                if (recordsLagMetric == null) {
+                    return;
+                }
+            }
+            final Object value = recordsLagMetric.metricValue();
+            if (value instanceof Double && !((Double) value).isNaN()) {
+                recordsLag = ((Double) value).longValue();
+            }
         }
 
         private void consumeRecords(ConsumerRecords<byte[], byte[]> consumerRecords) {
@@ -321,8 +529,13 @@ public class KafkaTransport extends ThrottleableTransport {
                     stopped = true;
                     break;
                 }
+                updateRecordsLag();
                 try {
-                    consumeRecords(consumerRecords.get());
+                    if (commitAfterJournal) {
+                        consumeBatch(consumerRecords.get());
+                    } else {
+                        consumeRecords(consumerRecords.get());
+                    }
                 } catch (Exception e) {
                     LOG.error("Exception in consumer thread. Stopping input", e);
                     stopped = true;
@@ -331,12 +544,49 @@ public class KafkaTransport extends ThrottleableTransport {
             }
             // explicitly commit our offsets when stopping.
             // this might trigger a couple of times, but it won't hurt
-            consumer.commitAsync();
+            if (commitAfterJournal) {
+                try {
+                    commitWrittenBatches();
+                } catch (KafkaException e) {
+                    LOG.warn("Couldn't commit offsets when stopping the consumer.", e);
+                }
+            } else {
+                consumer.commitAsync();
+            }
+            consumerRunnables.remove(this);
             stopLatch.countDown();
             consumer.close(Duration.ofSeconds(5));
         }
     }
 
+    /**
+     * A polled batch which has been handed to the input buffer, but whose offsets haven't been committed yet.
+     */
+    private static class PendingBatch {
+        // the offsets to commit once the batch has been written
+        private final Map<TopicPartition, OffsetAndMetadata> nextOffsets;
+        // the offsets to consume again from if writing the batch failed
+        private final Map<TopicPartition, Long> firstOffsets;
+        private final CompletableFuture<Void> written;
+
+        private PendingBatch(Map<TopicPartition, OffsetAndMetadata> nextOffsets,
+                             Map<TopicPartition, Long> firstOffsets,
+                             CompletableFuture<Void> written) {
+            this.nextOffsets = nextOffsets;
+            this.firstOffsets = firstOffsets;
+            this.written = written;
+        }
+
+        private void forget(Collection<TopicPartition> partitions) {
+            nextOffsets.keySet().removeAll(partitions);
+            firstOffsets.keySet().removeAll(partitions);
+        }
+
+        private boolean isEmpty() {
+            return nextOffsets.isEmpty();
+        }
+    }
+
     private void doLaunchLegacy(final MessageInput input) {
         final Properties props = new Properties();
 
@@ -553,6 +803,13 @@ public class KafkaTransport extends ThrottleableTransport {
                     "Number of processor threads to spawn. Use one thread per Kafka topic partition.",
                     ConfigurationField.Optional.NOT_OPTIONAL));
 
+            cr.addField(new BooleanField(
+                    CK_COMMIT_AFTER_JOURNAL,
+                    "Commit offsets after journal write",
+                    false,
+                    "Hand every polled batch to the input buffer at once and commit its offsets only after it has been written to the journal. Not used in legacy mode."
+            ));
+
             cr.addField(new DropdownField(
                     CK_OFFSET_RESET,
                     "Auto offset reset",
@@ -0,0 +1,144 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog2.inputs.transports;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Splitter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Reads the kernel statistics of UDP sockets from {@code /proc/net/udp} and {@code /proc/net/udp6} (Linux only).
+ * <p>
+ * The sockets are identified by their inode, which can be resolved from the file descriptor of a socket with
+ * {@link #socketInode(int)}. This allows telling apart the sockets of a port bound with {@code SO_REUSEPORT}.
+ * </p>
+ */
+public class UdpSocketStatistics {
+    private static final Logger LOG = LoggerFactory.getLogger(UdpSocketStatistics.class);
+    private static final Path PROC_NET_UDP = Paths.get("/proc/net/udp");
+    private static final Path PROC_NET_UDP6 = Paths.get("/proc/net/udp6");
+    private static final Path PROC_SELF_FD = Paths.get("/proc/self/fd");
+    private static final Pattern SOCKET_LINK_PATTERN = Pattern.compile("socket:\\[(\\d+)]");
+    private static final Splitter WHITESPACE_SPLITTER = Splitter.on(' ').omitEmptyStrings();
+
+    // Column indices of the relevant fields in /proc/net/udp
+    private static final int COLUMN_QUEUES = 4;
+    private static final int COLUMN_INODE = 9;
+    private static final int COLUMN_DROPS = 12;
+
+    public static class SocketStats {
+        private final long inode;
+        private final long receiveQueue;
+        private final long drops;
+
+        SocketStats(long inode, long receiveQueue, long drops) {
+            this.inode = inode;
+            this.receiveQueue = receiveQueue;
+            this.drops = drops;
+        }
+
+        public long inode() {
+            return inode;
+        }
+
+        /**
+         * @return the number of bytes waiting in the receive buffer of the socket
+         */
+        public long receiveQueue() {
+            return receiveQueue;
+        }
+
+        /**
+         * @return the number of datagrams dropped by the kernel, e. g. because the receive buffer was full
+         */
+        public long drops() {
+            return drops;
+        }
+    }
+
+    public static boolean isAvailable() {
+        return Files.isReadable(PROC_NET_UDP);
+    }
+
+    /**
+     * @return the statistics of all UDP sockets of this host by their inode
+     */
+    public static Map<Long, SocketStats> read() {
+        final Map<Long, SocketStats> stats = new HashMap<>();
+        for (Path path : new Path[]{PROC_NET_UDP, PROC_NET_UDP6}) {
+            if (!Files.isReadable(path)) {
+                continue;
+            }
+            try {
+                stats.putAll(parse(Files.readAllLines(path, StandardCharsets.US_ASCII)));
+            } catch (IOException e) {
+                LOG.debug("Couldn't read UDP socket statistics from {}", path, e);
+            }
+        }
+        return stats;
+    }
+
+    /**
+     * @return the inode of the socket with the given file descriptor, or {@code null} if it cannot be resolved
+     */
+    @Nullable
+    public static Long socketInode(int fd) {
+        try {
+            final String link = Files.readSymbolicLink(PROC_SELF_FD.resolve(Integer.toString(fd))).toString();
+            final Matcher matcher = SOCKET_LINK_PATTERN.matcher(link);
+            return matcher.matches() ? Long.valueOf(matcher.group(1)) : null;
+        } catch (IOException | UnsupportedOperationException e) {
+            LOG.debug("Couldn't resolve inode of file descriptor {}", fd, e);
+            return null;
+        }
+    }
+
+    @VisibleForTesting
+    static Map<Long, SocketStats> parse(List<String> lines) {
+        final Map<Long, SocketStats> stats = new HashMap<>(lines.size());
+        // The first line is the header
+        for (int i = 1; i < lines.size(); i++) {
+            final List<String> columns = WHITESPACE_SPLITTER.splitToList(lines.get(i));
+            if (columns.size() <= COLUMN_DROPS) {
+                continue;
+            }
+            try {
+                final String queues = columns.get(COLUMN_QUEUES);
+                final long receiveQueue = Long.parseLong(queues.substring(queues.indexOf(':') + 1), 16);
+                final long inode = Long.parseLong(columns.get(COLUMN_INODE));
+                final long drops = Long.parseLong(columns.get(COLUMN_DROPS));
+                stats.put(inode, new SocketStats(inode, receiveQueue, drops));
+            } catch (NumberFormatException e) {
+                LOG.debug("Skipping invalid UDP socket statistics line: {}", lines.get(i));
+            }
+        }
+        return stats;
+    }
+}
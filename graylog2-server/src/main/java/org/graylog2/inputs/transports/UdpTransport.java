@@ -16,8 +16,12 @@
  */
 package org.graylog2.inputs.transports;
 
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
 import com.github.joschi.jadconfig.util.Size;
 import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Supplier;
+import com.google.common.base.Suppliers;
 import com.google.common.primitives.Ints;
 import com.google.inject.assistedinject.Assisted;
 import com.google.inject.assistedinject.AssistedInject;
@@ -29,11 +33,14 @@ import io.netty.channel.ChannelHandler;
 import io.netty.channel.ChannelOption;
 import io.netty.channel.EventLoopGroup;
 import io.netty.channel.FixedRecvByteBufAllocator;
+import io.netty.channel.epoll.EpollChannelOption;
 import io.netty.channel.group.ChannelGroup;
 import io.netty.channel.group.DefaultChannelGroup;
 import io.netty.channel.socket.DatagramChannelConfig;
+import io.netty.channel.unix.UnixChannel;
 import io.netty.channel.unix.UnixChannelOption;
 import io.netty.util.concurrent.GlobalEventExecutor;
+import org.graylog2.inputs.transports.netty.BatchingEnvelopeMessageHandler;
 import org.graylog2.inputs.transports.netty.DatagramChannelFactory;
 import org.graylog2.inputs.transports.netty.DatagramPacketHandler;
 import org.graylog2.inputs.transports.netty.EnvelopeMessageAggregationHandler;
@@ -43,6 +50,8 @@ import org.graylog2.inputs.transports.netty.NettyTransportType;
 import org.graylog2.plugin.LocalMetricRegistry;
 import org.graylog2.plugin.configuration.Configuration;
 import org.graylog2.plugin.configuration.ConfigurationRequest;
+import org.graylog2.plugin.configuration.fields.ConfigurationField;
+import org.graylog2.plugin.configuration.fields.NumberField;
 import org.graylog2.plugin.inputs.MessageInput;
 import org.graylog2.plugin.inputs.MisfireException;
 import org.graylog2.plugin.inputs.annotations.ConfigClass;
@@ -57,13 +66,27 @@ import org.slf4j.LoggerFactory;
 import javax.annotation.Nullable;
 import java.net.SocketAddress;
 import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 import java.util.concurrent.Callable;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
 
 public class UdpTransport extends NettyTransport {
     private static final Logger LOG = LoggerFactory.getLogger(UdpTransport.class);
 
+    public static final String CK_MAX_DATAGRAM_PAYLOAD_SIZE = "max_datagram_payload_size";
+
+    private static final String KERNEL_DROPS_METRIC = "kernelDrops";
+    private static final String SOCKET_METRIC_PREFIX = "socket-";
+
     private final NettyTransportConfiguration nettyTransportConfiguration;
+    private final int maxDatagramPayloadSize;
     private final ChannelGroup channels;
+    private final List<Long> socketInodes = new CopyOnWriteArrayList<>();
+    private final Supplier<Map<Long, UdpSocketStatistics.SocketStats>> socketStatistics =
+            Suppliers.memoizeWithExpiration(UdpSocketStatistics::read, 1, TimeUnit.SECONDS);
     private EventLoopGroup eventLoopGroup;
     private Bootstrap bootstrap;
 
@@ -75,6 +98,7 @@ public class UdpTransport extends NettyTransport {
                         LocalMetricRegistry localRegistry) {
         super(configuration, eventLoopGroupFactory, throughputCounter, localRegistry);
         this.nettyTransportConfiguration = nettyTransportConfiguration;
+        this.maxDatagramPayloadSize = configuration.getInt(CK_MAX_DATAGRAM_PAYLOAD_SIZE, 0);
         this.channels = new DefaultChannelGroup(GlobalEventExecutor.INSTANCE);
     }
 
@@ -85,14 +109,30 @@ public class UdpTransport extends NettyTransport {
 
         eventLoopGroup = eventLoopGroupFactory.create(workerThreads, localRegistry, "workers");
 
-        return new Bootstrap()
+        final Bootstrap bootstrap = new Bootstrap()
                 .group(eventLoopGroup)
                 .channelFactory(new DatagramChannelFactory(transportType))
-                .option(ChannelOption.RCVBUF_ALLOCATOR, new FixedRecvByteBufAllocator(getRecvBufferSize()))
                 .option(ChannelOption.SO_RCVBUF, getRecvBufferSize())
                 .option(UnixChannelOption.SO_REUSEPORT, true)
-                .handler(getChannelInitializer(getChannelHandlers(input)))
-                .validate();
+                .handler(getChannelInitializer(getChannelHandlers(input)));
+
+        if (isBatchedReceive() && transportType == NettyTransportType.EPOLL) {
+            // Netty uses recvmmsg(2) to read as many datagrams as fit into the receive buffer with one system call
+            // if the maximum datagram payload size is set. The receive buffer must be a multiple of it.
+            final int receiveBufferSize = Math.max(maxDatagramPayloadSize, getRecvBufferSize() / maxDatagramPayloadSize * maxDatagramPayloadSize);
+            LOG.debug("Reading up to {} datagrams with a maximum payload size of {} bytes at once",
+                    receiveBufferSize / maxDatagramPayloadSize, maxDatagramPayloadSize);
+            bootstrap.option(EpollChannelOption.MAX_DATAGRAM_PAYLOAD_SIZE, maxDatagramPayloadSize)
+                    .option(ChannelOption.RCVBUF_ALLOCATOR, new FixedRecvByteBufAllocator(receiveBufferSize));
+        } else {
+            bootstrap.option(ChannelOption.RCVBUF_ALLOCATOR, new FixedRecvByteBufAllocator(getRecvBufferSize()));
+        }
+
+        return bootstrap.validate();
+    }
+
+    private boolean isBatchedReceive() {
+        return maxDatagramPayloadSize > 0;
     }
 
     @Override
@@ -114,7 +154,11 @@ public class UdpTransport extends NettyTransport {
             LOG.debug("Adding codec aggregator {} to channel pipeline", aggregator);
             handlerList.put("codec-aggregator", () -> new EnvelopeMessageAggregationHandler(aggregator, localRegistry));
         }
-        handlerList.put("envelope-message-handler", () -> new EnvelopeMessageHandler(input));
+        if (isBatchedReceive()) {
+            handlerList.put("envelope-message-handler", () -> new BatchingEnvelopeMessageHandler(input, localRegistry));
+        } else {
+            handlerList.put("envelope-message-handler", () -> new EnvelopeMessageHandler(input));
+        }
 
         return handlerList;
     }
@@ -125,12 +169,18 @@ public class UdpTransport extends NettyTransport {
             bootstrap = getBootstrap(input);
 
             final NettyTransportType transportType = nettyTransportConfiguration.getType();
+            if (isBatchedReceive() && transportType != NettyTransportType.EPOLL) {
+                LOG.warn("Reading multiple datagrams at once is only supported with the epoll transport, input {} reads one datagram at a time.", input);
+            }
             int numChannels = (transportType == NettyTransportType.EPOLL || transportType == NettyTransportType.KQUEUE) ? workerThreads : 1;
             for (int i = 0; i < numChannels; i++) {
                 LOG.debug("Starting channel on {}", socketAddress);
-                bootstrap.bind(socketAddress)
+                final ChannelFuture future = bootstrap.bind(socketAddress)
                         .addListener(new InputLaunchListener(channels, input, getRecvBufferSize()))
                         .syncUninterruptibly();
+                if (future.isSuccess()) {
+                    registerSocketStatistics(future.channel(), i);
+                }
             }
         } catch (Exception e) {
             throw new MisfireException(e);
@@ -138,11 +188,49 @@ public class UdpTransport extends NettyTransport {
     }
 
 
+    /**
+     * Registers gauges for the kernel statistics of the socket of the given channel, most importantly the number of
+     * datagrams which have been dropped because the receive buffer of the socket was full.
+     */
+    private void registerSocketStatistics(Channel channel, int index) {
+        if (!(channel instanceof UnixChannel) || !UdpSocketStatistics.isAvailable()) {
+            return;
+        }
+        final Long inode = UdpSocketStatistics.socketInode(((UnixChannel) channel).fd().intValue());
+        if (inode == null) {
+            return;
+        }
+
+        if (socketInodes.isEmpty()) {
+            localRegistry.register(KERNEL_DROPS_METRIC, (Gauge<Long>) () -> {
+                final Map<Long, UdpSocketStatistics.SocketStats> statistics = socketStatistics.get();
+                return socketInodes.stream()
+                        .map(statistics::get)
+                        .filter(Objects::nonNull)
+                        .mapToLong(UdpSocketStatistics.SocketStats::drops)
+                        .sum();
+            });
+        }
+        socketInodes.add(inode);
+
+        final String prefix = SOCKET_METRIC_PREFIX + index;
+        localRegistry.register(MetricRegistry.name(prefix, KERNEL_DROPS_METRIC), (Gauge<Long>) () -> {
+            final UdpSocketStatistics.SocketStats stats = socketStatistics.get().get(inode);
+            return stats == null ? 0L : stats.drops();
+        });
+        localRegistry.register(MetricRegistry.name(prefix, "receiveQueueBytes"), (Gauge<Long>) () -> {
+            final UdpSocketStatistics.SocketStats stats = socketStatistics.get().get(inode);
+            return stats == null ? 0L : stats.receiveQueue();
+        });
+    }
+
     @Override
     public void stop() {
         if (channels != null) {
             channels.close().syncUninterruptibly();
         }
+        socketInodes.clear();
+        localRegistry.removeMatching((name, metric) -> name.equals(KERNEL_DROPS_METRIC) || name.startsWith(SOCKET_METRIC_PREFIX));
         if (eventLoopGroup != null) {
             eventLoopGroup.shutdownGracefully();
         }
@@ -177,6 +265,14 @@ public class UdpTransport extends NettyTransport {
 
             final int recvBufferSize = Ints.saturatedCast(Size.kilobytes(256L).toBytes());
             r.addField(ConfigurationRequest.Templates.recvBufferSize(CK_RECV_BUFFER_SIZE, recvBufferSize));
+            r.addField(new NumberField(
+                    CK_MAX_DATAGRAM_PAYLOAD_SIZE,
+                    "Maximum datagram payload size",
+                    0,
+                    "Read multiple datagrams per system call (epoll transport only) and hand them to the input buffer as one batch. "
+                            + "Larger datagrams will be truncated. 0 reads one datagram at a time.",
+                    ConfigurationField.Optional.OPTIONAL,
+                    NumberField.Attribute.ONLY_POSITIVE));
 
             return r;
         }
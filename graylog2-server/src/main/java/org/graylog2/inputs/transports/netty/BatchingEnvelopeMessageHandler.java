@@ -0,0 +1,88 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog2.inputs.transports.netty;
+
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.MetricRegistry;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.AddressedEnvelope;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.SimpleChannelInboundHandler;
+import org.graylog2.plugin.inputs.MessageInput;
+import org.graylog2.plugin.inputs.transports.NettyTransport;
+import org.graylog2.plugin.journal.RawMessage;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Like {@link EnvelopeMessageHandler}, but collects the messages of one read loop of the channel and hands them to
+ * the input buffer as one batch once the channel has no more data to read. Used for datagram channels which read
+ * many datagrams per wakeup.
+ */
+public class BatchingEnvelopeMessageHandler extends SimpleChannelInboundHandler<AddressedEnvelope<ByteBuf, InetSocketAddress>> {
+    private static final Logger LOG = LoggerFactory.getLogger(NettyTransport.class);
+
+    private final MessageInput input;
+    private final Histogram batchSize;
+    private List<RawMessage> batch = new ArrayList<>();
+
+    public BatchingEnvelopeMessageHandler(MessageInput input, MetricRegistry metricRegistry) {
+        this.input = input;
+        this.batchSize = metricRegistry.histogram("receivedBatchSize");
+    }
+
+    @Override
+    protected void channelRead0(ChannelHandlerContext ctx, AddressedEnvelope<ByteBuf, InetSocketAddress> envelope) throws Exception {
+        final ByteBuf msg = envelope.content();
+        final byte[] bytes = new byte[msg.readableBytes()];
+        msg.readBytes(bytes);
+        batch.add(new RawMessage(bytes, envelope.sender()));
+    }
+
+    @Override
+    public void channelReadComplete(ChannelHandlerContext ctx) throws Exception {
+        flush();
+        super.channelReadComplete(ctx);
+    }
+
+    @Override
+    public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+        flush();
+        super.channelInactive(ctx);
+    }
+
+    @Override
+    public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) throws Exception {
+        LOG.debug("Could not handle message, closing connection: {}", cause);
+        ctx.channel().close();
+        super.exceptionCaught(ctx, cause);
+    }
+
+    private void flush() {
+        if (batch.isEmpty()) {
+            return;
+        }
+        final List<RawMessage> messages = batch;
+        batch = new ArrayList<>(messages.size());
+        batchSize.update(messages.size());
+        input.processRawMessages(messages);
+    }
+}
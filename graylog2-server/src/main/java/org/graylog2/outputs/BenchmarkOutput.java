@@ -100,6 +100,11 @@ public class BenchmarkOutput implements MessageOutput {
         messagesWritten.mark(messages.size());
     }
 
+    @Override
+    public boolean supportsBatchWrite() {
+        return true;
+    }
+
     public interface Factory extends MessageOutput.Factory<BenchmarkOutput> {
         @Override
         BenchmarkOutput create(Stream stream, Configuration configuration);
@@ -16,6 +16,7 @@
  */
 package org.graylog2.outputs;
 
+import com.codahale.metrics.Gauge;
 import com.codahale.metrics.Histogram;
 import com.codahale.metrics.Meter;
 import com.codahale.metrics.MetricRegistry;
@@ -38,6 +39,7 @@ import java.util.concurrent.atomic.AtomicLong;
 
 import static com.codahale.metrics.MetricRegistry.name;
 import static java.util.concurrent.TimeUnit.NANOSECONDS;
+import static org.graylog2.shared.metrics.MetricUtils.safelyRegister;
 
 // Singleton class
 public class BlockingBatchedESOutput extends ElasticSearchOutput {
@@ -49,10 +51,15 @@ public class BlockingBatchedESOutput extends ElasticSearchOutput {
     private final Meter bufferFlushFailures;
     private final Meter bufferFlushesRequested;
 
-    private volatile List<Map.Entry<IndexSet, Message>> buffer;
+    // Messages are written by the executor threads of the output buffer processors. Their pools never grow beyond the
+    // core size because of the unbounded work queue, so there is one stripe per executor thread and every thread is
+    // assigned its own stripe on first use. Threads which replace a terminated one share a stripe.
+    // Each stripe is flushed when it reaches output_batch_size.
+    private final Stripe[] stripes;
+    private final AtomicInteger nextStripe = new AtomicInteger(0);
+    private final ThreadLocal<Stripe> threadStripe;
 
-    private static final AtomicInteger activeFlushThreads = new AtomicInteger(0);
-    private final AtomicLong lastFlushTime = new AtomicLong();
+    private final AtomicInteger activeFlushThreads = new AtomicInteger(0);
     private final int outputFlushInterval;
 
     @Inject
@@ -69,9 +76,16 @@ public class BlockingBatchedESOutput extends ElasticSearchOutput {
         this.bufferFlushes = metricRegistry.meter(name(this.getClass(), "bufferFlushes"));
         this.bufferFlushFailures = metricRegistry.meter(name(this.getClass(), "bufferFlushFailures"));
         this.bufferFlushesRequested = metricRegistry.meter(name(this.getClass(), "bufferFlushesRequested"));
-
-        buffer = new ArrayList<>(maxBufferSize);
-
+        safelyRegister(metricRegistry, name(this.getClass(), "activeFlushThreads"), (Gauge<Integer>) activeFlushThreads::get);
+
+        final int executorThreads = serverConfiguration.getOutputBufferProcessors()
+                * serverConfiguration.getOutputBufferProcessorThreadsCorePoolSize();
+        this.stripes = new Stripe[Math.max(1, executorThreads)];
+        for (int i = 0; i < stripes.length; i++) {
+            stripes[i] = new Stripe(maxBufferSize, metricRegistry.meter(name(this.getClass(), "stripe-" + i, "flushes")));
+            safelyRegister(metricRegistry, name(this.getClass(), "stripe-" + i, "fill"), (Gauge<Integer>) stripes[i]::size);
+        }
+        this.threadStripe = ThreadLocal.withInitial(() -> stripes[Math.floorMod(nextStripe.getAndIncrement(), stripes.length)]);
     }
 
     @Override
@@ -81,25 +95,36 @@ public class BlockingBatchedESOutput extends ElasticSearchOutput {
         }
     }
 
-    public void writeMessageEntry(Map.Entry<IndexSet, Message> entry) throws Exception {
-        List<Map.Entry<IndexSet, Message>> flushBatch = null;
-        synchronized (this) {
-            buffer.add(entry);
-
-            if (buffer.size() >= maxBufferSize) {
-                flushBatch = buffer;
-                buffer = new ArrayList<>(maxBufferSize);
+    @Override
+    public void write(List<Message> messages) throws Exception {
+        final Stripe stripe = threadStripe.get();
+        for (Message message : messages) {
+            for (IndexSet indexSet : message.getIndexSets()) {
+                final List<Map.Entry<IndexSet, Message>> flushBatch = stripe.add(Maps.immutableEntry(indexSet, message));
+                if (flushBatch != null) {
+                    flush(stripe, flushBatch);
+                }
             }
         }
+    }
+
+    @Override
+    public boolean supportsBatchWrite() {
+        return true;
+    }
+
+    public void writeMessageEntry(Map.Entry<IndexSet, Message> entry) throws Exception {
+        final Stripe stripe = threadStripe.get();
+        final List<Map.Entry<IndexSet, Message>> flushBatch = stripe.add(entry);
         // if the current thread found it had to flush any messages, it does so but blocks.
         // this ensures we don't flush more than 'processorCount' in parallel.
         // TODO this will still be time limited by the OutputBufferProcessor and thus be called more often than it should
         if (flushBatch != null) {
-            flush(flushBatch);
+            flush(stripe, flushBatch);
         }
     }
 
-    private void flush(List<Map.Entry<IndexSet, Message>> messages) {
+    private void flush(Stripe stripe, List<Map.Entry<IndexSet, Message>> messages) {
         // never try to flush an empty buffer
         if (messages.isEmpty()) {
             return;
@@ -113,10 +138,11 @@ public class BlockingBatchedESOutput extends ElasticSearchOutput {
         }
 
         try (Timer.Context ignored = processTime.time()) {
-            lastFlushTime.set(System.nanoTime());
+            stripe.lastFlushTime.set(System.nanoTime());
             writeMessageEntries(messages);
             batchSize.update(messages.size());
             bufferFlushes.mark();
+            stripe.flushes.mark();
         } catch (Exception e) {
             log.error("Unable to flush message buffer", e);
             bufferFlushFailures.mark();
@@ -126,20 +152,61 @@ public class BlockingBatchedESOutput extends ElasticSearchOutput {
     }
 
     public void forceFlushIfTimedout() {
-        // if we shouldn't flush at all based on the last flush time, no need to synchronize on this.
-        if (lastFlushTime.get() != 0 &&
-                outputFlushInterval > NANOSECONDS.toSeconds(System.nanoTime() - lastFlushTime.get())) {
-                    return;
-                }
-        // flip buffer quickly and initiate flush
-        final List<Map.Entry<IndexSet, Message>> flushBatch;
-        synchronized (this) {
-            flushBatch = buffer;
+        for (Stripe stripe : stripes) {
+            // if we shouldn't flush at all based on the last flush time, no need to lock the stripe.
+            final long lastFlushTime = stripe.lastFlushTime.get();
+            if (lastFlushTime != 0 &&
+                    outputFlushInterval > NANOSECONDS.toSeconds(System.nanoTime() - lastFlushTime)) {
+                continue;
+            }
+            // flip buffer quickly and initiate flush
+            final List<Map.Entry<IndexSet, Message>> flushBatch = stripe.drain();
+            if (flushBatch != null) {
+                bufferFlushesRequested.mark();
+                flush(stripe, flushBatch);
+            }
+        }
+    }
+
+    private static class Stripe {
+        private final int maxBufferSize;
+        private final Meter flushes;
+        private final AtomicLong lastFlushTime = new AtomicLong();
+        private List<Map.Entry<IndexSet, Message>> buffer;
+
+        Stripe(int maxBufferSize, Meter flushes) {
+            this.maxBufferSize = maxBufferSize;
+            this.flushes = flushes;
+            this.buffer = new ArrayList<>(maxBufferSize);
+        }
+
+        /**
+         * Adds the entry and returns the buffered entries if the buffer is full, {@code null} otherwise.
+         */
+        synchronized List<Map.Entry<IndexSet, Message>> add(Map.Entry<IndexSet, Message> entry) {
+            buffer.add(entry);
+            if (buffer.size() >= maxBufferSize) {
+                final List<Map.Entry<IndexSet, Message>> flushBatch = buffer;
+                buffer = new ArrayList<>(maxBufferSize);
+                return flushBatch;
+            }
+            return null;
+        }
+
+        /**
+         * Returns the buffered entries or {@code null} if the buffer is empty.
+         */
+        synchronized List<Map.Entry<IndexSet, Message>> drain() {
+            if (buffer.isEmpty()) {
+                return null;
+            }
+            final List<Map.Entry<IndexSet, Message>> flushBatch = buffer;
             buffer = new ArrayList<>(maxBufferSize);
+            return flushBatch;
         }
-        if (flushBatch != null) {
-            bufferFlushesRequested.mark();
-            flush(flushBatch);
+
+        synchronized int size() {
+            return buffer.size();
         }
     }
 
@@ -74,6 +74,11 @@ public class DiscardMessageOutput implements MessageOutput {
         messagesDiscarded.mark(messages.size());
     }
 
+    @Override
+    public boolean supportsBatchWrite() {
+        return true;
+    }
+
     public interface Factory extends MessageOutput.Factory<DiscardMessageOutput> {
     }
 
@@ -48,6 +48,12 @@ public class KafkaJournalConfiguration extends PathConfiguration {
     @Parameter("message_journal_flush_age")
     private Duration messageJournalFlushAge = Duration.standardMinutes(1L);
 
+    @Parameter("message_journal_mmap_reads")
+    private boolean messageJournalMmapReads = false;
+
+    @Parameter("message_journal_reader_target_latency")
+    private Duration messageJournalReaderTargetLatency = Duration.millis(500L);
+
     public Path getMessageJournalDir() {
         return messageJournalDir;
     }
@@ -75,4 +81,12 @@ public class KafkaJournalConfiguration extends PathConfiguration {
     public Duration getMessageJournalFlushAge() {
         return messageJournalFlushAge;
     }
+
+    public boolean isMessageJournalMmapReads() {
+        return messageJournalMmapReads;
+    }
+
+    public Duration getMessageJournalReaderTargetLatency() {
+        return messageJournalReaderTargetLatency;
+    }
 }
@@ -18,6 +18,7 @@ package org.graylog2.plugin;
 
 import com.codahale.metrics.Meter;
 import com.eaio.uuid.UUID;
+import com.fasterxml.jackson.core.JsonGenerator;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.google.common.base.Function;
 import com.google.common.base.Joiner;
@@ -46,6 +47,7 @@ import org.slf4j.LoggerFactory;
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import javax.annotation.concurrent.NotThreadSafe;
+import java.io.IOException;
 import java.net.InetAddress;
 import java.time.ZonedDateTime;
 import java.util.ArrayList;
@@ -345,6 +347,33 @@ public class Message implements Messages, Indexable {
         addFields(newFields);
     }
 
+    private Message(Message other) {
+        fields.putAll(other.fields);
+        streams.addAll(other.streams);
+        indexSets.addAll(other.indexSets);
+        sourceInputId = other.sourceInputId;
+        filterOut = other.filterOut;
+        messageQueueId = other.messageQueueId;
+        receiveTime = other.receiveTime;
+        processingTime = other.processingTime;
+        if (other.metadata != null) {
+            metadata = new HashMap<>(other.metadata);
+        }
+        sizeCounter.inc(other.sizeCounter.getCount());
+    }
+
+    /**
+     * Creates a shallow copy of this message with the same id, fields, streams and metadata. Field values are shared,
+     * recordings and processing errors are not copied.
+     * <p>
+     * This is used to let code work on a private snapshot of a message, whose changes are merged back afterwards.
+     *
+     * @return a copy of this message
+     */
+    public Message copy() {
+        return new Message(this);
+    }
+
     public boolean isComplete() {
         for (final String key : REQUIRED_FIELDS) {
             final Object field = getField(key);
@@ -434,23 +463,131 @@ public class Message implements Messages, Indexable {
         obj.put(FIELD_STREAMS, getStreamIds());
         obj.put(FIELD_GL2_ACCOUNTED_MESSAGE_SIZE, getSize());
 
-        final Object timestampValue = getField(FIELD_TIMESTAMP);
-        DateTime dateTime = timestampValue == null ? fallbackForNullTimestamp() : convertToDateTime(timestampValue);
-        obj.put(FIELD_TIMESTAMP, buildElasticSearchTimeFormat(dateTime.withZone(UTC)));
+        obj.put(FIELD_TIMESTAMP, elasticSearchTimestamp());
 
-        if (processingErrors != null && !processingErrors.isEmpty()) {
-            if (processingErrors.stream().anyMatch(processingError -> processingError.getCause().equals(ProcessingFailureCause.InvalidTimestampException))) {
-                invalidTimestampMeter.mark();
-            }
-            obj.put(FIELD_GL2_PROCESSING_ERROR,
-                    processingErrors.stream()
-                            .map(pe -> pe.getMessage() + " - " + pe.getDetails())
-                            .collect(Collectors.joining(", ")));
+        final String processingError = elasticSearchProcessingError(invalidTimestampMeter);
+        if (processingError != null) {
+            obj.put(FIELD_GL2_PROCESSING_ERROR, processingError);
         }
 
         return obj;
     }
 
+    /**
+     * Writes the same document as {@link #toElasticSearchObject(ObjectMapper, Meter)} to the given generator, without
+     * building the intermediate map.
+     */
+    @Override
+    public void writeElasticSearchDocument(ObjectMapper objectMapper, JsonGenerator generator, @Nonnull final Meter invalidTimestampMeter) throws IOException {
+        // The timestamp conversion might add a processing error, so it has to happen first
+        final String timestamp = elasticSearchTimestamp();
+        final String processingError = elasticSearchProcessingError(invalidTimestampMeter);
+
+        generator.writeStartObject();
+
+        // Keys with a "." which have been written with a "_" instead, only allocated if there are any
+        Map<String, Object> replacedKeys = null;
+        for (Map.Entry<String, Object> entry : fields.entrySet()) {
+            final String key = entry.getKey();
+            if (key.equals(FIELD_ID) || isComputedElasticSearchField(key, processingError != null)) {
+                continue;
+            }
+
+            final Object value = entry.getValue();
+            if (key.indexOf('.') < 0) {
+                // Keys without a "." always win over transformed keys, no matter in which order they come. In
+                // toElasticSearchObject() they either overwrite the transformed key or cause it to be skipped.
+                writeElasticSearchField(generator, key, value);
+                continue;
+            }
+
+            final String newKey = key.replace('.', KEY_REPLACEMENT_CHAR);
+            if (isComputedElasticSearchField(newKey, processingError != null)) {
+                continue;
+            }
+            if (replacedKeys == null) {
+                replacedKeys = new HashMap<>();
+            }
+            // The first transformed key wins over later ones which map to the same key, like in toElasticSearchObject()
+            if (fields.containsKey(newKey) || replacedKeys.containsKey(newKey)) {
+                final Object conflictingValue = fields.containsKey(newKey) ? fields.get(newKey) : replacedKeys.get(newKey);
+                LOG.warn("Keys must not contain a \".\" character! Ignoring field \"{}\"=\"{}\" in message [{}] - Unable to replace \".\" with a \"{}\" because of key conflict: \"{}\"=\"{}\"",
+                    key, value, getId(), KEY_REPLACEMENT_CHAR, newKey, conflictingValue);
+                LOG.debug("Full message with \".\" in message key: {}", this);
+                continue;
+            }
+            replacedKeys.put(newKey, value);
+            writeElasticSearchField(generator, newKey, value);
+        }
+
+        generator.writeStringField(FIELD_MESSAGE, getMessage());
+        generator.writeStringField(FIELD_SOURCE, getSource());
+        generator.writeArrayFieldStart(FIELD_STREAMS);
+        for (String streamId : getStreamIds()) {
+            generator.writeString(streamId);
+        }
+        generator.writeEndArray();
+        generator.writeNumberField(FIELD_GL2_ACCOUNTED_MESSAGE_SIZE, getSize());
+        generator.writeStringField(FIELD_TIMESTAMP, timestamp);
+        if (processingError != null) {
+            generator.writeStringField(FIELD_GL2_PROCESSING_ERROR, processingError);
+        }
+
+        generator.writeEndObject();
+    }
+
+    private static boolean isComputedElasticSearchField(String key, boolean hasProcessingError) {
+        switch (key) {
+            case FIELD_MESSAGE:
+            case FIELD_SOURCE:
+            case FIELD_STREAMS:
+            case FIELD_GL2_ACCOUNTED_MESSAGE_SIZE:
+            case FIELD_TIMESTAMP:
+                return true;
+            case FIELD_GL2_PROCESSING_ERROR:
+                return hasProcessingError;
+            default:
+                return false;
+        }
+    }
+
+    private static void writeElasticSearchField(JsonGenerator generator, String key, Object value) throws IOException {
+        generator.writeFieldName(key);
+        // Skip the ObjectMapper lookup for the common value types
+        if (value instanceof String) {
+            generator.writeString((String) value);
+        } else if (value instanceof Long) {
+            generator.writeNumber((Long) value);
+        } else if (value instanceof Integer) {
+            generator.writeNumber((Integer) value);
+        } else if (value instanceof Double) {
+            generator.writeNumber((Double) value);
+        } else if (value instanceof Boolean) {
+            generator.writeBoolean((Boolean) value);
+        } else {
+            generator.writeObject(value);
+        }
+    }
+
+    private String elasticSearchTimestamp() {
+        final Object timestampValue = getField(FIELD_TIMESTAMP);
+        DateTime dateTime = timestampValue == null ? fallbackForNullTimestamp() : convertToDateTime(timestampValue);
+        return buildElasticSearchTimeFormat(dateTime.withZone(UTC));
+    }
+
+    @Nullable
+    private String elasticSearchProcessingError(Meter invalidTimestampMeter) {
+        if (processingErrors == null || processingErrors.isEmpty()) {
+            return null;
+        }
+        if (processingErrors.stream().anyMatch(processingError -> processingError.getCause().equals(ProcessingFailureCause.InvalidTimestampException))) {
+            invalidTimestampMeter.mark();
+        }
+        return processingErrors.stream()
+                .map(pe -> pe.getMessage() + " - " + pe.getDetails())
+                .collect(Collectors.joining(", "));
+    }
+
     public void ensureValidTimestamp() {
         final Object timestampValue = getField(FIELD_TIMESTAMP);
         if (timestampValue instanceof DateTime) {
@@ -18,6 +18,28 @@ package org.graylog2.plugin.buffers;
 
 import org.graylog2.plugin.journal.RawMessage;
 
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
 public interface InputBuffer extends EventBuffer {
     void insert(RawMessage message);
+
+    /**
+     * Inserts the given messages as one batch without waiting for them to be handled.
+     */
+    default void insert(List<RawMessage> messages) {
+        messages.forEach(this::insert);
+    }
+
+    /**
+     * Inserts the given messages as one batch and tracks them through the input buffer.
+     *
+     * @return a future which is completed once all messages have been handled by the input buffer, i. e. they have
+     * been written to the message journal if it is enabled. It is completed exceptionally if handling any of the
+     * messages failed.
+     */
+    default CompletableFuture<Void> insertTracked(List<RawMessage> messages) {
+        messages.forEach(this::insert);
+        return CompletableFuture.completedFuture(null);
+    }
 }
@@ -26,6 +26,7 @@ import org.graylog.failure.ProcessingFailureCause;
 import org.graylog2.inputs.extractors.ExtractorException;
 import org.graylog2.plugin.Message;
 import org.graylog2.plugin.database.EmbeddedPersistable;
+import org.graylog2.shared.metrics.SampledTimer;
 import org.graylog2.shared.utilities.ExceptionUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -46,6 +47,10 @@ import static com.codahale.metrics.MetricRegistry.name;
 public abstract class Extractor implements EmbeddedPersistable {
     private static final Logger LOG = LoggerFactory.getLogger(Extractor.class);
 
+    // time one out of this many extractor runs on average
+    private static final int TIMER_SAMPLE_INTERVAL = 16;
+    private static final ConditionMatcher DIRECT_CONDITION_MATCHER = Extractor::matchesCondition;
+
     public static final String FIELD_ID = "id";
     public static final String FIELD_TITLE = "title";
     public static final String FIELD_ORDER = "order";
@@ -97,6 +102,18 @@ public abstract class Extractor implements EmbeddedPersistable {
         REGEX
     }
 
+    /**
+     * Evaluates the condition of an extractor, see {@link #runExtractor(Message, ConditionMatcher)}.
+     */
+    public interface ConditionMatcher {
+        /**
+         * @param extractor the extractor whose condition should be evaluated
+         * @param value     the value of the extractor's source field
+         * @return the result of {@link Extractor#matchesCondition(String)}
+         */
+        boolean matches(Extractor extractor, String value);
+    }
+
     protected final AtomicLong exceptions;
     protected final AtomicLong converterExceptions;
 
@@ -118,10 +135,10 @@ public abstract class Extractor implements EmbeddedPersistable {
 
     private final Counter conditionHitsCounter;
     private final Counter conditionMissesCounter;
-    private final Timer conditionTimer;
-    private final Timer executionTimer;
-    private final Timer converterTimer;
-    private final Timer completeTimer;
+    private final SampledTimer conditionTimer;
+    private final SampledTimer executionTimer;
+    private final SampledTimer converterTimer;
+    private final SampledTimer completeTimer;
     private final String conditionHitsCounterName;
     private final String conditionMissesCounterName;
     private final String conditionTimerName;
@@ -184,134 +201,210 @@ public abstract class Extractor implements EmbeddedPersistable {
         this.completeTimerName = name(metricsPrefix, "completeExecutionTime");
         this.conditionHitsCounter = metricRegistry.counter(conditionHitsCounterName);
         this.conditionMissesCounter = metricRegistry.counter(conditionMissesCounterName);
-        this.conditionTimer = metricRegistry.timer(conditionTimerName);
-        this.executionTimer = metricRegistry.timer(executionTimerName);
-        this.converterTimer = metricRegistry.timer(converterTimerName);
-        this.completeTimer = metricRegistry.timer(completeTimerName);
+        this.conditionTimer = sampledTimer(metricRegistry, conditionTimerName);
+        this.executionTimer = sampledTimer(metricRegistry, executionTimerName);
+        this.converterTimer = sampledTimer(metricRegistry, converterTimerName);
+        this.completeTimer = sampledTimer(metricRegistry, completeTimerName);
+    }
+
+    private static SampledTimer sampledTimer(MetricRegistry metricRegistry, String name) {
+        while (true) {
+            final Timer timer = metricRegistry.timer(name, () -> new SampledTimer(TIMER_SAMPLE_INTERVAL));
+            if (timer instanceof SampledTimer) {
+                return (SampledTimer) timer;
+            }
+            // Somebody registered a regular timer under this name, e. g. with MetricRegistry#timer(String).
+            // Replace it, the extractor can't record its sampled timings otherwise.
+            LOG.debug("Replacing timer <{}> with a sampled timer", name);
+            metricRegistry.remove(name);
+        }
     }
 
     public void runExtractor(Message msg) {
-        try(final Timer.Context ignored = completeTimer.time()) {
+        runExtractor(msg, DIRECT_CONDITION_MATCHER);
+    }
+
+    /**
+     * Runs the extractor like {@link #runExtractor(Message)}, but evaluates the condition through the given matcher.
+     * This allows an input to evaluate identical conditions only once per message.
+     *
+     * @param msg              the message to run the extractor on
+     * @param conditionMatcher the matcher used for {@link ConditionType#STRING} and {@link ConditionType#REGEX}
+     *                         conditions
+     */
+    public void runExtractor(Message msg, ConditionMatcher conditionMatcher) {
+        // Only a sample of the runs is timed, reading the clock and updating the timers for every extractor and
+        // message is more expensive than most extractors.
+        final boolean timed = completeTimer.sample();
+        final long start = timed ? System.nanoTime() : 0L;
+        try {
             final String field;
-            try (final Timer.Context ignored2 = conditionTimer.time()) {
-                // We can only work on Strings.
-                if (!(msg.getField(sourceField) instanceof String)) {
-                    conditionMissesCounter.inc();
-                    return;
+            conditionTimer.count();
+            try {
+                field = matchingField(msg, conditionMatcher);
+            } finally {
+                if (timed) {
+                    conditionTimer.record(System.nanoTime() - start);
                 }
+            }
+            if (field == null) {
+                return;
+            }
 
-                field = (String) msg.getField(sourceField);
-
-                // Decide if to extract at all.
-                if (conditionType.equals(ConditionType.STRING)) {
-                    if (field.contains(conditionValue)) {
-                        conditionHitsCounter.inc();
-                    } else {
-                        conditionMissesCounter.inc();
-                        return;
-                    }
-                } else if (conditionType.equals(ConditionType.REGEX)) {
-                    if (regexConditionPattern.matcher(field).find()) {
-                        conditionHitsCounter.inc();
-                    } else {
-                        conditionMissesCounter.inc();
-                        return;
-                    }
+            executionTimer.count();
+            final long executionStart = timed ? System.nanoTime() : 0L;
+            try {
+                extract(msg, field, timed);
+            } finally {
+                if (timed) {
+                    executionTimer.record(System.nanoTime() - executionStart);
                 }
             }
+        } finally {
+            if (timed) {
+                completeTimer.record(System.nanoTime() - start);
+            }
+        }
+    }
 
-            try (final Timer.Context ignored2 = executionTimer.time()) {
-                Result[] results;
-                try {
-                    results = run(field);
-                } catch (ExtractorException e) {
-                    final String error = "Could not apply extractor <" + getTitle() + " (" + getId() + ")>";
-                    msg.addProcessingError(new Message.ProcessingError(
-                            ProcessingFailureCause.ExtractorException, error, ExceptionUtils.getRootCauseMessage(e)));
-                    return;
-                }
+    /**
+     * @return the value of the source field if the extractor should run on the message, {@code null} otherwise
+     */
+    private String matchingField(Message msg, ConditionMatcher conditionMatcher) {
+        // We can only work on Strings.
+        final Object value = msg.getField(sourceField);
+        if (!(value instanceof String)) {
+            conditionMissesCounter.inc();
+            return null;
+        }
 
-                if (results == null || results.length == 0 || Arrays.stream(results).anyMatch(result -> result.getValue() == null)) {
-                    return;
-                } else if (results.length == 1 && results[0].target == null) {
-                    // results[0].target is null if this extractor cannot produce multiple fields use targetField in that case
-                    msg.addField(targetField, results[0].getValue());
-                } else {
-                    for (final Result result : results) {
-                        msg.addField(result.getTarget(), result.getValue());
-                    }
-                }
+        final String field = (String) value;
 
-                // Remove original from message?
-                if (cursorStrategy.equals(CursorStrategy.CUT) && !targetField.equals(sourceField) && !Message.RESERVED_FIELDS.contains(sourceField) && results[0].beginIndex != -1) {
-                    final StringBuilder sb = new StringBuilder(field);
+        // Decide if to extract at all.
+        if (conditionType != ConditionType.NONE) {
+            if (conditionMatcher.matches(this, field)) {
+                conditionHitsCounter.inc();
+            } else {
+                conditionMissesCounter.inc();
+                return null;
+            }
+        }
+        return field;
+    }
+
+    /**
+     * Evaluates the condition of this extractor on the given value, without updating any metrics.
+     *
+     * @param value the value of the source field
+     * @return {@code true} if the extractor should run
+     */
+    public boolean matchesCondition(String value) {
+        switch (conditionType) {
+            case STRING:
+                return value.contains(conditionValue);
+            case REGEX:
+                return regexConditionPattern.matcher(value).find();
+            default:
+                return true;
+        }
+    }
 
-                    final List<Result> reverseList = Arrays.stream(results)
-                            .sorted(Comparator.<Result>comparingInt(result -> result.endIndex).reversed())
-                            .collect(Collectors.toList());
+    private void extract(Message msg, String field, boolean timed) {
+        Result[] results;
+        try {
+            results = run(field);
+        } catch (ExtractorException e) {
+            final String error = "Could not apply extractor <" + getTitle() + " (" + getId() + ")>";
+            msg.addProcessingError(new Message.ProcessingError(
+                    ProcessingFailureCause.ExtractorException, error, ExceptionUtils.getRootCauseMessage(e)));
+            return;
+        }
 
-                    // remove all from reverse so that the indices still match
-                    for (final Result result : reverseList) {
-                        sb.delete(result.getBeginIndex(), result.getEndIndex());
-                    }
+        if (results == null || results.length == 0 || Arrays.stream(results).anyMatch(result -> result.getValue() == null)) {
+            return;
+        } else if (results.length == 1 && results[0].target == null) {
+            // results[0].target is null if this extractor cannot produce multiple fields use targetField in that case
+            msg.addField(targetField, results[0].getValue());
+        } else {
+            for (final Result result : results) {
+                msg.addField(result.getTarget(), result.getValue());
+            }
+        }
 
-                    final String builtString = sb.toString();
-                    final String finalResult = builtString.trim().isEmpty() ? "fullyCutByExtractor" : builtString;
+        // Remove original from message?
+        if (cursorStrategy.equals(CursorStrategy.CUT) && !targetField.equals(sourceField) && !Message.RESERVED_FIELDS.contains(sourceField) && results[0].beginIndex != -1) {
+            final StringBuilder sb = new StringBuilder(field);
 
-                    msg.removeField(sourceField);
-                    // TODO don't add an empty field back, or rather don't add fullyCutByExtractor
-                    msg.addField(sourceField, finalResult);
-                }
+            final List<Result> reverseList = Arrays.stream(results)
+                    .sorted(Comparator.<Result>comparingInt(result -> result.endIndex).reversed())
+                    .collect(Collectors.toList());
 
-                runConverters(msg);
+            // remove all from reverse so that the indices still match
+            for (final Result result : reverseList) {
+                sb.delete(result.getBeginIndex(), result.getEndIndex());
+            }
+
+            final String builtString = sb.toString();
+            final String finalResult = builtString.trim().isEmpty() ? "fullyCutByExtractor" : builtString;
+
+            msg.removeField(sourceField);
+            // TODO don't add an empty field back, or rather don't add fullyCutByExtractor
+            msg.addField(sourceField, finalResult);
+        }
+
+        converterTimer.count();
+        final long convertersStart = timed ? System.nanoTime() : 0L;
+        try {
+            runConverters(msg);
+        } finally {
+            if (timed) {
+                converterTimer.record(System.nanoTime() - convertersStart);
             }
         }
     }
 
     private void runConverters(Message msg) {
-        try(final Timer.Context ignored = converterTimer.time()) {
-            for (Converter converter : converters) {
-                try {
-                    if (!(msg.getField(targetField) instanceof String)) {
-                        continue;
-                    }
+        for (Converter converter : converters) {
+            try {
+                if (!(msg.getField(targetField) instanceof String)) {
+                    continue;
+                }
 
-                    final Object convertedValue = converter.convert((String) msg.getField(targetField));
-                    if (!converter.buildsMultipleFields()) {
-                        // We have arrived here if no exception was thrown and can safely replace the original field.
-                        if (convertedValue == null) {
-                            msg.removeField(targetField);
-                        } else {
-                            msg.addField(targetField, convertedValue);
-                        }
-                    } else if (convertedValue instanceof Map) {
-                        @SuppressWarnings("unchecked")
-                        final Map<String, Object> additionalFields = new HashMap<>((Map<String, Object>) convertedValue);
-                        for (final String reservedField : Message.RESERVED_FIELDS) {
-                            if (additionalFields.containsKey(reservedField)) {
-                                if (LOG.isDebugEnabled()) {
-                                    LOG.debug(
-                                            "Not setting reserved field {} from converter {} on message {}, rest of the message is being processed",
-                                            reservedField, converter.getType(), msg.getId());
-                                }
-                                converterExceptions.incrementAndGet();
-                                additionalFields.remove(reservedField);
+                final Object convertedValue = converter.convert((String) msg.getField(targetField));
+                if (!converter.buildsMultipleFields()) {
+                    // We have arrived here if no exception was thrown and can safely replace the original field.
+                    if (convertedValue == null) {
+                        msg.removeField(targetField);
+                    } else {
+                        msg.addField(targetField, convertedValue);
+                    }
+                } else if (convertedValue instanceof Map) {
+                    @SuppressWarnings("unchecked")
+                    final Map<String, Object> additionalFields = new HashMap<>((Map<String, Object>) convertedValue);
+                    for (final String reservedField : Message.RESERVED_FIELDS) {
+                        if (additionalFields.containsKey(reservedField)) {
+                            if (LOG.isDebugEnabled()) {
+                                LOG.debug(
+                                        "Not setting reserved field {} from converter {} on message {}, rest of the message is being processed",
+                                        reservedField, converter.getType(), msg.getId());
                             }
+                            converterExceptions.incrementAndGet();
+                            additionalFields.remove(reservedField);
                         }
-
-                        msg.addFields(additionalFields);
-                    }
-                } catch (Exception e) {
-                    this.converterExceptions.incrementAndGet();
-                    final String error = "Could not apply converter [" + converter.getType() + "] of extractor <" + getTitle() + " (" + getId() + ")>";
-                    if (LOG.isDebugEnabled()) {
-                        LOG.error(error, e);
-                    } else {
-                        LOG.error("{}:\n{}", error, ExceptionUtils.getShortenedStackTrace(e));
                     }
-                    msg.addProcessingError(new Message.ProcessingError(ProcessingFailureCause.ExtractorException,
-                            error, ExceptionUtils.getRootCauseMessage(e)));
+
+                    msg.addFields(additionalFields);
+                }
+            } catch (Exception e) {
+                this.converterExceptions.incrementAndGet();
+                final String error = "Could not apply converter [" + converter.getType() + "] of extractor <" + getTitle() + " (" + getId() + ")>";
+                if (LOG.isDebugEnabled()) {
+                    LOG.error(error, e);
+                } else {
+                    LOG.error("{}:\n{}", error, ExceptionUtils.getShortenedStackTrace(e));
                 }
+                msg.addProcessingError(new Message.ProcessingError(ProcessingFailureCause.ExtractorException,
+                        error, ExceptionUtils.getRootCauseMessage(e)));
             }
         }
     }
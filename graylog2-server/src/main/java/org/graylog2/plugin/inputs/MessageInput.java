@@ -41,8 +41,11 @@ import org.joda.time.DateTime;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 
 public abstract class MessageInput implements Stoppable {
     private static final Logger LOG = LoggerFactory.getLogger(MessageInput.class);
@@ -370,28 +373,87 @@ public abstract class MessageInput implements Stoppable {
     }
 
     public void processRawMessage(RawMessage rawMessage) {
-        final int payloadLength = rawMessage.getPayload().length;
-        if (payloadLength == 0) {
+        if (!prepareRawMessage(rawMessage)) {
+            return;
+        }
+        final int payloadLength = rawMessage.getPayloadSize();
+
+        inputBuffer.insert(rawMessage);
+
+        incomingMessages.mark();
+        globalIncomingMessages.inc();
+        rawSize.mark(payloadLength);
+        globalRawSize.inc(payloadLength);
+    }
+
+    /**
+     * Hands the given messages to the input buffer as one batch, see {@link InputBuffer#insert(List)}.
+     */
+    public void processRawMessages(List<RawMessage> rawMessages) {
+        final List<RawMessage> batch = prepareRawMessages(rawMessages);
+        if (batch.isEmpty()) {
+            return;
+        }
+
+        inputBuffer.insert(batch);
+        markProcessed(batch);
+    }
+
+    /**
+     * Hands the given messages to the input buffer as one batch and tracks them, see
+     * {@link InputBuffer#insertTracked(List)}.
+     *
+     * @return a future which is completed once the input buffer has handled all messages, or exceptionally if it
+     * failed to handle any of them
+     */
+    public CompletableFuture<Void> processRawMessagesTracked(List<RawMessage> rawMessages) {
+        final List<RawMessage> batch = prepareRawMessages(rawMessages);
+        if (batch.isEmpty()) {
+            return CompletableFuture.completedFuture(null);
+        }
+
+        final CompletableFuture<Void> handled = inputBuffer.insertTracked(batch);
+        markProcessed(batch);
+        return handled;
+    }
+
+    private List<RawMessage> prepareRawMessages(List<RawMessage> rawMessages) {
+        final List<RawMessage> batch = new ArrayList<>(rawMessages.size());
+        for (final RawMessage rawMessage : rawMessages) {
+            if (prepareRawMessage(rawMessage)) {
+                batch.add(rawMessage);
+            }
+        }
+        return batch;
+    }
+
+    private void markProcessed(List<RawMessage> batch) {
+        long payloadLength = 0;
+        for (final RawMessage rawMessage : batch) {
+            payloadLength += rawMessage.getPayloadSize();
+        }
+        incomingMessages.mark(batch.size());
+        globalIncomingMessages.inc(batch.size());
+        rawSize.mark(payloadLength);
+        globalRawSize.inc(payloadLength);
+    }
+
+    private boolean prepareRawMessage(RawMessage rawMessage) {
+        if (rawMessage.getPayloadSize() == 0) {
             LOG.debug("Discarding empty message {} from input [{}/{}] (remote address {}). Turn logger org.graylog2.plugin.journal.RawMessage to TRACE to see originating stack trace.",
                       rawMessage.getId(),
                       getTitle(),
                       getId(),
                       rawMessage.getRemoteAddress() == null ? "unknown" : rawMessage.getRemoteAddress());
             emptyMessages.inc();
-            return;
+            return false;
         }
 
         // add the common message metadata for this input/codec
         rawMessage.setCodecName(codec.getName());
         rawMessage.setCodecConfig(codecConfig);
         rawMessage.addSourceNode(getId(), serverStatus.getNodeId());
-
-        inputBuffer.insert(rawMessage);
-
-        incomingMessages.mark();
-        globalIncomingMessages.inc();
-        rawSize.mark(payloadLength);
-        globalRawSize.inc(payloadLength);
+        return true;
     }
 
     public String getType() {
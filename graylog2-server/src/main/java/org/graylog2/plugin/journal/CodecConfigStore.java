@@ -0,0 +1,59 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog2.plugin.journal;
+
+import org.graylog2.plugin.configuration.Configuration;
+
+import javax.annotation.Nullable;
+
+/**
+ * Keeps codec configurations outside of the journal entries. Journal entries only carry a compact reference to the
+ * configuration of their input, which is resolved again when the entry is read.
+ *
+ * @see RawMessage#encode(CodecConfigStore)
+ * @see RawMessage#decode(byte[], long, CodecConfigStore)
+ */
+public interface CodecConfigStore {
+    /**
+     * Serialized configurations are JSON objects and always start with '{', so this can't clash with entries which
+     * contain the configuration JSON.
+     */
+    String REFERENCE_PREFIX = "@";
+
+    /**
+     * Returns the value which should be stored in a journal entry for the given codec configuration.
+     *
+     * @param config the codec configuration of the input
+     * @return a compact reference to the stored configuration, the full configuration JSON if it couldn't be stored,
+     * or {@code null} for an empty configuration
+     */
+    @Nullable
+    String referenceFor(Configuration config);
+
+    /**
+     * Resolves the value of a journal entry's config field, which is either a reference created by
+     * {@link #referenceFor(Configuration)} or the configuration JSON of a legacy entry.
+     *
+     * @param value the value of the config field
+     * @return the codec configuration, or {@link Configuration#EMPTY_CONFIGURATION} if it can't be resolved
+     */
+    Configuration resolve(@Nullable String value);
+
+    static boolean isReference(@Nullable String value) {
+        return value != null && value.startsWith(REFERENCE_PREFIX);
+    }
+}
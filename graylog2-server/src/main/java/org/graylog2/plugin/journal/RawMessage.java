@@ -20,7 +20,9 @@ import com.eaio.uuid.UUID;
 import com.google.common.base.MoreObjects;
 import com.google.common.collect.Lists;
 import com.google.protobuf.ByteString;
+import com.google.protobuf.CodedInputStream;
 import com.google.protobuf.UninitializedMessageException;
+import com.google.protobuf.UnsafeByteOperations;
 import org.graylog2.plugin.ResolvableInetSocketAddress;
 import org.graylog2.plugin.Tools;
 import org.graylog2.plugin.configuration.Configuration;
@@ -38,6 +40,7 @@ import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.net.UnknownHostException;
 import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -120,11 +123,28 @@ public class RawMessage implements Serializable {
                   .build();
     }
 
+    /**
+     * Creates a raw message from a journal entry which contains the codec configuration JSON.
+     *
+     * @throws IllegalStateException if the entry only contains a reference into a {@link CodecConfigStore}, use
+     *                               {@link #RawMessage(JournalMessage, Object, Configuration)} for those
+     */
     public RawMessage(JournalMessage journalMessage, Object messageQueueId) {
+        this(journalMessage, messageQueueId, deserializeCodecConfig(journalMessage.getCodec().getConfig()));
+    }
+
+    public RawMessage(JournalMessage journalMessage, Object messageQueueId, Configuration codecConfig) {
         this.messageQueueId = messageQueueId;
         id = new UUID(journalMessage.getUuidTime(), journalMessage.getUuidClockseq());
         msgBuilder = JournalMessage.newBuilder(journalMessage);
-        codecConfig = Configuration.deserializeFromJson(journalMessage.getCodec().getConfig());
+        this.codecConfig = codecConfig;
+    }
+
+    private static Configuration deserializeCodecConfig(String codecConfigJson) {
+        if (CodecConfigStore.isReference(codecConfigJson)) {
+            throw new IllegalStateException("Codec configuration <" + codecConfigJson + "> of journal entry is a reference, it has to be resolved through a CodecConfigStore");
+        }
+        return Configuration.deserializeFromJson(codecConfigJson);
     }
 
     @Nullable
@@ -159,19 +179,87 @@ public class RawMessage implements Serializable {
         }
     }
 
+    /**
+     * Decodes a journal entry written by {@link #encode(CodecConfigStore)}, resolving the codec configuration
+     * through the given store. Entries containing the inline configuration JSON are supported as well.
+     */
+    @Nullable
+    public static RawMessage decode(final byte[] buffer, final long journalOffset, final CodecConfigStore codecConfigStore) {
+        try {
+            final JournalMessage journalMessage = JournalMessage.parseFrom(buffer);
+
+            // TODO validate message based on field contents and version number
+
+            return new RawMessage(journalMessage, journalOffset,
+                    codecConfigStore.resolve(journalMessage.getCodec().getConfig()));
+        } catch (IOException e) {
+            log.error("Cannot read raw message from journal, ignoring this message.", e);
+            return null;
+        }
+    }
+
+    /**
+     * Decodes a journal entry like {@link #decode(byte[], long, CodecConfigStore)} without copying the payload.
+     * The payload of the returned message is a view of the given buffer, which must not be modified afterwards.
+     */
+    @Nullable
+    public static RawMessage decode(final ByteBuffer buffer, final long journalOffset, final CodecConfigStore codecConfigStore) {
+        try {
+            // wrapping the buffer marks it as immutable, which allows bytes fields to reference it instead of copying
+            final CodedInputStream input = UnsafeByteOperations.unsafeWrap(buffer).newCodedInput();
+            input.enableAliasing(true);
+            final JournalMessage journalMessage = JournalMessage.parseFrom(input);
+
+            // TODO validate message based on field contents and version number
+
+            return new RawMessage(journalMessage, journalOffset,
+                    codecConfigStore.resolve(journalMessage.getCodec().getConfig()));
+        } catch (IOException e) {
+            log.error("Cannot read raw message from journal, ignoring this message.", e);
+            return null;
+        }
+    }
+
     public byte[] encode() {
+        return toByteArray(buildJournalMessage(codecConfig.serializeToJson()));
+    }
+
+    /**
+     * Encodes this message for the journal, storing only a reference to the codec configuration which is kept in
+     * the given store.
+     */
+    public byte[] encode(CodecConfigStore codecConfigStore) {
+        return toByteArray(toJournalMessage(codecConfigStore));
+    }
+
+    /**
+     * Builds the journal representation of this message like {@link #encode(CodecConfigStore)}, but without
+     * serializing it. This allows the journal to write it directly into its own buffers.
+     *
+     * @return the journal message or {@code null} if required fields are missing
+     */
+    @Nullable
+    public JournalMessage toJournalMessage(CodecConfigStore codecConfigStore) {
+        return buildJournalMessage(codecConfigStore.referenceFor(codecConfig));
+    }
+
+    @Nullable
+    private static byte[] toByteArray(@Nullable JournalMessage journalMessage) {
+        return journalMessage == null ? null : journalMessage.toByteArray();
+    }
+
+    @Nullable
+    private JournalMessage buildJournalMessage(@Nullable String codecConfigValue) {
         try {
             final JournalMessages.CodecInfo codec = msgBuilder.getCodec();
             final JournalMessages.CodecInfo.Builder builder = JournalMessages.CodecInfo.newBuilder(codec);
 
-            final String codecConfigJson = codecConfig.serializeToJson();
-            if (codecConfigJson != null) {
-                builder.setConfig(codecConfigJson);
+            if (codecConfigValue != null) {
+                builder.setConfig(codecConfigValue);
             }
             msgBuilder.setCodec(builder.build());
 
-            final JournalMessage journalMessage = msgBuilder.build();
-            return journalMessage.toByteArray();
+            return msgBuilder.build();
         } catch (UninitializedMessageException e) {
             log.error(
                     "Unable to write RawMessage to journal because required fields are missing, " +
@@ -192,6 +280,24 @@ public class RawMessage implements Serializable {
         return msgBuilder.getPayload().toByteArray(); // TODO PERFORMANCE array copy
     }
 
+    /**
+     * @return a read-only view of the payload, this doesn't copy it
+     */
+    public ByteBuffer getPayloadBuffer() {
+        return msgBuilder.getPayload().asReadOnlyByteBuffer();
+    }
+
+    /**
+     * Decodes the payload to a string without copying it into an intermediate byte array first, if possible.
+     */
+    public String getPayloadAsString(Charset charset) {
+        return msgBuilder.getPayload().toString(charset);
+    }
+
+    public int getPayloadSize() {
+        return msgBuilder.getPayload().size();
+    }
+
     public UUID getId() {
         return id;
     }
@@ -270,7 +376,7 @@ public class RawMessage implements Serializable {
         helper.add("id", getId())
                 .add("messageQueueId", getMessageQueueId())
                 .add("codec", getCodecName())
-                .add("payloadSize", getPayload().length)
+                .add("payloadSize", getPayloadSize())
                 .add("timestamp", getTimestamp());
         if (getRemoteAddress() != null) {
             helper.add("remoteAddress", getRemoteAddress().getInetSocketAddress().toString());
@@ -70,4 +70,14 @@ public interface MessageOutput extends Stoppable {
     boolean isRunning();
     void write(Message message) throws Exception;
     void write(List<Message> messages) throws Exception;
+
+    /**
+     * Whether {@link #write(List)} can be used to write a batch of messages. Outputs returning {@code false} get
+     * every message of a batch passed to {@link #write(Message)} individually.
+     *
+     * @return {@code true} if the output implements {@link #write(List)}, {@code false} otherwise
+     */
+    default boolean supportsBatchWrite() {
+        return false;
+    }
 }
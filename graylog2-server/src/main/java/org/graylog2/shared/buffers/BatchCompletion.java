@@ -0,0 +1,54 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog2.shared.buffers;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Tracks a batch of messages inserted with {@link InputBufferImpl#insertTracked(java.util.List)} until the last stage
+ * of the input buffer has handled all of them.
+ */
+class BatchCompletion {
+    private final AtomicInteger remaining;
+    private final CompletableFuture<Void> future = new CompletableFuture<>();
+
+    BatchCompletion(int size) {
+        this.remaining = new AtomicInteger(size);
+    }
+
+    CompletableFuture<Void> future() {
+        return future;
+    }
+
+    /**
+     * Marks one message of the batch as handled successfully.
+     */
+    void handled() {
+        if (remaining.decrementAndGet() == 0) {
+            // no-op if a message of the batch failed before
+            future.complete(null);
+        }
+    }
+
+    /**
+     * Marks one message of the batch as failed, which fails the whole batch.
+     */
+    void failed(Throwable cause) {
+        future.completeExceptionally(cause);
+    }
+}
@@ -21,7 +21,9 @@ import com.codahale.metrics.InstrumentedThreadFactory;
 import com.codahale.metrics.Meter;
 import com.codahale.metrics.MetricRegistry;
 import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.lmax.disruptor.EventHandler;
 import com.lmax.disruptor.RingBuffer;
+import com.lmax.disruptor.WorkHandler;
 import com.lmax.disruptor.dsl.Disruptor;
 import com.lmax.disruptor.dsl.ProducerType;
 import org.graylog2.plugin.BaseConfiguration;
@@ -33,7 +35,11 @@ import org.slf4j.LoggerFactory;
 
 import javax.inject.Inject;
 import javax.inject.Provider;
+import javax.annotation.Nullable;
 import javax.inject.Singleton;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ThreadFactory;
 
 import static com.codahale.metrics.MetricRegistry.name;
@@ -69,12 +75,13 @@ public class InputBufferImpl implements InputBuffer {
             for (int i = 0; i < numberOfHandlers; i++) {
                 handlers[i] = rawMessageEncoderHandlerProvider.get();
             }
-            disruptor.handleEventsWithWorkerPool(handlers).then(spoolingMessageHandlerProvider.get());
+            disruptor.handleEventsWithWorkerPool(handlers).then(new TrackingEventHandler(spoolingMessageHandlerProvider.get()));
         } else {
             LOG.info("Message journal is disabled.");
-            final DirectMessageHandler[] handlers = new DirectMessageHandler[numberOfHandlers];
+            @SuppressWarnings("unchecked")
+            final WorkHandler<RawMessageEvent>[] handlers = new WorkHandler[numberOfHandlers];
             for (int i = 0; i < numberOfHandlers; i++) {
-                handlers[i] = directMessageHandlerProvider.get();
+                handlers[i] = new TrackingWorkHandler(directMessageHandlerProvider.get());
             }
             disruptor.handleEventsWithWorkerPool(handlers);
         }
@@ -103,6 +110,49 @@ public class InputBufferImpl implements InputBuffer {
         incomingMessages.mark();
     }
 
+    @Override
+    public void insert(List<RawMessage> messages) {
+        if (!messages.isEmpty()) {
+            publish(messages, null);
+        }
+    }
+
+    /**
+     * Publishes the messages with a shared {@link BatchCompletion}. The last stage of the input buffer (the journal
+     * writer if the journal is enabled) reports every message to it once it has been handled, or failed.
+     */
+    @Override
+    public CompletableFuture<Void> insertTracked(List<RawMessage> messages) {
+        if (messages.isEmpty()) {
+            return CompletableFuture.completedFuture(null);
+        }
+        final BatchCompletion completion = new BatchCompletion(messages.size());
+        publish(messages, completion);
+        return completion.future();
+    }
+
+    /**
+     * Publishes the messages in chunks of at most the ring size, claiming the sequences of each chunk at once.
+     */
+    private void publish(List<RawMessage> messages, @Nullable BatchCompletion completion) {
+        final int chunkSize = ringBuffer.getBufferSize();
+        for (int offset = 0; offset < messages.size(); offset += chunkSize) {
+            final int n = Math.min(chunkSize, messages.size() - offset);
+            final long hi = ringBuffer.next(n);
+            final long lo = hi - (n - 1);
+            try {
+                for (long sequence = lo; sequence <= hi; sequence++) {
+                    final RawMessageEvent event = ringBuffer.get(sequence);
+                    RawMessageEvent.TRANSLATOR.translateTo(event, sequence, messages.get(offset + (int) (sequence - lo)));
+                    event.setBatchCompletion(completion);
+                }
+            } finally {
+                ringBuffer.publish(lo, hi);
+            }
+        }
+        incomingMessages.mark(messages.size());
+    }
+
     @Override
     public long getUsage() {
         return ringBuffer.getBufferSize() - ringBuffer.remainingCapacity();
@@ -113,4 +163,64 @@ public class InputBufferImpl implements InputBuffer {
         return new InstrumentedThreadFactory(threadFactory, metricRegistry, name(this.getClass(), "thread-factory"));
     }
 
+    /**
+     * Reports the messages of tracked batches as handled once the journal writer has written them. The journal writer
+     * only writes at the end of a batch of the disruptor, so the messages are collected until then. If it fails, the
+     * exception is reported to the batches before the exception handler of the disruptor skips the messages.
+     */
+    private static class TrackingEventHandler implements EventHandler<RawMessageEvent> {
+        private final EventHandler<RawMessageEvent> delegate;
+        private final List<BatchCompletion> completions = new ArrayList<>();
+
+        TrackingEventHandler(EventHandler<RawMessageEvent> delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public void onEvent(RawMessageEvent event, long sequence, boolean endOfBatch) throws Exception {
+            final BatchCompletion completion = event.takeBatchCompletion();
+            if (completion != null) {
+                completions.add(completion);
+            }
+            try {
+                delegate.onEvent(event, sequence, endOfBatch);
+            } catch (Exception e) {
+                completions.forEach(c -> c.failed(e));
+                completions.clear();
+                throw e;
+            }
+            if (endOfBatch) {
+                completions.forEach(BatchCompletion::handled);
+                completions.clear();
+            }
+        }
+    }
+
+    /**
+     * Reports the messages of tracked batches as handled once they have been inserted into the process buffer.
+     */
+    private static class TrackingWorkHandler implements WorkHandler<RawMessageEvent> {
+        private final WorkHandler<RawMessageEvent> delegate;
+
+        TrackingWorkHandler(WorkHandler<RawMessageEvent> delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public void onEvent(RawMessageEvent event) throws Exception {
+            final BatchCompletion completion = event.takeBatchCompletion();
+            try {
+                delegate.onEvent(event);
+            } catch (Exception e) {
+                if (completion != null) {
+                    completion.failed(e);
+                }
+                throw e;
+            }
+            if (completion != null) {
+                completion.handled();
+            }
+        }
+    }
+
 }
@@ -67,14 +67,17 @@ public class JournallingMessageHandler implements EventHandler<RawMessageEvent>
             // call the update on the recorder service for every message. (less contention)
             processingStatusRecorder.updateIngestReceiveTime(metricsFilter.getLatestReceiveTime());
 
-            messageQueueWriter.write(entries);
-
-            // Release objects for GC
-            batch.stream()
-                    .filter(Objects::nonNull)
-                    .forEach(RawMessageEvent::clear);
-
-            batch.clear();
+            try {
+                messageQueueWriter.write(entries);
+            } finally {
+                // Release objects for GC. The events are reused by the ring buffer, so they must not be written again
+                // with the next batch if writing failed.
+                batch.stream()
+                        .filter(Objects::nonNull)
+                        .forEach(RawMessageEvent::clear);
+
+                batch.clear();
+            }
         }
     }
 
@@ -97,12 +100,12 @@ public class JournallingMessageHandler implements EventHandler<RawMessageEvent>
                 log.trace("Journalling message {}", input.getMessageId());
             }
 
-            if (input.getEncodedRawMessage() == null) {
-                log.error("Skipping RawMessageEvent with null encodedRawMessage");
+            if (input.getJournalMessage() == null) {
+                log.error("Skipping RawMessageEvent with null journalMessage");
                 return null;
             }
             // stats
-            final int size = input.getEncodedRawMessage().length;
+            final int size = input.getEncodedRawMessageSize();
             bytesWritten += size;
             byteCounter.inc(size);
 
@@ -19,6 +19,8 @@ package org.graylog2.shared.buffers;
 import com.codahale.metrics.Meter;
 import com.codahale.metrics.MetricRegistry;
 import com.lmax.disruptor.WorkHandler;
+import org.graylog2.plugin.journal.JournalMessages.JournalMessage;
+import org.graylog2.shared.journal.CodecConfigDictionary;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -29,21 +31,27 @@ import static com.codahale.metrics.MetricRegistry.name;
 public class RawMessageEncoderHandler implements WorkHandler<RawMessageEvent> {
     private static final Logger log = LoggerFactory.getLogger(RawMessageEncoderHandler.class);
     private final Meter incomingMessages;
+    private final CodecConfigDictionary codecConfigDictionary;
 
     @Inject
-    public RawMessageEncoderHandler(MetricRegistry metricRegistry) {
+    public RawMessageEncoderHandler(MetricRegistry metricRegistry, CodecConfigDictionary codecConfigDictionary) {
+        this.codecConfigDictionary = codecConfigDictionary;
         incomingMessages = metricRegistry.meter(name(RawMessageEncoderHandler.class, "incomingMessages"));
     }
 
     @Override
     public void onEvent(RawMessageEvent event) throws Exception {
         incomingMessages.mark();
-        event.setEncodedRawMessage(event.getRawMessage().encode());
-        event.setMessageIdBytes(event.getRawMessage().getIdBytes());
-        
-        if (log.isTraceEnabled()) {
-            log.trace("Serialized message {} for journal, size {} bytes",
-                      event.getRawMessage().getId(), event.getEncodedRawMessage().length);
+        // The message is only built here, the journal serializes it directly into its write buffer. Computing the
+        // serialized size memoizes it, so the journal writer thread doesn't have to do it.
+        final JournalMessage journalMessage = event.getRawMessage().toJournalMessage(codecConfigDictionary);
+        event.setJournalMessage(journalMessage);
+
+        if (journalMessage != null) {
+            final int size = journalMessage.getSerializedSize();
+            if (log.isTraceEnabled()) {
+                log.trace("Serialized message {} for journal, size {} bytes", event.getRawMessage().getId(), size);
+            }
         }
 
         // Set timestamp in event to retain access to it after we clear the raw message object below
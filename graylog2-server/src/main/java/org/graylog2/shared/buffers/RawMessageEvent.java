@@ -20,6 +20,7 @@ import com.eaio.uuid.UUID;
 import com.google.common.base.MoreObjects;
 import com.lmax.disruptor.EventFactory;
 import com.lmax.disruptor.EventTranslatorOneArg;
+import org.graylog2.plugin.journal.JournalMessages.JournalMessage;
 import org.graylog2.plugin.journal.RawMessage;
 import org.joda.time.DateTime;
 
@@ -32,11 +33,14 @@ public class RawMessageEvent {
 
     // once these fields are set, do NOT rely on rawMessage still being non-null!
     private byte[] messageIdBytes;
-    private byte[] encodedRawMessage;
+    private JournalMessage journalMessage;
 
     // We need access to the raw message timestamp after the raw message has been cleared
     private DateTime messageTimestamp;
 
+    // Only set for messages inserted with InputBufferImpl#insertTracked(), taken by the last stage of the buffer
+    private BatchCompletion batchCompletion;
+
     public static final EventFactory<RawMessageEvent> FACTORY = new EventFactory<RawMessageEvent>() {
         @Override
         public RawMessageEvent newInstance() {
@@ -47,6 +51,7 @@ public class RawMessageEvent {
         @Override
         public void translateTo(RawMessageEvent event, long sequence, RawMessage arg0) {
             event.setRawMessage(arg0);
+            event.batchCompletion = null;
         }
     };
 
@@ -55,7 +60,7 @@ public class RawMessageEvent {
         return MoreObjects.toStringHelper(this)
                 .add("raw", getRawMessage())
                 .add("uuid", getMessageId())
-                .add("encodedLength", getEncodedRawMessage().length)
+                .add("encodedLength", getEncodedRawMessageSize())
                 .toString();
     }
 
@@ -67,12 +72,24 @@ public class RawMessageEvent {
         this.rawMessage = rawMessage;
     }
 
+    /**
+     * @deprecated Serializes the journal message on every call, use {@link #getJournalMessage()}.
+     */
+    @Deprecated
     public byte[] getEncodedRawMessage() {
-        return encodedRawMessage;
+        return journalMessage == null ? null : journalMessage.toByteArray();
+    }
+
+    public int getEncodedRawMessageSize() {
+        return journalMessage == null ? 0 : journalMessage.getSerializedSize();
+    }
+
+    public JournalMessage getJournalMessage() {
+        return journalMessage;
     }
 
-    public void setEncodedRawMessage(byte[] encodedRawMessage) {
-        this.encodedRawMessage = encodedRawMessage;
+    public void setJournalMessage(JournalMessage journalMessage) {
+        this.journalMessage = journalMessage;
     }
 
     public void setMessageIdBytes(byte[] messageIdBytes) {
@@ -91,15 +108,31 @@ public class RawMessageEvent {
         this.messageTimestamp = messageTimestamp;
     }
 
+    void setBatchCompletion(BatchCompletion batchCompletion) {
+        this.batchCompletion = batchCompletion;
+    }
+
+    /**
+     * Returns the completion of the batch this message belongs to and removes it from the event.
+     */
+    BatchCompletion takeBatchCompletion() {
+        final BatchCompletion completion = batchCompletion;
+        batchCompletion = null;
+        return completion;
+    }
+
     // performance doesn't matter, it's only being called during tracing
     public UUID getMessageId() {
+        if (messageIdBytes == null && journalMessage != null) {
+            return new UUID(journalMessage.getUuidTime(), journalMessage.getUuidClockseq());
+        }
         final ByteBuffer wrap = ByteBuffer.wrap(messageIdBytes);
         return new UUID(wrap.asLongBuffer().get(0), wrap.asLongBuffer().get(1));
     }
 
     public void clear() {
         this.rawMessage = null;
-        this.encodedRawMessage = null;
+        this.journalMessage = null;
         this.messageIdBytes = null;
         this.messageTimestamp = null;
     }
@@ -22,6 +22,7 @@ import com.codahale.metrics.Timer;
 import com.google.common.base.Strings;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.Lists;
+import com.google.common.eventbus.EventBus;
 import com.google.common.net.InetAddresses;
 import com.google.inject.assistedinject.Assisted;
 import com.google.inject.assistedinject.AssistedInject;
@@ -48,8 +49,6 @@ import java.util.NoSuchElementException;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
 
-import static com.codahale.metrics.MetricRegistry.name;
-
 public class DecodingProcessor implements EventHandler<MessageEvent> {
     private static final Logger LOG = LoggerFactory.getLogger(DecodingProcessor.class);
 
@@ -65,6 +64,7 @@ public class DecodingProcessor implements EventHandler<MessageEvent> {
     private final MetricRegistry metricRegistry;
     private final Journal journal;
     private final MessageQueueAcknowledger acknowledger;
+    private final InputCodecCache codecCache;
     private final Timer parseTime;
 
     @AssistedInject
@@ -73,6 +73,7 @@ public class DecodingProcessor implements EventHandler<MessageEvent> {
                              final MetricRegistry metricRegistry,
                              final Journal journal,
                              MessageQueueAcknowledger acknowledger,
+                             EventBus eventBus,
                              @Assisted("decodeTime") Timer decodeTime,
                              @Assisted("parseTime") Timer parseTime) {
         this.codecFactory = codecFactory;
@@ -80,6 +81,7 @@ public class DecodingProcessor implements EventHandler<MessageEvent> {
         this.metricRegistry = metricRegistry;
         this.journal = journal;
         this.acknowledger = acknowledger;
+        this.codecCache = new InputCodecCache(metricRegistry, eventBus);
 
         // these metrics are global to all processors, thus they are passed in directly to avoid relying on the class name
         this.parseTime = parseTime;
@@ -139,8 +141,8 @@ public class DecodingProcessor implements EventHandler<MessageEvent> {
             return;
         }
 
-        final Codec codec = factory.create(raw.getCodecConfig());
-        final String baseMetricName = name(codec.getClass(), inputIdOnCurrentNode);
+        final InputCodecCache.Entry codecEntry = codecCache.get(inputIdOnCurrentNode, raw.getCodecName(), raw.getCodecConfig(), factory);
+        final Codec codec = codecEntry.codec;
 
         Message message = null;
         Collection<Message> messages = null;
@@ -157,19 +159,19 @@ public class DecodingProcessor implements EventHandler<MessageEvent> {
             }
         } catch (RuntimeException e) {
             LOG.error("Unable to decode raw message {} on input <{}>.", raw, inputIdOnCurrentNode);
-            metricRegistry.meter(name(baseMetricName, "failures")).mark();
+            codecEntry.failures.mark();
             throw e;
         } finally {
             decodeTime = decodeTimeCtx.stop();
         }
 
         if (message != null) {
-            event.setMessage(postProcessMessage(raw, codec, inputIdOnCurrentNode, baseMetricName, message, decodeTime));
+            event.setMessage(postProcessMessage(raw, codecEntry, inputIdOnCurrentNode, message, decodeTime));
         } else if (messages != null && !messages.isEmpty()) {
             final List<Message> processedMessages = Lists.newArrayListWithCapacity(messages.size());
 
             for (final Message msg : messages) {
-                final Message processedMessage = postProcessMessage(raw, codec, inputIdOnCurrentNode, baseMetricName, msg, decodeTime);
+                final Message processedMessage = postProcessMessage(raw, codecEntry, inputIdOnCurrentNode, msg, decodeTime);
 
                 if (processedMessage != null) {
                     processedMessages.add(processedMessage);
@@ -181,13 +183,13 @@ public class DecodingProcessor implements EventHandler<MessageEvent> {
     }
 
     @Nullable
-    private Message postProcessMessage(RawMessage raw, Codec codec, String inputIdOnCurrentNode, String baseMetricName, Message message, long decodeTime) {
+    private Message postProcessMessage(RawMessage raw, InputCodecCache.Entry codecEntry, String inputIdOnCurrentNode, Message message, long decodeTime) {
         if (message == null) {
-            metricRegistry.meter(name(baseMetricName, "failures")).mark();
+            codecEntry.failures.mark();
             return null;
         }
         if (!message.isComplete()) {
-            metricRegistry.meter(name(baseMetricName, "incomplete")).mark();
+            codecEntry.incomplete.mark();
             if (LOG.isDebugEnabled()) {
                 LOG.debug("Dropping incomplete message {} on input <{}>. Parsed fields: [{}]",
                         raw, inputIdOnCurrentNode, message.getFields());
@@ -197,7 +199,7 @@ public class DecodingProcessor implements EventHandler<MessageEvent> {
 
         message.setMessageQueueId(raw.getMessageQueueId());
         message.recordTiming(serverStatus, "parse", decodeTime);
-        metricRegistry.timer(name(baseMetricName, "parseTime")).update(decodeTime, TimeUnit.NANOSECONDS);
+        codecEntry.parseTime.update(decodeTime, TimeUnit.NANOSECONDS);
 
         for (final RawMessage.SourceNode node : raw.getSourceNodes()) {
             switch (node.type) {
@@ -246,6 +248,7 @@ public class DecodingProcessor implements EventHandler<MessageEvent> {
             }
         }
 
+        final Codec codec = codecEntry.codec;
         if (codec.getConfiguration() != null && codec.getConfiguration().stringIsSet(Codec.Config.CK_OVERRIDE_SOURCE)) {
             message.setSource(codec.getConfiguration().getString(Codec.Config.CK_OVERRIDE_SOURCE));
         }
@@ -259,7 +262,7 @@ public class DecodingProcessor implements EventHandler<MessageEvent> {
         // message to the journal.
         message.setReceiveTime(raw.getTimestamp());
 
-        metricRegistry.meter(name(baseMetricName, "processedMessages")).mark();
+        codecEntry.processedMessages.mark();
         decodedTrafficCounter.inc(message.getSize());
         return message;
     }
@@ -0,0 +1,136 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog2.shared.buffers.processors;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import com.google.common.eventbus.EventBus;
+import com.google.common.eventbus.Subscribe;
+import org.graylog2.plugin.configuration.Configuration;
+import org.graylog2.plugin.events.inputs.IOStateChangedEvent;
+import org.graylog2.plugin.inputs.MessageInput;
+import org.graylog2.plugin.inputs.codecs.Codec;
+import org.graylog2.rest.models.system.inputs.responses.InputDeleted;
+import org.graylog2.rest.models.system.inputs.responses.InputUpdated;
+
+import javax.annotation.Nullable;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static com.codahale.metrics.MetricRegistry.name;
+import static com.google.common.base.Strings.nullToEmpty;
+
+/**
+ * Caches the codec instance and the per-input metrics used by a {@link DecodingProcessor}, so creating a codec and
+ * building its metric names doesn't happen for every message.
+ * <p>
+ * Codecs aren't required to be thread-safe, so every {@link DecodingProcessor} owns its own cache. Entries are keyed
+ * by input id and codec name and are only used if the codec configuration matches. All entries of an input are
+ * invalidated when the input is started, stopped, updated or deleted.
+ */
+class InputCodecCache {
+    // input id -> codec name -> entry
+    private final Map<String, Map<String, Entry>> entries = new ConcurrentHashMap<>();
+    private final MetricRegistry metricRegistry;
+    private final Counter hits;
+    private final Counter misses;
+
+    InputCodecCache(MetricRegistry metricRegistry, EventBus eventBus) {
+        this.metricRegistry = metricRegistry;
+        this.hits = metricRegistry.counter(name(DecodingProcessor.class, "codec-cache", "hits"));
+        this.misses = metricRegistry.counter(name(DecodingProcessor.class, "codec-cache", "misses"));
+        eventBus.register(this);
+    }
+
+    /**
+     * Returns the cached entry for the given input and codec, creating the codec with the given factory if there is
+     * no entry or the configuration of the cached codec differs.
+     */
+    Entry get(@Nullable String inputId, String codecName, @Nullable Configuration config, Codec.Factory<? extends Codec> factory) {
+        final Map<String, Entry> inputEntries = entries.computeIfAbsent(nullToEmpty(inputId), id -> new ConcurrentHashMap<>());
+        final Entry entry = inputEntries.get(codecName);
+        if (entry != null) {
+            if (entry.config == config) {
+                hits.inc();
+                return entry;
+            }
+            // Same configuration in a different instance, e. g. after the journal's config cache evicted it
+            if (entry.config != null && config != null && Objects.equals(entry.config.getSource(), config.getSource())) {
+                hits.inc();
+                final Entry updated = new Entry(config, entry.codec, entry.failures, entry.incomplete,
+                        entry.processedMessages, entry.parseTime);
+                inputEntries.put(codecName, updated);
+                return updated;
+            }
+        }
+
+        misses.inc();
+        final Codec codec = factory.create(config);
+        final String baseMetricName = name(codec.getClass(), inputId);
+        final Entry created = new Entry(config,
+                codec,
+                metricRegistry.meter(name(baseMetricName, "failures")),
+                metricRegistry.meter(name(baseMetricName, "incomplete")),
+                metricRegistry.meter(name(baseMetricName, "processedMessages")),
+                metricRegistry.timer(name(baseMetricName, "parseTime")));
+        inputEntries.put(codecName, created);
+        return created;
+    }
+
+    void invalidate(String inputId) {
+        entries.remove(inputId);
+    }
+
+    @Subscribe
+    public void handleInputStateChanged(IOStateChangedEvent<MessageInput> event) {
+        final MessageInput input = event.changedState().getStoppable();
+        if (input != null && input.getId() != null) {
+            invalidate(input.getId());
+        }
+    }
+
+    @Subscribe
+    public void handleInputUpdated(InputUpdated event) {
+        invalidate(event.id());
+    }
+
+    @Subscribe
+    public void handleInputDeleted(InputDeleted event) {
+        invalidate(event.id());
+    }
+
+    static class Entry {
+        final Configuration config;
+        final Codec codec;
+        final Meter failures;
+        final Meter incomplete;
+        final Meter processedMessages;
+        final Timer parseTime;
+
+        Entry(Configuration config, Codec codec, Meter failures, Meter incomplete, Meter processedMessages, Timer parseTime) {
+            this.config = config;
+            this.codec = codec;
+            this.failures = failures;
+            this.incomplete = incomplete;
+            this.processedMessages = processedMessages;
+            this.parseTime = parseTime;
+        }
+    }
+}
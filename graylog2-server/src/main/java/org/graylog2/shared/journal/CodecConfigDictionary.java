@@ -0,0 +1,257 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog2.shared.journal;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.google.common.hash.Hashing;
+import org.graylog2.plugin.configuration.Configuration;
+import org.graylog2.plugin.journal.CodecConfigStore;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import static com.google.common.base.Strings.isNullOrEmpty;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Stores codec configurations once per input configuration version instead of inlining the serialized JSON into
+ * every journal entry.
+ * <p>
+ * Journal entries written through this dictionary carry a short reference (a fingerprint of the configuration JSON,
+ * prefixed with {@link CodecConfigStore#REFERENCE_PREFIX}) in the {@code CodecInfo.config} field. The JSON itself is
+ * written once into a {@value #FILE_PREFIX}*{@value #FILE_SUFFIX} file inside the message journal directory, so the
+ * references survive restarts together with the journal segments. (Plain files are used because the journal treats
+ * every subdirectory as a log.)
+ * <p>
+ * Entries written by older versions contain the full configuration JSON and are still resolved, which keeps existing
+ * journals readable.
+ * <p>
+ * The journal calls {@link #prune(long, long)} after every retention run. A configuration file is deleted once the
+ * configuration hasn't been used for a whole run and all segments which were written until then have been deleted.
+ */
+@Singleton
+public class CodecConfigDictionary implements CodecConfigStore {
+    private static final Logger LOG = LoggerFactory.getLogger(CodecConfigDictionary.class);
+
+    public static final String FILE_PREFIX = "codec-config-";
+    public static final String FILE_SUFFIX = ".json";
+
+    private final Path directory;
+    // Keyed by instance identity, every input configuration update creates a new Configuration object.
+    private final Cache<Configuration, Optional<StoredValue>> referencesByConfig = Caffeine.newBuilder()
+            .weakKeys()
+            .build();
+    // Keyed by fingerprint, only modified while holding the lock of the dictionary.
+    private final ConcurrentMap<String, Usage> usages = new ConcurrentHashMap<>();
+    // Keyed by the value of the journal entry's config field, i. e. either a reference or legacy JSON.
+    private final Cache<String, Configuration> configsByValue = Caffeine.newBuilder()
+            .maximumSize(1000)
+            .build();
+
+    @Inject
+    public CodecConfigDictionary(@Named("message_journal_dir") Path journalDirectory) {
+        this.directory = journalDirectory;
+    }
+
+    @Nullable
+    @Override
+    public String referenceFor(Configuration config) {
+        Optional<StoredValue> stored = referencesByConfig.get(config, this::store);
+        if (stored.isPresent() && stored.get().isPruned()) {
+            // The configuration was unused long enough to be pruned, store it again
+            referencesByConfig.invalidate(config);
+            stored = referencesByConfig.get(config, this::store);
+        }
+        return stored.map(StoredValue::value).orElse(null);
+    }
+
+    @Override
+    public Configuration resolve(@Nullable String value) {
+        if (isNullOrEmpty(value)) {
+            return Configuration.EMPTY_CONFIGURATION;
+        }
+        final Configuration config = configsByValue.get(value, this::load);
+        return config == null ? Configuration.EMPTY_CONFIGURATION : config;
+    }
+
+    /**
+     * Deletes the stored configurations which can't be referenced by the journal anymore.
+     *
+     * @param logStartOffset the first offset in the journal
+     * @param logEndOffset   the offset of the next entry written to the journal
+     * @return the number of deleted configurations
+     */
+    public synchronized int prune(long logStartOffset, long logEndOffset) {
+        int pruned = 0;
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, FILE_PREFIX + "*" + FILE_SUFFIX)) {
+            for (final Path file : files) {
+                final String fileName = file.getFileName().toString();
+                final String fingerprint = fileName.substring(FILE_PREFIX.length(), fileName.length() - FILE_SUFFIX.length());
+                // Files written before a restart count as used, the journal might still contain entries referencing them
+                final Usage usage = usages.computeIfAbsent(fingerprint, k -> new Usage());
+                if (usage.used) {
+                    usage.used = false;
+                    usage.unusedSinceOffset = -1L;
+                } else if (usage.unusedSinceOffset < 0) {
+                    // Unused for a whole run, all entries referencing it have been written before the current end
+                    usage.unusedSinceOffset = logEndOffset;
+                } else if (usage.unusedSinceOffset <= logStartOffset && prune(fingerprint, usage, file)) {
+                    pruned++;
+                }
+            }
+        } catch (NoSuchFileException e) {
+            return 0;
+        } catch (IOException e) {
+            LOG.warn("Unable to prune codec configurations in <{}>.", directory, e);
+        }
+        if (pruned > 0) {
+            LOG.debug("Pruned {} unused codec configurations from <{}>.", pruned, directory);
+        }
+        return pruned;
+    }
+
+    private boolean prune(String fingerprint, Usage usage, Path file) throws IOException {
+        usage.pruned = true;
+        // Pairs with referenceFor(), which marks the usage before checking whether it has been pruned
+        if (usage.used) {
+            usage.pruned = false;
+            return false;
+        }
+        Files.deleteIfExists(file);
+        usages.remove(fingerprint);
+        configsByValue.invalidate(REFERENCE_PREFIX + fingerprint);
+        return true;
+    }
+
+    private synchronized Optional<StoredValue> store(Configuration config) {
+        final String json = config.serializeToJson();
+        if (json == null) {
+            return Optional.empty();
+        }
+
+        final String fingerprint = Hashing.murmur3_128().hashString(json, UTF_8).toString();
+        final Path file = directory.resolve(FILE_PREFIX + fingerprint + FILE_SUFFIX);
+        try {
+            if (Files.exists(file)) {
+                if (!json.equals(new String(Files.readAllBytes(file), UTF_8))) {
+                    LOG.warn("Codec configuration fingerprint collision for <{}>, storing configuration inline.", fingerprint);
+                    return Optional.of(new StoredValue(json, null));
+                }
+            } else {
+                write(file, json);
+            }
+        } catch (IOException e) {
+            LOG.warn("Unable to store codec configuration in <{}>, storing configuration inline.", directory, e);
+            return Optional.of(new StoredValue(json, null));
+        }
+
+        final Usage usage = usages.computeIfAbsent(fingerprint, k -> new Usage());
+        usage.used = true;
+        final String reference = REFERENCE_PREFIX + fingerprint;
+        configsByValue.put(reference, config);
+        return Optional.of(new StoredValue(reference, usage));
+    }
+
+    private void write(Path file, String json) throws IOException {
+        Files.createDirectories(directory);
+        final Path tmpFile = Files.createTempFile(directory, file.getFileName().toString(), ".tmp");
+        try {
+            Files.write(tmpFile, json.getBytes(UTF_8));
+            try {
+                Files.move(tmpFile, file, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tmpFile, file, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(tmpFile);
+        }
+    }
+
+    @Nullable
+    private Configuration load(String value) {
+        if (!CodecConfigStore.isReference(value)) {
+            return Configuration.deserializeFromJson(value);
+        }
+
+        final Path file = directory.resolve(FILE_PREFIX + value.substring(REFERENCE_PREFIX.length()) + FILE_SUFFIX);
+        try {
+            return Configuration.deserializeFromJson(new String(Files.readAllBytes(file), UTF_8));
+        } catch (NoSuchFileException e) {
+            LOG.error("Codec configuration <{}> is missing from <{}>, using empty configuration.", value, directory);
+        } catch (IOException e) {
+            LOG.error("Unable to read codec configuration <{}>, using empty configuration.", file, e);
+        }
+        // Not cached, so a transient read error doesn't stick
+        return null;
+    }
+
+    /**
+     * The value stored in journal entries for a configuration, either a reference or the inline configuration JSON.
+     */
+    private static class StoredValue {
+        private final String value;
+        @Nullable
+        private final Usage usage;
+
+        StoredValue(String value, @Nullable Usage usage) {
+            this.value = value;
+            this.usage = usage;
+        }
+
+        String value() {
+            return value;
+        }
+
+        /**
+         * Marks the stored configuration as used and returns whether it has been pruned in the meantime.
+         */
+        boolean isPruned() {
+            if (usage == null) {
+                return false;
+            }
+            // Mark the usage before checking, so either this or a concurrent prune sees the other
+            if (!usage.used) {
+                usage.used = true;
+            }
+            return usage.pruned;
+        }
+    }
+
+    private static class Usage {
+        // Whether the configuration has been used since the last prune run. Only written if it changes, this is
+        // checked for every journal entry.
+        private volatile boolean used = true;
+        private volatile boolean pruned = false;
+        // The journal end offset once the configuration has been unused for a whole prune run, -1 if it's in use
+        private long unusedSinceOffset = -1L;
+    }
+}
@@ -16,6 +16,7 @@
  */
 package org.graylog2.shared.journal;
 
+import java.nio.ByteBuffer;
 import java.util.List;
 
 public interface Journal {
@@ -27,6 +28,11 @@ public interface Journal {
 
     List<JournalReadEntry> read(long maximumCount);
 
+    /**
+     * @return {@code true} if the journal contains entries after the ones returned by {@link #read(long)} so far
+     */
+    boolean hasUnreadEntries();
+
     void markJournalOffsetCommitted(long offset);
 
     void flush();
@@ -47,15 +53,54 @@ public interface Journal {
         public byte[] getMessageBytes() {
             return messageBytes;
         }
+
+        /**
+         * @return the length of the id in bytes or {@code -1} if the entry has no id
+         */
+        public int getIdSize() {
+            return idBytes == null ? -1 : idBytes.length;
+        }
+
+        /**
+         * Writes the id of this entry to the given buffer, advancing its position by {@link #getIdSize()} bytes.
+         */
+        public void writeIdTo(ByteBuffer buffer) {
+            if (idBytes != null) {
+                buffer.put(idBytes);
+            }
+        }
+
+        public int getMessageSize() {
+            return messageBytes.length;
+        }
+
+        /**
+         * Writes the message of this entry to the given buffer, advancing its position by {@link #getMessageSize()}
+         * bytes.
+         */
+        public void writeMessageTo(ByteBuffer buffer) {
+            buffer.put(messageBytes);
+        }
     }
 
     class JournalReadEntry {
 
         private final byte[] payload;
+        private final ByteBuffer payloadBuffer;
         private final long offset;
 
         public JournalReadEntry(byte[] payload, long offset) {
             this.payload = payload;
+            this.payloadBuffer = null;
+            this.offset = offset;
+        }
+
+        /**
+         * Creates an entry whose payload is a read-only view into the journal, e. g. a memory-mapped segment.
+         */
+        public JournalReadEntry(ByteBuffer payloadBuffer, long offset) {
+            this.payload = null;
+            this.payloadBuffer = payloadBuffer.asReadOnlyBuffer();
             this.offset = offset;
         }
 
@@ -63,8 +108,29 @@ public interface Journal {
             return offset;
         }
 
+        /**
+         * Returns the payload as byte array. If the entry has been read without copying, this copies the payload
+         * on every call, use {@link #getPayloadBuffer()} instead.
+         */
         public byte[] getPayload() {
-            return payload;
+            if (payload != null) {
+                return payload;
+            }
+            final byte[] bytes = new byte[payloadBuffer.remaining()];
+            payloadBuffer.duplicate().get(bytes);
+            return bytes;
+        }
+
+        /**
+         * @return a buffer with the payload of this entry, positioned at the start of the payload. Like the array
+         * returned by {@link #getPayload()}, it must not be modified.
+         */
+        public ByteBuffer getPayloadBuffer() {
+            return payload != null ? ByteBuffer.wrap(payload) : payloadBuffer.duplicate();
+        }
+
+        public int getPayloadSize() {
+            return payload != null ? payload.length : payloadBuffer.remaining();
         }
     }
 }
@@ -0,0 +1,89 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog2.shared.journal;
+
+import com.google.protobuf.CodedOutputStream;
+import org.graylog2.plugin.journal.JournalMessages.JournalMessage;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * A journal entry which is serialized straight into the message set buffer of the journal instead of being encoded
+ * into a byte array first.
+ * <p>
+ * The id is derived from the message UUID and has the same layout as {@link org.graylog2.plugin.journal.RawMessage#getIdBytes()}.
+ * </p>
+ */
+public class JournalMessageEntry extends Journal.Entry {
+    private static final int ID_SIZE = 2 * Long.BYTES;
+
+    private final JournalMessage journalMessage;
+
+    public JournalMessageEntry(JournalMessage journalMessage) {
+        super(null, null);
+        this.journalMessage = requireNonNull(journalMessage);
+    }
+
+    public JournalMessage getJournalMessage() {
+        return journalMessage;
+    }
+
+    @Override
+    public byte[] getIdBytes() {
+        final ByteBuffer buffer = ByteBuffer.allocate(ID_SIZE);
+        writeIdTo(buffer);
+        return buffer.array();
+    }
+
+    @Override
+    public byte[] getMessageBytes() {
+        return journalMessage.toByteArray();
+    }
+
+    @Override
+    public int getIdSize() {
+        return ID_SIZE;
+    }
+
+    @Override
+    public void writeIdTo(ByteBuffer buffer) {
+        buffer.putLong(journalMessage.getUuidTime());
+        buffer.putLong(journalMessage.getUuidClockseq());
+    }
+
+    @Override
+    public int getMessageSize() {
+        // memoized by the message
+        return journalMessage.getSerializedSize();
+    }
+
+    @Override
+    public void writeMessageTo(ByteBuffer buffer) {
+        final CodedOutputStream output = CodedOutputStream.newInstance(buffer);
+        try {
+            journalMessage.writeTo(output);
+            // updates the position of the buffer
+            output.flush();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Couldn't write journal message", e);
+        }
+    }
+}
@@ -22,6 +22,7 @@ import com.codahale.metrics.MetricFilter;
 import com.codahale.metrics.MetricRegistry;
 import com.codahale.metrics.Timer;
 import com.github.joschi.jadconfig.util.Size;
+import com.google.common.annotations.VisibleForTesting;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.Sets;
@@ -29,18 +30,20 @@ import com.google.common.io.Files;
 import com.google.common.primitives.Ints;
 import com.google.common.util.concurrent.AbstractIdleService;
 import com.google.common.util.concurrent.Uninterruptibles;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.PooledByteBufAllocator;
 import org.apache.commons.lang3.StringUtils;
 import org.graylog.shaded.kafka09.common.KafkaException;
 import org.graylog.shaded.kafka09.common.OffsetOutOfRangeException;
 import org.graylog.shaded.kafka09.common.TopicAndPartition;
 import org.graylog.shaded.kafka09.log.CleanerConfig;
+import org.graylog.shaded.kafka09.log.FileMessageSet;
 import org.graylog.shaded.kafka09.log.Log;
 import org.graylog.shaded.kafka09.log.LogAppendInfo;
 import org.graylog.shaded.kafka09.log.LogConfig;
 import org.graylog.shaded.kafka09.log.LogManager;
 import org.graylog.shaded.kafka09.log.LogSegment;
 import org.graylog.shaded.kafka09.message.ByteBufferMessageSet;
-import org.graylog.shaded.kafka09.message.Message;
 import org.graylog.shaded.kafka09.message.MessageAndOffset;
 import org.graylog.shaded.kafka09.message.MessageSet;
 import org.graylog.shaded.kafka09.scala.Option;
@@ -63,6 +66,7 @@ import org.joda.time.Duration;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.annotation.Nullable;
 import javax.inject.Inject;
 import javax.inject.Named;
 import javax.inject.Singleton;
@@ -71,6 +75,8 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.SyncFailedException;
 import java.io.UncheckedIOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
 import java.nio.channels.ClosedByInterruptException;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.AccessDeniedException;
@@ -106,6 +112,10 @@ public class LocalKafkaJournal extends AbstractIdleService implements Journal {
     private static final String LEGACY_CLASS_NAME = "org.graylog2.shared.journal.KafkaJournal";
 
     private static final int NUM_IO_THREADS = 1;
+    // the maximum number of bytes read from the journal at once
+    private static final int MAX_READ_SIZE = 5 * 1024 * 1024;
+    // the distance between two windows of a segment file which are mapped for reading
+    private static final long MMAP_WINDOW_SIZE = 16 * 1024 * 1024;
 
     public static final long DEFAULT_COMMITTED_OFFSET = Long.MIN_VALUE;
     public static final int NOTIFY_ON_UTILIZATION_PERCENTAGE = 95;
@@ -177,6 +187,10 @@ public class LocalKafkaJournal extends AbstractIdleService implements Journal {
     private final AtomicInteger purgedSegmentsInLastRetention = new AtomicInteger();
 
     private final int throttleThresholdPercentage;
+    @Nullable
+    private final MappedMessageSetReader mappedReader;
+    @Nullable
+    private final CodecConfigDictionary codecConfigDictionary;
 
     @Inject
     public LocalKafkaJournal(@Named("message_journal_dir") Path journalDirectory,
@@ -188,6 +202,25 @@ public class LocalKafkaJournal extends AbstractIdleService implements Journal {
                              @Named("message_journal_flush_interval") long flushInterval,
                              @Named("message_journal_flush_age") Duration flushAge,
                              @Named("lb_throttle_threshold_percentage") int throttleThresholdPercentage,
+                             @Named("message_journal_mmap_reads") boolean mmapReads,
+                             MetricRegistry metricRegistry,
+                             ServerStatus serverStatus,
+                             CodecConfigDictionary codecConfigDictionary) {
+
+        this(journalDirectory, scheduler, segmentSize, segmentAge, retentionSize, retentionAge, flushInterval, flushAge,
+             throttleThresholdPercentage, metricRegistry, serverStatus, LocalKafkaJournal.class.getName(), mmapReads,
+             codecConfigDictionary);
+    }
+
+    public LocalKafkaJournal(Path journalDirectory,
+                             ScheduledExecutorService scheduler,
+                             Size segmentSize,
+                             Duration segmentAge,
+                             Size retentionSize,
+                             Duration retentionAge,
+                             long flushInterval,
+                             Duration flushAge,
+                             int throttleThresholdPercentage,
                              MetricRegistry metricRegistry,
                              ServerStatus serverStatus) {
 
@@ -211,6 +244,32 @@ public class LocalKafkaJournal extends AbstractIdleService implements Journal {
                              MetricRegistry metricRegistry,
                              ServerStatus serverStatus,
                              String metricPrefix) {
+        this(journalDirectory, scheduler, segmentSize, segmentAge, retentionSize, retentionAge, flushInterval, flushAge,
+             throttleThresholdPercentage, metricRegistry, serverStatus, metricPrefix, false, null);
+    }
+
+    /**
+     * @param throttleThresholdPercentage The journal utilization percent at which throttling will be triggered.
+     *                                    Expressed as an integer between 1 and 100. The value -1 disables throttling.
+     * @param mmapReads                   Read the segment files through a memory mapping instead of copying the
+     *                                    messages onto the heap.
+     * @param codecConfigDictionary       The codec configurations referenced by the journal entries, which are
+     *                                    pruned together with the segments. May be {@code null}.
+     */
+    public LocalKafkaJournal(Path journalDirectory,
+                             ScheduledExecutorService scheduler,
+                             Size segmentSize,
+                             Duration segmentAge,
+                             Size retentionSize,
+                             Duration retentionAge,
+                             long flushInterval,
+                             Duration flushAge,
+                             int throttleThresholdPercentage,
+                             MetricRegistry metricRegistry,
+                             ServerStatus serverStatus,
+                             String metricPrefix,
+                             boolean mmapReads,
+                             @Nullable CodecConfigDictionary codecConfigDictionary) {
 
         // Only check throttleThresholdPercentage range if throttling is not disabled;
         if (throttleThresholdPercentage == THRESHOLD_THROTTLING_DISABLED) {
@@ -226,6 +285,8 @@ public class LocalKafkaJournal extends AbstractIdleService implements Journal {
         this.maxMessageSize = Ints.saturatedCast(maxSegmentSize);
         this.metricPrefix = metricPrefix;
         this.metricRegistry = metricRegistry;
+        this.mappedReader = mmapReads ? new MappedMessageSetReader(MMAP_WINDOW_SIZE, MAX_READ_SIZE) : null;
+        this.codecConfigDictionary = codecConfigDictionary;
 
         // Set up metrics
         this.writtenMessages = metricRegistry.meter(name(this.metricPrefix, METER_WRITTEN_MESSAGES));
@@ -505,80 +566,92 @@ public class LocalKafkaJournal extends AbstractIdleService implements Journal {
     public long write(List<Entry> entries) {
         try (Timer.Context ignored = writeTime.time()) {
             long payloadSize = 0L;
-            long messageSetSize = 0L;
+            int messageSetSize = 0;
             long lastWriteOffset = 0L;
 
-            final List<Message> messages = new ArrayList<>(entries.size());
+            final List<Entry> messages = new ArrayList<>(entries.size());
             for (final Entry entry : entries) {
-                final byte[] messageBytes = entry.getMessageBytes();
-                final byte[] idBytes = entry.getIdBytes();
-
-                payloadSize += messageBytes.length;
+                payloadSize += entry.getMessageSize();
 
-                final Message newMessage = new Message(messageBytes, idBytes);
                 // Calculate the size of the new message in the message set by including the overhead for the log entry.
-                final int newMessageSize = MessageSet.entrySize(newMessage);
+                final int newMessageSize = MessageSetEncoder.entrySize(entry);
 
                 if (newMessageSize > maxMessageSize) {
                     writeDiscardedMessages.mark();
                     LOG.warn("Message with ID <{}> is too large to store in journal, skipping! (size: {} bytes / max: {} bytes)",
-                            new String(idBytes, StandardCharsets.UTF_8), newMessageSize, maxMessageSize);
+                            new String(entry.getIdBytes(), StandardCharsets.UTF_8), newMessageSize, maxMessageSize);
                     payloadSize = 0;
                     continue;
                 }
 
                 // If adding the new message to the message set would overflow the max segment size, flush the current
                 // list of message to avoid a MessageSetSizeTooLargeException.
-                if ((messageSetSize + newMessageSize) > maxSegmentSize) {
+                if (((long) messageSetSize + newMessageSize) > maxSegmentSize) {
                     if (LOG.isDebugEnabled()) {
                         LOG.debug("Flushing {} bytes message set with {} messages to avoid overflowing segment with max size of {} bytes",
                                 messageSetSize, messages.size(), maxSegmentSize);
                     }
-                    lastWriteOffset = flushMessages(messages, payloadSize);
+                    lastWriteOffset = flushMessages(messages, messageSetSize, payloadSize);
                     // Reset the messages list and size counters to start a new batch.
                     messages.clear();
                     messageSetSize = 0;
                     payloadSize = 0;
                 }
-                messages.add(newMessage);
+                messages.add(entry);
                 messageSetSize += newMessageSize;
 
                 if (LOG.isTraceEnabled()) {
-                    LOG.trace("Message {} contains bytes {}", bytesToHex(idBytes), bytesToHex(messageBytes));
+                    LOG.trace("Message {} contains bytes {}", bytesToHex(entry.getIdBytes()), bytesToHex(entry.getMessageBytes()));
                 }
             }
 
             // Flush the rest of the messages.
             if (messages.size() > 0) {
-                lastWriteOffset = flushMessages(messages, payloadSize);
+                lastWriteOffset = flushMessages(messages, messageSetSize, payloadSize);
             }
 
             return lastWriteOffset;
         }
     }
 
-    private long flushMessages(List<Message> messages, long payloadSize) {
+    /**
+     * Encodes the entries into a pooled buffer and appends it to the log. The buffer is only used for the
+     * duration of the append, which copies it into the active segment.
+     * <p>
+     * The buffer has to be array backed because the Kafka log validates the message checksums through
+     * {@link ByteBuffer#array()} when appending.
+     */
+    private long flushMessages(List<Entry> messages, int messageSetSize, long payloadSize) {
         if (messages.isEmpty()) {
             LOG.debug("No messages to flush, not trying to write an empty message set.");
             return -1L;
         }
 
-        final ByteBufferMessageSet messageSet = new ByteBufferMessageSet(JavaConversions.asScalaBuffer(messages).toSeq());
+        final ByteBuf messageSetBuffer = PooledByteBufAllocator.DEFAULT.heapBuffer(messageSetSize, messageSetSize);
+        try {
+            final ByteBuffer buffer = messageSetBuffer.nioBuffer(0, messageSetSize);
+            new MessageSetEncoder().encode(messages, buffer);
+            // Cast to Buffer to stay binary compatible with Java 8
+            ((Buffer) buffer).flip();
+            final ByteBufferMessageSet messageSet = new ByteBufferMessageSet(buffer);
+
+            if (LOG.isDebugEnabled()) {
+                LOG.debug("Trying to write ByteBufferMessageSet with size of {} bytes to journal", messageSet.sizeInBytes());
+            }
 
-        if (LOG.isDebugEnabled()) {
-            LOG.debug("Trying to write ByteBufferMessageSet with size of {} bytes to journal", messageSet.sizeInBytes());
-        }
+            final LogAppendInfo appendInfo = kafkaLog.append(messageSet, true);
+            long lastWriteOffset = appendInfo.lastOffset();
 
-        final LogAppendInfo appendInfo = kafkaLog.append(messageSet, true);
-        long lastWriteOffset = appendInfo.lastOffset();
+            if (LOG.isDebugEnabled()) {
+                LOG.debug("Wrote {} messages to journal: {} bytes (payload {} bytes), log position {} to {}",
+                        messages.size(), messageSet.sizeInBytes(), payloadSize, appendInfo.firstOffset(), lastWriteOffset);
+            }
+            writtenMessages.mark(messages.size());
 
-        if (LOG.isDebugEnabled()) {
-            LOG.debug("Wrote {} messages to journal: {} bytes (payload {} bytes), log position {} to {}",
-                    messages.size(), messageSet.sizeInBytes(), payloadSize, appendInfo.firstOffset(), lastWriteOffset);
+            return lastWriteOffset;
+        } finally {
+            messageSetBuffer.release();
         }
-        writtenMessages.mark(messages.size());
-
-        return lastWriteOffset;
     }
 
     /**
@@ -599,6 +672,15 @@ public class LocalKafkaJournal extends AbstractIdleService implements Journal {
         return readNext(nextReadOffset, requestedMaximumCount);
     }
 
+    /**
+     * Reads are limited by size as well, so a read might return fewer entries than requested although the journal
+     * contains more.
+     */
+    @Override
+    public boolean hasUnreadEntries() {
+        return nextReadOffset < getLogEndOffset();
+    }
+
     /**
      * Read next messages from the journal, starting at the given offset. If the underlying journal implementation
      * returns an empty list of entries, but we know there are more entries in the journal, we'll try to skip the
@@ -675,35 +757,42 @@ public class LocalKafkaJournal extends AbstractIdleService implements Journal {
 
             // TODO benchmark and make read-ahead strategy configurable for performance tuning
             final MessageSet messageSet = kafkaLog.read(readOffset,
-                    5 * 1024 * 1024,
+                    MAX_READ_SIZE,
                     Option.<Object>apply(maxOffset)).messageSet();
 
-            final Iterator<MessageAndOffset> iterator = messageSet.iterator();
+            final List<JournalReadEntry> mappedEntries = readMapped(messageSet);
+            if (mappedEntries != null) {
+                messages.addAll(mappedEntries);
+            } else {
+                final Iterator<MessageAndOffset> iterator = messageSet.iterator();
+                while (iterator.hasNext()) {
+                    final MessageAndOffset messageAndOffset = iterator.next();
+
+                    final byte[] payloadBytes = ByteBufferUtils.readBytes(messageAndOffset.message().payload());
+                    if (LOG.isTraceEnabled()) {
+                        final byte[] keyBytes = ByteBufferUtils.readBytes(messageAndOffset.message().key());
+                        LOG.trace("Read message {} contains {}", bytesToHex(keyBytes), bytesToHex(payloadBytes));
+                    }
+                    messages.add(new JournalReadEntry(payloadBytes, messageAndOffset.offset()));
+                }
+            }
+
             long firstOffset = Long.MIN_VALUE;
             long lastOffset = Long.MIN_VALUE;
             long totalBytes = 0;
-            while (iterator.hasNext()) {
-                final MessageAndOffset messageAndOffset = iterator.next();
-
+            for (final JournalReadEntry entry : messages) {
                 if (firstOffset == Long.MIN_VALUE) {
-                    firstOffset = messageAndOffset.offset();
+                    firstOffset = entry.getOffset();
                 }
                 // always remember the last seen offset for debug purposes below
-                lastOffset = messageAndOffset.offset();
-
-                final byte[] payloadBytes = ByteBufferUtils.readBytes(messageAndOffset.message().payload());
-                if (LOG.isTraceEnabled()) {
-                    final byte[] keyBytes = ByteBufferUtils.readBytes(messageAndOffset.message().key());
-                    LOG.trace("Read message {} contains {}", bytesToHex(keyBytes), bytesToHex(payloadBytes));
-                }
-                totalBytes += payloadBytes.length;
-                messages.add(new JournalReadEntry(payloadBytes, messageAndOffset.offset()));
-                // remember where to read from
-                nextReadOffset = messageAndOffset.nextOffset();
+                lastOffset = entry.getOffset();
+                totalBytes += entry.getPayloadSize();
             }
             if (messages.isEmpty()) {
                 LOG.debug("No messages available to read for offset interval [{}, {}).", readOffset, maxOffset);
             } else {
+                // remember where to read from
+                nextReadOffset = lastOffset + 1;
                 LOG.debug(
                         "Read {} messages, total payload size {}, from journal, offset interval [{}, {}], requested read at {}",
                         messages.size(),
@@ -724,7 +813,7 @@ public class LocalKafkaJournal extends AbstractIdleService implements Journal {
                 return Collections.emptyList();
             }
             //noinspection ConstantConditions
-            if (e instanceof ClosedByInterruptException) {
+            if (e instanceof ClosedByInterruptException || e.getCause() instanceof ClosedByInterruptException) {
                 LOG.debug("Interrupted while reading from journal, during shutdown this is harmless and ignored.", e);
             } else {
                 throw e;
@@ -735,6 +824,26 @@ public class LocalKafkaJournal extends AbstractIdleService implements Journal {
         return messages;
     }
 
+    @VisibleForTesting
+    @Nullable
+    MappedMessageSetReader mappedReader() {
+        return mappedReader;
+    }
+
+    @Nullable
+    private List<JournalReadEntry> readMapped(MessageSet messageSet) {
+        if (mappedReader == null || !(messageSet instanceof FileMessageSet)) {
+            return null;
+        }
+        final FileMessageSet fileMessageSet = (FileMessageSet) messageSet;
+        final boolean activeSegment = fileMessageSet.file().equals(kafkaLog.activeSegment().log().file());
+        try {
+            return mappedReader.read(fileMessageSet, activeSegment);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
     /**
      * Upon fully processing, and persistently storing, a batch of messages, the system should mark the message with the
      * highest offset as committed. A background job will write the last position to disk periodically.
@@ -834,6 +943,9 @@ public class LocalKafkaJournal extends AbstractIdleService implements Journal {
 
         kafkaScheduler.shutdown();
         logManager.shutdown();
+        if (mappedReader != null) {
+            mappedReader.clear();
+        }
         // final flush
         offsetFlusher.run();
 
@@ -894,6 +1006,10 @@ public class LocalKafkaJournal extends AbstractIdleService implements Journal {
      */
     public void truncateTo(long offset) {
         kafkaLog.truncateTo(offset);
+        if (mappedReader != null) {
+            // the current window might reach beyond the end of a truncated segment
+            mappedReader.clear();
+        }
     }
 
     /**
@@ -985,6 +1101,13 @@ public class LocalKafkaJournal extends AbstractIdleService implements Journal {
                         cleanupSegmentsToMaintainSize(kafkaLog) +
                         cleanupSegmentsToRemoveCommitted(kafkaLog);
             }
+            if (total > 0 && mappedReader != null) {
+                mappedReader.releaseDeletedSegments();
+            }
+            if (codecConfigDictionary != null) {
+                // Codec configurations which are only referenced by deleted segments aren't needed anymore
+                codecConfigDictionary.prune(getLogStartOffset(), getLogEndOffset());
+            }
 
             loggerForCleaner.debug("Log cleanup completed. {} files deleted in {} seconds",
                     total,
@@ -0,0 +1,190 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog2.shared.journal;
+
+import com.google.common.annotations.VisibleForTesting;
+import org.graylog.shaded.kafka09.common.KafkaException;
+import org.graylog.shaded.kafka09.log.FileMessageSet;
+import org.graylog.shaded.kafka09.message.Message;
+import org.graylog.shaded.kafka09.message.MessageSet;
+import org.graylog2.shared.journal.Journal.JournalReadEntry;
+
+import javax.annotation.Nullable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Reads journal entries from a memory mapping of the segment file instead of copying every message onto the heap.
+ * <p>
+ * The segment files are mapped in windows of a fixed size, so a growing segment is not remapped on every read. A
+ * window of the active segment is only mapped once it has been written completely, reads at the end of the active
+ * segment return {@code null} and go through the Kafka message iterator instead.
+ * </p>
+ * <p>
+ * The returned entries are read-only views of the mapping, so the payloads can be decoded without any intermediate
+ * copy. Because the decoded messages keep referencing the mapping until the process buffer has decoded them, a window
+ * can't be unmapped explicitly. Only the window which is currently read is kept, all others are unmapped by the
+ * garbage collector once no entry references them anymore. This limits the mappings to the window being read plus
+ * the windows of the messages in flight.
+ * </p>
+ * <p>
+ * The journal calls {@link #releaseDeletedSegments()} after deleting segments, so the reader doesn't keep the disk
+ * space of a deleted segment mapped until it reads from another segment.
+ * </p>
+ */
+class MappedMessageSetReader {
+    private final long windowSize;
+    private final long maxReadSize;
+
+    private File windowFile;
+    private long windowStart;
+    private long windowEnd;
+    private MappedByteBuffer window;
+    private int mappedWindows;
+
+    /**
+     * @param windowSize  the distance between the start positions of two windows
+     * @param maxReadSize the maximum size of a message set which is read at once, windows overlap by this size so
+     *                    every message set fits into the window it starts in
+     */
+    MappedMessageSetReader(long windowSize, long maxReadSize) {
+        checkArgument(windowSize > 0, "windowSize must be positive");
+        checkArgument(windowSize + maxReadSize <= Integer.MAX_VALUE, "windowSize + maxReadSize must be less than 2 GB");
+        this.windowSize = windowSize;
+        this.maxReadSize = maxReadSize;
+    }
+
+    /**
+     * @param activeSegment whether the message set has been read from the active segment, which is still growing
+     * @return the entries of the given message set, or {@code null} if the message set has to be read through the
+     * Kafka message iterator, because it contains compressed messages or its window hasn't been written completely
+     */
+    @Nullable
+    synchronized List<JournalReadEntry> read(FileMessageSet messageSet, boolean activeSegment) throws IOException {
+        final long start = messageSet.start();
+        final long end = start + messageSet.sizeInBytes();
+
+        final ByteBuffer mapping = map(messageSet, start, end, activeSegment);
+        if (mapping == null) {
+            return null;
+        }
+        final ByteBuffer buffer = mapping.duplicate();
+        ((Buffer) buffer).limit((int) (end - windowStart));
+        ((Buffer) buffer).position((int) (start - windowStart));
+
+        final List<JournalReadEntry> entries = new ArrayList<>();
+        while (buffer.remaining() >= MessageSet.LogOverhead()) {
+            final long offset = buffer.getLong();
+            final int messageSize = buffer.getInt();
+            if (messageSize < Message.MinHeaderSize()) {
+                throw new KafkaException("Invalid message size " + messageSize + " at offset " + offset);
+            }
+            if (buffer.remaining() < messageSize) {
+                // the message set ends with a partial message, like the Kafka iterator we stop here
+                break;
+            }
+            final int messageStart = buffer.position();
+            final int messageEnd = messageStart + messageSize;
+
+            final byte attributes = buffer.get(messageStart + Message.AttributesOffset());
+            if ((attributes & Message.CompressionCodeMask()) != 0) {
+                return null;
+            }
+
+            final int keySize = buffer.getInt(messageStart + Message.KeySizeOffset());
+            final int valueSizeOffset = messageStart + Message.KeyOffset() + Math.max(keySize, 0);
+            final int valueSize = buffer.getInt(valueSizeOffset);
+            final int valueOffset = valueSizeOffset + Message.ValueSizeLength();
+
+            final ByteBuffer payload = buffer.duplicate();
+            ((Buffer) payload).limit(valueOffset + Math.max(valueSize, 0));
+            ((Buffer) payload).position(valueOffset);
+            entries.add(new JournalReadEntry(payload.slice(), offset));
+
+            ((Buffer) buffer).position(messageEnd);
+        }
+        return entries;
+    }
+
+    /**
+     * @return the mapping of the window the given range starts in, or {@code null} if the range can't be read from
+     * a mapping
+     */
+    @Nullable
+    private MappedByteBuffer map(FileMessageSet messageSet, long start, long end, boolean activeSegment) throws IOException {
+        final File file = messageSet.file();
+        if (window != null && file.equals(windowFile) && start >= windowStart && end <= windowEnd) {
+            return window;
+        }
+
+        final long newWindowStart = start / windowSize * windowSize;
+        final long fullWindowEnd = newWindowStart + windowSize + maxReadSize;
+        final FileChannel channel = messageSet.channel();
+        final long fileSize = channel.size();
+        if (end > fullWindowEnd || (activeSegment && fileSize < fullWindowEnd)) {
+            // don't map the end of the active segment, the mapping would have to be extended on every read
+            return null;
+        }
+
+        // drop the reference to the previous window, it will be unmapped once no entry references it anymore
+        windowFile = file;
+        windowStart = newWindowStart;
+        windowEnd = Math.min(fullWindowEnd, fileSize);
+        window = channel.map(FileChannel.MapMode.READ_ONLY, windowStart, windowEnd - windowStart);
+        mappedWindows++;
+        return end <= windowEnd ? window : null;
+    }
+
+    /**
+     * @return the number of windows which have been mapped so far
+     */
+    @VisibleForTesting
+    synchronized int mappedWindows() {
+        return mappedWindows;
+    }
+
+    /**
+     * Drops the current window if its segment file has been deleted or renamed for deletion.
+     */
+    synchronized void releaseDeletedSegments() {
+        if (windowFile != null && !windowFile.exists()) {
+            clear();
+        }
+    }
+
+    /**
+     * @return the segment file of the current window, or {@code null} if there is none
+     */
+    @VisibleForTesting
+    @Nullable
+    synchronized File windowFile() {
+        return windowFile;
+    }
+
+    synchronized void clear() {
+        windowFile = null;
+        window = null;
+    }
+}
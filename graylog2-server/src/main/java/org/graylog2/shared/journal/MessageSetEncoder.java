@@ -0,0 +1,88 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog2.shared.journal;
+
+import org.graylog.shaded.kafka09.message.Message;
+import org.graylog.shaded.kafka09.message.MessageSet;
+
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * Encodes journal entries into an uncompressed Kafka message set.
+ * <p>
+ * The result is byte for byte what {@link org.graylog.shaded.kafka09.message.ByteBufferMessageSet} creates from a
+ * list of {@link Message} objects, without allocating an intermediate buffer per message:
+ * </p>
+ * <pre>
+ * offset (8) | size (4) | crc (4) | magic (1) | attributes (1) | key size (4) | key | value size (4) | value
+ * </pre>
+ */
+final class MessageSetEncoder {
+    private static final byte MAGIC = Message.CurrentMagicValue();
+    private static final byte NO_COMPRESSION_ATTRIBUTES = 0;
+    private static final int CRC_LENGTH = Message.CrcLength();
+
+    private final CRC32 crc = new CRC32();
+
+    /**
+     * @return the number of bytes the entry takes up in a message set, including the log overhead
+     */
+    static int entrySize(Journal.Entry entry) {
+        return MessageSet.LogOverhead() + Message.MinHeaderSize() + Math.max(entry.getIdSize(), 0) + entry.getMessageSize();
+    }
+
+    /**
+     * Writes the given entries to the buffer, starting at its current position. Offsets are numbered from zero, the
+     * log assigns the real ones when the message set is appended.
+     */
+    void encode(List<Journal.Entry> entries, ByteBuffer buffer) {
+        long offset = 0L;
+        for (final Journal.Entry entry : entries) {
+            final int idSize = entry.getIdSize();
+            final int messageSize = entry.getMessageSize();
+
+            buffer.putLong(offset++);
+            buffer.putInt(Message.MinHeaderSize() + Math.max(idSize, 0) + messageSize);
+
+            final int crcPosition = buffer.position();
+            buffer.putInt(0);
+            buffer.put(MAGIC);
+            buffer.put(NO_COMPRESSION_ATTRIBUTES);
+            buffer.putInt(idSize);
+            entry.writeIdTo(buffer);
+            buffer.putInt(messageSize);
+            final int messageStart = buffer.position();
+            entry.writeMessageTo(buffer);
+            final int end = buffer.position();
+            if (end - messageStart != messageSize) {
+                throw new IllegalStateException("Journal entry wrote " + (end - messageStart) + " bytes instead of " + messageSize);
+            }
+
+            // The checksum covers everything from the magic byte to the end of the message.
+            final ByteBuffer checksummed = buffer.duplicate();
+            // Cast to Buffer to stay binary compatible with Java 8
+            ((Buffer) checksummed).limit(end);
+            ((Buffer) checksummed).position(crcPosition + CRC_LENGTH);
+            crc.reset();
+            crc.update(checksummed);
+            buffer.putInt(crcPosition, (int) crc.getValue());
+        }
+    }
+}
@@ -47,6 +47,11 @@ public class NoopJournal extends AbstractIdleService implements Journal {
         throw new IllegalStateException("Invalid use of NoopJournal. Reading from this journal is always a programming error.");
     }
 
+    @Override
+    public boolean hasUnreadEntries() {
+        throw new IllegalStateException("Invalid use of NoopJournal. Reading from this journal is always a programming error.");
+    }
+
     @Override
     public void markJournalOffsetCommitted(long offset) {
         // nothing to do
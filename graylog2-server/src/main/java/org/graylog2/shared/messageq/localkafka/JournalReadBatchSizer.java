@@ -0,0 +1,110 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog2.shared.messageq.localkafka;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+/**
+ * Chooses how many entries the journal reader requests at once.
+ * <p>
+ * While the journal has a backlog, the whole remaining capacity of the process buffer is requested to catch up as
+ * fast as possible. Otherwise the batch is limited to the number of messages the process buffer processors handle
+ * within the target latency, minus the messages which are already waiting in the ring buffer. This keeps new messages
+ * from queueing up behind a large batch.
+ * </p>
+ * <p>
+ * If the processors can't keep up, the journal still has unread entries after a read and the sizer switches back to
+ * catch-up mode, so the measured processing rate doesn't limit the throughput.
+ * </p>
+ */
+class JournalReadBatchSizer {
+    static final long MIN_BATCH_SIZE = 128;
+
+    // weight of the newest rate sample
+    private static final double RATE_SMOOTHING = 0.2;
+    private static final long MIN_SAMPLE_INTERVAL_NANOS = MILLISECONDS.toNanos(10);
+
+    private final long ringBufferSize;
+    private final double targetLatencySeconds;
+
+    private long lastOutgoingCount = -1;
+    private long lastSampleNanos;
+    // messages per second, negative until the first sample
+    private double outgoingRate = -1;
+    // the journal might already contain messages on startup
+    private boolean backlog = true;
+
+    /**
+     * @param targetLatencyMillis the time a message should wait in the process buffer at most. A value of {@code 0}
+     *                            disables the latency limit and always requests the remaining capacity.
+     */
+    JournalReadBatchSizer(long ringBufferSize, long targetLatencyMillis) {
+        this.ringBufferSize = ringBufferSize;
+        this.targetLatencySeconds = targetLatencyMillis / 1000.0d;
+    }
+
+    /**
+     * @param remainingCapacity the remaining capacity of the process buffer
+     * @param outgoingCount     the number of messages the process buffer processors have handled so far
+     * @param nowNanos          the current value of {@link System#nanoTime()}
+     * @return the number of entries to read from the journal
+     */
+    long nextBatchSize(long remainingCapacity, long outgoingCount, long nowNanos) {
+        updateRate(outgoingCount, nowNanos);
+
+        if (targetLatencySeconds <= 0 || backlog || outgoingRate < 0) {
+            return remainingCapacity;
+        }
+        final long waiting = ringBufferSize - remainingCapacity;
+        final long latencyBudget = (long) (outgoingRate * targetLatencySeconds) - waiting;
+        return Math.min(remainingCapacity, Math.max(MIN_BATCH_SIZE, latencyBudget));
+    }
+
+    /**
+     * Records the result of a journal read.
+     *
+     * @param unreadEntries whether the journal still has unread entries after the read
+     */
+    void readCompleted(boolean unreadEntries) {
+        backlog = unreadEntries;
+    }
+
+    boolean hasBacklog() {
+        return backlog;
+    }
+
+    double getOutgoingRate() {
+        return outgoingRate;
+    }
+
+    private void updateRate(long outgoingCount, long nowNanos) {
+        if (lastOutgoingCount < 0) {
+            lastOutgoingCount = outgoingCount;
+            lastSampleNanos = nowNanos;
+            return;
+        }
+        final long elapsedNanos = nowNanos - lastSampleNanos;
+        if (elapsedNanos < MIN_SAMPLE_INTERVAL_NANOS) {
+            return;
+        }
+        final double rate = (outgoingCount - lastOutgoingCount) * (double) SECONDS.toNanos(1) / elapsedNanos;
+        outgoingRate = outgoingRate < 0 ? rate : outgoingRate + RATE_SMOOTHING * (rate - outgoingRate);
+        lastOutgoingCount = outgoingCount;
+        lastSampleNanos = nowNanos;
+    }
+}
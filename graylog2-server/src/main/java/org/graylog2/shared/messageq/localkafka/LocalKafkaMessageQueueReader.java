@@ -17,6 +17,7 @@
 package org.graylog2.shared.messageq.localkafka;
 
 import com.codahale.metrics.Counter;
+import com.codahale.metrics.Gauge;
 import com.codahale.metrics.Histogram;
 import com.codahale.metrics.Meter;
 import com.codahale.metrics.MetricRegistry;
@@ -24,10 +25,13 @@ import com.google.common.eventbus.EventBus;
 import com.google.common.util.concurrent.Uninterruptibles;
 import org.graylog2.plugin.journal.RawMessage;
 import org.graylog2.shared.buffers.ProcessBuffer;
+import org.graylog2.shared.buffers.processors.ProcessBufferProcessor;
+import org.graylog2.shared.journal.CodecConfigDictionary;
 import org.graylog2.shared.journal.Journal;
 import org.graylog2.shared.messageq.AbstractMessageQueueReader;
 import org.graylog2.shared.messageq.MessageQueueReader;
 import org.graylog2.shared.metrics.HdrHistogram;
+import org.joda.time.Duration;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -36,21 +40,28 @@ import javax.inject.Named;
 import javax.inject.Singleton;
 import java.util.List;
 import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
 
 import static com.codahale.metrics.MetricRegistry.name;
 import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
 
 @Singleton
 public class LocalKafkaMessageQueueReader extends AbstractMessageQueueReader {
     private static final Logger log = LoggerFactory.getLogger(LocalKafkaMessageQueueReader.class);
     private final Journal journal;
     private final ProcessBuffer processBuffer;
+    private final CodecConfigDictionary codecConfigDictionary;
     private final Semaphore journalFilled;
     private final MetricRegistry metricRegistry;
     private final Meter readMessages;
     private final Metrics readerMetrics;
     private Histogram requestedReadCount;
     private final Counter readBlocked;
+    private final Meter processedMessages;
+    private final JournalReadBatchSizer batchSizer;
+    private final AtomicLong batchSize = new AtomicLong();
+    private final AtomicLong insertBlockedNanos = new AtomicLong();
     private Thread executionThread;
 
     @Inject
@@ -59,17 +70,25 @@ public class LocalKafkaMessageQueueReader extends AbstractMessageQueueReader {
                                         @Named("JournalSignal") Semaphore journalFilled,
                                         MetricRegistry metricRegistry,
                                         EventBus eventBus,
-                                        MessageQueueReader.Metrics readerMetrics) {
+                                        MessageQueueReader.Metrics readerMetrics,
+                                        CodecConfigDictionary codecConfigDictionary,
+                                        @Named("message_journal_reader_target_latency") Duration targetLatency) {
 
         super(eventBus);
 
         this.journal = journal;
         this.processBuffer = processBuffer;
+        this.codecConfigDictionary = codecConfigDictionary;
         this.journalFilled = journalFilled;
         this.metricRegistry = metricRegistry;
         readBlocked = metricRegistry.counter(name(this.getClass(), "readBlocked"));
         readMessages = metricRegistry.meter(name(this.getClass(), "readMessages"));
         this.readerMetrics = readerMetrics;
+        this.processedMessages = metricRegistry.meter(name(ProcessBufferProcessor.class, "outgoingMessages"));
+        this.batchSizer = new JournalReadBatchSizer(processBuffer.getRingBufferSize(), targetLatency.getMillis());
+        metricRegistry.register(name(this.getClass(), "batchSize"), (Gauge<Long>) batchSize::get);
+        metricRegistry.register(name(this.getClass(), "blockedTime"),
+                (Gauge<Long>) () -> NANOSECONDS.toMillis(insertBlockedNanos.get()));
     }
 
     @Override
@@ -105,9 +124,13 @@ public class LocalKafkaMessageQueueReader extends AbstractMessageQueueReader {
                 continue;
             }
             // approximate count to read from the journal to backfill the processing chain
-            final long remainingCapacity = processBuffer.getRemainingCapacity();
-            requestedReadCount.update(remainingCapacity);
-            final List<Journal.JournalReadEntry> encodedRawMessages = journal.read(remainingCapacity);
+            final long readCount = batchSizer.nextBatchSize(processBuffer.getRemainingCapacity(),
+                                                            processedMessages.getCount(),
+                                                            System.nanoTime());
+            batchSize.set(readCount);
+            requestedReadCount.update(readCount);
+            final List<Journal.JournalReadEntry> encodedRawMessages = journal.read(readCount);
+            batchSizer.readCompleted(journal.hasUnreadEntries());
             if (encodedRawMessages.isEmpty()) {
                 log.debug("No messages to read from Journal, waiting until the writer adds more messages.");
                 // block until something is written to the journal again
@@ -126,16 +149,19 @@ public class LocalKafkaMessageQueueReader extends AbstractMessageQueueReader {
                 readerMetrics.readMessages().mark(encodedRawMessages.size());
                 log.debug("Processing {} messages from journal.", encodedRawMessages.size());
                 for (final Journal.JournalReadEntry encodedRawMessage : encodedRawMessages) {
-                    final RawMessage rawMessage = RawMessage.decode(encodedRawMessage.getPayload(),
-                                                                    encodedRawMessage.getOffset());
-                    readerMetrics.readBytes().mark(encodedRawMessage.getPayload().length);
+                    final RawMessage rawMessage = RawMessage.decode(encodedRawMessage.getPayloadBuffer(),
+                                                                    encodedRawMessage.getOffset(),
+                                                                    codecConfigDictionary);
+                    readerMetrics.readBytes().mark(encodedRawMessage.getPayloadSize());
                     if (rawMessage == null) {
                         // never insert null objects into the ringbuffer, as that is useless
                         log.error("Found null raw message!");
                         journal.markJournalOffsetCommitted(encodedRawMessage.getOffset());
                         continue;
                     }
+                    final long insertStart = System.nanoTime();
                     processBuffer.insertBlocking(rawMessage);
+                    insertBlockedNanos.addAndGet(System.nanoTime() - insertStart);
                 }
             }
         }
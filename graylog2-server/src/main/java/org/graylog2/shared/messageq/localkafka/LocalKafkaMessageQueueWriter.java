@@ -24,6 +24,7 @@ import com.github.rholder.retry.WaitStrategies;
 import com.google.common.util.concurrent.AbstractIdleService;
 import org.graylog2.shared.buffers.RawMessageEvent;
 import org.graylog2.shared.journal.Journal;
+import org.graylog2.shared.journal.JournalMessageEntry;
 import org.graylog2.shared.journal.LocalKafkaJournal;
 import org.graylog2.shared.messageq.MessageQueueException;
 import org.graylog2.shared.messageq.MessageQueueWriter;
@@ -76,8 +77,8 @@ public class LocalKafkaMessageQueueWriter extends AbstractIdleService implements
 
         final List<Journal.Entry> journalEntries = entries.stream()
                 .filter(Objects::nonNull)
-                .map(e -> new Journal.Entry(e.getMessageIdBytes(), e.getEncodedRawMessage()))
-                .peek(e -> msgBytes.addAndGet(e.getMessageBytes().length))
+                .map(e -> (Journal.Entry) new JournalMessageEntry(e.getJournalMessage()))
+                .peek(e -> msgBytes.addAndGet(e.getMessageSize()))
                 .collect(Collectors.toList());
 
         try {
@@ -0,0 +1,122 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog2.shared.metrics;
+
+import com.codahale.metrics.Clock;
+import com.codahale.metrics.ExponentiallyDecayingReservoir;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.Reservoir;
+import com.codahale.metrics.Timer;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * A {@link Timer} for hot code paths which only measures a sample of all calls.
+ * <p>
+ * Every call is counted with {@link #sample()} or {@link #count()}, so {@link #getCount()} is exact. Only the calls
+ * for which {@link #sample()} returned {@code true} are actually timed and passed to {@link #record(long)}. The
+ * recorded durations are weighted with the sample interval for the rates. Updating a regular timer reads the clock
+ * twice and updates the reservoir and meter on every call, which is expensive if it happens several times per message.
+ * </p>
+ */
+public class SampledTimer extends Timer {
+    private final int sampleInterval;
+    private final LongAdder count = new LongAdder();
+    private final Meter rate;
+
+    /**
+     * @param sampleInterval time one out of {@code sampleInterval} calls on average
+     */
+    public SampledTimer(int sampleInterval) {
+        this(sampleInterval, new ExponentiallyDecayingReservoir(), Clock.defaultClock());
+    }
+
+    public SampledTimer(int sampleInterval, Reservoir reservoir, Clock clock) {
+        super(reservoir, clock);
+        checkArgument(sampleInterval > 0, "sampleInterval must be positive");
+        this.sampleInterval = sampleInterval;
+        this.rate = new Meter(clock);
+    }
+
+    /**
+     * Counts a call and decides whether it should be timed.
+     *
+     * @return {@code true} if the duration of this call should be passed to {@link #record(long)}
+     */
+    public boolean sample() {
+        count.increment();
+        return sampleInterval == 1 || ThreadLocalRandom.current().nextInt(sampleInterval) == 0;
+    }
+
+    /**
+     * Counts a call without timing it. Used for calls nested in another sampled measurement.
+     */
+    public void count() {
+        count.increment();
+    }
+
+    /**
+     * Records the duration of a sampled call, which has already been counted.
+     */
+    public void record(long durationNanos) {
+        if (durationNanos >= 0) {
+            super.update(durationNanos, TimeUnit.NANOSECONDS);
+            rate.mark(sampleInterval);
+        }
+    }
+
+    /**
+     * Counts and records a single call which has been timed regardless of sampling, e. g. by {@link #time()}.
+     */
+    @Override
+    public void update(long duration, TimeUnit unit) {
+        if (duration >= 0) {
+            count.increment();
+            super.update(duration, unit);
+            rate.mark();
+        }
+    }
+
+    @Override
+    public long getCount() {
+        return count.sum();
+    }
+
+    @Override
+    public double getFifteenMinuteRate() {
+        return rate.getFifteenMinuteRate();
+    }
+
+    @Override
+    public double getFiveMinuteRate() {
+        return rate.getFiveMinuteRate();
+    }
+
+    @Override
+    public double getMeanRate() {
+        return rate.getMeanRate();
+    }
+
+    @Override
+    public double getOneMinuteRate() {
+        return rate.getOneMinuteRate();
+    }
+}
@@ -18,7 +18,6 @@ package org.graylog2.streams;
 
 import com.google.common.eventbus.EventBus;
 import com.google.common.eventbus.Subscribe;
-import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import org.graylog2.indexer.indexset.events.IndexSetCreatedEvent;
 import org.graylog2.indexer.indexset.events.IndexSetDeletedEvent;
 import org.graylog2.plugin.Message;
@@ -31,10 +30,7 @@ import org.slf4j.LoggerFactory;
 import javax.inject.Inject;
 import javax.inject.Named;
 import java.util.List;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
-import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.atomic.AtomicReference;
 
 /**
@@ -58,7 +54,7 @@ public class StreamRouter {
         this.serverStatus = serverStatus;
         this.scheduler = scheduler;
 
-        this.engineUpdater = new StreamRouterEngineUpdater(routerEngine, routerEngineFactory, streamService, executorService());
+        this.engineUpdater = new StreamRouterEngineUpdater(routerEngine, routerEngineFactory, streamService);
         this.routerEngine.set(engineUpdater.getNewEngine());
 
         // TODO: This class needs lifecycle management to avoid leaking objects in the EventBus
@@ -83,14 +79,6 @@ public class StreamRouter {
         scheduler.submit(engineUpdater);
     }
 
-    private ExecutorService executorService() {
-        final ThreadFactory threadFactory = new ThreadFactoryBuilder()
-                .setNameFormat("stream-router-%d")
-                .setDaemon(true)
-                .build();
-        return Executors.newCachedThreadPool(threadFactory);
-    }
-
     public List<Stream> route(final Message msg) {
         final StreamRouterEngine engine = routerEngine.get();
 
@@ -103,16 +91,13 @@ public class StreamRouter {
         private final AtomicReference<StreamRouterEngine> routerEngine;
         private final StreamRouterEngine.Factory engineFactory;
         private final StreamService streamService;
-        private final ExecutorService executorService;
 
         public StreamRouterEngineUpdater(AtomicReference<StreamRouterEngine> routerEngine,
                                          StreamRouterEngine.Factory engineFactory,
-                                         StreamService streamService,
-                                         ExecutorService executorService) {
+                                         StreamService streamService) {
             this.routerEngine = routerEngine;
             this.engineFactory = engineFactory;
             this.streamService = streamService;
-            this.executorService = executorService;
         }
 
         @Override
@@ -133,7 +118,7 @@ public class StreamRouter {
         }
 
         private StreamRouterEngine getNewEngine() {
-            return engineFactory.create(streamService.loadAllEnabled(), executorService);
+            return engineFactory.create(streamService.loadAllEnabled());
         }
     }
 }
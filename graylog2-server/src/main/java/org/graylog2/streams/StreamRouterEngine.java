@@ -20,10 +20,6 @@ import com.codahale.metrics.Timer;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
-import com.google.common.collect.Sets;
-import com.google.common.util.concurrent.SimpleTimeLimiter;
-import com.google.common.util.concurrent.TimeLimiter;
-import com.google.common.util.concurrent.UncheckedTimeoutException;
 import com.google.inject.assistedinject.Assisted;
 import org.graylog2.plugin.Message;
 import org.graylog2.plugin.streams.DefaultStream;
@@ -31,114 +27,185 @@ import org.graylog2.plugin.streams.Stream;
 import org.graylog2.plugin.streams.StreamRule;
 import org.graylog2.plugin.streams.StreamRuleType;
 import org.graylog2.streams.matchers.StreamRuleMatcher;
+import org.graylog2.utilities.DeadlineCharSequence;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.annotation.Nullable;
 import javax.inject.Inject;
 import javax.inject.Provider;
-import java.util.EnumSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Set;
-import java.util.concurrent.Callable;
-import java.util.concurrent.ExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
 
 /**
  * Stream routing engine to select matching streams for a message.
- *
- * This class is NOT thread-safe! Use one instance per thread.
+ * <p>
+ * The stream rules are compiled once per engine instance:
+ * <ul>
+ *     <li>Identical rules (same type, field, value and inversion) of different streams are evaluated only once per
+ *     message and their result is shared.</li>
+ *     <li>{@link StreamRuleType#EXACT EXACT} rules are indexed by field and value, so all of them are resolved with a
+ *     single hash lookup per field.</li>
+ *     <li>{@link StreamRuleType#REGEX REGEX} rules on the same field are combined into one alternation which is used
+ *     as a pre-filter. The single rules only have to be evaluated if the combined pattern matches.</li>
+ *     <li>The rules of every stream are evaluated in the order of their evaluation costs and the evaluation stops as
+ *     soon as the result of the stream is known.</li>
+ * </ul>
+ * The per-message state is kept in reusable, thread-local arrays.
+ * <p>
+ * Regular expressions are evaluated on the calling thread against a {@link DeadlineCharSequence}. If a pattern
+ * doesn't finish within the stream processing timeout, the rule doesn't match and a fault is registered with the
+ * {@link StreamFaultManager} for every stream using it.
  */
 public class StreamRouterEngine {
     private static final Logger LOG = LoggerFactory.getLogger(StreamRouterEngine.class);
 
-    private final EnumSet<StreamRuleType> ruleTypesNotNeedingFieldPresence = EnumSet.of(StreamRuleType.PRESENCE, StreamRuleType.EXACT, StreamRuleType.REGEX, StreamRuleType.ALWAYS_MATCH, StreamRuleType.CONTAINS, StreamRuleType.MATCH_INPUT);
+    // Rules of a stream are evaluated cheapest first
+    private static final ImmutableList<StreamRuleType> RULE_TYPE_ORDER = ImmutableList.of(StreamRuleType.ALWAYS_MATCH,
+            StreamRuleType.PRESENCE, StreamRuleType.EXACT, StreamRuleType.MATCH_INPUT, StreamRuleType.GREATER,
+            StreamRuleType.SMALLER, StreamRuleType.CONTAINS, StreamRuleType.REGEX);
+
+    // Patterns which can't be safely embedded into an alternation: back references (the group numbers change),
+    // quoting (might swallow the closing parenthesis) and comments mode (might comment out the rest of the alternation)
+    private static final Pattern NOT_COMBINABLE_REGEX = Pattern.compile("\\\\[1-9]|\\\\k<|\\\\Q|\\(\\?[a-zA-Z-]*x");
+
+    private static final byte UNKNOWN = 0;
+    private static final byte MATCH = 1;
+    private static final byte NO_MATCH = 2;
+    private static final byte ERROR = 3;
+    private static final byte TIMEOUT = 4;
+
     private final List<Stream> streams;
     private final StreamFaultManager streamFaultManager;
     private final StreamMetrics streamMetrics;
-    private final TimeLimiter timeLimiter;
-    private final long streamProcessingTimeout;
+    private final long streamProcessingTimeoutNanos;
     private final String fingerprint;
     private final Provider<Stream> defaultStreamProvider;
 
-    private final List<Rule> rulesList;
+    private final List<CompiledStream> compiledStreams;
+    private final Condition[] conditions;
+    private final ExactField[] exactFields;
+    private final RegexField[] regexFields;
+    private final ThreadLocal<MatchState> matchState;
 
     public interface Factory {
-        StreamRouterEngine create(List<Stream> streams, ExecutorService executorService);
+        StreamRouterEngine create(List<Stream> streams);
     }
 
     @Inject
     public StreamRouterEngine(@Assisted List<Stream> streams,
-                              @Assisted ExecutorService executorService,
                               StreamFaultManager streamFaultManager,
                               StreamMetrics streamMetrics,
                               @DefaultStream Provider<Stream> defaultStreamProvider) {
         this.streams = streams;
         this.streamFaultManager = streamFaultManager;
         this.streamMetrics = streamMetrics;
-        this.timeLimiter = SimpleTimeLimiter.create(executorService);
-        this.streamProcessingTimeout = streamFaultManager.getStreamProcessingTimeout();
+        this.streamProcessingTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(streamFaultManager.getStreamProcessingTimeout());
         this.fingerprint = new StreamListFingerprint(streams).getFingerprint();
         this.defaultStreamProvider = defaultStreamProvider;
 
-        final List<Rule> alwaysMatchRules = Lists.newArrayList();
-        final List<Rule> presenceRules = Lists.newArrayList();
-        final List<Rule> exactRules = Lists.newArrayList();
-        final List<Rule> greaterRules = Lists.newArrayList();
-        final List<Rule> smallerRules = Lists.newArrayList();
-        final List<Rule> regexRules = Lists.newArrayList();
-        final List<Rule> containsRules = Lists.newArrayList();
-        final List<Rule> matchInputRules = Lists.newArrayList();
+        final Map<ConditionKey, Condition> conditionsByKey = new LinkedHashMap<>();
+        final Map<String, List<Condition>> exactConditionsByField = new LinkedHashMap<>();
+        final Map<String, List<Condition>> regexConditionsByField = new LinkedHashMap<>();
+        final Set<Stream> seenStreams = new HashSet<>();
+        this.compiledStreams = new ArrayList<>(streams.size());
 
         for (Stream stream : streams) {
-            for (StreamRule streamRule : stream.getStreamRules()) {
-                final Rule rule;
-                try {
-                    rule = new Rule(stream, streamRule, stream.getMatchingType());
-                } catch (InvalidStreamRuleTypeException e) {
-                    LOG.warn("Invalid stream rule type. Skipping matching for this rule. " + e.getMessage(), e);
-                    continue;
-                }
-                switch (streamRule.getType()) {
-                    case ALWAYS_MATCH:
-                        alwaysMatchRules.add(rule);
-                        break;
-                    case PRESENCE:
-                        presenceRules.add(rule);
-                        break;
-                    case EXACT:
-                        exactRules.add(rule);
-                        break;
-                    case GREATER:
-                        greaterRules.add(rule);
-                        break;
-                    case SMALLER:
-                        smallerRules.add(rule);
-                        break;
-                    case REGEX:
-                        regexRules.add(rule);
-                        break;
-                    case CONTAINS:
-                        containsRules.add(rule);
-                        break;
-                    case MATCH_INPUT:
-                        matchInputRules.add(rule);
-                        break;
+            if (!seenStreams.add(stream)) {
+                continue;
+            }
+
+            final List<StreamRule> streamRules = new ArrayList<>(stream.getStreamRules());
+            streamRules.sort(Comparator.comparingInt(streamRule -> RULE_TYPE_ORDER.indexOf(streamRule.getType())));
+
+            final List<Condition> streamConditions = new ArrayList<>(streamRules.size());
+            final List<Timer> streamTimers = new ArrayList<>(streamRules.size());
+            for (StreamRule streamRule : streamRules) {
+                final ConditionKey key = new ConditionKey(streamRule);
+                Condition condition = conditionsByKey.get(key);
+                if (condition == null) {
+                    try {
+                        condition = new Condition(conditionsByKey.size(), streamRule);
+                    } catch (InvalidStreamRuleTypeException e) {
+                        LOG.warn("Invalid stream rule type. Skipping matching for this rule. " + e.getMessage(), e);
+                        continue;
+                    }
+                    conditionsByKey.put(key, condition);
+                    if (streamRule.getType() == StreamRuleType.EXACT) {
+                        exactConditionsByField.computeIfAbsent(streamRule.getField(), field -> new ArrayList<>()).add(condition);
+                    } else if (streamRule.getType() == StreamRuleType.REGEX && condition.isCombinable()) {
+                        regexConditionsByField.computeIfAbsent(streamRule.getField(), field -> new ArrayList<>()).add(condition);
+                    }
                 }
+                streamConditions.add(condition);
+                streamTimers.add(streamMetrics.getExecutionTimer(stream.getId(), streamRule.getId()));
+            }
+
+            // Streams without (valid) rules never match
+            if (!streamConditions.isEmpty()) {
+                compiledStreams.add(new CompiledStream(stream, streamConditions, streamTimers));
             }
         }
 
-        final int size = alwaysMatchRules.size() + presenceRules.size() + exactRules.size() + greaterRules.size() + smallerRules.size() + containsRules.size() + regexRules.size() + matchInputRules.size();
-        this.rulesList = Lists.newArrayListWithCapacity(size);
-        this.rulesList.addAll(alwaysMatchRules);
-        this.rulesList.addAll(presenceRules);
-        this.rulesList.addAll(exactRules);
-        this.rulesList.addAll(matchInputRules);
-        this.rulesList.addAll(greaterRules);
-        this.rulesList.addAll(smallerRules);
-        this.rulesList.addAll(containsRules);
-        this.rulesList.addAll(regexRules);
+        this.conditions = conditionsByKey.values().toArray(new Condition[0]);
+
+        final List<ExactField> exactFieldList = new ArrayList<>(exactConditionsByField.size());
+        for (Map.Entry<String, List<Condition>> entry : exactConditionsByField.entrySet()) {
+            final ExactField exactField = new ExactField(entry.getKey(), entry.getValue());
+            for (Condition condition : entry.getValue()) {
+                condition.exactField = exactField;
+            }
+            exactFieldList.add(exactField);
+        }
+        this.exactFields = exactFieldList.toArray(new ExactField[0]);
+
+        final List<RegexField> regexFieldList = new ArrayList<>(regexConditionsByField.size());
+        for (Map.Entry<String, List<Condition>> entry : regexConditionsByField.entrySet()) {
+            // A pre-filter for a single pattern would only add work
+            if (entry.getValue().size() < 2) {
+                continue;
+            }
+            final Pattern combined;
+            try {
+                combined = combinedPattern(entry.getValue());
+            } catch (PatternSyntaxException e) {
+                // e. g. the same named group in multiple patterns
+                LOG.debug("Couldn't combine regular expressions for field <{}>, evaluating them one by one.", entry.getKey(), e);
+                continue;
+            }
+            final RegexField regexField = new RegexField(regexFieldList.size(), entry.getKey(), entry.getValue(), combined);
+            for (Condition condition : entry.getValue()) {
+                condition.regexField = regexField;
+            }
+            regexFieldList.add(regexField);
+        }
+        this.regexFields = regexFieldList.toArray(new RegexField[0]);
+
+        final int conditionCount = conditions.length;
+        final int regexFieldCount = regexFields.length;
+        this.matchState = ThreadLocal.withInitial(() -> new MatchState(conditionCount, regexFieldCount));
+    }
+
+    private static Pattern combinedPattern(List<Condition> regexConditions) {
+        final StringBuilder sb = new StringBuilder();
+        for (Condition condition : regexConditions) {
+            if (sb.length() > 0) {
+                sb.append('|');
+            }
+            sb.append("(?:").append(condition.pattern.pattern()).append(')');
+        }
+        return Pattern.compile(sb.toString(), Pattern.DOTALL);
     }
 
     /**
@@ -166,54 +233,20 @@ public class StreamRouterEngine {
      * @return the list of matching streams
      */
     public List<Stream> match(Message message) {
-        final Set<Stream> result = Sets.newHashSet();
-        final Set<String> blackList = Sets.newHashSet();
-
-        for (final Rule rule : rulesList) {
-            if (blackList.contains(rule.getStreamId())) {
-                continue;
-            }
-
-            final StreamRule streamRule = rule.getStreamRule();
-            final StreamRuleType streamRuleType = streamRule.getType();
-            final Stream.MatchingType matchingType = rule.getMatchingType();
-            if (!ruleTypesNotNeedingFieldPresence.contains(streamRuleType)
-                && !message.hasField(streamRule.getField())) {
-                if (matchingType == Stream.MatchingType.AND) {
-                    result.remove(rule.getStream());
-                    // blacklist stream because it can't match anymore
-                    blackList.add(rule.getStreamId());
-                }
+        final MatchState state = matchState.get();
+        state.reset();
 
+        final ImmutableList.Builder<Stream> result = ImmutableList.builder();
+        final Stream defaultStream = defaultStreamProvider.get();
+        boolean alreadyRemovedDefaultStream = false;
+        for (final CompiledStream compiledStream : compiledStreams) {
+            if (!matches(compiledStream, message, state)) {
                 continue;
             }
 
-            final Stream stream;
-            if (streamRuleType != StreamRuleType.REGEX) {
-                stream = rule.match(message);
-            } else {
-                stream = rule.matchWithTimeOut(message, streamProcessingTimeout, TimeUnit.MILLISECONDS);
-            }
-
-            if (stream == null) {
-                if (matchingType == Stream.MatchingType.AND) {
-                    result.remove(rule.getStream());
-                    // blacklist stream because it can't match anymore
-                    blackList.add(rule.getStreamId());
-                }
-            } else {
-                result.add(stream);
-                if (matchingType == Stream.MatchingType.OR) {
-                    // blacklist stream because it is already matched
-                    blackList.add(rule.getStreamId());
-                }
-            }
-        }
-
-        final Stream defaultStream = defaultStreamProvider.get();
-        boolean alreadyRemovedDefaultStream = false;
-        for (Stream stream : result) {
-            streamMetrics.markIncomingMeter(stream.getId());
+            final Stream stream = compiledStream.stream;
+            result.add(stream);
+            streamMetrics.markIncomingMeter(compiledStream.streamId);
             if (stream.getRemoveMatchesFromDefaultStream()) {
                 if (alreadyRemovedDefaultStream || message.removeStream(defaultStream)) {
                     alreadyRemovedDefaultStream = true;
@@ -233,7 +266,123 @@ public class StreamRouterEngine {
             streamMetrics.markIncomingMeter(defaultStream.getId());
         }
 
-        return ImmutableList.copyOf(result);
+        return result.build();
+    }
+
+    private boolean matches(CompiledStream compiledStream, Message message, MatchState state) {
+        final int[] streamConditions = compiledStream.conditions;
+        for (int i = 0; i < streamConditions.length; i++) {
+            final int conditionId = streamConditions[i];
+            final byte result = state.results[conditionId] == UNKNOWN ? evaluate(conditionId, message, state) : state.results[conditionId];
+            compiledStream.timers[i].update(state.durations[conditionId], TimeUnit.NANOSECONDS);
+
+            final boolean matched;
+            switch (result) {
+                case MATCH:
+                    matched = true;
+                    break;
+                case ERROR:
+                    streamMetrics.markExceptionMeter(compiledStream.streamId);
+                    matched = false;
+                    break;
+                case TIMEOUT:
+                    streamFaultManager.registerFailure(compiledStream.stream);
+                    matched = false;
+                    break;
+                default:
+                    matched = false;
+            }
+
+            if (compiledStream.and != matched) {
+                // AND streams can't match anymore, OR streams are already matched
+                return matched;
+            }
+        }
+        return compiledStream.and;
+    }
+
+    private byte evaluate(int conditionId, Message message, MatchState state) {
+        final Condition condition = conditions[conditionId];
+        final long start = System.nanoTime();
+        if (condition.exactField != null) {
+            evaluateExactField(condition.exactField, message, state, start);
+        } else if (condition.regexField != null && !state.regexFieldsChecked[condition.regexField.id]) {
+            evaluateRegexField(condition.regexField, message, state, start);
+        }
+
+        // The field lookups might have resolved the condition already
+        if (state.results[conditionId] == UNKNOWN) {
+            // The single patterns get their own time budget, independent of the pre-filter
+            final long deadlineNanos = condition.pattern != null ? System.nanoTime() + streamProcessingTimeoutNanos : Long.MAX_VALUE;
+            final byte result = condition.match(message, deadlineNanos);
+            state.results[conditionId] = result;
+            state.durations[conditionId] = System.nanoTime() - start;
+        }
+        return state.results[conditionId];
+    }
+
+    private void evaluateExactField(ExactField exactField, Message message, MatchState state, long start) {
+        final byte[] results = state.results;
+        try {
+            final Object fieldValue = message.getField(exactField.field);
+            // Not equal unless the value is found in the index below
+            for (Condition condition : exactField.conditions) {
+                results[condition.id] = condition.inverted ? MATCH : NO_MATCH;
+            }
+            if (fieldValue != null) {
+                final Condition[] equalConditions = exactField.conditionsByValue.get(fieldValue.toString().trim());
+                if (equalConditions != null) {
+                    for (Condition condition : equalConditions) {
+                        results[condition.id] = condition.inverted ? NO_MATCH : MATCH;
+                    }
+                }
+            }
+        } catch (Exception e) {
+            if (LOG.isDebugEnabled()) {
+                LOG.debug("Error matching stream rules <EXACT/" + exactField.field + ">: " + e.getMessage(), e);
+            }
+            for (Condition condition : exactField.conditions) {
+                results[condition.id] = ERROR;
+            }
+        }
+
+        final long duration = System.nanoTime() - start;
+        for (Condition condition : exactField.conditions) {
+            state.durations[condition.id] = duration;
+        }
+    }
+
+    private void evaluateRegexField(RegexField regexField, Message message, MatchState state, long start) {
+        state.regexFieldsChecked[regexField.id] = true;
+
+        final Object fieldValue = message.getField(regexField.field);
+        final Boolean anyMatch;
+        if (fieldValue == null) {
+            anyMatch = false;
+        } else {
+            anyMatch = find(regexField.combined, fieldValue, start + streamProcessingTimeoutNanos);
+        }
+
+        // If any of the patterns matches (or the pre-filter failed), the conditions are evaluated one by one
+        if (anyMatch == null || anyMatch) {
+            return;
+        }
+
+        final long duration = System.nanoTime() - start;
+        for (Condition condition : regexField.conditions) {
+            state.results[condition.id] = condition.inverted ? MATCH : NO_MATCH;
+            state.durations[condition.id] = duration;
+        }
+    }
+
+    @Nullable
+    private Boolean find(Pattern pattern, Object fieldValue, long deadlineNanos) {
+        try {
+            return pattern.matcher(new DeadlineCharSequence(fieldValue.toString(), deadlineNanos)).find();
+        } catch (Exception e) {
+            LOG.debug("Couldn't evaluate combined regular expression, evaluating the single expressions.", e);
+            return null;
+        }
     }
 
     /**
@@ -304,27 +453,6 @@ public class StreamRouterEngine {
             }
         }
 
-        @Nullable
-        private Stream matchWithTimeOut(final Message message, long timeout, TimeUnit unit) {
-            Stream matchedStream = null;
-            try (final Timer.Context ignored = streamMetrics.getExecutionTimer(streamId, streamRuleId).time()) {
-                matchedStream = timeLimiter.callWithTimeout(new Callable<Stream>() {
-                    @Override
-                    @Nullable
-                    public Stream call() throws Exception {
-                        return match(message);
-                    }
-                }, timeout, unit);
-            } catch (UncheckedTimeoutException e) {
-                streamFaultManager.registerFailure(stream);
-            } catch (Exception e) {
-                LOG.warn("Unexpected error during stream matching", e);
-                streamMetrics.markExceptionMeter(streamId);
-            }
-
-            return matchedStream;
-        }
-
         public StreamRule getStreamRule() {
             return rule;
         }
@@ -338,6 +466,181 @@ public class StreamRouterEngine {
         }
     }
 
+    /**
+     * A stream rule condition, shared by all identical stream rules.
+     */
+    private static class Condition {
+        private final int id;
+        private final StreamRule rule;
+        private final StreamRuleMatcher matcher;
+        private final boolean inverted;
+        // Only set for REGEX rules with a valid pattern
+        @Nullable
+        private final Pattern pattern;
+        @Nullable
+        private ExactField exactField;
+        @Nullable
+        private RegexField regexField;
+
+        private Condition(int id, StreamRule rule) throws InvalidStreamRuleTypeException {
+            this.id = id;
+            this.rule = rule;
+            this.matcher = StreamRuleMatcherFactory.build(rule.getType());
+            this.inverted = Boolean.TRUE.equals(rule.getInverted());
+            this.pattern = rule.getType() == StreamRuleType.REGEX ? compilePattern(rule.getValue()) : null;
+        }
+
+        @Nullable
+        private static Pattern compilePattern(String regex) {
+            try {
+                // Same flags as in RegexMatcher
+                return Pattern.compile(regex, Pattern.DOTALL);
+            } catch (RuntimeException e) {
+                // Invalid patterns are reported on evaluation by the RegexMatcher, like before
+                return null;
+            }
+        }
+
+        private boolean isCombinable() {
+            return pattern != null && !NOT_COMBINABLE_REGEX.matcher(pattern.pattern()).find();
+        }
+
+        /**
+         * @param deadlineNanos the deadline for regular expressions as a {@link System#nanoTime()} value
+         */
+        private byte match(Message message, long deadlineNanos) {
+            try {
+                final boolean matched;
+                if (pattern != null) {
+                    final Object fieldValue = message.getField(rule.getField());
+                    matched = fieldValue == null ? inverted : inverted ^ pattern.matcher(new DeadlineCharSequence(fieldValue.toString(), deadlineNanos)).find();
+                } else {
+                    matched = matcher.match(message, rule);
+                }
+                return matched ? MATCH : NO_MATCH;
+            } catch (DeadlineCharSequence.DeadlineExceededException e) {
+                return TIMEOUT;
+            } catch (Exception e) {
+                if (LOG.isDebugEnabled()) {
+                    LOG.debug("Error matching stream rule <" + rule.getType() + "/" + rule.getValue() + ">: " + e.getMessage(), e);
+                }
+                return ERROR;
+            }
+        }
+    }
+
+    /**
+     * Identity of a stream rule condition. The matchers only use the type, field, value and inversion of a rule.
+     */
+    private static class ConditionKey {
+        private final StreamRuleType type;
+        private final String field;
+        private final String value;
+        private final boolean inverted;
+
+        private ConditionKey(StreamRule rule) {
+            this.type = rule.getType();
+            this.field = rule.getField();
+            this.value = rule.getValue();
+            this.inverted = Boolean.TRUE.equals(rule.getInverted());
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (o == null || getClass() != o.getClass()) {
+                return false;
+            }
+            final ConditionKey that = (ConditionKey) o;
+            return inverted == that.inverted &&
+                    type == that.type &&
+                    Objects.equals(field, that.field) &&
+                    Objects.equals(value, that.value);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(type, field, value, inverted);
+        }
+    }
+
+    /**
+     * All EXACT conditions of a field, indexed by their value.
+     */
+    private static class ExactField {
+        private final String field;
+        private final Condition[] conditions;
+        private final Map<String, Condition[]> conditionsByValue;
+
+        private ExactField(String field, List<Condition> conditions) {
+            this.field = field;
+            this.conditions = conditions.toArray(new Condition[0]);
+
+            final Map<String, List<Condition>> byValue = new HashMap<>();
+            for (Condition condition : conditions) {
+                byValue.computeIfAbsent(condition.rule.getValue(), value -> new ArrayList<>()).add(condition);
+            }
+            this.conditionsByValue = Maps.newHashMapWithExpectedSize(byValue.size());
+            byValue.forEach((value, valueConditions) -> conditionsByValue.put(value, valueConditions.toArray(new Condition[0])));
+        }
+    }
+
+    /**
+     * The REGEX conditions of a field which are combined into a single pre-filter pattern.
+     */
+    private static class RegexField {
+        private final int id;
+        private final String field;
+        private final Condition[] conditions;
+        private final Pattern combined;
+
+        private RegexField(int id, String field, List<Condition> conditions, Pattern combined) {
+            this.id = id;
+            this.field = field;
+            this.conditions = conditions.toArray(new Condition[0]);
+            this.combined = combined;
+        }
+    }
+
+    private static class CompiledStream {
+        private final Stream stream;
+        private final String streamId;
+        // Streams without a matching type behave like OR streams, they match if any rule matches
+        private final boolean and;
+        private final int[] conditions;
+        private final Timer[] timers;
+
+        private CompiledStream(Stream stream, List<Condition> conditions, List<Timer> timers) {
+            this.stream = stream;
+            this.streamId = stream.getId();
+            this.and = stream.getMatchingType() == Stream.MatchingType.AND;
+            this.conditions = conditions.stream().mapToInt(condition -> condition.id).toArray();
+            this.timers = timers.toArray(new Timer[0]);
+        }
+    }
+
+    /**
+     * The per-message evaluation state, reused for all messages of a thread.
+     */
+    private static class MatchState {
+        private final byte[] results;
+        private final long[] durations;
+        private final boolean[] regexFieldsChecked;
+
+        private MatchState(int conditionCount, int regexFieldCount) {
+            this.results = new byte[conditionCount];
+            this.durations = new long[conditionCount];
+            this.regexFieldsChecked = new boolean[regexFieldCount];
+        }
+
+        private void reset() {
+            Arrays.fill(results, UNKNOWN);
+            Arrays.fill(regexFieldsChecked, false);
+        }
+    }
+
     /**
      * Contains matching results for a stream. This is useful for testing to see if a stream matches and which
      * rules matched.
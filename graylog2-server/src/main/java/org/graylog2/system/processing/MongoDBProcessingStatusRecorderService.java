@@ -37,16 +37,13 @@ import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
-import java.util.concurrent.atomic.AtomicReference;
 
 import static com.codahale.metrics.MetricRegistry.name;
-import static org.joda.time.DateTimeZone.UTC;
 
 @Singleton
 public class MongoDBProcessingStatusRecorderService extends AbstractIdleService implements ProcessingStatusRecorder {
     private static final Logger LOG = LoggerFactory.getLogger(MongoDBProcessingStatusRecorderService.class);
 
-    private static final DateTime DEFAULT_RECEIVE_TIME = new DateTime(0L, UTC);
     private static final String READ_MESSAGES_METRIC = name(LocalKafkaJournal.class.getName(),
             LocalKafkaJournal.METER_READ_MESSAGES);
     private static final String WRITTEN_MESSAGES_METRIC = name(LocalKafkaJournal.class.getName(),
@@ -54,9 +51,9 @@ public class MongoDBProcessingStatusRecorderService extends AbstractIdleService
     private static final String UNCOMMITTED_MESSAGES_METRIC = name(LocalKafkaJournal.class.getName(),
             LocalKafkaJournal.GAUGE_UNCOMMITTED_MESSAGES);
 
-    private final AtomicReference<DateTime> ingestReceiveTime = new AtomicReference<>(DEFAULT_RECEIVE_TIME);
-    private final AtomicReference<DateTime> postProcessingReceiveTime = new AtomicReference<>(DEFAULT_RECEIVE_TIME);
-    private final AtomicReference<DateTime> postIndexReceiveTime = new AtomicReference<>(DEFAULT_RECEIVE_TIME);
+    private final ReceiveTimeWatermark ingestReceiveTime = new ReceiveTimeWatermark();
+    private final ReceiveTimeWatermark postProcessingReceiveTime = new ReceiveTimeWatermark();
+    private final ReceiveTimeWatermark postIndexReceiveTime = new ReceiveTimeWatermark();
 
     private final DBProcessingStatusService dbService;
     private final EventBus eventBus;
@@ -98,8 +95,8 @@ public class MongoDBProcessingStatusRecorderService extends AbstractIdleService
             dbService.get().ifPresent(processingStatus -> {
                 LOG.debug("Loaded persisted processing status: {}", processingStatus);
 
-                // Do not directly set the timestamps on the atomic reference to make sure latestTimestamp() is used.
-                // The timestamps could already have been updated once the database call is finished.
+                // Use the regular update methods to only move the watermarks forward. The timestamps could already
+                // have been updated once the database call is finished.
                 final ProcessingStatusDto.ReceiveTimes receiveTimes = processingStatus.receiveTimes();
                 updateIngestReceiveTime(receiveTimes.ingest());
                 updatePostProcessingReceiveTime(receiveTimes.postProcessing());
@@ -189,26 +186,16 @@ public class MongoDBProcessingStatusRecorderService extends AbstractIdleService
 
     @Override
     public void updateIngestReceiveTime(DateTime newTimestamp) {
-        if (newTimestamp != null) {
-            ingestReceiveTime.updateAndGet(timestamp -> latestTimestamp(timestamp, newTimestamp));
-        }
+        ingestReceiveTime.update(newTimestamp);
     }
 
     @Override
     public void updatePostProcessingReceiveTime(DateTime newTimestamp) {
-        if (newTimestamp != null) {
-            postProcessingReceiveTime.updateAndGet(timestamp -> latestTimestamp(timestamp, newTimestamp));
-        }
+        postProcessingReceiveTime.update(newTimestamp);
     }
 
     @Override
     public void updatePostIndexingReceiveTime(DateTime newTimestamp) {
-        if (newTimestamp != null) {
-            postIndexReceiveTime.updateAndGet(timestamp -> latestTimestamp(timestamp, newTimestamp));
-        }
-    }
-
-    private DateTime latestTimestamp(DateTime timestamp, DateTime newTimestamp) {
-        return newTimestamp.isAfter(timestamp) ? newTimestamp : timestamp;
+        postIndexReceiveTime.update(newTimestamp);
     }
 }
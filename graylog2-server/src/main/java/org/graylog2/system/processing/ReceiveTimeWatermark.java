@@ -0,0 +1,46 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog2.system.processing;
+
+import org.joda.time.DateTime;
+
+import javax.annotation.Nullable;
+import java.util.concurrent.atomic.LongAccumulator;
+
+import static org.joda.time.DateTimeZone.UTC;
+
+/**
+ * Keeps the latest receive time recorded by any thread.
+ * <p>
+ * All processor threads update the watermarks for every message. Instead of CAS-updating one shared reference, the
+ * timestamps are accumulated as epoch milliseconds into cells which are striped across threads under contention.
+ * The cells are only merged when the watermark is read, which happens rarely.
+ * </p>
+ */
+class ReceiveTimeWatermark {
+    private final LongAccumulator latestMillis = new LongAccumulator(Math::max, 0L);
+
+    void update(@Nullable DateTime timestamp) {
+        if (timestamp != null) {
+            latestMillis.accumulate(timestamp.getMillis());
+        }
+    }
+
+    DateTime get() {
+        return new DateTime(latestMillis.get(), UTC);
+    }
+}
@@ -0,0 +1,78 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog2.utilities;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A {@link CharSequence} which fails with a {@link DeadlineExceededException} once the given deadline passed.
+ * <p>
+ * Regular expressions read their input through {@link #charAt(int)}, so wrapping the input allows to bound the time of
+ * a (possibly catastrophically backtracking) match on the calling thread, without handing it off to another thread
+ * and interrupting it like with {@link InterruptibleCharSequence}. The clock is only read every
+ * {@value #CHECK_INTERVAL} characters to keep the overhead low.
+ */
+public class DeadlineCharSequence implements CharSequence {
+    private static final int CHECK_INTERVAL = 1024;
+
+    private final CharSequence inner;
+    private final long deadlineNanos;
+    private int reads = 0;
+
+    /**
+     * @param inner         the wrapped character sequence
+     * @param deadlineNanos the deadline as a {@link System#nanoTime()} value
+     */
+    public DeadlineCharSequence(CharSequence inner, long deadlineNanos) {
+        this.inner = inner;
+        this.deadlineNanos = deadlineNanos;
+    }
+
+    public static DeadlineCharSequence withTimeout(CharSequence inner, long timeout, TimeUnit unit) {
+        return new DeadlineCharSequence(inner, System.nanoTime() + unit.toNanos(timeout));
+    }
+
+    @Override
+    public char charAt(int index) {
+        if (++reads % CHECK_INTERVAL == 0 && System.nanoTime() - deadlineNanos > 0) {
+            throw new DeadlineExceededException();
+        }
+        return inner.charAt(index);
+    }
+
+    @Override
+    public int length() {
+        return inner.length();
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end) {
+        return new DeadlineCharSequence(inner.subSequence(start, end), deadlineNanos);
+    }
+
+    @Override
+    public String toString() {
+        return inner.toString();
+    }
+
+    public static class DeadlineExceededException extends RuntimeException {
+        public DeadlineExceededException() {
+            // Thrown on the hot path, a stack trace wouldn't help anyway
+            super("Deadline exceeded", null, false, false);
+        }
+    }
+}
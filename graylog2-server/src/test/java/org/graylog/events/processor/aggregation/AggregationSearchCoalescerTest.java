@@ -0,0 +1,153 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog.events.processor.aggregation;
+
+import com.codahale.metrics.MetricRegistry;
+import com.github.joschi.jadconfig.util.Duration;
+import com.google.common.collect.ImmutableList;
+import org.graylog.events.processor.EventProcessorException;
+import org.graylog.plugins.views.search.SearchJob;
+import org.graylog.plugins.views.search.searchtypes.pivot.buckets.DateRange;
+import org.graylog2.plugin.indexer.searches.timeranges.AbsoluteRange;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.Mockito.mock;
+
+public class AggregationSearchCoalescerTest {
+    private static final AggregationSearchCoalescer.Key KEY = AggregationSearchCoalescer.Key.create(
+            "source:foo", Collections.singleton("stream-1"), Collections.emptySet(), Collections.emptyList(), 60000L);
+
+    private ExecutorService executorService;
+    private MetricRegistry metricRegistry;
+
+    @Before
+    public void setUp() {
+        executorService = Executors.newCachedThreadPool();
+        metricRegistry = new MetricRegistry();
+    }
+
+    @After
+    public void tearDown() {
+        executorService.shutdownNow();
+    }
+
+    @Test
+    public void isDisabledWithoutWindow() {
+        assertThat(new AggregationSearchCoalescer(Duration.milliseconds(0L), metricRegistry).isEnabled()).isFalse();
+        assertThat(new AggregationSearchCoalescer(Duration.milliseconds(100L), metricRegistry).isEnabled()).isTrue();
+    }
+
+    @Test
+    public void sharesSearchBetweenMembersWithEqualKey() throws Exception {
+        final AggregationSearchCoalescer coalescer = new AggregationSearchCoalescer(Duration.seconds(1L), metricRegistry);
+        final SearchJob searchJob = mock(SearchJob.class);
+        final AtomicInteger executions = new AtomicInteger();
+        final List<List<AggregationSearchCoalescer.Member>> batches = Collections.synchronizedList(new ArrayList<>());
+
+        final List<AggregationSearchCoalescer.Member> submitted = new ArrayList<>();
+        final List<Future<AggregationSearchCoalescer.Result>> results = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            final AggregationSearchCoalescer.Member member = member("series-" + i);
+            submitted.add(member);
+            results.add(executorService.submit(() -> coalescer.execute(KEY, member, 10000L, members -> {
+                executions.incrementAndGet();
+                batches.add(members);
+                return searchJob;
+            })));
+        }
+
+        for (final Future<AggregationSearchCoalescer.Result> result : results) {
+            assertThat(result.get().searchJob()).isSameAs(searchJob);
+            assertThat(result.get().isShared()).isTrue();
+        }
+        assertThat(executions.get()).isEqualTo(1);
+        assertThat(batches.get(0)).hasSize(5);
+        for (int i = 0; i < results.size(); i++) {
+            assertThat(batches.get(0).get(results.get(i).get().memberIndex())).isSameAs(submitted.get(i));
+        }
+        assertThat(metricRegistry.histogram(MetricRegistry.name(AggregationSearchCoalescer.class, "batchSize")).getSnapshot().getMax()).isEqualTo(5);
+    }
+
+    @Test
+    public void executesDifferentKeysSeparately() throws Exception {
+        final AggregationSearchCoalescer coalescer = new AggregationSearchCoalescer(Duration.milliseconds(200L), metricRegistry);
+        final AggregationSearchCoalescer.Key otherKey = AggregationSearchCoalescer.Key.create(
+                "source:bar", Collections.singleton("stream-1"), Collections.emptySet(), Collections.emptyList(), 60000L);
+        final AtomicInteger executions = new AtomicInteger();
+
+        final Future<AggregationSearchCoalescer.Result> first = executorService.submit(execute(coalescer, KEY, executions));
+        final Future<AggregationSearchCoalescer.Result> second = executorService.submit(execute(coalescer, otherKey, executions));
+
+        assertThat(first.get().isShared()).isFalse();
+        assertThat(second.get().isShared()).isFalse();
+        assertThat(first.get().searchJob()).isNotSameAs(second.get().searchJob());
+        assertThat(executions.get()).isEqualTo(2);
+    }
+
+    @Test
+    public void propagatesFailureToAllMembers() throws Exception {
+        final AggregationSearchCoalescer coalescer = new AggregationSearchCoalescer(Duration.seconds(1L), metricRegistry);
+
+        final List<Future<AggregationSearchCoalescer.Result>> results = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            final AggregationSearchCoalescer.Member member = member("series-" + i);
+            results.add(executorService.submit(() -> coalescer.execute(KEY, member, 10000L, members -> {
+                throw new EventProcessorException("Boom", false, "event-definition-1");
+            })));
+        }
+
+        for (final Future<AggregationSearchCoalescer.Result> result : results) {
+            assertThatThrownBy(result::get)
+                    .isInstanceOf(ExecutionException.class)
+                    .hasRootCauseInstanceOf(EventProcessorException.class);
+        }
+    }
+
+    private static Callable<AggregationSearchCoalescer.Result> execute(AggregationSearchCoalescer coalescer,
+                                                                       AggregationSearchCoalescer.Key key,
+                                                                       AtomicInteger executions) {
+        return () -> coalescer.execute(key, member("series"), 10000L, members -> {
+            executions.incrementAndGet();
+            return mock(SearchJob.class);
+        });
+    }
+
+    private static AggregationSearchCoalescer.Member member(String seriesId) {
+        final DateTime to = DateTime.now(DateTimeZone.UTC);
+        final DateTime from = to.minusMinutes(1);
+        return AggregationSearchCoalescer.Member.create(
+                ImmutableList.of(AggregationSeries.create(seriesId, AggregationFunction.COUNT, null)),
+                ImmutableList.of(DateRange.create(from, to)),
+                AbsoluteRange.create(from, to));
+    }
+}
@@ -16,7 +16,9 @@
  */
 package org.graylog.events.processor.aggregation;
 
+import com.codahale.metrics.MetricRegistry;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
 import org.graylog.events.EventsConfigurationTestProvider;
 import org.graylog.events.processor.EventDefinition;
 import org.graylog.events.search.MoreSearch;
@@ -24,6 +26,7 @@ import org.graylog.plugins.views.search.db.SearchJobService;
 import org.graylog.plugins.views.search.engine.QueryEngine;
 import org.graylog.plugins.views.search.rest.PermittedStreams;
 import org.graylog.plugins.views.search.searchtypes.pivot.PivotResult;
+import org.graylog.plugins.views.search.searchtypes.pivot.SeriesSpec;
 import org.graylog.plugins.views.search.searchtypes.pivot.buckets.DateRange;
 import org.graylog.plugins.views.search.searchtypes.pivot.buckets.DateRangeBucket;
 import org.graylog2.plugin.indexer.searches.timeranges.AbsoluteRange;
@@ -56,6 +59,8 @@ public class PivotAggregationSearchTest {
     private MoreSearch moreSearch;
 
     private final PermittedStreams permittedStreams = new PermittedStreams(Stream::of);
+    private final AggregationSearchCoalescer coalescer = new AggregationSearchCoalescer(
+            com.github.joschi.jadconfig.util.Duration.milliseconds(0L), new MetricRegistry());
 
     @Test
     public void testExtractValuesWithGroupBy() throws Exception {
@@ -86,7 +91,8 @@ public class PivotAggregationSearchTest {
                 queryEngine,
                 EventsConfigurationTestProvider.create(),
                 moreSearch,
-                permittedStreams);
+                permittedStreams,
+                coalescer);
 
         final String toString = timerange.getTo().toString();
         final PivotResult pivotResult = PivotResult.builder()
@@ -182,7 +188,8 @@ public class PivotAggregationSearchTest {
                 queryEngine,
                 EventsConfigurationTestProvider.create(),
                 moreSearch,
-                permittedStreams);
+                permittedStreams,
+                coalescer);
 
         final PivotResult pivotResult = PivotResult.builder()
                 .id("test")
@@ -253,7 +260,8 @@ public class PivotAggregationSearchTest {
                 queryEngine,
                 EventsConfigurationTestProvider.create(),
                 moreSearch,
-                permittedStreams);
+                permittedStreams,
+                coalescer);
 
         final PivotResult pivotResult = PivotResult.builder()
                 .id("test")
@@ -290,6 +298,93 @@ public class PivotAggregationSearchTest {
                 .build());
     }
 
+    @Test
+    public void testExtractValuesOfSharedSearch() throws Exception {
+        final DateTime now = DateTime.now(DateTimeZone.UTC);
+        final AbsoluteRange timerange = AbsoluteRange.create(now.minusSeconds(60), now);
+        final AggregationSeries seriesCount = AggregationSeries.create("abc123", AggregationFunction.COUNT, "source");
+        final AggregationEventProcessorConfig config = AggregationEventProcessorConfig.builder()
+                .query("")
+                .streams(Collections.emptySet())
+                .groupBy(Collections.emptyList())
+                .series(ImmutableList.of(seriesCount))
+                .conditions(null)
+                .searchWithinMs(60000)
+                .executeEveryMs(60000)
+                .build();
+        final AggregationEventProcessorParameters parameters = AggregationEventProcessorParameters.builder()
+                .streams(Collections.emptySet())
+                .timerange(timerange)
+                .batchSize(500)
+                .build();
+
+        final PivotAggregationSearch pivotAggregationSearch = new PivotAggregationSearch(
+                config,
+                parameters,
+                "test",
+                eventDefinition,
+                searchJobService,
+                queryEngine,
+                EventsConfigurationTestProvider.create(),
+                moreSearch,
+                permittedStreams,
+                coalescer);
+
+        // The shared search contains the bucket of another event definition and the series of another event
+        // definition which uses the same series id. This event definition is the second member of the shared search.
+        final PivotResult pivotResult = PivotResult.builder()
+                .id("test")
+                .effectiveTimerange(AbsoluteRange.create(now.minusSeconds(90), now))
+                .total(1)
+                .addRow(PivotResult.Row.builder()
+                        .key(ImmutableList.of(now.minusSeconds(30).toString()))
+                        .addValue(PivotResult.Value.create(ImmutableList.of("member-1/metric/count/source/abc123"), 23, true, "row-leaf"))
+                        .source("leaf")
+                        .build())
+                .addRow(PivotResult.Row.builder()
+                        .key(ImmutableList.of(now.toString()))
+                        .addValue(PivotResult.Value.create(ImmutableList.of("member-0/metric/count/source/abc123"), 5, true, "row-leaf"))
+                        .addValue(PivotResult.Value.create(ImmutableList.of("member-1/metric/count/source/abc123"), 42, true, "row-leaf"))
+                        .source("leaf")
+                        .build())
+                .build();
+
+        final ImmutableList<AggregationKeyResult> results = pivotAggregationSearch.extractValues(pivotResult,
+                ImmutableSet.of(now.getMillis()), series -> PivotAggregationSearch.sharedSeriesId(1, series));
+
+        assertThat(results).containsExactly(AggregationKeyResult.builder()
+                .timestamp(now)
+                .key(ImmutableList.of())
+                .seriesValues(ImmutableList.of(
+                        AggregationSeriesValue.builder()
+                                .key(ImmutableList.of())
+                                .value(42.0)
+                                .series(seriesCount)
+                                .build()
+                ))
+                .build());
+    }
+
+    @Test
+    public void testSharedSeriesSpecsWithCollidingSeriesIds() {
+        final DateTime now = DateTime.now(DateTimeZone.UTC);
+        final AbsoluteRange timerange = AbsoluteRange.create(now.minusSeconds(60), now);
+        final ImmutableList<DateRange> dateRanges = ImmutableList.of(DateRange.create(timerange.getFrom(), timerange.getTo()));
+        final AggregationSearchCoalescer.Member member1 = AggregationSearchCoalescer.Member.create(
+                ImmutableList.of(AggregationSeries.create("abc123", AggregationFunction.COUNT, "source")), dateRanges, timerange);
+        final AggregationSearchCoalescer.Member member2 = AggregationSearchCoalescer.Member.create(
+                ImmutableList.of(AggregationSeries.create("abc123", AggregationFunction.COUNT, "source"),
+                        AggregationSeries.create("def456", AggregationFunction.MAX, "took_ms")), dateRanges, timerange);
+
+        final ImmutableList<SeriesSpec> seriesSpecs = PivotAggregationSearch.sharedSeriesSpecs(ImmutableList.of(member1, member2));
+
+        assertThat(seriesSpecs).extracting(SeriesSpec::id).containsExactly(
+                "member-0/metric/count/source/abc123",
+                "member-1/metric/count/source/abc123",
+                "member-1/metric/max/took_ms/def456");
+        assertThat(seriesSpecs).extracting(SeriesSpec::type).containsExactly("count", "count", "max");
+    }
+
     @Test
     public void testDateRangeBucketWithOneTumblingWindow() {
         final long processingWindowSize = Duration.standardSeconds(60).getMillis();
@@ -32,6 +32,8 @@ import org.mockito.junit.MockitoRule;
 
 import java.io.IOException;
 import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 
@@ -301,6 +303,32 @@ public class Beats2CodecTest {
         assertThat(message.getField("beat_meta_cloud_availability_zone")).isEqualTo("gz-azone2");
     }
 
+    @Test
+    public void decodeFlattensEventWhileReading() throws Exception {
+        final String json = "{\"count\":1,\"big\":12345678901,\"ratio\":0.5,\"flag\":true," +
+                "\"tags\":[\"a\",1,[\"nested\"],{\"key\":\"value\"}]," +
+                "\"agent\":{\"type\":\"filebeat\"},\"beat\":{\"hostname\":\"old-host\"}," +
+                "\"message\":null,\"@timestamp\":\"2016-04-01T00:00:00.000Z\",\"@metadata\":{\"beat\":\"filebeat\"}}";
+
+        final Message message = codec.decode(new RawMessage(json.getBytes(StandardCharsets.UTF_8)));
+        assertThat(message).isNotNull();
+        assertThat(message.getMessage()).isEqualTo("-");
+        // the agent object takes precedence over the legacy beat object, even without a hostname
+        assertThat(message.getSource()).isEqualTo("unknown");
+        assertThat(message.getTimestamp()).isEqualTo(new DateTime(2016, 4, 1, 0, 0, DateTimeZone.UTC));
+        // the Beats type is only known at the end of the event, but is used as prefix for all fields
+        assertThat(message.getField("beats_type")).isEqualTo("filebeat");
+        assertThat(message.getField("filebeat_count")).isEqualTo(1);
+        assertThat(message.getField("filebeat_big")).isEqualTo(12345678901L);
+        assertThat(message.getField("filebeat_ratio")).isEqualTo(0.5);
+        assertThat(message.getField("filebeat_flag")).isEqualTo(true);
+        assertThat(message.getField("filebeat_tags")).isEqualTo(Arrays.asList("a", 1));
+        assertThat(message.getField("filebeat_tags_3_key")).isEqualTo("value");
+        assertThat(message.getField("filebeat_agent_type")).isEqualTo("filebeat");
+        assertThat(message.getField("filebeat_beat_hostname")).isEqualTo("old-host");
+        assertThat(message.hasField("filebeat_message")).isFalse();
+    }
+
     private RawMessage messageFromJson(String resourceName) throws IOException {
         final URL resource = Resources.getResource(this.getClass(), resourceName);
         final byte[] json = Resources.toByteArray(resource);
@@ -19,6 +19,7 @@ package org.graylog.plugins.beats;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.google.common.collect.ImmutableMap;
 import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
 import io.netty.buffer.Unpooled;
 import io.netty.channel.embedded.EmbeddedChannel;
 import io.netty.handler.logging.LoggingHandler;
@@ -177,6 +178,43 @@ public class BeatsFrameDecoderTest {
                 .containsEntry("answer", 42);
     }
 
+    @Test
+    public void decodeCompressedWindowReceivedInChunks() throws Exception {
+        final byte[] json1 = "{\"answer\": 42}".getBytes(StandardCharsets.UTF_8);
+        final byte[] json2 = "{\"question\": \"unknown\"}".getBytes(StandardCharsets.UTF_8);
+        final ByteBuf innerBuffer = Unpooled.copiedBuffer(
+                buildWindowSizeFrame(2),
+                buildJsonFrame(json1, 1),
+                buildJsonFrame(json2, 2)
+        );
+        final ByteBuf buffer = Unpooled.copiedBuffer(
+                buildWindowSizeFrame(2),
+                buildCompressedFrame(ByteBufUtil.getBytes(innerBuffer), 6)
+        );
+
+        // the decoder has to wait for the rest of the compressed frame
+        while (buffer.isReadable()) {
+            channel.writeInbound(buffer.readRetainedSlice(Math.min(7, buffer.readableBytes())));
+        }
+        channel.finish();
+
+        // only one ACK for the whole window
+        final ByteBuf replyBuffer = channel.readOutbound();
+        assertThat(extractSequenceNumber(replyBuffer)).isEqualTo(2L);
+        assertThat((Object) channel.readOutbound()).isNull();
+
+        final ByteBuf output1 = channel.readInbound();
+        final ByteBuf output2 = channel.readInbound();
+        final Map<String, Object> result1 = objectMapper.readValue(ByteBufUtil.getBytes(output1), TypeReferences.MAP_STRING_OBJECT);
+        final Map<String, Object> result2 = objectMapper.readValue(ByteBufUtil.getBytes(output2), TypeReferences.MAP_STRING_OBJECT);
+        assertThat(result1).containsEntry("answer", 42);
+        assertThat(result2).containsEntry("question", "unknown");
+        assertThat((Object) channel.readInbound()).isNull();
+
+        output1.release();
+        output2.release();
+    }
+
     private ByteBuf buildCompressedFrame(byte[] payload, int compressionLevel) {
         final Deflater deflater = new Deflater(compressionLevel);
         deflater.setInput(payload);
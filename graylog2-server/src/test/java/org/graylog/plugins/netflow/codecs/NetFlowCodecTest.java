@@ -18,9 +18,13 @@ package org.graylog.plugins.netflow.codecs;
 
 import com.google.common.collect.ImmutableMap;
 import com.google.common.io.Resources;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.buffer.Unpooled;
 import org.graylog.plugins.netflow.flows.FlowException;
 import org.graylog2.plugin.Message;
 import org.graylog2.plugin.configuration.Configuration;
+import org.graylog2.plugin.inputs.codecs.CodecAggregator;
 import org.graylog2.plugin.journal.RawMessage;
 import org.junit.Before;
 import org.junit.Rule;
@@ -142,4 +146,45 @@ public class NetFlowCodecTest {
 
         assertThat(codec.decodeMessages(new RawMessage(b, source))).isNull();
     }
-}
\ No newline at end of file
+
+    @Test
+    public void aggregatorBuffersDataFlowsUntilTemplatesArrive() throws Exception {
+        final InetSocketAddress source = new InetSocketAddress(InetAddress.getLocalHost(), 12345);
+
+        final CodecAggregator.Result dataBeforeTemplates = codecAggregator.addChunk(v9Packet("netflow-v9-2-2.dat"), source);
+        assertThat(dataBeforeTemplates.isValid()).isTrue();
+        assertThat(dataBeforeTemplates.getMessage()).isNull();
+
+        // the template packet releases the buffered data packet
+        final CodecAggregator.Result templates = codecAggregator.addChunk(v9Packet("netflow-v9-2-1.dat"), source);
+        assertThat(templates.getMessage()).isNotNull();
+        final byte[] templatesPayload = ByteBufUtil.getBytes(templates.getMessage());
+        assertThat(codec.decodeV9Packets(Unpooled.wrappedBuffer(templatesPayload, 1, templatesPayload.length - 1))).hasSize(2);
+        assertThat(codec.decodeMessages(new RawMessage(templatesPayload, source))).isNotEmpty();
+
+        // data packets after the templates are passed on right away
+        final CodecAggregator.Result dataAfterTemplates = codecAggregator.addChunk(v9Packet("netflow-v9-2-3.dat"), source);
+        assertThat(dataAfterTemplates.getMessage()).isNotNull();
+        final byte[] dataPayload = ByteBufUtil.getBytes(dataAfterTemplates.getMessage());
+        assertThat(codec.decodeV9Packets(Unpooled.wrappedBuffer(dataPayload, 1, dataPayload.length - 1))).hasSize(1);
+        assertThat(codec.decodeMessages(new RawMessage(dataPayload, source))).isNotEmpty();
+    }
+
+    @Test
+    public void aggregatorKeepsTemplatesPerExporter() throws Exception {
+        final InetSocketAddress exporter1 = new InetSocketAddress(InetAddress.getLocalHost(), 12345);
+        final InetSocketAddress exporter2 = new InetSocketAddress(InetAddress.getLocalHost(), 12346);
+
+        assertThat(codecAggregator.addChunk(v9Packet("netflow-v9-2-1.dat"), exporter1).isValid()).isTrue();
+
+        final CodecAggregator.Result otherExporter = codecAggregator.addChunk(v9Packet("netflow-v9-2-2.dat"), exporter2);
+        assertThat(otherExporter.isValid()).isTrue();
+        assertThat(otherExporter.getMessage()).isNull();
+
+        assertThat(codecAggregator.addChunk(v9Packet("netflow-v9-2-2.dat"), exporter1).getMessage()).isNotNull();
+    }
+
+    private static ByteBuf v9Packet(String name) throws Exception {
+        return Unpooled.wrappedBuffer(Resources.toByteArray(Resources.getResource("netflow-data/" + name)));
+    }
+}
@@ -0,0 +1,85 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog.plugins.netflow.codecs;
+
+import com.github.joschi.jadconfig.util.Size;
+import com.google.common.io.Resources;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import org.graylog2.plugin.inputs.codecs.CodecAggregator;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class NetflowV9CodecAggregatorBufferTest {
+    private static final String TEMPLATE_PACKET = "netflow-data/netflow-v9-2-1.dat";
+    private static final String DATA_PACKET = "netflow-data/netflow-v9-2-2.dat";
+    private static final int DATA_PACKET_SIZE = 76;
+
+    private final SocketAddress exporter1 = new InetSocketAddress("127.0.0.1", 10001);
+    private final SocketAddress exporter2 = new InetSocketAddress("127.0.0.1", 10002);
+    private final SocketAddress exporter3 = new InetSocketAddress("127.0.0.1", 10003);
+
+    @Test
+    public void dropsPacketsAboveBufferLimitOfAllExporters() throws IOException {
+        final NetflowV9CodecAggregator aggregator = new NetflowV9CodecAggregator(Size.bytes(2 * DATA_PACKET_SIZE), Size.megabytes(1));
+
+        assertBuffered(aggregator.addChunk(packet(DATA_PACKET), exporter1));
+        assertBuffered(aggregator.addChunk(packet(DATA_PACKET), exporter2));
+        assertThat(aggregator.bufferedBytes()).isEqualTo(2 * DATA_PACKET_SIZE);
+
+        // the budget is used up by the other exporters, the packet is dropped
+        assertBuffered(aggregator.addChunk(packet(DATA_PACKET), exporter3));
+        assertThat(aggregator.bufferedBytes()).isEqualTo(2 * DATA_PACKET_SIZE);
+
+        // the template releases the buffered packet of the first exporter
+        final CodecAggregator.Result result = aggregator.addChunk(packet(TEMPLATE_PACKET), exporter1);
+        assertThat(result.isValid()).isTrue();
+        assertThat(result.getMessage()).isNotNull();
+        assertThat(aggregator.bufferedBytes()).isEqualTo(DATA_PACKET_SIZE);
+
+        assertBuffered(aggregator.addChunk(packet(DATA_PACKET), exporter3));
+        assertThat(aggregator.bufferedBytes()).isEqualTo(2 * DATA_PACKET_SIZE);
+    }
+
+    @Test
+    public void dropsOldestPacketsAboveBufferLimitOfExporter() throws IOException {
+        final NetflowV9CodecAggregator aggregator = new NetflowV9CodecAggregator(Size.megabytes(1), Size.bytes(2 * DATA_PACKET_SIZE));
+
+        for (int i = 0; i < 3; i++) {
+            assertBuffered(aggregator.addChunk(packet(DATA_PACKET), exporter1));
+        }
+        assertThat(aggregator.bufferedBytes()).isEqualTo(2 * DATA_PACKET_SIZE);
+
+        // the other exporters still have their own buffer
+        assertBuffered(aggregator.addChunk(packet(DATA_PACKET), exporter2));
+        assertThat(aggregator.bufferedBytes()).isEqualTo(3 * DATA_PACKET_SIZE);
+    }
+
+    private static void assertBuffered(CodecAggregator.Result result) {
+        assertThat(result.isValid()).isTrue();
+        assertThat(result.getMessage()).isNull();
+    }
+
+    private static ByteBuf packet(String resourceName) throws IOException {
+        return Unpooled.wrappedBuffer(Resources.toByteArray(Resources.getResource(resourceName)));
+    }
+}
@@ -0,0 +1,171 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog.plugins.pipelineprocessor.compiler;
+
+import com.google.common.collect.ImmutableMap;
+import org.graylog.plugins.pipelineprocessor.EvaluationContext;
+import org.graylog.plugins.pipelineprocessor.ast.Rule;
+import org.graylog.plugins.pipelineprocessor.ast.functions.Function;
+import org.graylog.plugins.pipelineprocessor.ast.statements.Statement;
+import org.graylog.plugins.pipelineprocessor.functions.conversion.DoubleConversion;
+import org.graylog.plugins.pipelineprocessor.functions.conversion.LongConversion;
+import org.graylog.plugins.pipelineprocessor.functions.conversion.StringConversion;
+import org.graylog.plugins.pipelineprocessor.functions.messages.HasField;
+import org.graylog.plugins.pipelineprocessor.functions.messages.SetField;
+import org.graylog.plugins.pipelineprocessor.parser.FunctionRegistry;
+import org.graylog.plugins.pipelineprocessor.parser.PipelineRuleParser;
+import org.graylog2.plugin.Message;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class RuleCompilerTest {
+    private PipelineRuleParser parser;
+
+    @Before
+    public void setUp() {
+        final Map<String, Function<?>> functions = ImmutableMap.<String, Function<?>>builder()
+                .put(SetField.NAME, new SetField())
+                .put(HasField.NAME, new HasField())
+                .put(StringConversion.NAME, new StringConversion())
+                .put(LongConversion.NAME, new LongConversion())
+                .put(DoubleConversion.NAME, new DoubleConversion())
+                .build();
+        parser = new PipelineRuleParser(new FunctionRegistry(functions));
+    }
+
+    @Test
+    public void logicalOperatorsAndComparisons() {
+        final String rule = "rule \"r\"\n" +
+                "when has_field(\"num\") && to_long($message.num) > 10 && NOT (to_double($message.ratio) <= 0.5)\n" +
+                "then\n" +
+                "  set_field(\"big\", true);\n" +
+                "end";
+
+        assertSameResult(rule, ImmutableMap.of("num", 42L, "ratio", 0.75d));
+        assertSameResult(rule, ImmutableMap.of("num", 5L, "ratio", 0.75d));
+        assertSameResult(rule, ImmutableMap.of("num", 42L, "ratio", 0.25d));
+        assertSameResult(rule, ImmutableMap.of("ratio", 0.75d));
+    }
+
+    @Test
+    public void equalityAndVariables() {
+        final String rule = "rule \"r\"\n" +
+                "when $message.source == \"source\" || $message.level != 3\n" +
+                "then\n" +
+                "  let v = to_string($message.message) + \"!\";\n" +
+                "  set_field(\"copy\", v);\n" +
+                "  set_field(field: \"level\", value: to_long($message.level) - 1, prefix: \"new_\");\n" +
+                "end";
+
+        assertSameResult(rule, ImmutableMap.of("level", 3L));
+        assertSameResult(rule, ImmutableMap.of("source", "other", "level", 3L));
+        assertSameResult(rule, ImmutableMap.of("source", "other", "level", 4L));
+    }
+
+    @Test
+    public void constantsAreFolded() {
+        final String rule = "rule \"r\"\n" +
+                "when 1 + 2 == 3 && \"a\" != \"b\" && 2.5 > 1.5\n" +
+                "then\n" +
+                "  set_field(\"constant\", true);\n" +
+                "end";
+
+        assertSameResult(rule, ImmutableMap.of());
+    }
+
+    @Test
+    public void nullFieldInEquality() {
+        final String rule = "rule \"r\"\n" +
+                "when $message.missing == \"value\"\n" +
+                "then\n" +
+                "  set_field(\"matched\", true);\n" +
+                "end";
+
+        assertSameResult(rule, ImmutableMap.of());
+    }
+
+    @Test
+    public void evaluationErrorsAreTheSame() {
+        final String rule = "rule \"r\"\n" +
+                "when to_double($message.num * $message.num) > 0.0\n" +
+                "then\n" +
+                "  set_field(\"num_sqr\", $message.num * $message.num);\n" +
+                "end";
+
+        assertSameResult(rule, ImmutableMap.of("num", "ABC"));
+        assertSameResult(rule, ImmutableMap.of("num", 2L));
+    }
+
+    private void assertSameResult(String source, Map<String, Object> fields) {
+        final Rule rule = parser.parseRule(source, false);
+        final CompiledRule compiledRule = RuleCompiler.compile(rule);
+
+        final Result interpreted = evaluate(fields, context -> rule.when().evaluateBool(context), rule.then());
+        final Result compiled = evaluate(fields, compiledRule::evaluateCondition, compiledRule.then());
+
+        assertThat(compiled.matched).isEqualTo(interpreted.matched);
+        assertThat(compiled.conditionError).isEqualTo(interpreted.conditionError);
+        assertThat(compiled.fields).isEqualTo(interpreted.fields);
+        assertThat(compiled.errors).isEqualTo(interpreted.errors);
+    }
+
+    private static Result evaluate(Map<String, Object> fields, Predicate<EvaluationContext> condition, Collection<Statement> statements) {
+        final Map<String, Object> messageFields = new HashMap<>();
+        messageFields.put(Message.FIELD_ID, "b1f3e7a0-0000-0000-0000-000000000000");
+        messageFields.put(Message.FIELD_MESSAGE, "hello test");
+        messageFields.put(Message.FIELD_SOURCE, "source");
+        messageFields.put(Message.FIELD_TIMESTAMP, new DateTime(2021, 1, 1, 0, 0, DateTimeZone.UTC));
+        messageFields.putAll(fields);
+        final Message message = new Message(messageFields);
+        final EvaluationContext context = new EvaluationContext(message);
+        final Result result = new Result();
+        try {
+            result.matched = condition.test(context);
+        } catch (Exception e) {
+            result.conditionError = e.getClass().getName() + ": " + e.getMessage();
+        }
+        if (result.matched) {
+            for (Statement statement : statements) {
+                statement.evaluate(context);
+                if (context.hasEvaluationErrors()) {
+                    break;
+                }
+            }
+        }
+        result.fields = message.getFields();
+        result.errors = context.evaluationErrors().stream().map(Object::toString).collect(Collectors.toList());
+        return result;
+    }
+
+    private static class Result {
+        boolean matched;
+        String conditionError;
+        Map<String, Object> fields;
+        List<String> errors;
+    }
+}
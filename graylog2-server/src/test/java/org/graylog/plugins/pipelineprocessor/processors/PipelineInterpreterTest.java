@@ -393,8 +393,127 @@ public class PipelineInterpreterTest {
         assertThat(actualMessage.getField("2-b")).isNull();
     }
 
-    @SuppressForbidden("Allow using default thread factory")
+    @Test
+    public void testIndependentStagesEvaluatedConcurrently() {
+        final RuleService ruleService = mock(MongoDbRuleService.class);
+        when(ruleService.loadAll()).thenReturn(ImmutableList.of(
+                RULE_SET_FIELD.apply("1-a"),
+                RULE_SET_FIELD.apply("1-b"),
+                RULE_SET_FIELD.apply("2-a"),
+                RULE_SET_FIELD.apply("2-b")
+        ));
+
+        final PipelineService pipelineService = mock(MongoDbPipelineService.class);
+        when(pipelineService.loadAll()).thenReturn(ImmutableList.of(
+                PipelineDao.create("p1", "title1", "description",
+                        "pipeline \"pipeline1\"\n" +
+                                "stage 0 match pass\n" +
+                                "    rule \"1-a\";\n" +
+                                "stage 1 match pass\n" +
+                                "    rule \"1-b\";\n" +
+                                "end\n",
+                        Tools.nowUTC(),
+                        null),
+                PipelineDao.create("p2", "title2", "description",
+                        "pipeline \"pipeline2\"\n" +
+                                "stage 0 match pass\n" +
+                                "    rule \"2-a\";\n" +
+                                "stage 1 match pass\n" +
+                                "    rule \"2-b\";\n" +
+                                "end\n",
+                        Tools.nowUTC(),
+                        null)
+        ));
+
+        final MetricRegistry metricRegistry = new MetricRegistry();
+        final PipelineInterpreter interpreter = createPipelineInterpreter(ruleService, pipelineService,
+                ImmutableMap.of(SetField.NAME, new SetField()),
+                new ConcurrentStageExecutor(true, 2, metricRegistry));
+
+        final Message message = messageInDefaultStream("message", "test");
+        message.addField("existing", "value");
+        final List<Message> processed = extractMessagesFromMessageCollection(interpreter.process(message));
+
+        assertThat(processed).hasSize(1);
+        final Message actualMessage = processed.get(0);
+        assertThat(actualMessage).isSameAs(message);
+        assertThat(actualMessage.getFields()).containsKeys("1-a", "1-b", "2-a", "2-b", "existing");
+        assertThat(metricRegistry.meter(name(PipelineInterpreter.class, "stages", "concurrent")).getCount()).isEqualTo(4L);
+        assertThat(metricRegistry.meter(name(PipelineInterpreter.class, "stages", "serial")).getCount()).isEqualTo(0L);
+    }
+
+    @Test
+    public void testDroppedMessageWillHaltProcessingAfterCurrentStageWithConcurrentStages() {
+        final RuleService ruleService = mock(MongoDbRuleService.class);
+        when(ruleService.loadAll()).thenReturn(ImmutableList.of(
+                RULE_SET_FIELD.apply("1-a"),
+                RULE_SET_FIELD.apply("1-b"),
+                RULE_SET_FIELD.apply("2-a"),
+                RULE_SET_FIELD.apply("2-b"),
+                RULE_DROP_MESSAGE
+        ));
+
+        final PipelineService pipelineService = mock(MongoDbPipelineService.class);
+        when(pipelineService.loadAll()).thenReturn(ImmutableList.of(
+                PipelineDao.create("p1", "title1", "description",
+                        "pipeline \"pipeline1\"\n" +
+                                "stage 0 match pass\n" +
+                                "    rule \"1-a\";\n" +
+                                "    rule \"drop_message\";\n" +
+                                "stage 1 match pass\n" +
+                                "    rule \"1-b\";\n" +
+                                "end\n",
+                        Tools.nowUTC(),
+                        null),
+                PipelineDao.create("p2", "title2", "description",
+                        "pipeline \"pipeline2\"\n" +
+                                "stage 0 match pass\n" +
+                                "    rule \"2-a\";\n" +
+                                "stage 1 match pass\n" +
+                                "    rule \"2-b\";\n" +
+                                "end\n",
+                        Tools.nowUTC(),
+                        null)
+        ));
+
+        final Map<String, Function<?>> functions = ImmutableMap.of(
+                SetField.NAME, new SetField(),
+                DropMessage.NAME, new DropMessage()
+        );
+        final PipelineInterpreter interpreter = createPipelineInterpreter(ruleService, pipelineService, functions,
+                new ConcurrentStageExecutor(true, 2, new MetricRegistry()));
+
+        final Messages processed = interpreter.process(messageInDefaultStream("message", "test"));
+
+        final List<Message> messages = ImmutableList.copyOf(((MessageCollection) processed).source());
+        assertThat(messages).hasSize(1);
+
+        final Message actualMessage = messages.get(0);
+        assertThat(actualMessage.getFilterOut()).isTrue();
+        assertThat(actualMessage.getFieldAs(String.class, "1-a")).isEqualTo("value");
+        assertThat(actualMessage.getFieldAs(String.class, "2-a")).isEqualTo("value");
+        assertThat(actualMessage.getField("1-b")).isNull();
+        assertThat(actualMessage.getField("2-b")).isNull();
+    }
+
     private PipelineInterpreter createPipelineInterpreter(RuleService ruleService, PipelineService pipelineService, Map<String, Function<?>> functions) {
+        return createPipelineInterpreter(ruleService, pipelineService, functions,
+                new ConcurrentStageExecutor(false, 1, new MetricRegistry()));
+    }
+
+    private PipelineInterpreter createPipelineInterpreter(RuleService ruleService,
+                                                          PipelineService pipelineService,
+                                                          Map<String, Function<?>> functions,
+                                                          ConcurrentStageExecutor concurrentStageExecutor) {
+        return createPipelineInterpreter(ruleService, pipelineService, functions, concurrentStageExecutor, false);
+    }
+
+    @SuppressForbidden("Allow using default thread factory")
+    private PipelineInterpreter createPipelineInterpreter(RuleService ruleService,
+                                                          PipelineService pipelineService,
+                                                          Map<String, Function<?>> functions,
+                                                          ConcurrentStageExecutor concurrentStageExecutor,
+                                                          boolean compileRules) {
         final RuleMetricsConfigService ruleMetricsConfigService = mock(RuleMetricsConfigService.class);
         when(ruleMetricsConfigService.get()).thenReturn(RuleMetricsConfigDto.createDefault());
         final PipelineStreamConnectionsService pipelineStreamConnectionsService = mock(MongoDbPipelineStreamConnectionsService.class);
@@ -413,12 +532,13 @@ public class PipelineInterpreterTest {
                 new MetricRegistry(),
                 Executors.newScheduledThreadPool(1),
                 mock(EventBus.class),
-                (currentPipelines, streamPipelineConnections, ruleMetricsConfig) -> new PipelineInterpreter.State(currentPipelines, streamPipelineConnections, ruleMetricsConfig, new MetricRegistry(), 1, true)
+                (currentPipelines, streamPipelineConnections, ruleMetricsConfig) -> new PipelineInterpreter.State(currentPipelines, streamPipelineConnections, ruleMetricsConfig, new MetricRegistry(), 1, true, compileRules)
         );
         return new PipelineInterpreter(
                 messageQueueAcknowledger,
                 new MetricRegistry(),
-                stateUpdater);
+                stateUpdater,
+                concurrentStageExecutor);
     }
 
     @Test
@@ -468,12 +588,13 @@ public class PipelineInterpreterTest {
                 metricRegistry,
                 Executors.newScheduledThreadPool(1),
                 mock(EventBus.class),
-                (currentPipelines, streamPipelineConnections, ruleMetricsConfig) -> new PipelineInterpreter.State(currentPipelines, streamPipelineConnections, ruleMetricsConfig, new MetricRegistry(), 1, true)
+                (currentPipelines, streamPipelineConnections, ruleMetricsConfig) -> new PipelineInterpreter.State(currentPipelines, streamPipelineConnections, ruleMetricsConfig, new MetricRegistry(), 1, true, false)
         );
         final PipelineInterpreter interpreter = new PipelineInterpreter(
                 mock(MessageQueueAcknowledger.class),
                 metricRegistry,
-                stateUpdater);
+                stateUpdater,
+                new ConcurrentStageExecutor(false, 1, metricRegistry));
 
         interpreter.process(messageInDefaultStream("", ""));
 
@@ -564,6 +685,48 @@ public class PipelineInterpreterTest {
                 });
     }
 
+    @Test
+    public void process_compiledRulesReportTheSameErrors() {
+        when(ruleService.loadAll()).thenReturn(ImmutableList.of(RuleDao.create("broken_condition", "broken_condition",
+                "broken_condition",
+                "rule \"broken_condition\"\n" +
+                        "when\n" +
+                        "    to_double($message.num * $message.num) > 0.0\n" +
+                        "then\n" +
+                        "    set_field(\"num_sqr\", $message.num * $message.num);\n" +
+                        "end", null, null)));
+
+        when(pipelineService.loadAll()).thenReturn(Collections.singleton(
+                PipelineDao.create("p1", "title", "description",
+                        "pipeline \"pipeline\"\n" +
+                                "stage 0 match all\n" +
+                                "    rule \"broken_condition\";\n" +
+                                "end\n",
+                        Tools.nowUTC(),
+                        null)
+        ));
+
+        final PipelineInterpreter interpreter = createPipelineInterpreter(ruleService, pipelineService, ImmutableMap.of(
+                SetField.NAME, new SetField(),
+                DoubleConversion.NAME, new DoubleConversion()),
+                new ConcurrentStageExecutor(false, 1, new MetricRegistry()),
+                true);
+
+        final List<Message> failed = extractMessagesFromMessageCollection(interpreter.process(messageWithNumField("ABC")));
+        assertThat(failed).hasOnlyOneElementSatisfying(m -> assertThat(m.processingErrors())
+                .hasOnlyOneElementSatisfying(pe -> {
+                    assertThat(pe.getCause()).isEqualTo(ProcessingFailureCause.RuleConditionEvaluationError);
+                    assertThat(pe.getDetails()).isEqualTo("In call to function 'to_double' at 3:4 an exception was thrown: java.lang.String cannot be cast to java.lang.Double");
+                }));
+
+        // to_double() only accepts doubles for arithmetic results, like in interpreted mode
+        final List<Message> processed = extractMessagesFromMessageCollection(interpreter.process(messageWithNumField(3.0d)));
+        assertThat(processed).hasOnlyOneElementSatisfying(m -> {
+            assertThat(m.processingErrors()).isEmpty();
+            assertThat(m.getField("num_sqr")).isEqualTo(9.0d);
+        });
+    }
+
     @Test
     public void process_ruleStatementEvaluationErrorConvertedIntoMessageProcessingError() throws Exception {
         // given
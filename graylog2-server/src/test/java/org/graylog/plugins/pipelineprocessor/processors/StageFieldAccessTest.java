@@ -0,0 +1,174 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog.plugins.pipelineprocessor.processors;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import org.graylog.plugins.pipelineprocessor.EvaluationContext;
+import org.graylog.plugins.pipelineprocessor.ast.Stage;
+import org.graylog.plugins.pipelineprocessor.ast.functions.AbstractFunction;
+import org.graylog.plugins.pipelineprocessor.ast.functions.FunctionArgs;
+import org.graylog.plugins.pipelineprocessor.ast.functions.FunctionDescriptor;
+import org.graylog.plugins.pipelineprocessor.functions.conversion.StringConversion;
+import org.graylog.plugins.pipelineprocessor.functions.messages.DropMessage;
+import org.graylog.plugins.pipelineprocessor.functions.messages.HasField;
+import org.graylog.plugins.pipelineprocessor.functions.messages.RemoveField;
+import org.graylog.plugins.pipelineprocessor.functions.messages.RenameField;
+import org.graylog.plugins.pipelineprocessor.functions.messages.SetField;
+import org.graylog.plugins.pipelineprocessor.functions.messages.SetFields;
+import org.graylog.plugins.pipelineprocessor.parser.FunctionRegistry;
+import org.graylog.plugins.pipelineprocessor.parser.PipelineRuleParser;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class StageFieldAccessTest {
+    private PipelineRuleParser parser;
+
+    @Before
+    public void setUp() {
+        parser = new PipelineRuleParser(new FunctionRegistry(ImmutableMap.<String, org.graylog.plugins.pipelineprocessor.ast.functions.Function<?>>builder()
+                .put(SetField.NAME, new SetField())
+                .put(SetFields.NAME, new SetFields())
+                .put(HasField.NAME, new HasField())
+                .put(RemoveField.NAME, new RemoveField())
+                .put(RenameField.NAME, new RenameField())
+                .put(DropMessage.NAME, new DropMessage())
+                .put(StringConversion.NAME, new StringConversion())
+                .put(PluginFunction.NAME, new PluginFunction())
+                .build()));
+    }
+
+    @Test
+    public void collectsConstantFieldAccess() {
+        final StageFieldAccess access = analyze(
+                "rule \"r1\"\n" +
+                        "when has_field(\"a\") && to_string($message.b) == \"x\"\n" +
+                        "then\n" +
+                        "  let v = to_string($message.c);\n" +
+                        "  set_field(field: \"d\", value: v, prefix: \"p_\");\n" +
+                        "  remove_field(\"e\");\n" +
+                        "  rename_field(\"f\", \"g\");\n" +
+                        "  drop_message();\n" +
+                        "end");
+
+        assertThat(access.isIsolatable()).isTrue();
+        assertThat(access.readsAll()).isFalse();
+        assertThat(access.writesAll()).isFalse();
+        assertThat(access.reads()).containsExactlyInAnyOrder("a", "b", "c", "f");
+        assertThat(access.writes()).containsExactlyInAnyOrder("p_d", "e", "f", "g");
+    }
+
+    @Test
+    public void dynamicFieldNamesAccessAllFields() {
+        final StageFieldAccess access = analyze(
+                "rule \"r1\"\n" +
+                        "when true\n" +
+                        "then\n" +
+                        "  set_field(to_string($message.name), \"value\");\n" +
+                        "end");
+
+        assertThat(access.isIsolatable()).isTrue();
+        assertThat(access.writesAll()).isTrue();
+        assertThat(access.reads()).containsExactly("name");
+    }
+
+    @Test
+    public void pluginFunctionsAreNotIsolatable() {
+        final StageFieldAccess access = analyze(
+                "rule \"r1\"\n" +
+                        "when true\n" +
+                        "then\n" +
+                        "  plugin_function();\n" +
+                        "end");
+
+        assertThat(access.isIsolatable()).isFalse();
+    }
+
+    @Test
+    public void conflicts() {
+        final StageFieldAccess writesA = analyze(setField("a"));
+        final StageFieldAccess writesB = analyze(setField("b"));
+        final StageFieldAccess readsA = analyze(
+                "rule \"reads a\"\n" +
+                        "when has_field(\"a\")\n" +
+                        "then\n" +
+                        "end");
+        final StageFieldAccess writesAll = analyze(
+                "rule \"writes all\"\n" +
+                        "when true\n" +
+                        "then\n" +
+                        "  set_fields({ a: \"1\" });\n" +
+                        "end");
+        final StageFieldAccess noAccess = analyze(
+                "rule \"no access\"\n" +
+                        "when true\n" +
+                        "then\n" +
+                        "end");
+
+        assertThat(writesA.conflictsWith(writesB)).isFalse();
+        assertThat(writesA.conflictsWith(writesA)).isTrue();
+        assertThat(writesA.conflictsWith(readsA)).isTrue();
+        // the earlier stage reading a field doesn't see later writes in serial order either
+        assertThat(readsA.conflictsWith(writesA)).isFalse();
+        assertThat(writesAll.conflictsWith(readsA)).isTrue();
+        assertThat(writesAll.conflictsWith(noAccess)).isFalse();
+        assertThat(readsA.conflictsWith(writesAll)).isFalse();
+    }
+
+    private static String setField(String field) {
+        return "rule \"set " + field + "\"\n" +
+                "when true\n" +
+                "then\n" +
+                "  set_field(\"" + field + "\", \"value\");\n" +
+                "end";
+    }
+
+    private StageFieldAccess analyze(String... rules) {
+        final Stage stage = Stage.builder()
+                .stage(0)
+                .match(Stage.Match.ALL)
+                .ruleReferences(ImmutableList.of())
+                .build();
+        stage.setRules(Arrays.stream(rules)
+                .map(rule -> parser.parseRule(rule, false))
+                .collect(Collectors.toList()));
+        return StageFieldAccess.of(stage);
+    }
+
+    private static class PluginFunction extends AbstractFunction<Void> {
+        static final String NAME = "plugin_function";
+
+        @Override
+        public Void evaluate(FunctionArgs args, EvaluationContext context) {
+            return null;
+        }
+
+        @Override
+        public FunctionDescriptor<Void> descriptor() {
+            return FunctionDescriptor.<Void>builder()
+                    .name(NAME)
+                    .returnType(Void.class)
+                    .params(ImmutableList.of())
+                    .build();
+        }
+    }
+}
@@ -26,7 +26,7 @@ public class StateTest {
     @Test
     public void testMetricName() {
         final PipelineInterpreter.State state = new PipelineInterpreter.State(null, null, null,
-                new LocalMetricRegistry(), 1, false);
+                new LocalMetricRegistry(), 1, false, false);
         assertEquals("org.graylog.plugins.pipelineprocessor.processors.PipelineInterpreter.stage-cache",
                 state.getStageCacheMetricName());
     }
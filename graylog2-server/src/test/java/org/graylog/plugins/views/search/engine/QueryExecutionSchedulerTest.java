@@ -0,0 +1,125 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog.plugins.views.search.engine;
+
+import com.codahale.metrics.MetricRegistry;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static com.codahale.metrics.MetricRegistry.name;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class QueryExecutionSchedulerTest {
+    private final MetricRegistry metricRegistry = new MetricRegistry();
+
+    @Test
+    public void rejectsQueriesIfQueueIsFull() throws Exception {
+        final QueryExecutionScheduler scheduler = new QueryExecutionScheduler(1, 1, 0, 0, metricRegistry);
+        final CountDownLatch release = new CountDownLatch(1);
+
+        final CompletableFuture<String> running = scheduler.submit("job-1", "user", () -> await(release, "running"));
+        final CompletableFuture<String> queued = scheduler.submit("job-1", "user", () -> "queued");
+        final CompletableFuture<String> rejected = scheduler.submit("job-1", "user", () -> "rejected");
+
+        assertThatThrownBy(rejected::join).hasCauseInstanceOf(RejectedExecutionException.class);
+        assertThat(metricRegistry.meter(name(QueryEngine.class, "rejected")).getCount()).isEqualTo(1);
+
+        release.countDown();
+        assertThat(running.get(10, TimeUnit.SECONDS)).isEqualTo("running");
+        assertThat(queued.get(10, TimeUnit.SECONDS)).isEqualTo("queued");
+        assertThat(metricRegistry.timer(name(QueryEngine.class, "execution-time")).getCount()).isEqualTo(2);
+    }
+
+    @Test
+    public void limitsConcurrentQueriesPerSearchJob() throws Exception {
+        final QueryExecutionScheduler scheduler = new QueryExecutionScheduler(4, 10, 1, 0, metricRegistry);
+        final CountDownLatch release = new CountDownLatch(1);
+
+        final CompletableFuture<String> first = scheduler.submit("job-1", "user", () -> await(release, "first"));
+        final CompletableFuture<String> second = scheduler.submit("job-1", "user", () -> "second");
+        final CompletableFuture<String> otherJob = scheduler.submit("job-2", "user", () -> "other");
+
+        assertThat(otherJob.get(10, TimeUnit.SECONDS)).isEqualTo("other");
+        assertThat(second).isNotDone();
+        assertThat(scheduler.getPending()).isEqualTo(1);
+
+        release.countDown();
+        assertThat(first.get(10, TimeUnit.SECONDS)).isEqualTo("first");
+        assertThat(second.get(10, TimeUnit.SECONDS)).isEqualTo("second");
+    }
+
+    @Test
+    public void limitsConcurrentQueriesPerOwner() throws Exception {
+        final QueryExecutionScheduler scheduler = new QueryExecutionScheduler(4, 10, 0, 1, metricRegistry);
+        final CountDownLatch release = new CountDownLatch(1);
+
+        final CompletableFuture<String> first = scheduler.submit("job-1", "user", () -> await(release, "first"));
+        final CompletableFuture<String> second = scheduler.submit("job-2", "user", () -> "second");
+        final CompletableFuture<String> otherUser = scheduler.submit("job-3", "other-user", () -> "other");
+
+        assertThat(otherUser.get(10, TimeUnit.SECONDS)).isEqualTo("other");
+        assertThat(second).isNotDone();
+
+        release.countDown();
+        assertThat(first.get(10, TimeUnit.SECONDS)).isEqualTo("first");
+        assertThat(second.get(10, TimeUnit.SECONDS)).isEqualTo("second");
+    }
+
+    @Test
+    public void servesOwnersRoundRobin() throws Exception {
+        final QueryExecutionScheduler scheduler = new QueryExecutionScheduler(1, 10, 0, 0, metricRegistry);
+        final CountDownLatch release = new CountDownLatch(1);
+        final List<String> executed = Collections.synchronizedList(new ArrayList<>());
+
+        final CompletableFuture<String> blocking = scheduler.submit("job-0", "system", () -> await(release, "blocking"));
+        final List<CompletableFuture<String>> futures = new ArrayList<>();
+        futures.add(scheduler.submit("job-1", "dashboard-user", () -> record(executed, "dashboard-1")));
+        futures.add(scheduler.submit("job-1", "dashboard-user", () -> record(executed, "dashboard-2")));
+        futures.add(scheduler.submit("job-1", "dashboard-user", () -> record(executed, "dashboard-3")));
+        futures.add(scheduler.submit("job-2", "event-processor", () -> record(executed, "event-processor")));
+
+        release.countDown();
+        blocking.get(10, TimeUnit.SECONDS);
+        for (final CompletableFuture<String> future : futures) {
+            future.get(10, TimeUnit.SECONDS);
+        }
+
+        assertThat(executed).containsExactly("dashboard-1", "event-processor", "dashboard-2", "dashboard-3");
+    }
+
+    private static String await(CountDownLatch latch, String result) {
+        try {
+            latch.await(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return result;
+    }
+
+    private static String record(List<String> executed, String result) {
+        executed.add(result);
+        return result;
+    }
+}
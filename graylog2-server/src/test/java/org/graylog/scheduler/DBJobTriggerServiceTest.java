@@ -500,6 +500,111 @@ public class DBJobTriggerServiceTest {
         assertThat(dbJobTriggerService.nextRunnableTrigger()).isEmpty();
     }
 
+    @Test
+    public void nextRunnableTriggers() {
+        // No triggers yet
+        assertThat(dbJobTriggerService.nextRunnableTriggers(2)).isEmpty();
+
+        final JobTriggerDto trigger1 = dbJobTriggerService.create(JobTriggerDto.Builder.create(clock)
+                .jobDefinitionId("abc-123")
+                .nextTime(clock.nowUTC().plusSeconds(11))
+                .schedule(IntervalJobSchedule.builder()
+                        .interval(1)
+                        .unit(TimeUnit.SECONDS)
+                        .build())
+                .build());
+
+        final JobTriggerDto trigger2 = dbJobTriggerService.create(JobTriggerDto.Builder.create(clock)
+                .jobDefinitionId("abc-123")
+                .nextTime(clock.nowUTC().plusSeconds(10))
+                .schedule(IntervalJobSchedule.builder()
+                        .interval(1)
+                        .unit(TimeUnit.SECONDS)
+                        .build())
+                .build());
+
+        final JobTriggerDto trigger3 = dbJobTriggerService.create(JobTriggerDto.Builder.create(clock)
+                .jobDefinitionId("abc-123")
+                .nextTime(clock.nowUTC().plusSeconds(12))
+                .schedule(IntervalJobSchedule.builder()
+                        .interval(1)
+                        .unit(TimeUnit.SECONDS)
+                        .build())
+                .build());
+
+        final JobTriggerDto trigger4 = dbJobTriggerService.create(JobTriggerDto.Builder.create(clock)
+                .jobDefinitionId("abc-123")
+                .nextTime(clock.nowUTC().plusSeconds(30))
+                .schedule(IntervalJobSchedule.builder()
+                        .interval(1)
+                        .unit(TimeUnit.SECONDS)
+                        .build())
+                .build());
+
+        // First try is empty because the next time of the triggers is in the future
+        assertThat(dbJobTriggerService.nextRunnableTriggers(2)).isEmpty();
+
+        clock.plus(20, TimeUnit.SECONDS);
+
+        // The batch contains the triggers with the oldest next time, ordered by next time
+        assertThat(dbJobTriggerService.nextRunnableTriggers(2))
+                .extracting(JobTriggerDto::id)
+                .containsExactly(trigger2.id(), trigger1.id());
+        assertThat(dbJobTriggerService.get(trigger2.id())).get().satisfies(trigger -> {
+            assertThat(trigger.status()).isEqualTo(JobTriggerStatus.RUNNING);
+            assertThat(trigger.triggeredAt()).isPresent().get().isEqualTo(clock.nowUTC());
+            assertThat(trigger.lock().owner()).isEqualTo(NODE_ID);
+            assertThat(trigger.lock().lastLockTime()).isEqualTo(clock.nowUTC());
+        });
+
+        // Already locked triggers are not locked again, even if the clock didn't move
+        assertThat(dbJobTriggerService.nextRunnableTriggers(2))
+                .extracting(JobTriggerDto::id)
+                .containsExactly(trigger3.id());
+
+        assertThat(dbJobTriggerService.nextRunnableTriggers(2)).isEmpty();
+
+        clock.plus(20, TimeUnit.SECONDS);
+
+        assertThat(dbJobTriggerService.nextRunnableTriggers(2))
+                .extracting(JobTriggerDto::id)
+                .containsExactly(trigger4.id());
+    }
+
+    @Test
+    public void nextRunnableTriggersSkipsExcludedJobDefinitions() {
+        final JobTriggerDto saturated1 = createTrigger("saturated-job", 10);
+        final JobTriggerDto saturated2 = createTrigger("saturated-job", 11);
+        final JobTriggerDto other = createTrigger("other-job", 12);
+
+        clock.plus(20, TimeUnit.SECONDS);
+
+        // The older triggers of the excluded job definition don't take the slots of the batch
+        assertThat(dbJobTriggerService.nextRunnableTriggers(2, ImmutableSet.of("saturated-job")))
+                .extracting(JobTriggerDto::id)
+                .containsExactly(other.id());
+        assertThat(dbJobTriggerService.nextRunnableTriggers(1, ImmutableSet.of("saturated-job"))).isEmpty();
+        assertThat(dbJobTriggerService.get(saturated1.id())).get().satisfies(trigger -> {
+            assertThat(trigger.status()).isEqualTo(JobTriggerStatus.RUNNABLE);
+            assertThat(trigger.lock().owner()).isNull();
+        });
+
+        assertThat(dbJobTriggerService.nextRunnableTriggers(2, ImmutableSet.of()))
+                .extracting(JobTriggerDto::id)
+                .containsExactly(saturated1.id(), saturated2.id());
+    }
+
+    private JobTriggerDto createTrigger(String jobDefinitionId, int nextTimeSeconds) {
+        return dbJobTriggerService.create(JobTriggerDto.Builder.create(clock)
+                .jobDefinitionId(jobDefinitionId)
+                .nextTime(clock.nowUTC().plusSeconds(nextTimeSeconds))
+                .schedule(IntervalJobSchedule.builder()
+                        .interval(1)
+                        .unit(TimeUnit.SECONDS)
+                        .build())
+                .build());
+    }
+
     @Test
     @MongoDBFixtures("job-triggers.json")
     public void nextRunnableTriggerWithEndTime() {
@@ -17,18 +17,33 @@
 package org.graylog.scheduler;
 
 import com.codahale.metrics.MetricRegistry;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import org.bson.types.ObjectId;
+import org.graylog.events.JobSchedulerTestClock;
 import org.graylog.scheduler.eventbus.JobSchedulerEventBus;
+import org.graylog.scheduler.schedule.IntervalJobSchedule;
 import org.graylog.scheduler.worker.JobWorkerPool;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
-import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.Spy;
 import org.mockito.junit.jupiter.MockitoExtension;
 
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
 
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anySet;
+import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.BDDMockito.given;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 
@@ -49,18 +64,146 @@ class JobExecutionEngineTest {
     private Map<String, Job.Factory> jobFactory;
     @Mock
     private JobWorkerPool workerPool;
+    @Mock
+    private JobDefinitionConfig jobDefinitionConfig;
     @Spy
     private MetricRegistry metricRegistry = new MetricRegistry();
 
-    @InjectMocks
-    private JobExecutionEngine underTest;
+    private final JobSchedulerTestClock clock = new JobSchedulerTestClock(DateTime.now(DateTimeZone.UTC));
+
+    private JobExecutionEngine createEngine(int lockBatchSize, Map<String, Integer> concurrencyLimits) {
+        return new JobExecutionEngine(jobTriggerService, jobDefinitionService, eventBus, scheduleStrategies,
+                jobTriggerUpdatesFactory, jobFactory, workerPool, metricRegistry, lockBatchSize, concurrencyLimits);
+    }
 
     @Test
     void updateLockedJobsOnlyIfSomeJobWorkersRun() {
+        final JobExecutionEngine underTest = createEngine(10, ImmutableMap.of());
+
         underTest.updateLockedJobs();
         given(workerPool.anySlotsUsed()).willReturn(true);
         underTest.updateLockedJobs();
 
         verify(jobTriggerService, times(1)).updateLockedJobTriggers();
     }
+
+    @Test
+    void locksTriggerBatchBoundedByFreeSlots() {
+        final JobExecutionEngine underTest = createEngine(10, ImmutableMap.of());
+        final JobTriggerDto trigger1 = trigger("job-1");
+        final JobTriggerDto trigger2 = trigger("job-1");
+
+        given(workerPool.hasFreeSlots()).willReturn(true);
+        given(workerPool.freeSlots()).willReturn(3);
+        given(jobTriggerService.nextRunnableTriggers(3, ImmutableSet.of())).willReturn(ImmutableList.of(trigger1, trigger2));
+        given(jobDefinitionService.streamByIds(anySet())).willReturn(Stream.of(jobDefinition("job-1")));
+        given(workerPool.execute(any())).willReturn(true);
+
+        assertThat(underTest.execute()).isTrue();
+
+        verify(workerPool, times(2)).execute(any());
+        verify(jobTriggerService, never()).releaseTrigger(any(), any());
+    }
+
+    @Test
+    void defersTriggersOfJobTypesAtConcurrencyLimit() {
+        final JobExecutionEngine underTest = createEngine(10, ImmutableMap.of("test-job", 1));
+        final JobTriggerDto trigger1 = trigger("job-1");
+        final JobTriggerDto trigger2 = trigger("job-1");
+
+        given(workerPool.hasFreeSlots()).willReturn(true);
+        given(workerPool.freeSlots()).willReturn(5);
+        given(jobTriggerService.nextRunnableTriggers(5, ImmutableSet.of())).willReturn(ImmutableList.of(trigger1, trigger2));
+        given(jobDefinitionService.streamByIds(anySet())).willReturn(Stream.of(jobDefinition("job-1")));
+        given(jobDefinitionConfig.type()).willReturn("test-job");
+        // The submitted job never runs, so the slot of the job type stays in use
+        given(workerPool.execute(any())).willReturn(true);
+
+        assertThat(underTest.execute()).isTrue();
+
+        verify(workerPool, times(1)).execute(any());
+        verify(jobTriggerService).releaseTrigger(trigger2, JobTriggerUpdate.withNextTime(trigger2.nextTime()));
+        assertThat(metricRegistry.counter(MetricRegistry.name(JobExecutionEngine.class, "executions", "deferred")).getCount()).isEqualTo(1);
+    }
+
+    @Test
+    void releasesTriggerIfWorkerPoolRejectsIt() {
+        final JobExecutionEngine underTest = createEngine(1, ImmutableMap.of("test-job", 1));
+        final JobTriggerDto trigger = trigger("job-1");
+
+        given(workerPool.hasFreeSlots()).willReturn(true);
+        given(workerPool.freeSlots()).willReturn(5);
+        given(jobTriggerService.nextRunnableTriggers(1, ImmutableSet.of())).willReturn(ImmutableList.of(trigger));
+        given(jobDefinitionService.streamByIds(anySet()))
+                .willReturn(Stream.of(jobDefinition("job-1")))
+                .willReturn(Stream.of(jobDefinition("job-1")));
+        given(jobDefinitionConfig.type()).willReturn("test-job");
+        given(workerPool.execute(any())).willReturn(false).willReturn(true);
+
+        assertThat(underTest.execute()).isFalse();
+        verify(jobTriggerService).releaseTrigger(trigger, JobTriggerUpdate.withNextTime(trigger.nextTime()));
+
+        // The slot of the job type has been freed again
+        assertThat(underTest.execute()).isTrue();
+    }
+
+    @Test
+    void skipsTriggersOfSaturatedJobTypes() {
+        final JobExecutionEngine underTest = createEngine(10, ImmutableMap.of("limited-job", 1));
+        final JobDefinitionConfig limitedConfig = mock(JobDefinitionConfig.class);
+        final JobDefinitionConfig unlimitedConfig = mock(JobDefinitionConfig.class);
+        given(limitedConfig.type()).willReturn("limited-job");
+        given(unlimitedConfig.type()).willReturn("unlimited-job");
+        final JobTriggerDto limitedTrigger1 = trigger("limited-1");
+        final JobTriggerDto limitedTrigger2 = trigger("limited-2");
+        final JobTriggerDto unlimitedTrigger = trigger("unlimited-1");
+
+        given(workerPool.hasFreeSlots()).willReturn(true);
+        given(workerPool.freeSlots()).willReturn(5);
+        // The submitted jobs never run, so the slot of the limited job type stays in use
+        given(workerPool.execute(any())).willReturn(true);
+
+        // The first batch only contains the older triggers of the limited job type
+        given(jobTriggerService.nextRunnableTriggers(5, ImmutableSet.of())).willReturn(ImmutableList.of(limitedTrigger1, limitedTrigger2));
+        given(jobDefinitionService.streamByIds(ImmutableSet.of("limited-1", "limited-2")))
+                .willReturn(Stream.of(jobDefinition("limited-1", limitedConfig), jobDefinition("limited-2", limitedConfig)));
+
+        assertThat(underTest.execute()).isTrue();
+        verify(workerPool, times(1)).execute(any());
+        verify(jobTriggerService).releaseTrigger(limitedTrigger2, JobTriggerUpdate.withNextTime(limitedTrigger2.nextTime()));
+
+        // Now the limited job type is saturated and its triggers are not locked again
+        given(jobDefinitionService.getIdsByType(ImmutableSet.of("limited-job"))).willReturn(ImmutableSet.of("limited-1", "limited-2"));
+        given(jobTriggerService.nextRunnableTriggers(5, ImmutableSet.of("limited-1", "limited-2"))).willReturn(ImmutableList.of(unlimitedTrigger));
+        given(jobDefinitionService.streamByIds(ImmutableSet.of("unlimited-1"))).willReturn(Stream.of(jobDefinition("unlimited-1", unlimitedConfig)));
+
+        assertThat(underTest.execute()).isTrue();
+        verify(workerPool, times(2)).execute(any());
+        verify(jobTriggerService, never()).releaseTrigger(eq(unlimitedTrigger), any());
+        assertThat(metricRegistry.counter(MetricRegistry.name(JobExecutionEngine.class, "executions", "deferred")).getCount()).isEqualTo(1);
+    }
+
+    private JobTriggerDto trigger(String jobDefinitionId) {
+        return JobTriggerDto.Builder.create(clock)
+                .id(new ObjectId().toHexString())
+                .jobDefinitionId(jobDefinitionId)
+                .schedule(IntervalJobSchedule.builder()
+                        .interval(1)
+                        .unit(TimeUnit.SECONDS)
+                        .build())
+                .build();
+    }
+
+    private JobDefinitionDto jobDefinition(String id) {
+        return jobDefinition(id, jobDefinitionConfig);
+    }
+
+    private JobDefinitionDto jobDefinition(String id, JobDefinitionConfig config) {
+        return JobDefinitionDto.builder()
+                .id(id)
+                .title("Test")
+                .description("Test")
+                .config(config)
+                .build();
+    }
 }
@@ -0,0 +1,51 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog.scheduler;
+
+import com.github.joschi.jadconfig.ParameterException;
+import com.google.common.collect.ImmutableMap;
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.assertj.core.api.Assertions.entry;
+
+class JobSchedulerConfigurationTest {
+    private final JobSchedulerConfiguration.ConcurrencyLimitsConverter converter = new JobSchedulerConfiguration.ConcurrencyLimitsConverter();
+
+    @Test
+    void convertsConcurrencyLimits() {
+        assertThat(converter.convertFrom("")).isEmpty();
+        assertThat(converter.convertFrom(" event-processor-execution-v1 : 3, notification-execution-v1:2 ,"))
+                .containsExactly(
+                        entry("event-processor-execution-v1", 3),
+                        entry("notification-execution-v1", 2));
+        assertThat(converter.convertTo(ImmutableMap.of("a", 1, "b", 2))).isEqualTo("a:1,b:2");
+    }
+
+    @Test
+    void rejectsInvalidConcurrencyLimits() {
+        assertThatThrownBy(() -> converter.convertFrom("event-processor-execution-v1"))
+                .isInstanceOf(ParameterException.class);
+        assertThatThrownBy(() -> converter.convertFrom("event-processor-execution-v1:many"))
+                .isInstanceOf(ParameterException.class);
+        assertThatThrownBy(() -> converter.convertFrom("event-processor-execution-v1:0"))
+                .isInstanceOf(ParameterException.class);
+        assertThatThrownBy(() -> converter.convertFrom(":1"))
+                .isInstanceOf(ParameterException.class);
+    }
+}
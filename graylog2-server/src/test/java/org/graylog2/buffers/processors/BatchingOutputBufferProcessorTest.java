@@ -0,0 +1,123 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog2.buffers.processors;
+
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import org.graylog2.Configuration;
+import org.graylog2.outputs.OutputRouter;
+import org.graylog2.plugin.Message;
+import org.graylog2.plugin.ServerStatus;
+import org.graylog2.plugin.Tools;
+import org.graylog2.plugin.buffers.MessageEvent;
+import org.graylog2.plugin.outputs.MessageOutput;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnit;
+import org.mockito.junit.MockitoRule;
+
+import java.util.Collections;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class BatchingOutputBufferProcessorTest {
+    @Rule
+    public final MockitoRule mockitoRule = MockitoJUnit.rule();
+
+    @Mock
+    private ServerStatus serverStatus;
+    @Mock
+    private OutputRouter outputRouter;
+    @Mock
+    private MessageOutput defaultOutput;
+    @Mock
+    private MessageOutput batchStreamOutput;
+    @Mock
+    private MessageOutput singleStreamOutput;
+
+    private BatchingOutputBufferProcessor processor;
+
+    @Before
+    public void setUp() {
+        when(serverStatus.getDetailedMessageRecordingStrategy()).thenReturn(ServerStatus.MessageDetailRecordingStrategy.NEVER);
+        when(defaultOutput.isRunning()).thenReturn(true);
+        when(defaultOutput.supportsBatchWrite()).thenReturn(true);
+        when(batchStreamOutput.isRunning()).thenReturn(true);
+        when(batchStreamOutput.supportsBatchWrite()).thenReturn(true);
+        when(singleStreamOutput.isRunning()).thenReturn(true);
+
+        processor = new BatchingOutputBufferProcessor(new Configuration(), new MetricRegistry(), serverStatus,
+                outputRouter, defaultOutput, 0, 2);
+    }
+
+    @Test
+    public void dispatchesOwnedMessagesAtEndOfBatch() throws Exception {
+        final Message first = message();
+        final Message second = message();
+        final Message notOwned = message();
+        when(outputRouter.getStreamOutputsForMessage(first)).thenReturn(ImmutableSet.of(batchStreamOutput, singleStreamOutput));
+        when(outputRouter.getStreamOutputsForMessage(second)).thenReturn(ImmutableSet.of(batchStreamOutput));
+
+        final MessageEvent firstEvent = event(first);
+        processor.onEvent(firstEvent, 0, false);
+        processor.onEvent(event(notOwned), 1, false);
+
+        verify(defaultOutput, never()).write(anyList());
+
+        final MessageEvent secondEvent = event(second);
+        processor.onEvent(secondEvent, 2, true);
+
+        verify(defaultOutput).write(ImmutableList.of(first, second));
+        verify(batchStreamOutput).write(ImmutableList.of(first, second));
+        verify(singleStreamOutput).write(first);
+        verify(singleStreamOutput, never()).write(anyList());
+        verify(outputRouter, never()).getStreamOutputsForMessage(notOwned);
+        assertThat(firstEvent.getMessage()).isNull();
+        assertThat(secondEvent.getMessage()).isNull();
+    }
+
+    @Test
+    public void skipsStoppedOutputs() throws Exception {
+        final Message message = message();
+        when(batchStreamOutput.isRunning()).thenReturn(false);
+        when(outputRouter.getStreamOutputsForMessage(message)).thenReturn(Collections.singleton(batchStreamOutput));
+
+        processor.onEvent(event(message), 0, true);
+
+        verify(defaultOutput).write(Collections.singletonList(message));
+        verify(batchStreamOutput, never()).write(any(Message.class));
+        verify(batchStreamOutput, never()).write(anyList());
+    }
+
+    private static Message message() {
+        return new Message("message", "source", Tools.nowUTC());
+    }
+
+    private static MessageEvent event(Message message) {
+        final MessageEvent event = new MessageEvent();
+        event.setMessage(message);
+        return event;
+    }
+}
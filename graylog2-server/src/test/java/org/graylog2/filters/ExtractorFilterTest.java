@@ -84,7 +84,7 @@ class ExtractorFilterTest {
     private Extractor buildExceptionalExtractor() {
         final Extractor extractor = mock(Extractor.class);
         lenient().when(extractor.getOrder()).thenReturn(1L);
-        lenient().doThrow(new RuntimeException("EIEIO!")).when(extractor).runExtractor(any());
+        lenient().doThrow(new RuntimeException("EIEIO!")).when(extractor).runExtractor(any(), any());
         return extractor;
     }
 }
@@ -0,0 +1,142 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog2.filters;
+
+import com.google.common.collect.ImmutableList;
+import org.graylog2.plugin.inputs.Extractor;
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.lenient;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+class ExtractorPlanTest {
+    @Test
+    void evaluatesSharedConditionOncePerValue() {
+        final Extractor first = extractor("message", Extractor.ConditionType.STRING, "foo");
+        final Extractor second = extractor("message", Extractor.ConditionType.STRING, "foo");
+        final ExtractorPlan plan = ExtractorPlan.compile(ImmutableList.of(first, second));
+
+        assertThat(plan.getSharedConditionCount()).isEqualTo(1);
+
+        final Extractor.ConditionMatcher matcher = plan.conditionMatcher();
+        final String value = "foo bar";
+        assertThat(matcher.matches(first, value)).isTrue();
+        assertThat(matcher.matches(second, value)).isTrue();
+
+        verify(first, times(1)).matchesCondition(value);
+        verify(second, times(0)).matchesCondition(any());
+    }
+
+    @Test
+    void reevaluatesConditionAfterValueChanged() {
+        final Extractor first = extractor("message", Extractor.ConditionType.REGEX, "^foo");
+        final Extractor second = extractor("message", Extractor.ConditionType.REGEX, "^foo");
+        final ExtractorPlan plan = ExtractorPlan.compile(ImmutableList.of(first, second));
+
+        final Extractor.ConditionMatcher matcher = plan.conditionMatcher();
+        matcher.matches(first, "foo bar");
+        // a previous extractor cut the source field
+        matcher.matches(second, "bar");
+
+        verify(first).matchesCondition("foo bar");
+        verify(second).matchesCondition("bar");
+    }
+
+    @Test
+    void doesNotShareDifferentConditionsOrFields() {
+        final Extractor first = extractor("message", Extractor.ConditionType.STRING, "foo");
+        final Extractor otherValue = extractor("message", Extractor.ConditionType.STRING, "bar");
+        final Extractor otherField = extractor("source", Extractor.ConditionType.STRING, "foo");
+        final Extractor noCondition = extractor("message", Extractor.ConditionType.NONE, "");
+        final ExtractorPlan plan = ExtractorPlan.compile(ImmutableList.of(first, otherValue, otherField, noCondition));
+
+        assertThat(plan.getSharedConditionCount()).isZero();
+        assertThat(plan.getExtractors()).containsExactly(first, otherValue, otherField, noCondition);
+
+        final Extractor.ConditionMatcher matcher = plan.conditionMatcher();
+        final String value = "foo";
+        matcher.matches(first, value);
+        matcher.matches(otherValue, value);
+        matcher.matches(otherField, value);
+
+        verify(first).matchesCondition(value);
+        verify(otherValue).matchesCondition(value);
+        verify(otherField).matchesCondition(value);
+    }
+
+    @Test
+    void skipsRegexConditionsIfCombinedPatternDoesNotMatch() {
+        final Extractor first = extractor("message", Extractor.ConditionType.REGEX, "^foo");
+        final Extractor second = extractor("message", Extractor.ConditionType.REGEX, "bar$");
+        final Extractor third = extractor("message", Extractor.ConditionType.REGEX, "bar$");
+        final ExtractorPlan plan = ExtractorPlan.compile(ImmutableList.of(first, second, third));
+
+        assertThat(plan.getRegexPreFilterCount()).isEqualTo(1);
+
+        final Extractor.ConditionMatcher matcher = plan.conditionMatcher();
+        final String value = "baz";
+        assertThat(matcher.matches(first, value)).isFalse();
+        assertThat(matcher.matches(second, value)).isFalse();
+        assertThat(matcher.matches(third, value)).isFalse();
+
+        verify(first, never()).matchesCondition(any());
+        verify(second, never()).matchesCondition(any());
+        verify(third, never()).matchesCondition(any());
+    }
+
+    @Test
+    void evaluatesSingleRegexConditionsIfCombinedPatternMatches() {
+        final Extractor first = extractor("message", Extractor.ConditionType.REGEX, "^foo");
+        final Extractor second = extractor("message", Extractor.ConditionType.REGEX, "bar$");
+        final ExtractorPlan plan = ExtractorPlan.compile(ImmutableList.of(first, second));
+
+        final Extractor.ConditionMatcher matcher = plan.conditionMatcher();
+        final String value = "foo baz";
+        assertThat(matcher.matches(first, value)).isTrue();
+        matcher.matches(second, value);
+
+        verify(first).matchesCondition(value);
+        verify(second).matchesCondition(value);
+    }
+
+    @Test
+    void doesNotCombineSingleOrUncombinableRegexConditions() {
+        final Extractor single = extractor("message", Extractor.ConditionType.REGEX, "^foo");
+        final Extractor otherField = extractor("source", Extractor.ConditionType.REGEX, "^bar");
+        final Extractor backReference = extractor("source", Extractor.ConditionType.REGEX, "(a)\\1");
+        final Extractor duplicateGroup = extractor("level", Extractor.ConditionType.REGEX, "(?<level>\\d)");
+        final Extractor sameGroup = extractor("level", Extractor.ConditionType.REGEX, "(?<level>\\w)");
+        final ExtractorPlan plan = ExtractorPlan.compile(ImmutableList.of(single, otherField, backReference, duplicateGroup, sameGroup));
+
+        assertThat(plan.getRegexPreFilterCount()).isZero();
+        assertThat(plan.conditionMatcher().matches(single, "baz")).isTrue();
+    }
+
+    private static Extractor extractor(String sourceField, Extractor.ConditionType conditionType, String conditionValue) {
+        final Extractor extractor = mock(Extractor.class);
+        lenient().when(extractor.getSourceField()).thenReturn(sourceField);
+        lenient().when(extractor.getConditionType()).thenReturn(conditionType);
+        lenient().when(extractor.getConditionValue()).thenReturn(conditionValue);
+        lenient().when(extractor.matchesCondition(any())).thenReturn(true);
+        return extractor;
+    }
+}
@@ -0,0 +1,66 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog2.indexer.messages;
+
+import com.codahale.metrics.Meter;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.collect.ImmutableMap;
+import org.junit.Test;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doCallRealMethod;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class EncodedDocumentTest {
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final Meter invalidTimestampMeter = new Meter();
+
+    @Test
+    public void serializesOnlyOnce() throws Exception {
+        final Indexable message = mock(Indexable.class);
+        when(message.toElasticSearchObject(any(), any())).thenReturn(ImmutableMap.of("message", "hello"));
+        doCallRealMethod().when(message).writeElasticSearchDocument(any(), any(), any());
+        final EncodedDocument encodedDocument = new EncodedDocument(message);
+
+        final byte[] first = encodedDocument.body(objectMapper, invalidTimestampMeter);
+        final byte[] second = encodedDocument.body(objectMapper, invalidTimestampMeter);
+
+        assertThat(new String(first, UTF_8)).isEqualTo("{\"message\":\"hello\"}");
+        assertThat(second).isSameAs(first);
+        verify(message, times(1)).toElasticSearchObject(any(), any());
+    }
+
+    @Test
+    public void requestsForDifferentIndexSetsCanShareDocument() {
+        final Indexable message = mock(Indexable.class);
+        final EncodedDocument encodedDocument = new EncodedDocument(message);
+
+        final IndexingRequest first = IndexingRequest.create(mock(org.graylog2.indexer.IndexSet.class), message, encodedDocument);
+        final IndexingRequest second = IndexingRequest.create(mock(org.graylog2.indexer.IndexSet.class), message, encodedDocument);
+        final IndexingRequest standalone = IndexingRequest.create(first.indexSet(), message);
+
+        assertThat(second.encodedDocument()).isSameAs(first.encodedDocument());
+        assertThat(standalone.encodedDocument()).isNotSameAs(first.encodedDocument());
+        // The cached document doesn't take part in equality
+        assertThat(standalone).isEqualTo(first);
+    }
+}
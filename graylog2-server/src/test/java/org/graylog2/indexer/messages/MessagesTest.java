@@ -116,6 +116,28 @@ public class MessagesTest {
         verify(trafficAccounting, times(1)).addSystemTraffic(82);
     }
 
+    @Test
+    @SuppressWarnings("unchecked")
+    public void bulkIndexingSharesEncodedDocumentAcrossIndexSets() throws IOException {
+        when(messagesAdapter.bulkIndex(any())).thenReturn(Collections.emptyList());
+        final Message message1 = messageWithSize(17);
+        final Message message2 = messageWithSize(23);
+        final List<Map.Entry<IndexSet, Message>> messageList = ImmutableList.of(
+                createMessageListEntry(mock(IndexSet.class), message1),
+                createMessageListEntry(mock(IndexSet.class), message1),
+                createMessageListEntry(mock(IndexSet.class), message2)
+        );
+
+        messages.bulkIndex(messageList);
+
+        final ArgumentCaptor<List<IndexingRequest>> requestsCaptor = ArgumentCaptor.forClass(List.class);
+        verify(messagesAdapter).bulkIndex(requestsCaptor.capture());
+        final List<IndexingRequest> requests = requestsCaptor.getValue();
+        assertThat(requests).hasSize(3);
+        assertThat(requests.get(0).encodedDocument()).isSameAs(requests.get(1).encodedDocument());
+        assertThat(requests.get(2).encodedDocument()).isNotSameAs(requests.get(0).encodedDocument());
+    }
+
     @Test
     public void bulkIndexRequests_allNonIndexBlockErrorsPropagatedToTheFailureSubmissionService() throws Exception {
         // given
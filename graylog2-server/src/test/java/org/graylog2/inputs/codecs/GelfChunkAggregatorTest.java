@@ -20,7 +20,9 @@ import com.codahale.metrics.Metric;
 import com.codahale.metrics.MetricFilter;
 import com.codahale.metrics.MetricRegistry;
 import io.netty.buffer.ByteBuf;
+import io.netty.buffer.CompositeByteBuf;
 import io.netty.buffer.Unpooled;
+import io.netty.buffer.UnpooledByteBufAllocator;
 import org.graylog2.plugin.InstantMillisProvider;
 import org.graylog2.plugin.inputs.codecs.CodecAggregator;
 import org.joda.time.DateTime;
@@ -34,7 +36,7 @@ import org.junit.Test;
 import org.mockito.junit.MockitoJUnit;
 import org.mockito.junit.MockitoRule;
 
-import java.util.concurrent.ConcurrentSkipListSet;
+import java.nio.charset.StandardCharsets;
 import java.util.concurrent.ScheduledThreadPoolExecutor;
 
 import static org.assertj.core.api.Assertions.assertThat;
@@ -259,44 +261,101 @@ public class GelfChunkAggregatorTest {
     }
 
     @Test
-    public void testChunkEntryCompareTo() throws Exception {
-        // Test if the ChunkEntry#compareTo() method can handle ChunkEntry objects which have the same timestamp.
-        // See: https://github.com/Graylog2/graylog2-server/issues/1462
+    public void copiesChunkPayloadsIntoRightSizedBuffers() {
+        final UnpooledByteBufAllocator allocator = new UnpooledByteBufAllocator(false);
+        final byte[] messageId = generateMessageId(1);
+        // the receive buffers of the transport are much larger than the datagrams
+        final ByteBuf chunk1 = createChunk(allocator.heapBuffer(8192), messageId, (byte) 0, (byte) 2, "foo".getBytes(StandardCharsets.UTF_8));
+        final ByteBuf chunk2 = createChunk(allocator.heapBuffer(8192), messageId, (byte) 1, (byte) 2, "bar".getBytes(StandardCharsets.UTF_8));
+
+        assertNull(aggregator.addChunk(chunk2).getMessage());
+        // the pending chunk doesn't hold on to the receive buffer
+        assertThat(chunk2.refCnt()).isEqualTo(1);
+        assertThat(allocator.metric().usedHeapMemory()).isEqualTo(2 * 8192 + 3);
+
+        final ByteBuf message = aggregator.addChunk(chunk1).getMessage();
+
+        assertThat(message).isInstanceOf(CompositeByteBuf.class);
+        assertThat(message.toString(StandardCharsets.UTF_8)).isEqualTo("foobar");
+        chunk1.setByte(12, 'g');
+        assertThat(message.toString(StandardCharsets.UTF_8)).isEqualTo("foobar");
+        assertThat(chunk1.refCnt()).isEqualTo(1);
+
+        assertThat(message.release()).isTrue();
+        assertThat(allocator.metric().usedHeapMemory()).isEqualTo(2 * 8192);
+    }
 
-        final ConcurrentSkipListSet<GelfChunkAggregator.ChunkEntry> sortedEvictionSet = new ConcurrentSkipListSet<>();
-        final long currentTime = System.currentTimeMillis();
+    @Test
+    public void passesUnchunkedMessagesWithoutCopying() {
+        final ByteBuf buffer = Unpooled.copiedBuffer("{\"short_message\":\"foo\"}", StandardCharsets.UTF_8);
 
-        for (int i = 0; i < 10; i++) {
-            sortedEvictionSet.add(new GelfChunkAggregator.ChunkEntry(1, currentTime, "a" + i));
-        }
+        final CodecAggregator.Result result = aggregator.addChunk(buffer);
 
-        final int size = sortedEvictionSet.size();
+        assertTrue(result.isValid());
+        assertThat(result.getMessage().toString(StandardCharsets.UTF_8)).isEqualTo("{\"short_message\":\"foo\"}");
+        assertThat(buffer.refCnt()).isEqualTo(2);
+        result.getMessage().release();
+        assertThat(buffer.refCnt()).isEqualTo(1);
+    }
 
-        for (int i = 0; i < size; i++) {
-            sortedEvictionSet.remove(sortedEvictionSet.first());
-        }
+    @Test
+    public void releasesDuplicateAndExpiredChunks() {
+        final DateTime initialTime = new DateTime(2014, 1, 1, 1, 59, 59, 0, DateTimeZone.UTC);
+        final InstantMillisProvider clock = new InstantMillisProvider(initialTime);
+        DateTimeUtils.setCurrentMillisProvider(clock);
+
+        poolExecutor = mock(ScheduledThreadPoolExecutor.class);
+        aggregator = new GelfChunkAggregator(poolExecutor, metricRegistry);
+        final GelfChunkAggregator.ChunkEvictionTask evictionTask = aggregator.new ChunkEvictionTask();
 
-        assertTrue("eviction set should be empty", sortedEvictionSet.isEmpty());
+        final UnpooledByteBufAllocator allocator = new UnpooledByteBufAllocator(false);
+        final byte[] messageId = generateMessageId(1);
+        final ByteBuf chunk = createChunk(allocator.heapBuffer(28), messageId, (byte) 0, (byte) 2, new byte[16]);
+        final ByteBuf duplicate = createChunk(allocator.heapBuffer(28), messageId, (byte) 0, (byte) 2, new byte[16]);
+
+        assertNull(aggregator.addChunk(chunk).getMessage());
+        assertNull(aggregator.addChunk(duplicate).getMessage());
+        // only the copy of the first chunk is kept
+        assertThat(allocator.metric().usedHeapMemory()).isEqualTo(2 * 28 + 16);
+
+        clock.tick(Period.seconds(10));
+        evictionTask.run();
+
+        assertThat(allocator.metric().usedHeapMemory()).isEqualTo(2 * 28);
+        assertEquals(1, counterValueNamed(metricRegistry, EXPIRED_MESSAGES));
+        assertEquals(0, counterValueNamed(metricRegistry, WAITING_MESSAGES));
+    }
+
+    @Test
+    public void rejectsInvalidSequenceNumber() {
+        final ByteBuf chunk = createChunk(generateMessageId(1), (byte) 2, (byte) 2, new byte[16]);
+
+        final CodecAggregator.Result result = aggregator.addChunk(chunk);
+
+        assertFalse(result.isValid());
+        assertNull(result.getMessage());
+        assertThat(chunk.refCnt()).isEqualTo(1);
+        assertEquals(0, counterValueNamed(metricRegistry, WAITING_MESSAGES));
     }
 
     @Test
     public void testChunkEntryEquals() throws Exception {
-        final GelfChunkAggregator.ChunkEntry entry = new ChunkEntry(1, 0L, "id");
+        final GelfChunkAggregator.ChunkEntry entry = new ChunkEntry(1, 0L, 42L);
 
-        assertThat(entry).isEqualTo(new ChunkEntry(1, 0L, "id"));
-        assertThat(entry).isEqualTo(new ChunkEntry(2, 0L, "id"));
-        assertThat(entry).isNotEqualTo(new ChunkEntry(1, 1L, "id"));
-        assertThat(entry).isNotEqualTo(new ChunkEntry(1, 0L, "foo"));
+        assertThat(entry).isEqualTo(new ChunkEntry(1, 0L, 42L));
+        assertThat(entry).isEqualTo(new ChunkEntry(2, 0L, 42L));
+        assertThat(entry).isNotEqualTo(new ChunkEntry(1, 1L, 42L));
+        assertThat(entry).isNotEqualTo(new ChunkEntry(1, 0L, 23L));
     }
 
     @Test
     public void testChunkEntryHashCode() throws Exception {
-        final GelfChunkAggregator.ChunkEntry entry = new ChunkEntry(1, 0L, "id");
+        final GelfChunkAggregator.ChunkEntry entry = new ChunkEntry(1, 0L, 42L);
 
-        assertThat(entry.hashCode()).isEqualTo(new ChunkEntry(1, 0L, "id").hashCode());
-        assertThat(entry.hashCode()).isEqualTo(new ChunkEntry(2, 0L, "id").hashCode());
-        assertThat(entry.hashCode()).isNotEqualTo(new ChunkEntry(1, 1L, "id").hashCode());
-        assertThat(entry.hashCode()).isNotEqualTo(new ChunkEntry(1, 0L, "foo").hashCode());
+        assertThat(entry.hashCode()).isEqualTo(new ChunkEntry(1, 0L, 42L).hashCode());
+        assertThat(entry.hashCode()).isEqualTo(new ChunkEntry(2, 0L, 42L).hashCode());
+        assertThat(entry.hashCode()).isNotEqualTo(new ChunkEntry(1, 1L, 42L).hashCode());
+        assertThat(entry.hashCode()).isNotEqualTo(new ChunkEntry(1, 0L, 23L).hashCode());
     }
 
     private ByteBuf[] createChunkedMessage(int messageSize, int maxChunkSize) {
@@ -329,8 +388,10 @@ public class GelfChunkAggregatorTest {
     }
 
     private ByteBuf createChunk(byte[] messageId, byte sequenceNumber, byte sequenceCount, byte[] payload) {
-        final ByteBuf channelBuffer = Unpooled.buffer(payload.length + 12);
+        return createChunk(Unpooled.buffer(payload.length + 12), messageId, sequenceNumber, sequenceCount, payload);
+    }
 
+    private ByteBuf createChunk(ByteBuf channelBuffer, byte[] messageId, byte sequenceNumber, byte sequenceCount, byte[] payload) {
         channelBuffer.writeBytes(CHUNK_MAGIC_BYTES);
         channelBuffer.writeBytes(messageId);
         channelBuffer.writeByte(sequenceNumber);
@@ -30,6 +30,7 @@ import org.mockito.Mock;
 import org.mockito.junit.MockitoJUnit;
 import org.mockito.junit.MockitoRule;
 
+import java.math.BigInteger;
 import java.net.InetSocketAddress;
 import java.nio.charset.StandardCharsets;
 import java.time.DateTimeException;
@@ -414,4 +415,70 @@ public class GelfCodecTest {
         assertThat(message).isNotNull();
         assertThat(message.getTimestamp()).isEqualTo(DateTime.parse("2017-07-21T14:23:00.661Z"));
     }
+
+    @Test
+    public void decodeUsesLastValueOfDuplicateKeys() throws Exception {
+        final String json = "{"
+                + "\"host\": \"example.org\","
+                + "\"short_message\": \"first\","
+                + "\"_foo\": \"first\","
+                + "\"foo\": \"other\","
+                + "\"short_message\": \"second\","
+                + "\"_foo\": \"second\""
+                + "}";
+        final RawMessage rawMessage = new RawMessage(json.getBytes(StandardCharsets.UTF_8));
+
+        final Message message = codec.decode(rawMessage);
+        assertThat(message).isNotNull();
+        assertThat(message.getMessage()).isEqualTo("second");
+        // "_foo" comes first in the document, so it wins over "foo" even though its value was replaced later
+        assertThat(message.getField("foo")).isEqualTo("second");
+    }
+
+    @Test
+    public void decodeConvertsAdditionalFieldValues() throws Exception {
+        final String json = "{"
+                + "\"host\": \"example.org\","
+                + "\"short_message\": \"A short message\","
+                + "\"line\": \"42\","
+                + "\"level\": 3.7,"
+                + "\"_int\": 1,"
+                + "\"_big\": 123456789012345678901234567890,"
+                + "\"_double\": 1.5,"
+                + "\"_object\": {\"a\": [1, 2.5, \"b\", null], \"c\": {}},"
+                + "\"_array\": [],"
+                + "\"_bool\": true,"
+                + "\"_null\": null"
+                + "}";
+        final RawMessage rawMessage = new RawMessage(json.getBytes(StandardCharsets.UTF_8));
+
+        final Message message = codec.decode(rawMessage);
+        assertThat(message).isNotNull();
+        assertThat(message.getField("line")).isEqualTo(42L);
+        assertThat(message.getField("level")).isEqualTo(3);
+        assertThat(message.getField("int")).isEqualTo(1L);
+        assertThat(message.getField("big")).isEqualTo(new BigInteger("123456789012345678901234567890").longValue());
+        assertThat(message.getField("double")).isEqualTo(1.5d);
+        assertThat(message.getField("object")).isEqualTo("{\"a\":[1,2.5,\"b\",null],\"c\":{}}");
+        assertThat(message.getField("array")).isEqualTo("[]");
+        assertThat(message.hasField("bool")).isFalse();
+        assertThat(message.hasField("null")).isFalse();
+    }
+
+    @Test
+    public void decodeFailsWithNonObjectDocument() throws Exception {
+        final RawMessage rawMessage = new RawMessage("[\"foo\", \"bar\"]".getBytes(StandardCharsets.UTF_8));
+
+        assertThatIllegalArgumentException().isThrownBy(() -> codec.decode(rawMessage))
+                .withMessageEndingWith("is missing mandatory \"short_message\" or \"message\" field.");
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void decodeFailsWithTruncatedDocument() throws Exception {
+        final String json = "{"
+                + "\"host\": \"example.org\","
+                + "\"short_message\": \"A short message\","
+                + "\"_object\": {\"a\": 1";
+        codec.decode(new RawMessage(json.getBytes(StandardCharsets.UTF_8)));
+    }
 }
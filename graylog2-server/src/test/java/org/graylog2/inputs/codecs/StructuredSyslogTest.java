@@ -19,8 +19,9 @@ package org.graylog2.inputs.codecs;
 import com.codahale.metrics.MetricRegistry;
 import com.codahale.metrics.Timer;
 import com.google.common.collect.ImmutableMap;
+import org.graylog2.inputs.codecs.syslog.SyslogEvent;
+import org.graylog2.inputs.codecs.syslog.SyslogParser;
 import org.graylog2.plugin.configuration.Configuration;
-import org.graylog2.syslog4j.server.impl.event.structured.StructuredSyslogServerEvent;
 import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
@@ -28,7 +29,6 @@ import org.mockito.Mock;
 import org.mockito.junit.MockitoJUnit;
 import org.mockito.junit.MockitoRule;
 
-import java.net.InetSocketAddress;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
@@ -69,8 +69,8 @@ public class StructuredSyslogTest {
         syslogCodec = new SyslogCodec(configuration, metricRegistry);
     }
 
-    private StructuredSyslogServerEvent newEvent(String message) {
-        return new StructuredSyslogServerEvent(message, new InetSocketAddress(514).getAddress());
+    private SyslogEvent newEvent(String message) {
+        return SyslogParser.parseStructured(message);
     }
 
     @Test
@@ -98,7 +98,7 @@ public class StructuredSyslogTest {
 
     @Test
     public void testExtractFieldsWithoutExpansion() {
-        // Order is not guaranteed in the current syslog4j implementation!
+        // The order of the structured data elements is not guaranteed!
         Map<String, Object> result = syslogCodec.extractFields(newEvent(ValidStructuredMultiMessageSameKey), false);
         assertTrue("iut value is not 3 or 10!", Pattern.compile("3|10").matcher((String) result.get("iut")).matches());
     }
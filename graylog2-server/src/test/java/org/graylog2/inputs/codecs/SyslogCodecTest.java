@@ -37,6 +37,7 @@ import java.net.InetSocketAddress;
 import java.nio.charset.StandardCharsets;
 import java.time.ZonedDateTime;
 import java.util.Map;
+import java.util.regex.Pattern;
 
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.junit.Assert.assertEquals;
@@ -437,6 +438,40 @@ public class SyslogCodecTest {
         assertThat(message.getField("facility_num")).isEqualTo(5);
     }
 
+    @Test
+    public void detectFormatMatchesFormerPatterns() {
+        // The patterns which were used to detect the syslog flavor before
+        final Pattern structured = Pattern.compile("<\\d{1,3}>[0-9]\\d{0,2}\\s.*", Pattern.DOTALL);
+        final Pattern ciscoWithSequenceNumbers = Pattern.compile("<\\d{1,3}>\\d*:\\s.*", Pattern.DOTALL);
+        final Pattern fortiGate = Pattern.compile("<\\d{1,3}>date=.*", Pattern.DOTALL);
+
+        final String[] messages = {
+                STRUCTURED, STRUCTURED_ISSUE_845, STRUCTURED_ISSUE_845_EMPTY, STRUCTURED_ISSUE_549, UNSTRUCTURED,
+                "<190>30: foo-bar-baz: Oct 22 10:59:56 CEST: %LINEPROTO-5-UPDOWN: Line protocol changed",
+                "<166>: Oct 22 10:59:56 CEST: %LINEPROTO-5-UPDOWN: Line protocol changed",
+                "<45>date=2017-03-06 time=12:53:10 devname=DEVICENAME",
+                "<13>1 x", "<13>12 x", "<13>123 x", "<13>1234 x", "<13>0\tx", "<13>1\nx", "<13>1\u000Bx", "<13>1",
+                "<13>1 ", "<13>: x", "<13>:x", "<13>:", "<13>12:\r\n", "<13>12:x", "<13>12 : x", "<13>1a x",
+                "<13>date=", "<13>date", "<13>1date=", "<1>1 x", "<123>1 x", "<1234>1 x", "<>1 x", "<a>1 x",
+                "<13", "<13>", "<", "", "13>1 x", " <13>1 x", "<13>\u0661 x", "<\u0661>1 x"
+        };
+
+        for (String message : messages) {
+            final SyslogCodec.Format expected;
+            if (structured.matcher(message).matches()) {
+                expected = SyslogCodec.Format.STRUCTURED;
+            } else if (ciscoWithSequenceNumbers.matcher(message).matches()) {
+                expected = SyslogCodec.Format.CISCO_WITH_SEQUENCE_NUMBERS;
+            } else if (fortiGate.matcher(message).matches()) {
+                expected = SyslogCodec.Format.FORTIGATE;
+            } else {
+                expected = SyslogCodec.Format.UNSTRUCTURED;
+            }
+
+            assertThat(SyslogCodec.detectFormat(message)).as(message).isEqualTo(expected);
+        }
+    }
+
     private RawMessage buildRawMessage(String message) {
         return new RawMessage(message.getBytes(StandardCharsets.UTF_8), new InetSocketAddress("127.0.0.1", 5140));
     }
@@ -0,0 +1,208 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog2.inputs.codecs.syslog;
+
+import org.graylog2.syslog4j.impl.message.structured.StructuredSyslogMessage;
+import org.graylog2.syslog4j.server.SyslogServerEventIF;
+import org.graylog2.syslog4j.server.impl.event.CiscoSyslogServerEvent;
+import org.graylog2.syslog4j.server.impl.event.FortiGateSyslogEvent;
+import org.graylog2.syslog4j.server.impl.event.SyslogServerEvent;
+import org.graylog2.syslog4j.server.impl.event.structured.StructuredSyslogServerEvent;
+import org.junit.Test;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.function.Function;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Compares the parsed fields with the ones of the syslog4j event classes the parser replaced.
+ */
+public class SyslogParserTest {
+    private static final String[] CORPUS = {
+            // RFC 5424
+            "<165>1 2012-12-25T22:14:15.003Z mymachine.example.com evntslog - ID47 [exampleSDID@32473 iut=\"3\" eventSource=\"Application\" eventID=\"1011\"] BOMAn application event log entry",
+            "<165>1 2012-12-25T22:14:15.003Z mymachine.example.com evntslog - ID47 [exampleSDID@32473 iut=\"3\" eventID=\"1011\"][meta iut=\"10\"] BOMAn application event log entry",
+            "<190>1 2015-01-06T20:56:33.287Z app-1 app - - [mdc@18060 ip=\"::ffff:132.123.15.30\" logger=\"{c.corp.Handler}\" session=\"4ot7\" user=\"user@example.com\"] User page 13 requested",
+            "<128>1 2015-01-11T16:35:21.335797+01:00 s000000.example.com - - - - tralala",
+            "<14>1 2014-05-01T08:26:51.179Z fw01 RT_FLOW - RT_FLOW_SESSION_DENY [junos@2636.1.1.1.2.39 source-address=\"1.2.3.4\" source-port=\"56639\"]",
+            "<165>1 2003-10-11T22:14:15.003Z mymachine.example.com evntslog - ID47 [0@0] message",
+            "<165>1 2003-08-24T05:14:15.000003-07:00 192.0.2.1 myproc 8710 - - %% It's time to make the do-nuts.",
+            "<34>1 2003-10-11T22:14:15.003Z mymachine.example.com su - ID47 - BOM'su root' failed for lonvick on /dev/pts/8",
+            "<165>1 - host app proc msgid [id key=\"escaped \\\" and \\] value\"] message",
+            "<165>1 2003-10-11T22:14:15Z host app proc msgid [id key=\"x]y\"][other] message",
+            "<165>1 2003-10-11T22:14:15,123+0200 host app proc msgid [id key=\"value\"] message",
+            "<1>1 2020-13-01T00:00:00Z host app proc message",
+            "<1>1 Oct 21 12:09:37 host app proc - - message",
+            "<1>1 1 1 1 1 1 1 1 1",
+            // RFC 3164
+            "<45>Oct 21 12:09:37 c4dc57ba1ebb syslog-ng[7208]: syslog-ng starting up; version='3.5.3'",
+            "<86>Dec 24 17:05:01 nb-lkoopmann CRON[10049]: pam_unix(cron:session): session closed for user root",
+            "<45>Oct 1 12:09:37 host message",
+            "<45>Oct  1 12:09:37 host message",
+            "<45>oct 01 12:09:37 host message",
+            "<45>Feb 30 25:61:61 host message",
+            "<45>2020-10-01T12:09:37Z host message",
+            "<45>2020-10-01T12:09:37.123+02:00 host message",
+            "<133>NOMA101FW01A: NetScreen device_id=NOMA101FW01A [Root]system-notification-00257(traffic): start_time=\"2011-12-23 17:33:43\" duration=0 reason=Creation",
+            "<-1>Oct 21 12:09:37 host message",
+            "<1234>Oct 21 12:09:37 host message",
+            "no priority at all",
+            // Cisco
+            "<190>30: foo-bar-baz: Mar  4 15:00:13.421 CET: %SYS-5-CONFIG_I: Configured from console by admin on vty0 (10.0.0.1)",
+            "<190>1208: Feb 27 17:41:25.311 UTC: %SEC-6-IPACCESSLOGP: list 110 denied tcp 10.0.0.1(1234) -> 10.0.0.2(80), 1 packet",
+            "<166>2019: Mar 06 2016 12:53:10 DEVICENAME : %ASA-6-302015: Built outbound UDP connection",
+            "<190>: *Mar  1 18:48:50.483 UTC: %SYS-5-CONFIG_I: Configured from console by vty2 (10.34.195.36)",
+            "<190>1234567890123: Mar  1 18:48:50.483: %SYS-5-CONFIG_I: Configured",
+            // FortiGate
+            "<45>date=2017-03-06 time=12:53:10 devname=DEVICENAME devid=FGT60D4614044725 logid=0100040704 type=event subtype=system level=notice vd=root logdesc=\"System performance statistics\" msg=\"Performance statistics: average CPU: 0\"",
+            "<45>date=2017-03-06 time=12:53:10 devname=X a=\"b c\" d= e=\"f\"g=\"h\" i=j=k",
+            "<45>date=2017-02-30 time=12:53:10 devname=X",
+            "<45>date=2017-03-06 time=12:53 devname=X",
+            "<45>date=2017-03-06 time=12:53:10 devname=X\r\n",
+            "<45>date=2017-03-06 time=12:53:10\ndevname=X",
+    };
+
+    // Characters which are significant for at least one of the syslog flavors
+    private static final String MUTATIONS = "<>0123456789 :-T.Z+[]=\"\\%*@aMyODJcbx\t\n\r\u2028";
+
+    @Test
+    public void parsesCorpusLikeSyslog4j() {
+        for (String message : CORPUS) {
+            assertParsedLikeSyslog4j(message);
+        }
+    }
+
+    @Test
+    public void parsesMutatedMessagesLikeSyslog4j() {
+        final Random random = new Random(42L);
+        for (int i = 0; i < 20_000; i++) {
+            final StringBuilder message = new StringBuilder(CORPUS[random.nextInt(CORPUS.length)]);
+            final int mutations = 1 + random.nextInt(4);
+            for (int j = 0; j < mutations; j++) {
+                final int position = random.nextInt(message.length() + 1);
+                final char c = MUTATIONS.charAt(random.nextInt(MUTATIONS.length()));
+                if (position == message.length()) {
+                    message.append(c);
+                } else {
+                    switch (random.nextInt(4)) {
+                        case 0:
+                            message.insert(position, c);
+                            break;
+                        case 1:
+                            message.deleteCharAt(position);
+                            break;
+                        case 2:
+                            message.setCharAt(position, c);
+                            break;
+                        default:
+                            message.setLength(position);
+                    }
+                }
+            }
+            assertParsedLikeSyslog4j(message.toString());
+        }
+    }
+
+    private void assertParsedLikeSyslog4j(String message) {
+        assertSameFields(message, "BSD", SyslogParser::parseBsd, m -> new SyslogServerEvent(m, null));
+        assertSameFields(message, "structured", SyslogParser::parseStructured, m -> new StructuredSyslogServerEvent(m, null));
+        assertSameFields(message, "Cisco", SyslogParser::parseCisco, m -> new CiscoSyslogServerEvent(m, null));
+        assertSameFields(message, "FortiGate", SyslogParser::parseFortiGate, FortiGateSyslogEvent::new);
+    }
+
+    private void assertSameFields(String message, String flavor, Function<String, SyslogEvent> parser,
+                                  Function<String, SyslogServerEventIF> syslog4j) {
+        final long before = System.currentTimeMillis();
+        final Map<String, Object> expected = syslog4jFields(message, syslog4j);
+        final Map<String, Object> actual = fields(message, parser);
+        final long after = System.currentTimeMillis();
+
+        // Messages with an unparsable timestamp get the current time
+        final Object expectedDate = expected.get("date");
+        final Object actualDate = actual.get("date");
+        if (expectedDate instanceof Long && actualDate instanceof Long && isBetween((Long) expectedDate, before, after)
+                && isBetween((Long) actualDate, before, after)) {
+            expected.remove("date");
+            actual.remove("date");
+        }
+
+        assertThat(actual).as("%s message \"%s\"", flavor, message).isEqualTo(expected);
+    }
+
+    private static boolean isBetween(long value, long from, long to) {
+        return value >= from && value <= to;
+    }
+
+    private Map<String, Object> fields(String message, Function<String, SyslogEvent> parser) {
+        final Map<String, Object> fields = new LinkedHashMap<>();
+        final SyslogEvent event;
+        try {
+            event = parser.apply(message);
+        } catch (RuntimeException e) {
+            fields.put("exception", true);
+            return fields;
+        }
+        fields.put("date", event.getDate() == null ? null : event.getDate().getMillis());
+        fields.put("facility", event.getFacility());
+        fields.put("level", event.getLevel());
+        fields.put("host", event.getHost());
+        fields.put("message", event.getMessage());
+        fields.put("application_name", event.getApplicationName());
+        fields.put("process_id", event.getProcessId());
+        fields.put("sequence_number", event.getSequenceNumber());
+        fields.put("structured_message", event.getStructuredMessage() == null ? event.getMessage() : event.getStructuredMessage());
+        fields.put("structured_data", event.getStructuredData());
+        fields.put("fields", event.getFields());
+        return fields;
+    }
+
+    private Map<String, Object> syslog4jFields(String message, Function<String, SyslogServerEventIF> parser) {
+        final Map<String, Object> fields = new LinkedHashMap<>();
+        try {
+            final SyslogServerEventIF event = parser.apply(message);
+            fields.put("date", event.getDate() == null ? null : event.getDate().getTime());
+            fields.put("facility", event.getFacility());
+            fields.put("level", event.getLevel());
+            fields.put("host", event.getHost());
+            fields.put("message", event.getMessage());
+            fields.put("application_name", null);
+            fields.put("process_id", null);
+            fields.put("sequence_number", 0);
+            fields.put("structured_message", event.getMessage());
+            fields.put("structured_data", null);
+            fields.put("fields", event instanceof FortiGateSyslogEvent ? ((FortiGateSyslogEvent) event).getFields() : new LinkedHashMap<>());
+            if (event instanceof StructuredSyslogServerEvent) {
+                final StructuredSyslogServerEvent structuredEvent = (StructuredSyslogServerEvent) event;
+                final StructuredSyslogMessage structuredMessage = structuredEvent.getStructuredMessage();
+                fields.put("application_name", structuredEvent.getApplicationName());
+                fields.put("process_id", structuredEvent.getProcessId());
+                fields.put("structured_message", structuredMessage.getMessage());
+                fields.put("structured_data", structuredMessage.getStructuredData());
+            }
+            if (event instanceof CiscoSyslogServerEvent) {
+                fields.put("sequence_number", ((CiscoSyslogServerEvent) event).getSequenceNumber());
+            }
+        } catch (RuntimeException e) {
+            fields.clear();
+            fields.put("exception", true);
+        }
+        return fields;
+    }
+}
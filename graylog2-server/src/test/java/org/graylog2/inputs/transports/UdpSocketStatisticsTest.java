@@ -0,0 +1,52 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog2.inputs.transports;
+
+import com.google.common.collect.ImmutableList;
+import org.junit.Test;
+
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class UdpSocketStatisticsTest {
+    @Test
+    public void parseReadsQueueAndDropsByInode() {
+        final Map<Long, UdpSocketStatistics.SocketStats> stats = UdpSocketStatistics.parse(ImmutableList.of(
+                "   sl  local_address rem_address   st tx_queue rx_queue tr tm->when retrnsmt   uid  timeout inode ref pointer drops             ",
+                "  412: 00000000:3039 00000000:0000 07 00000000:00000000 00:00000000 00000000  1100        0 4711 2 0000000000000000 0          ",
+                "  412: 00000000:3039 00000000:0000 07 00000000:0003F000 00:00000000 00000000  1100        0 4712 2 0000000000000000 12345      ",
+                "  invalid line"
+        ));
+
+        assertThat(stats).containsOnlyKeys(4711L, 4712L);
+        assertThat(stats.get(4711L).receiveQueue()).isEqualTo(0L);
+        assertThat(stats.get(4711L).drops()).isEqualTo(0L);
+        assertThat(stats.get(4712L).receiveQueue()).isEqualTo(0x3F000L);
+        assertThat(stats.get(4712L).drops()).isEqualTo(12345L);
+    }
+
+    @Test
+    public void parseSkipsInvalidNumbers() {
+        final Map<Long, UdpSocketStatistics.SocketStats> stats = UdpSocketStatistics.parse(ImmutableList.of(
+                "   sl  local_address rem_address   st tx_queue rx_queue tr tm->when retrnsmt   uid  timeout inode ref pointer drops             ",
+                "  412: 00000000:3039 00000000:0000 07 00000000:XYZ 00:00000000 00000000  1100        0 4711 2 0000000000000000 0          "
+        ));
+
+        assertThat(stats).isEmpty();
+    }
+}
@@ -40,10 +40,12 @@ import org.graylog2.plugin.inputs.MessageInput;
 import org.graylog2.plugin.inputs.MisfireException;
 import org.graylog2.plugin.inputs.transports.NettyTransport;
 import org.graylog2.plugin.inputs.util.ThroughputCounter;
+import org.graylog2.plugin.journal.RawMessage;
 import org.graylog2.shared.SuppressForbidden;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
+import org.mockito.ArgumentCaptor;
 
 import java.io.IOException;
 import java.net.DatagramPacket;
@@ -60,7 +62,11 @@ import java.util.concurrent.TimeUnit;
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.awaitility.Awaitility.await;
 import static org.junit.Assume.assumeTrue;
+import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 public class UdpTransportTest {
@@ -223,6 +229,31 @@ public class UdpTransportTest {
         assertThat(gauges.get(ThroughputCounter.READ_BYTES_TOTAL).getValue()).isEqualTo(1024L);
     }
 
+    @Test
+    @SuppressWarnings("unchecked")
+    public void batchedReceiveHandsDatagramsToInputAsBatch() throws Exception {
+        final Configuration config = new Configuration(ImmutableMap.<String, Object>builder()
+                .putAll(CONFIG_SOURCE)
+                .put(UdpTransport.CK_MAX_DATAGRAM_PAYLOAD_SIZE, 512)
+                .build());
+        final UdpTransport transport = new UdpTransport(config, eventLoopGroupFactory, nettyTransportConfiguration, throughputCounter, new LocalMetricRegistry());
+        final MessageInput messageInput = mock(MessageInput.class);
+        transport.launch(messageInput);
+        try {
+            await().atMost(5, TimeUnit.SECONDS).until(() -> transport.getLocalAddress() != null);
+            final InetSocketAddress localAddress = (InetSocketAddress) transport.getLocalAddress();
+
+            sendUdpDatagram(BIND_ADDRESS, localAddress.getPort(), 100);
+
+            final ArgumentCaptor<List<RawMessage>> captor = ArgumentCaptor.forClass(List.class);
+            verify(messageInput, timeout(5000).atLeastOnce()).processRawMessages(captor.capture());
+            assertThat(captor.getValue()).extracting(RawMessage::getPayloadSize).containsExactly(100);
+        } finally {
+            transport.stop();
+        }
+        verify(messageInput, never()).processRawMessage(any());
+    }
+
     private UdpTransport launchTransportForBootStrapTest(final ChannelInboundHandler channelHandler) throws MisfireException {
         final UdpTransport transport = new UdpTransport(CONFIGURATION, eventLoopGroupFactory, nettyTransportConfiguration, throughputCounter, new LocalMetricRegistry()) {
             @Override
@@ -36,8 +36,11 @@ import org.mockito.junit.MockitoRule;
 import java.util.List;
 import java.util.Map;
 
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.anyList;
 import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 
@@ -96,6 +99,45 @@ public class BlockingBatchedESOutputTest {
         verify(messages, times(1)).bulkIndex(eq(messageList));
     }
 
+    @Test
+    public void writesFromDifferentThreadsUseSeparateStripes() throws Exception {
+        final BlockingBatchedESOutput output = new BlockingBatchedESOutput(metricRegistry, messages, config, journal, acknowledger);
+
+        final List<Map.Entry<IndexSet, Message>> firstList = buildMessages(config.getOutputBatchSize() - 1);
+        final List<Map.Entry<IndexSet, Message>> secondList = buildMessages(config.getOutputBatchSize() - 1);
+
+        for (Map.Entry<IndexSet, Message> entry : firstList) {
+            output.writeMessageEntry(entry);
+        }
+        final Thread writer = new Thread(() -> {
+            try {
+                for (Map.Entry<IndexSet, Message> entry : secondList) {
+                    output.writeMessageEntry(entry);
+                }
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+        });
+        writer.start();
+        writer.join();
+
+        // Neither stripe reached the batch size on its own
+        verify(messages, never()).bulkIndex(anyList());
+
+        output.forceFlushIfTimedout();
+
+        verify(messages, times(1)).bulkIndex(eq(firstList));
+        verify(messages, times(1)).bulkIndex(eq(secondList));
+    }
+
+    @Test
+    public void hasOneStripePerOutputBufferExecutorThread() {
+        new BlockingBatchedESOutput(metricRegistry, messages, config, journal, acknowledger);
+
+        final int executorThreads = config.getOutputBufferProcessors() * config.getOutputBufferProcessorThreadsCorePoolSize();
+        assertThat(metricRegistry.getGauges((name, metric) -> name.endsWith(".fill"))).hasSize(executorThreads);
+    }
+
     private List<Map.Entry<IndexSet, Message>> buildMessages(final int count) {
         final ImmutableList.Builder<Map.Entry<IndexSet, Message>> builder = ImmutableList.builder();
         for (int i = 0; i < count; i++) {
@@ -19,6 +19,7 @@ package org.graylog2.plugin;
 import com.codahale.metrics.Meter;
 import com.codahale.metrics.MetricRegistry;
 import com.eaio.uuid.UUID;
+import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Lists;
@@ -27,6 +28,7 @@ import com.google.common.collect.Sets;
 import org.graylog.failure.FailureCause;
 import org.graylog.failure.ProcessingFailureCause;
 import org.graylog2.indexer.IndexSet;
+import org.graylog2.indexer.messages.EncodedDocument;
 import org.graylog2.plugin.streams.Stream;
 import org.graylog2.shared.SuppressForbidden;
 import org.graylog2.shared.bindings.providers.ObjectMapperProvider;
@@ -40,6 +42,7 @@ import org.junit.Test;
 import org.mockito.junit.MockitoJUnit;
 import org.mockito.junit.MockitoRule;
 
+import java.io.IOException;
 import java.time.Instant;
 import java.time.LocalDate;
 import java.time.LocalDateTime;
@@ -456,6 +459,78 @@ public class MessageTest {
         assertThat(streams).containsOnly("stream-id");
     }
 
+    @Test
+    public void writeElasticSearchDocumentMatchesElasticSearchObject() throws Exception {
+        message.addField("field1", "wat");
+        message.addField("long", 23L);
+        message.addField("int", 42);
+        message.addField("double", 1.5d);
+        message.addField("bool", true);
+        message.addField("date", new DateTime(2015, 9, 8, 0, 0, DateTimeZone.UTC));
+        message.addField("list", Lists.newArrayList("a", "b"));
+        message.addField("field.3", "dot");
+        message.addField(Message.FIELD_STREAMS, Collections.singletonList("test-stream"));
+
+        assertThat(streamedElasticSearchDocument(message)).isEqualTo(serializedElasticSearchObject(message));
+    }
+
+    @Test
+    public void writeElasticSearchDocumentHandlesKeyConflictsLikeElasticSearchObject() throws Exception {
+        message.addField("field.1", "dot");
+        message.addField("field_1", "underscore");
+        message.addField("field.2.a", "first");
+        message.addField("field.2_a", "second");
+        message.addField("time.stamp", "not a timestamp");
+
+        final Map<String, Object> document = streamedElasticSearchDocument(message);
+
+        assertThat(document).isEqualTo(serializedElasticSearchObject(message));
+        assertThat(document).containsEntry("field_1", "underscore");
+        assertThat(document).containsEntry("time_stamp", "not a timestamp");
+        assertThat(document).doesNotContainKeys("field.1", "field.2.a", "field.2_a", Message.FIELD_ID);
+    }
+
+    @Test
+    public void writeElasticSearchDocumentLetsKeysWithoutDotWinInAnyOrder() throws Exception {
+        // Enough keys that the field map iterates over the dotted key first for some pairs and last for others
+        for (int i = 0; i < 50; i++) {
+            message.addField("key" + i + ".dot", "dot");
+            message.addField("key" + i + "_dot", "underscore");
+        }
+
+        final Map<String, Object> document = streamedElasticSearchDocument(message);
+
+        assertThat(document).isEqualTo(serializedElasticSearchObject(message));
+        for (int i = 0; i < 50; i++) {
+            assertThat(document).containsEntry("key" + i + "_dot", "underscore");
+            assertThat(document).doesNotContainKey("key" + i + ".dot");
+        }
+    }
+
+    @Test
+    public void writeElasticSearchDocumentAddsProcessingErrors() throws Exception {
+        message.addField("timestamp", "time!");
+
+        final Meter errorMeter = metricRegistry.meter("test-meter");
+        final Map<String, Object> document = readDocument(new EncodedDocument(message).body(objectMapper, errorMeter));
+
+        assertThat(document.get(Message.FIELD_TIMESTAMP)).isNotEqualTo("time!");
+        assertThat(document.get(Message.FIELD_GL2_PROCESSING_ERROR)).asString().contains("Replaced invalid timestamp value");
+        assertThat(errorMeter.getCount()).isEqualTo(1);
+    }
+
+    private Map<String, Object> streamedElasticSearchDocument(Message message) throws IOException {
+        return readDocument(new EncodedDocument(message).body(objectMapper, invalidTimestampMeter));
+    }
+
+    private Map<String, Object> serializedElasticSearchObject(Message message) throws IOException {
+        return readDocument(objectMapper.writeValueAsBytes(message.toElasticSearchObject(objectMapper, invalidTimestampMeter)));
+    }
+
+    private Map<String, Object> readDocument(byte[] document) throws IOException {
+        return objectMapper.readValue(document, new TypeReference<Map<String, Object>>() {});
+    }
+
     @Test
     public void testToElasticsearchObjectAddsAccountedMessageSize() {
         final Message message = new Message("message", "source", Tools.nowUTC());
@@ -27,6 +27,7 @@ import org.graylog2.inputs.converters.DateConverter;
 import org.graylog2.inputs.extractors.ExtractorException;
 import org.graylog2.plugin.Message;
 import org.graylog2.plugin.inputs.Extractor.Result;
+import org.graylog2.shared.metrics.SampledTimer;
 import org.joda.time.DateTime;
 import org.junit.Test;
 import org.slf4j.Logger;
@@ -231,6 +232,25 @@ public class ExtractorTest {
         assertThat(msg.getField("target")).isEqualTo("1");
     }
 
+    @Test
+    public void testReplacesRegularTimersRegisteredUnderTimerNames() throws Exception {
+        final TestExtractor original = new TestExtractor.Builder().build();
+        final List<String> timerNames = Lists.newArrayList(original.getCompleteTimerName(),
+                original.getConditionTimerName(), original.getExecutionTimerName(), original.getConverterTimerName());
+        final MetricRegistry metricRegistry = new MetricRegistry();
+        timerNames.forEach(metricRegistry::timer);
+
+        final TestExtractor extractor = new TestExtractor.Builder().metricRegistry(metricRegistry).build();
+        final Message msg = createMessage("the hello");
+        extractor.runExtractor(msg);
+
+        assertThat(msg.getField("target")).isEqualTo("canary");
+        for (String timerName : timerNames) {
+            assertThat(metricRegistry.getTimers().get(timerName)).isInstanceOf(SampledTimer.class);
+        }
+        assertThat(metricRegistry.getTimers().get(extractor.getCompleteTimerName()).getCount()).isEqualTo(1);
+    }
+
     @Test(expected = NullPointerException.class)
     public void testWithMultipleValueOnlyResults() throws Exception {
         final TestExtractor extractor = new TestExtractor.Builder()
@@ -1034,6 +1054,12 @@ public class ExtractorTest {
             private String conditionValue = "";
             private CursorStrategy cursorStrategy = COPY;
             private List<Converter> converters = Collections.emptyList();
+            private MetricRegistry metricRegistry = new MetricRegistry();
+
+            public Builder metricRegistry(MetricRegistry metricRegistry) {
+                this.metricRegistry = metricRegistry;
+                return this;
+            }
 
             public Builder cursorStrategy(CursorStrategy cursorStrategy) {
                 this.cursorStrategy = cursorStrategy;
@@ -1072,7 +1098,7 @@ public class ExtractorTest {
 
             public TestExtractor build() throws ReservedFieldException {
                 return new TestExtractor(callback,
-                        new MetricRegistry(),
+                        metricRegistry,
                         "test-id",
                         "test-title",
                         0L,
@@ -0,0 +1,167 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog2.shared.buffers;
+
+import com.codahale.metrics.MetricRegistry;
+import com.lmax.disruptor.BlockingWaitStrategy;
+import org.graylog2.plugin.BaseConfiguration;
+import org.graylog2.plugin.journal.RawMessage;
+import org.graylog2.shared.journal.CodecConfigDictionary;
+import org.graylog2.shared.messageq.MessageQueueException;
+import org.graylog2.shared.messageq.MessageQueueWriter;
+import org.graylog2.system.processing.ProcessingStatusRecorder;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class InputBufferImplTest {
+    private static final int RING_SIZE = 16;
+
+    private final AtomicInteger journalled = new AtomicInteger();
+    private final AtomicBoolean failJournalWrites = new AtomicBoolean();
+    private final CountDownLatch journalReleased = new CountDownLatch(1);
+    private MetricRegistry metricRegistry;
+    private BaseConfiguration configuration;
+    private InputBufferImpl inputBuffer;
+
+    @Before
+    public void setUp() throws Exception {
+        metricRegistry = new MetricRegistry();
+        configuration = mock(BaseConfiguration.class);
+        when(configuration.getInputBufferRingSize()).thenReturn(RING_SIZE);
+        when(configuration.getInputBufferWaitStrategy()).thenReturn(new BlockingWaitStrategy());
+        when(configuration.getInputbufferProcessors()).thenReturn(2);
+        when(configuration.isMessageJournalEnabled()).thenReturn(true);
+
+        final MessageQueueWriter messageQueueWriter = mock(MessageQueueWriter.class);
+        doAnswer(invocation -> {
+            journalReleased.await();
+            if (failJournalWrites.get()) {
+                throw new MessageQueueException("Journal is full");
+            }
+            final List<?> entries = invocation.getArgument(0);
+            journalled.addAndGet(entries.size());
+            return null;
+        }).when(messageQueueWriter).write(anyList());
+
+        final CodecConfigDictionary codecConfigDictionary = mock(CodecConfigDictionary.class);
+        inputBuffer = new InputBufferImpl(metricRegistry,
+                configuration,
+                () -> {
+                    throw new AssertionError("Journal is enabled");
+                },
+                () -> new RawMessageEncoderHandler(metricRegistry, codecConfigDictionary),
+                () -> new JournallingMessageHandler(metricRegistry, messageQueueWriter, mock(ProcessingStatusRecorder.class)));
+    }
+
+    @Test
+    public void insertTrackedCompletesOnceBatchIsJournalled() throws Exception {
+        journalReleased.countDown();
+        // more messages than fit into the ring buffer at once
+        final List<RawMessage> messages = messages(RING_SIZE * 2 + 3);
+
+        inputBuffer.insertTracked(messages).get(10, TimeUnit.SECONDS);
+
+        assertThat(journalled.get()).isEqualTo(messages.size());
+    }
+
+    @Test
+    public void insertTrackedIsPendingUntilJournalCatchesUp() throws Exception {
+        final CompletableFuture<Void> first = inputBuffer.insertTracked(messages(3));
+        assertThatThrownBy(() -> first.get(50, TimeUnit.MILLISECONDS)).isInstanceOf(TimeoutException.class);
+        assertThat(journalled.get()).isEqualTo(0);
+
+        journalReleased.countDown();
+        inputBuffer.insertTracked(messages(2)).get(10, TimeUnit.SECONDS);
+        first.get(10, TimeUnit.SECONDS);
+        assertThat(journalled.get()).isEqualTo(5);
+    }
+
+    @Test
+    public void insertTrackedFailsIfJournalWriteFails() throws Exception {
+        failJournalWrites.set(true);
+        journalReleased.countDown();
+
+        // a single message, so it can't be split across several journal writes
+        final CompletableFuture<Void> failed = inputBuffer.insertTracked(messages(1));
+        assertThatThrownBy(() -> failed.get(10, TimeUnit.SECONDS))
+                .isInstanceOf(ExecutionException.class)
+                .hasCauseInstanceOf(MessageQueueException.class);
+        assertThat(journalled.get()).isEqualTo(0);
+
+        // the messages of the failed write aren't written again with the next batch
+        failJournalWrites.set(false);
+        inputBuffer.insertTracked(messages(2)).get(10, TimeUnit.SECONDS);
+        assertThat(journalled.get()).isEqualTo(2);
+    }
+
+    @Test
+    public void insertTrackedFailsIfProcessBufferInsertFails() throws Exception {
+        when(configuration.isMessageJournalEnabled()).thenReturn(false);
+        final ProcessBuffer processBuffer = mock(ProcessBuffer.class);
+        doThrow(new IllegalStateException("Process buffer is stopped")).when(processBuffer).insertBlocking(any());
+        final InputBufferImpl directInputBuffer = new InputBufferImpl(metricRegistry,
+                configuration,
+                () -> new DirectMessageHandler(processBuffer, mock(ProcessingStatusRecorder.class)),
+                () -> {
+                    throw new AssertionError("Journal is disabled");
+                },
+                () -> {
+                    throw new AssertionError("Journal is disabled");
+                });
+
+        final CompletableFuture<Void> failed = directInputBuffer.insertTracked(messages(3));
+
+        assertThatThrownBy(() -> failed.get(10, TimeUnit.SECONDS))
+                .isInstanceOf(ExecutionException.class)
+                .hasCauseInstanceOf(IllegalStateException.class);
+    }
+
+    @Test
+    public void insertTrackedWithEmptyBatch() {
+        assertThat(inputBuffer.insertTracked(new ArrayList<>())).isCompleted();
+    }
+
+    private static List<RawMessage> messages(int count) {
+        final List<RawMessage> messages = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            final RawMessage rawMessage = new RawMessage(("message " + i).getBytes(StandardCharsets.UTF_8));
+            rawMessage.setCodecName("raw");
+            messages.add(rawMessage);
+        }
+        return messages;
+    }
+}
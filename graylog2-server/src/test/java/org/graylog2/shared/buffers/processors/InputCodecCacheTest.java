@@ -0,0 +1,98 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog2.shared.buffers.processors;
+
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.eventbus.EventBus;
+import org.graylog2.plugin.configuration.Configuration;
+import org.graylog2.plugin.inputs.codecs.Codec;
+import org.graylog2.rest.models.system.inputs.responses.InputUpdated;
+import org.junit.Before;
+import org.junit.Test;
+
+import static com.codahale.metrics.MetricRegistry.name;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class InputCodecCacheTest {
+    private MetricRegistry metricRegistry;
+    private EventBus eventBus;
+    private InputCodecCache cache;
+    private Codec.Factory<Codec> factory;
+
+    @Before
+    @SuppressWarnings("unchecked")
+    public void setUp() {
+        metricRegistry = new MetricRegistry();
+        eventBus = new EventBus();
+        cache = new InputCodecCache(metricRegistry, eventBus);
+        factory = mock(Codec.Factory.class);
+        when(factory.create(any())).thenAnswer(invocation -> mock(Codec.class));
+    }
+
+    @Test
+    public void reusesCodecForSameConfiguration() {
+        final Configuration config = new Configuration(ImmutableMap.of("foo", "bar"));
+
+        final InputCodecCache.Entry first = cache.get("input-1", "gelf", config, factory);
+        final InputCodecCache.Entry second = cache.get("input-1", "gelf", config, factory);
+        final InputCodecCache.Entry equalConfig = cache.get("input-1", "gelf", new Configuration(ImmutableMap.of("foo", "bar")), factory);
+
+        assertThat(second.codec).isSameAs(first.codec);
+        assertThat(equalConfig.codec).isSameAs(first.codec);
+        verify(factory, times(1)).create(any());
+        assertThat(metricRegistry.counter(name(DecodingProcessor.class, "codec-cache", "hits")).getCount()).isEqualTo(2);
+        assertThat(metricRegistry.counter(name(DecodingProcessor.class, "codec-cache", "misses")).getCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void createsNewCodecForChangedConfiguration() {
+        final InputCodecCache.Entry first = cache.get("input-1", "gelf", new Configuration(ImmutableMap.of("foo", "bar")), factory);
+        final InputCodecCache.Entry second = cache.get("input-1", "gelf", new Configuration(ImmutableMap.of("foo", "baz")), factory);
+
+        assertThat(second.codec).isNotSameAs(first.codec);
+        verify(factory, times(2)).create(any());
+    }
+
+    @Test
+    public void separatesInputs() {
+        final Configuration config = new Configuration(ImmutableMap.of("foo", "bar"));
+
+        final InputCodecCache.Entry first = cache.get("input-1", "gelf", config, factory);
+        final InputCodecCache.Entry second = cache.get("input-2", "gelf", config, factory);
+        final InputCodecCache.Entry noInput = cache.get(null, "gelf", config, factory);
+
+        assertThat(second.codec).isNotSameAs(first.codec);
+        assertThat(noInput.codec).isNotSameAs(first.codec);
+    }
+
+    @Test
+    public void invalidatesOnInputUpdate() {
+        final Configuration config = new Configuration(ImmutableMap.of("foo", "bar"));
+        final InputCodecCache.Entry first = cache.get("input-1", "gelf", config, factory);
+
+        eventBus.post(InputUpdated.create("input-1"));
+
+        final InputCodecCache.Entry second = cache.get("input-1", "gelf", config, factory);
+        assertThat(second.codec).isNotSameAs(first.codec);
+    }
+}
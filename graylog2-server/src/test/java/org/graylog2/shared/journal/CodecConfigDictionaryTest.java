@@ -0,0 +1,195 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog2.shared.journal;
+
+import com.google.common.collect.ImmutableMap;
+import org.graylog2.plugin.configuration.Configuration;
+import org.graylog2.plugin.journal.CodecConfigStore;
+import org.graylog2.plugin.journal.JournalMessages;
+import org.graylog2.plugin.journal.RawMessage;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class CodecConfigDictionaryTest {
+    @Rule
+    public final TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private Path journalDirectory;
+    private Configuration config;
+
+    @Before
+    public void setUp() throws Exception {
+        journalDirectory = temporaryFolder.newFolder().toPath();
+        config = new Configuration(ImmutableMap.of("bind_address", "0.0.0.0", "port", 12201));
+    }
+
+    @Test
+    public void referenceIsStableAndCompact() {
+        final CodecConfigDictionary dictionary = new CodecConfigDictionary(journalDirectory);
+
+        final String reference = dictionary.referenceFor(config);
+
+        assertThat(CodecConfigStore.isReference(reference)).isTrue();
+        assertThat(reference.length()).isLessThan(config.serializeToJson().length());
+        assertThat(dictionary.referenceFor(config)).isEqualTo(reference);
+        assertThat(dictionary.referenceFor(new Configuration(config.getSource()))).isEqualTo(reference);
+    }
+
+    @Test
+    public void emptyConfigurationHasNoReference() {
+        final CodecConfigDictionary dictionary = new CodecConfigDictionary(journalDirectory);
+
+        assertThat(dictionary.referenceFor(Configuration.EMPTY_CONFIGURATION)).isNull();
+        assertThat(dictionary.resolve(null)).isSameAs(Configuration.EMPTY_CONFIGURATION);
+    }
+
+    @Test
+    public void resolvesReferencesAfterRestart() {
+        final String reference = new CodecConfigDictionary(journalDirectory).referenceFor(config);
+
+        final Configuration resolved = new CodecConfigDictionary(journalDirectory).resolve(reference);
+
+        assertThat(resolved.getString("bind_address")).isEqualTo("0.0.0.0");
+        assertThat(resolved.getInt("port")).isEqualTo(12201);
+    }
+
+    @Test
+    public void resolvesLegacyInlineConfiguration() {
+        final CodecConfigDictionary dictionary = new CodecConfigDictionary(journalDirectory);
+
+        final Configuration resolved = dictionary.resolve(config.serializeToJson());
+
+        assertThat(resolved.getString("bind_address")).isEqualTo("0.0.0.0");
+    }
+
+    @Test
+    public void unknownReferenceResolvesToEmptyConfiguration() {
+        final CodecConfigDictionary dictionary = new CodecConfigDictionary(journalDirectory);
+
+        assertThat(dictionary.resolve("@0123456789abcdef")).isSameAs(Configuration.EMPTY_CONFIGURATION);
+    }
+
+    @Test
+    public void rawMessageRoundTrip() throws Exception {
+        final CodecConfigDictionary dictionary = new CodecConfigDictionary(journalDirectory);
+        final RawMessage rawMessage = new RawMessage("testmessage".getBytes(StandardCharsets.UTF_8));
+        rawMessage.setCodecName("gelf");
+        rawMessage.setCodecConfig(config);
+
+        final byte[] encoded = rawMessage.encode(dictionary);
+        final String storedConfig = JournalMessages.JournalMessage.parseFrom(encoded).getCodec().getConfig();
+        final RawMessage decoded = RawMessage.decode(encoded, 1L, new CodecConfigDictionary(journalDirectory));
+
+        assertThat(CodecConfigStore.isReference(storedConfig)).isTrue();
+        assertThat(decoded).isNotNull();
+        assertThat(decoded.getCodecConfig().getString("bind_address")).isEqualTo("0.0.0.0");
+    }
+
+    @Test
+    public void rawMessageDecodesLegacyEntries() {
+        final RawMessage rawMessage = new RawMessage("testmessage".getBytes(StandardCharsets.UTF_8));
+        rawMessage.setCodecName("gelf");
+        rawMessage.setCodecConfig(config);
+
+        final RawMessage decoded = RawMessage.decode(rawMessage.encode(), 1L, new CodecConfigDictionary(journalDirectory));
+
+        assertThat(decoded).isNotNull();
+        assertThat(decoded.getCodecConfig().getInt("port")).isEqualTo(12201);
+    }
+
+    @Test
+    public void rawMessageWithoutStoreRejectsReferences() {
+        final RawMessage rawMessage = new RawMessage("testmessage".getBytes(StandardCharsets.UTF_8));
+        rawMessage.setCodecName("gelf");
+        rawMessage.setCodecConfig(config);
+        final byte[] encoded = rawMessage.encode(new CodecConfigDictionary(journalDirectory));
+
+        assertThatThrownBy(() -> RawMessage.decode(encoded, 1L))
+                .isInstanceOf(IllegalStateException.class)
+                .hasMessageContaining("has to be resolved through a CodecConfigStore");
+    }
+
+    @Test
+    public void pruneDeletesConfigurationsOnceTheirSegmentsAreGone() {
+        final CodecConfigDictionary dictionary = new CodecConfigDictionary(journalDirectory);
+        final String reference = dictionary.referenceFor(config);
+        final Path file = configFile(reference);
+
+        // used since the last run
+        assertThat(dictionary.prune(0L, 10L)).isZero();
+        // unused for a whole run, entries up to offset 10 might reference it
+        assertThat(dictionary.prune(0L, 10L)).isZero();
+        assertThat(dictionary.prune(9L, 20L)).isZero();
+        assertThat(file).exists();
+
+        assertThat(dictionary.prune(10L, 20L)).isEqualTo(1);
+        assertThat(file).doesNotExist();
+    }
+
+    @Test
+    public void pruneKeepsUsedConfigurations() {
+        final CodecConfigDictionary dictionary = new CodecConfigDictionary(journalDirectory);
+        final String reference = dictionary.referenceFor(config);
+
+        for (long offset = 0L; offset < 5L; offset++) {
+            assertThat(dictionary.referenceFor(config)).isEqualTo(reference);
+            assertThat(dictionary.prune(offset * 10L, offset * 10L + 10L)).isZero();
+        }
+
+        assertThat(configFile(reference)).exists();
+    }
+
+    @Test
+    public void pruneKeepsConfigurationsStoredBeforeRestartForAWholeRun() {
+        final String reference = new CodecConfigDictionary(journalDirectory).referenceFor(config);
+        final CodecConfigDictionary dictionary = new CodecConfigDictionary(journalDirectory);
+
+        assertThat(dictionary.prune(0L, 10L)).isZero();
+        assertThat(dictionary.prune(0L, 10L)).isZero();
+        assertThat(configFile(reference)).exists();
+
+        assertThat(dictionary.prune(10L, 10L)).isEqualTo(1);
+        assertThat(configFile(reference)).doesNotExist();
+    }
+
+    @Test
+    public void storesPrunedConfigurationsAgain() {
+        final CodecConfigDictionary dictionary = new CodecConfigDictionary(journalDirectory);
+        final String reference = dictionary.referenceFor(config);
+        dictionary.prune(0L, 10L);
+        dictionary.prune(0L, 10L);
+        assertThat(dictionary.prune(10L, 10L)).isEqualTo(1);
+
+        assertThat(dictionary.referenceFor(config)).isEqualTo(reference);
+        assertThat(configFile(reference)).exists();
+        assertThat(new CodecConfigDictionary(journalDirectory).resolve(reference).getInt("port")).isEqualTo(12201);
+        assertThat(dictionary.prune(10L, 10L)).isZero();
+    }
+
+    private Path configFile(String reference) {
+        return journalDirectory.resolve(CodecConfigDictionary.FILE_PREFIX
+                + reference.substring(CodecConfigStore.REFERENCE_PREFIX.length()) + CodecConfigDictionary.FILE_SUFFIX);
+    }
+}
@@ -18,6 +18,7 @@ package org.graylog2.shared.journal;
 
 import com.codahale.metrics.MetricRegistry;
 import com.github.joschi.jadconfig.util.Size;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Iterators;
 import com.google.common.collect.Lists;
 import com.google.common.eventbus.EventBus;
@@ -31,6 +32,7 @@ import org.graylog2.Configuration;
 import org.graylog2.audit.NullAuditEventSender;
 import org.graylog2.plugin.InstantMillisProvider;
 import org.graylog2.plugin.ServerStatus;
+import org.graylog2.plugin.journal.RawMessage;
 import org.graylog2.plugin.lifecycles.Lifecycle;
 import org.joda.time.DateTime;
 import org.joda.time.DateTimeUtils;
@@ -133,6 +135,135 @@ public class LocalKafkaJournalTest {
         assertEquals("message", new String(firstMessage.getPayload(), UTF_8));
     }
 
+    @Test
+    public void reportsUnreadEntriesAfterSizeLimitedRead() throws IOException {
+        final LocalKafkaJournal journal = new LocalKafkaJournal(journalDirectory.toPath(),
+                scheduler,
+                Size.megabytes(100L),
+                Duration.standardHours(1),
+                Size.megabytes(100L),
+                Duration.standardHours(1),
+                1_000_000,
+                Duration.standardMinutes(1),
+                100,
+                new MetricRegistry(),
+                serverStatus);
+
+        // More than a single read returns, no matter how many entries are requested
+        final byte[] messageBytes = new byte[1024 * 1024];
+        for (int i = 0; i < 6; i++) {
+            journal.write(("id" + i).getBytes(UTF_8), messageBytes);
+        }
+
+        final List<Journal.JournalReadEntry> firstRead = journal.read(100);
+        assertThat(firstRead.size()).isBetween(1, 5);
+        assertThat(journal.hasUnreadEntries()).isTrue();
+
+        int read = firstRead.size();
+        while (journal.hasUnreadEntries()) {
+            read += journal.read(100).size();
+        }
+        assertThat(read).isEqualTo(6);
+    }
+
+    @Test
+    public void writeAndReadJournalMessageEntries() throws IOException {
+        final LocalKafkaJournal journal = new LocalKafkaJournal(journalDirectory.toPath(),
+                scheduler,
+                Size.megabytes(100L),
+                Duration.standardHours(1),
+                Size.megabytes(5L),
+                Duration.standardHours(1),
+                1_000_000,
+                Duration.standardMinutes(1),
+                100,
+                new MetricRegistry(),
+                serverStatus);
+        final CodecConfigDictionary codecConfigDictionary = new CodecConfigDictionary(journalDirectory.toPath());
+
+        final List<RawMessage> rawMessages = Lists.newArrayList();
+        final List<Journal.Entry> entries = Lists.newArrayList();
+        for (int size : new int[]{200, 4096}) {
+            final RawMessage rawMessage = new RawMessage(randomAlphanumeric(size).getBytes(UTF_8));
+            rawMessage.setCodecName("gelf");
+            rawMessage.setCodecConfig(new org.graylog2.plugin.configuration.Configuration(ImmutableMap.of("port", 12201)));
+            rawMessages.add(rawMessage);
+            entries.add(new JournalMessageEntry(rawMessage.toJournalMessage(codecConfigDictionary)));
+        }
+
+        assertThat(journal.write(entries)).isEqualTo(1L);
+
+        final List<Journal.JournalReadEntry> readEntries = journal.read(2);
+        assertThat(readEntries).hasSize(2);
+        for (int i = 0; i < readEntries.size(); i++) {
+            final RawMessage decoded = RawMessage.decode(readEntries.get(i).getPayload(), readEntries.get(i).getOffset(), codecConfigDictionary);
+            assertThat(decoded).isNotNull();
+            assertThat(decoded.getId()).isEqualTo(rawMessages.get(i).getId());
+            assertThat(decoded.getPayload()).isEqualTo(rawMessages.get(i).getPayload());
+            assertThat(decoded.getCodecConfig().getSource()).isEqualTo(rawMessages.get(i).getCodecConfig().getSource());
+        }
+    }
+
+    @Test
+    public void readMemoryMappedEntries() throws IOException {
+        final LocalKafkaJournal journal = new LocalKafkaJournal(journalDirectory.toPath(),
+                scheduler,
+                Size.kilobytes(8L),
+                Duration.standardHours(1),
+                Size.megabytes(5L),
+                Duration.standardHours(1),
+                1_000_000,
+                Duration.standardMinutes(1),
+                100,
+                new MetricRegistry(),
+                serverStatus,
+                LocalKafkaJournal.class.getName(),
+                true,
+                null);
+        final CodecConfigDictionary codecConfigDictionary = new CodecConfigDictionary(journalDirectory.toPath());
+        final org.graylog2.plugin.configuration.Configuration codecConfig =
+                new org.graylog2.plugin.configuration.Configuration(ImmutableMap.of("port", 5555));
+
+        // the first messages fill the first segment, the others end up in the active segment
+        final List<RawMessage> rawMessages = Lists.newArrayList();
+        for (int i = 0; i < 8; i++) {
+            final RawMessage rawMessage = new RawMessage(randomAlphanumeric(1500 + i).getBytes(UTF_8));
+            rawMessage.setCodecName("raw");
+            rawMessage.setCodecConfig(codecConfig);
+            rawMessages.add(rawMessage);
+            journal.write(rawMessage.getId().toString().getBytes(UTF_8), rawMessage.encode(codecConfigDictionary));
+        }
+
+        final List<Journal.JournalReadEntry> entries = Lists.newArrayList();
+        for (int i = 0; i < 10 && entries.size() < 4; i++) {
+            entries.addAll(journal.read(4));
+        }
+        // the active segment grows while it is being read
+        final RawMessage late = new RawMessage("late".getBytes(UTF_8));
+        late.setCodecName("raw");
+        late.setCodecConfig(codecConfig);
+        rawMessages.add(late);
+        journal.write(late.getId().toString().getBytes(UTF_8), late.encode(codecConfigDictionary));
+        for (int i = 0; i < 10 && entries.size() < rawMessages.size(); i++) {
+            entries.addAll(journal.read(4));
+        }
+        assertThat(entries).extracting(Journal.JournalReadEntry::getOffset).containsExactly(0L, 1L, 2L, 3L, 4L, 5L, 6L, 7L, 8L);
+
+        // the completed segment is read through a mapping, the end of the active one from the heap
+        assertThat(entries.get(0).getPayloadBuffer().isDirect()).isTrue();
+        assertThat(entries.get(entries.size() - 1).getPayloadBuffer().isDirect()).isFalse();
+        for (int i = 0; i < entries.size(); i++) {
+            final Journal.JournalReadEntry entry = entries.get(i);
+            assertThat(entry.getPayload()).isEqualTo(rawMessages.get(i).encode(codecConfigDictionary));
+
+            final RawMessage decoded = RawMessage.decode(entry.getPayloadBuffer(), entry.getOffset(), codecConfigDictionary);
+            assertThat(decoded).isNotNull();
+            assertThat(decoded.getId()).isEqualTo(rawMessages.get(i).getId());
+            assertThat(decoded.getPayloadSize()).isEqualTo(rawMessages.get(i).getPayloadSize());
+            assertThat(decoded.getPayloadAsString(UTF_8)).isEqualTo(new String(rawMessages.get(i).getPayload(), UTF_8));
+        }
+    }
+
     @Test
     public void readAtLeastOne() throws Exception {
         final Journal journal = new LocalKafkaJournal(journalDirectory.toPath(),
@@ -424,6 +555,44 @@ public class LocalKafkaJournalTest {
         assertEquals(1, countSegmentsInDir(messageJournalDir));
     }
 
+    @Test
+    public void releaseMappingOfDeletedSegment() throws Exception {
+        final Size segmentSize = Size.kilobytes(1L);
+        final LocalKafkaJournal journal = new LocalKafkaJournal(journalDirectory.toPath(),
+                scheduler,
+                segmentSize,
+                Duration.standardHours(1),
+                Size.petabytes(1L),
+                Duration.standardDays(1),
+                1_000_000,
+                Duration.standardMinutes(1),
+                100,
+                new MetricRegistry(),
+                serverStatus,
+                LocalKafkaJournal.class.getName(),
+                true,
+                null);
+        final int bulkSize = createBulkChunks(journal, segmentSize, 3);
+        journal.flushDirtyLogs();
+
+        // the first segment is complete, so it is read through a mapping
+        final List<Journal.JournalReadEntry> entries = journal.read(1);
+        assertThat(entries).hasSize(1);
+        assertThat(entries.get(0).getPayloadBuffer().isDirect()).isTrue();
+        final MappedMessageSetReader mappedReader = journal.mappedReader();
+        assertThat(mappedReader).isNotNull();
+        final File mappedSegment = mappedReader.windowFile();
+        assertThat(mappedSegment).isNotNull();
+
+        journal.markJournalOffsetCommitted(bulkSize + 1);
+        assertThat(journal.cleanupLogs()).isEqualTo(1);
+
+        assertThat(mappedSegment).doesNotExist();
+        assertThat(mappedReader.windowFile()).isNull();
+        // the already read entry stays readable
+        assertThat(entries.get(0).getPayload()).isEqualTo("message 0".getBytes(UTF_8));
+    }
+
     @Test
     public void lockedJournalDir() throws Exception {
         // Grab the lock before starting the KafkaJournal.
@@ -0,0 +1,123 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog2.shared.journal;
+
+import com.google.common.collect.ImmutableList;
+import org.graylog.shaded.kafka09.log.FileMessageSet;
+import org.graylog.shaded.kafka09.message.ByteBufferMessageSet;
+import org.graylog.shaded.kafka09.message.Message;
+import org.graylog.shaded.kafka09.scala.collection.JavaConversions;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.apache.commons.lang.RandomStringUtils.randomAlphanumeric;
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class MappedMessageSetReaderTest {
+    private static final int WINDOW_SIZE = 1024;
+    private static final int MAX_READ_SIZE = 512;
+
+    @Rule
+    public final TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private FileMessageSet segment;
+    private MappedMessageSetReader reader;
+    private final List<Integer> positions = new ArrayList<>();
+    private final List<String> payloads = new ArrayList<>();
+
+    @Before
+    public void setUp() throws Exception {
+        segment = new FileMessageSet(temporaryFolder.newFile("00000000000000000000.log"));
+        reader = new MappedMessageSetReader(WINDOW_SIZE, MAX_READ_SIZE);
+    }
+
+    @After
+    public void tearDown() {
+        segment.close();
+    }
+
+    @Test
+    public void readsGrowingSegmentRepeatedlyWithoutRemapping() throws Exception {
+        append();
+        // the first window of the active segment hasn't been written completely
+        assertThat(reader.read(segment.read(0, MAX_READ_SIZE), true)).isNull();
+
+        int nextRead = 0;
+        int lastReadPosition = 0;
+        while (segment.sizeInBytes() < 4 * WINDOW_SIZE) {
+            append();
+
+            // read every message which is in a completely written window
+            while (nextRead < positions.size()) {
+                final int position = positions.get(nextRead);
+                final List<Journal.JournalReadEntry> entries = reader.read(segment.read(position, MAX_READ_SIZE), true);
+                if (entries == null) {
+                    final int windowEnd = position / WINDOW_SIZE * WINDOW_SIZE + WINDOW_SIZE + MAX_READ_SIZE;
+                    assertThat(segment.sizeInBytes()).isLessThan(windowEnd);
+                    break;
+                }
+                lastReadPosition = position;
+                assertThat(entries).isNotEmpty();
+                for (Journal.JournalReadEntry entry : entries) {
+                    assertThat(entry.getOffset()).isEqualTo(nextRead);
+                    assertThat(entry.getPayloadBuffer().isDirect()).isTrue();
+                    assertThat(new String(entry.getPayload(), UTF_8)).isEqualTo(payloads.get(nextRead));
+                    nextRead++;
+                }
+            }
+        }
+
+        assertThat(nextRead).isGreaterThan(0);
+        // every window has been mapped once, no matter how often the segment has grown
+        assertThat(reader.mappedWindows()).isEqualTo(lastReadPosition / WINDOW_SIZE + 1);
+    }
+
+    @Test
+    public void readsEndOfCompletedSegment() throws Exception {
+        for (int i = 0; i < 5; i++) {
+            append();
+        }
+
+        assertThat(reader.read(segment.read(positions.get(2), MAX_READ_SIZE), true)).isNull();
+
+        final List<Journal.JournalReadEntry> entries = reader.read(segment.read(positions.get(2), MAX_READ_SIZE), false);
+        assertThat(entries).extracting(Journal.JournalReadEntry::getOffset).containsExactly(2L, 3L, 4L);
+        assertThat(reader.mappedWindows()).isEqualTo(1);
+    }
+
+    private void append() {
+        final long offset = positions.size();
+        final String payload = randomAlphanumeric(100);
+        final Message message = new Message(payload.getBytes(UTF_8), ("id" + offset).getBytes(UTF_8));
+        final ByteBufferMessageSet messageSet = new ByteBufferMessageSet(JavaConversions.asScalaBuffer(ImmutableList.of(message)).toSeq());
+        final ByteBuffer buffer = messageSet.buffer();
+        buffer.putLong(buffer.position(), offset);
+
+        positions.add(segment.sizeInBytes());
+        payloads.add(payload);
+        segment.append(messageSet);
+        segment.flush();
+    }
+}
@@ -0,0 +1,97 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog2.shared.journal;
+
+import com.google.common.collect.ImmutableList;
+import org.graylog.shaded.kafka09.message.ByteBufferMessageSet;
+import org.graylog.shaded.kafka09.message.Message;
+import org.graylog.shaded.kafka09.message.MessageSet;
+import org.graylog.shaded.kafka09.scala.collection.JavaConversions;
+import org.graylog2.plugin.configuration.Configuration;
+import org.graylog2.plugin.journal.JournalMessages.JournalMessage;
+import org.graylog2.plugin.journal.RawMessage;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.apache.commons.lang.RandomStringUtils.randomAlphanumeric;
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class MessageSetEncoderTest {
+    @Test
+    public void encodesLikeKafkaMessageSet() {
+        final List<Journal.Entry> entries = ImmutableList.of(
+                new Journal.Entry("id-1".getBytes(UTF_8), "message".getBytes(UTF_8)),
+                new Journal.Entry("id-2".getBytes(UTF_8), new byte[0]),
+                new Journal.Entry("id-3".getBytes(UTF_8), randomAlphanumeric(4096).getBytes(UTF_8)));
+
+        assertThat(encode(entries)).isEqualTo(kafkaMessageSet(entries));
+    }
+
+    @Test
+    public void encodesJournalMessagesLikeKafkaMessageSet() throws Exception {
+        final List<Journal.Entry> entries = new ArrayList<>();
+        for (int size : new int[]{200, 4096}) {
+            final RawMessage rawMessage = new RawMessage(randomAlphanumeric(size).getBytes(UTF_8));
+            rawMessage.setCodecName("gelf");
+            rawMessage.setCodecConfig(Configuration.EMPTY_CONFIGURATION);
+            entries.add(new JournalMessageEntry(JournalMessage.parseFrom(rawMessage.encode())));
+        }
+
+        final List<Journal.Entry> legacyEntries = new ArrayList<>();
+        for (Journal.Entry entry : entries) {
+            legacyEntries.add(new Journal.Entry(entry.getIdBytes(), entry.getMessageBytes()));
+        }
+
+        assertThat(encode(entries)).isEqualTo(kafkaMessageSet(legacyEntries));
+    }
+
+    @Test
+    public void entrySizeIncludesLogOverhead() {
+        final Journal.Entry entry = new Journal.Entry("id".getBytes(UTF_8), "message".getBytes(UTF_8));
+
+        assertThat(MessageSetEncoder.entrySize(entry))
+                .isEqualTo(MessageSet.entrySize(new Message(entry.getMessageBytes(), entry.getIdBytes())));
+    }
+
+    private static byte[] encode(List<Journal.Entry> entries) {
+        final int size = entries.stream().mapToInt(MessageSetEncoder::entrySize).sum();
+        final ByteBuffer buffer = ByteBuffer.allocateDirect(size);
+        new MessageSetEncoder().encode(entries, buffer);
+        assertThat(buffer.remaining()).isZero();
+        buffer.flip();
+
+        final byte[] bytes = new byte[size];
+        buffer.get(bytes);
+        return bytes;
+    }
+
+    private static byte[] kafkaMessageSet(List<Journal.Entry> entries) {
+        final List<Message> messages = new ArrayList<>();
+        for (Journal.Entry entry : entries) {
+            messages.add(new Message(entry.getMessageBytes(), entry.getIdBytes()));
+        }
+        final ByteBuffer buffer = new ByteBufferMessageSet(JavaConversions.asScalaBuffer(messages).toSeq()).buffer();
+
+        final byte[] bytes = new byte[buffer.remaining()];
+        buffer.duplicate().get(bytes);
+        return bytes;
+    }
+}
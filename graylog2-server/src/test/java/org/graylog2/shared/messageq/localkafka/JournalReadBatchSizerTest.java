@@ -0,0 +1,91 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog2.shared.messageq.localkafka;
+
+import org.junit.jupiter.api.Test;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static org.assertj.core.api.Assertions.assertThat;
+
+class JournalReadBatchSizerTest {
+    private static final long RING_SIZE = 65536;
+
+    @Test
+    void fillsRemainingCapacityWithoutRateSample() {
+        final JournalReadBatchSizer sizer = new JournalReadBatchSizer(RING_SIZE, 500);
+
+        sizer.readCompleted(false);
+
+        assertThat(sizer.nextBatchSize(RING_SIZE, 0, 0)).isEqualTo(RING_SIZE);
+    }
+
+    @Test
+    void fillsRemainingCapacityWhileCatchingUp() {
+        final JournalReadBatchSizer sizer = new JournalReadBatchSizer(RING_SIZE, 500);
+        sizer.nextBatchSize(RING_SIZE, 0, 0);
+
+        sizer.readCompleted(true);
+
+        assertThat(sizer.hasBacklog()).isTrue();
+        assertThat(sizer.nextBatchSize(60_000, 1000, MILLISECONDS.toNanos(100))).isEqualTo(60_000);
+    }
+
+    @Test
+    void limitsBatchOnceBacklogIsRead() {
+        final JournalReadBatchSizer sizer = new JournalReadBatchSizer(RING_SIZE, 500);
+        sizer.nextBatchSize(RING_SIZE, 0, 0);
+        sizer.readCompleted(true);
+        assertThat(sizer.nextBatchSize(RING_SIZE, 1000, MILLISECONDS.toNanos(100))).isEqualTo(RING_SIZE);
+
+        sizer.readCompleted(false);
+
+        assertThat(sizer.hasBacklog()).isFalse();
+        assertThat(sizer.nextBatchSize(RING_SIZE, 2000, MILLISECONDS.toNanos(200))).isLessThan(RING_SIZE);
+    }
+
+    @Test
+    void limitsBatchToTargetLatencyWithoutBacklog() {
+        final JournalReadBatchSizer sizer = new JournalReadBatchSizer(RING_SIZE, 500);
+        sizer.nextBatchSize(RING_SIZE, 0, 0);
+        sizer.readCompleted(false);
+
+        // 10,000 messages per second, 5,000 within the target latency and 1,000 already waiting in the ring buffer
+        assertThat(sizer.nextBatchSize(RING_SIZE - 1000, 1000, MILLISECONDS.toNanos(100))).isEqualTo(4000);
+        assertThat(sizer.getOutgoingRate()).isEqualTo(10_000.0d);
+    }
+
+    @Test
+    void neverRequestsLessThanMinimumOrMoreThanRemainingCapacity() {
+        final JournalReadBatchSizer sizer = new JournalReadBatchSizer(RING_SIZE, 500);
+        sizer.nextBatchSize(RING_SIZE, 0, 0);
+        sizer.readCompleted(false);
+
+        // the ring buffer already holds more messages than can be processed within the target latency
+        assertThat(sizer.nextBatchSize(RING_SIZE - 20_000, 1000, MILLISECONDS.toNanos(100)))
+                .isEqualTo(JournalReadBatchSizer.MIN_BATCH_SIZE);
+        assertThat(sizer.nextBatchSize(50, 2000, MILLISECONDS.toNanos(200))).isEqualTo(50);
+    }
+
+    @Test
+    void disabledTargetLatencyAlwaysFillsRemainingCapacity() {
+        final JournalReadBatchSizer sizer = new JournalReadBatchSizer(RING_SIZE, 0);
+        sizer.nextBatchSize(RING_SIZE, 0, 0);
+        sizer.readCompleted(false);
+
+        assertThat(sizer.nextBatchSize(RING_SIZE - 1000, 1000, MILLISECONDS.toNanos(100))).isEqualTo(RING_SIZE - 1000);
+    }
+}
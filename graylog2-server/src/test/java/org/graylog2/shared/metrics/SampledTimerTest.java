@@ -0,0 +1,67 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog2.shared.metrics;
+
+import com.codahale.metrics.Timer;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class SampledTimerTest {
+    @Test
+    public void countsAllCallsButRecordsOnlySamples() {
+        final SampledTimer timer = new SampledTimer(4);
+
+        int sampled = 0;
+        for (int i = 0; i < 1000; i++) {
+            if (timer.sample()) {
+                timer.record(TimeUnit.MILLISECONDS.toNanos(1));
+                sampled++;
+            }
+        }
+        timer.count();
+
+        assertThat(timer.getCount()).isEqualTo(1001);
+        assertThat(sampled).isBetween(1, 999);
+        assertThat(timer.getSnapshot().size()).isEqualTo(sampled);
+        assertThat(timer.getSnapshot().getMax()).isEqualTo(TimeUnit.MILLISECONDS.toNanos(1));
+    }
+
+    @Test
+    public void intervalOfOneSamplesEveryCall() {
+        final SampledTimer timer = new SampledTimer(1);
+
+        for (int i = 0; i < 100; i++) {
+            assertThat(timer.sample()).isTrue();
+        }
+        assertThat(timer.getCount()).isEqualTo(100);
+    }
+
+    @Test
+    public void contextsAreCountedAndRecorded() {
+        final SampledTimer timer = new SampledTimer(16);
+
+        try (Timer.Context ignored = timer.time()) {
+            assertThat(timer.getCount()).isZero();
+        }
+
+        assertThat(timer.getCount()).isEqualTo(1);
+        assertThat(timer.getSnapshot().size()).isEqualTo(1);
+    }
+}
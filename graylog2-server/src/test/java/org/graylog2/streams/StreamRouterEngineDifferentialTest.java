@@ -0,0 +1,207 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog2.streams;
+
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import org.bson.types.ObjectId;
+import org.graylog2.plugin.Message;
+import org.graylog2.plugin.streams.Stream;
+import org.graylog2.plugin.streams.StreamRule;
+import org.graylog2.plugin.streams.StreamRuleType;
+import org.graylog2.streams.matchers.StreamRuleMock;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Compares the results of the {@link StreamRouterEngine} with a straightforward evaluation of every rule of every
+ * stream on randomly generated streams and messages.
+ */
+public class StreamRouterEngineDifferentialTest {
+    private static final ImmutableList<String> FIELDS = ImmutableList.of("f0", "f1", "f2", "f.3");
+    private static final ImmutableList<Object> FIELD_VALUES = ImmutableList.of("a", "b", " a ", "abc", "ABC", "xyz", "aa", "", " ",
+            "10", "2.5", 10, 2.5d, -1L);
+    private static final ImmutableList<String> EXACT_VALUES = ImmutableList.of("a", "b", "abc", "10", "2.5", "");
+    private static final ImmutableList<String> CONTAINS_VALUES = ImmutableList.of("a", "b", "bc", "1", " ");
+    private static final ImmutableList<String> NUMBER_VALUES = ImmutableList.of("5", "1.5", "-2", "abc");
+    // Combinable, not combinable (back references, named groups, quoting) and invalid patterns
+    private static final ImmutableList<String> REGEX_VALUES = ImmutableList.of("^a", "b$", "\\d+", "(?i)abc", "x.z", "^$",
+            "(a)\\1", "(?<g>a)", "(?<g>b)", "\\Qa", "(?x)a # comment", "[");
+    private static final ImmutableList<String> INPUT_VALUES = ImmutableList.of("input1", "INPUT2");
+
+    private final Random random = new Random(1396L);
+    private StreamFaultManager streamFaultManager;
+    private Stream defaultStream;
+
+    @Before
+    public void setUp() {
+        streamFaultManager = mock(StreamFaultManager.class);
+        when(streamFaultManager.getStreamProcessingTimeout()).thenReturn(2000L);
+        defaultStream = mock(Stream.class);
+        when(defaultStream.getId()).thenReturn(Stream.DEFAULT_STREAM_ID);
+    }
+
+    @Test
+    public void matchesLikeRuleByRuleEvaluation() {
+        for (int round = 0; round < 40; round++) {
+            final List<Stream> streams = randomStreams(1 + random.nextInt(40));
+            final StreamRouterEngine engine = new StreamRouterEngine(streams, streamFaultManager,
+                    new StreamMetrics(new MetricRegistry()), () -> defaultStream);
+
+            for (int i = 0; i < 100; i++) {
+                final Message message = randomMessage();
+
+                final List<Stream> matched = engine.match(message);
+
+                assertThat(matched).doesNotHaveDuplicates();
+                assertThat(streamIds(matched))
+                        .as("round %d, message %s", round, message.getFields())
+                        .isEqualTo(streamIds(expectedMatches(streams, message)));
+            }
+        }
+    }
+
+    private static List<Stream> expectedMatches(List<Stream> streams, Message message) {
+        final List<Stream> result = new ArrayList<>();
+        for (Stream stream : streams) {
+            int matched = 0;
+            int evaluated = 0;
+            for (StreamRule rule : stream.getStreamRules()) {
+                evaluated++;
+                if (matches(rule, message)) {
+                    matched++;
+                }
+            }
+            final boolean streamMatches = stream.getMatchingType() == Stream.MatchingType.AND
+                    ? evaluated > 0 && matched == evaluated
+                    : matched > 0;
+            if (streamMatches) {
+                result.add(stream);
+            }
+        }
+        return result;
+    }
+
+    private static boolean matches(StreamRule rule, Message message) {
+        try {
+            return StreamRuleMatcherFactory.build(rule.getType()).match(message, rule);
+        } catch (Exception e) {
+            // Errors never match, the engine only counts them
+            return false;
+        }
+    }
+
+    private static Set<String> streamIds(List<Stream> streams) {
+        return streams.stream().map(Stream::getId).collect(Collectors.toSet());
+    }
+
+    private List<Stream> randomStreams(int count) {
+        final List<StreamRule> rulePool = new ArrayList<>();
+        final List<Stream> streams = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            final StreamMock stream = new StreamMock(ImmutableMap.of(
+                    "_id", new ObjectId(),
+                    "title", "stream-" + i,
+                    "matching_type", random.nextBoolean() ? Stream.MatchingType.AND : Stream.MatchingType.OR));
+
+            final int ruleCount = random.nextInt(5);
+            final List<StreamRule> rules = new ArrayList<>(ruleCount);
+            for (int j = 0; j < ruleCount; j++) {
+                // Reuse the definition of other rules to get identical rules in different streams
+                final StreamRule rule = !rulePool.isEmpty() && random.nextInt(3) == 0
+                        ? copyOf(pick(rulePool), stream.getId())
+                        : randomRule(stream.getId());
+                rulePool.add(rule);
+                rules.add(rule);
+            }
+            stream.setStreamRules(rules);
+            streams.add(stream);
+        }
+        return streams;
+    }
+
+    private StreamRule randomRule(String streamId) {
+        final StreamRuleType type = pick(ImmutableList.copyOf(StreamRuleType.values()));
+        final String value;
+        switch (type) {
+            case EXACT:
+                value = pick(EXACT_VALUES);
+                break;
+            case CONTAINS:
+                value = pick(CONTAINS_VALUES);
+                break;
+            case GREATER:
+            case SMALLER:
+                value = pick(NUMBER_VALUES);
+                break;
+            case REGEX:
+                value = pick(REGEX_VALUES);
+                break;
+            case MATCH_INPUT:
+                value = pick(INPUT_VALUES);
+                break;
+            default:
+                value = null;
+        }
+        return rule(streamId, type, pick(FIELDS), value, random.nextInt(4) == 0);
+    }
+
+    private static StreamRule copyOf(StreamRule rule, String streamId) {
+        return rule(streamId, rule.getType(), rule.getField(), rule.getValue(), rule.getInverted());
+    }
+
+    private static StreamRule rule(String streamId, StreamRuleType type, String field, String value, boolean inverted) {
+        final StreamRuleMock rule = new StreamRuleMock(ImmutableMap.of(
+                "_id", new ObjectId(),
+                "type", type.toInteger(),
+                "field", field,
+                "stream_id", streamId,
+                "inverted", inverted));
+        rule.setValue(value);
+        return rule;
+    }
+
+    private Message randomMessage() {
+        final Message message = new Message("test message", "localhost", new DateTime(DateTimeZone.UTC));
+        for (String field : FIELDS) {
+            if (random.nextInt(3) > 0) {
+                message.addField(field, pick(FIELD_VALUES));
+            }
+        }
+        if (random.nextBoolean()) {
+            message.addField(Message.FIELD_GL2_SOURCE_INPUT, random.nextBoolean() ? "input1" : "input2");
+        }
+        return message;
+    }
+
+    private <T> T pick(List<T> values) {
+        return values.get(random.nextInt(values.size()));
+    }
+}
@@ -17,6 +17,7 @@
 package org.graylog2.streams;
 
 import com.codahale.metrics.MetricRegistry;
+import com.google.common.base.Strings;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Lists;
 import org.bson.types.ObjectId;
@@ -24,7 +25,6 @@ import org.graylog2.plugin.Message;
 import org.graylog2.plugin.streams.Stream;
 import org.graylog2.plugin.streams.StreamRule;
 import org.graylog2.plugin.streams.StreamRuleType;
-import org.graylog2.shared.SuppressForbidden;
 import org.graylog2.streams.matchers.StreamRuleMock;
 import org.joda.time.DateTime;
 import org.joda.time.DateTimeZone;
@@ -39,7 +39,6 @@ import javax.inject.Provider;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.Executors;
 
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.junit.Assert.assertEquals;
@@ -48,6 +47,7 @@ import static org.junit.Assert.assertNotEquals;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 public class StreamRouterEngineTest {
@@ -69,9 +69,8 @@ public class StreamRouterEngineTest {
         when(streamFaultManager.getStreamProcessingTimeout()).thenReturn(250L);
     }
 
-    @SuppressForbidden("Executors#newSingleThreadExecutor() is okay for tests")
     private StreamRouterEngine newEngine(List<Stream> streams) {
-        return new StreamRouterEngine(streams, Executors.newSingleThreadExecutor(), streamFaultManager, streamMetrics, defaultStreamProvider);
+        return new StreamRouterEngine(streams, streamFaultManager, streamMetrics, defaultStreamProvider);
     }
 
     @Test
@@ -720,6 +719,28 @@ public class StreamRouterEngineTest {
         assertThat(result).doesNotContain(stream);
     }
 
+    @Test
+    public void testRegexTimeoutRegistersFault() {
+        when(streamFaultManager.getStreamProcessingTimeout()).thenReturn(10L);
+        final StreamMock stream = getStreamMock("test", Stream.MatchingType.OR);
+        final StreamRuleMock rule = new StreamRuleMock(ImmutableMap.of(
+                "_id", new ObjectId(),
+                "field", "testfield",
+                "value", "^(a+)+$",
+                "type", StreamRuleType.REGEX.toInteger(),
+                "stream_id", stream.getId()
+        ));
+        stream.setStreamRules(Lists.newArrayList(rule));
+
+        final StreamRouterEngine engine = newEngine(Lists.newArrayList(stream));
+        final Message message = getMessage();
+        // Catastrophic backtracking, this wouldn't finish in any reasonable time
+        message.addField("testfield", Strings.repeat("a", 64) + "b");
+
+        assertThat(engine.match(message)).isEmpty();
+        verify(streamFaultManager).registerFailure(stream);
+    }
+
     @Test
     public void issue1396() throws Exception {
         final StreamMock stream = getStreamMock("GitHub issue #1396");
@@ -0,0 +1,80 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog2.system.processing;
+
+import org.joda.time.DateTime;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.joda.time.DateTimeZone.UTC;
+
+public class ReceiveTimeWatermarkTest {
+    @Test
+    public void startsAtEpoch() {
+        assertThat(new ReceiveTimeWatermark().get()).isEqualTo(new DateTime(0L, UTC));
+    }
+
+    @Test
+    public void onlyMovesForward() {
+        final ReceiveTimeWatermark watermark = new ReceiveTimeWatermark();
+
+        watermark.update(new DateTime(2019, 1, 1, 0, 0, UTC));
+        watermark.update(new DateTime(2018, 1, 1, 0, 0, UTC));
+        watermark.update(null);
+
+        assertThat(watermark.get()).isEqualTo(new DateTime(2019, 1, 1, 0, 0, UTC));
+    }
+
+    @Test
+    public void keepsLatestTimestampOfConcurrentUpdates() throws Exception {
+        final ReceiveTimeWatermark watermark = new ReceiveTimeWatermark();
+        final int threads = 32;
+        final int updatesPerThread = 10_000;
+        final long base = new DateTime(2019, 1, 1, 0, 0, UTC).getMillis();
+
+        final ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            final CountDownLatch start = new CountDownLatch(1);
+            final List<Future<?>> futures = new ArrayList<>(threads);
+            for (int t = 0; t < threads; t++) {
+                final int thread = t;
+                futures.add(executor.submit(() -> {
+                    start.await();
+                    for (int i = 0; i < updatesPerThread; i++) {
+                        watermark.update(new DateTime(base + (long) i * threads + thread, UTC));
+                    }
+                    return null;
+                }));
+            }
+            start.countDown();
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        assertThat(watermark.get().getMillis()).isEqualTo(base + (long) updatesPerThread * threads - 1);
+    }
+}
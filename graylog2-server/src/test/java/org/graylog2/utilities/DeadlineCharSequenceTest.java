@@ -0,0 +1,56 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog2.utilities;
+
+import com.google.common.base.Strings;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class DeadlineCharSequenceTest {
+    @Test
+    public void matchesWithinDeadline() {
+        final CharSequence input = DeadlineCharSequence.withTimeout("foobar", 1, TimeUnit.SECONDS);
+
+        assertThat(Pattern.compile("o+b").matcher(input).find()).isTrue();
+        assertThat(input.subSequence(3, 6).toString()).isEqualTo("bar");
+    }
+
+    @Test
+    public void failsAfterDeadline() {
+        final CharSequence input = DeadlineCharSequence.withTimeout(Strings.repeat("a", 64) + "b", 10, TimeUnit.MILLISECONDS);
+
+        assertThatThrownBy(() -> Pattern.compile("^(a+)+$").matcher(input).find())
+                .isInstanceOf(DeadlineCharSequence.DeadlineExceededException.class);
+    }
+
+    @Test
+    public void subSequenceKeepsDeadline() {
+        final CharSequence input = new DeadlineCharSequence(Strings.repeat("a", 4096), System.nanoTime() - 1);
+
+        assertThatThrownBy(() -> {
+            final CharSequence subSequence = input.subSequence(0, 2048);
+            for (int i = 0; i < subSequence.length(); i++) {
+                subSequence.charAt(i);
+            }
+        }).isInstanceOf(DeadlineCharSequence.DeadlineExceededException.class);
+    }
+}